@@ -53,4 +53,12 @@ public abstract class TaskDataSource implements Codable, DataChannelSource, Clon
     public boolean isEnabled() {
         return enabled;
     }
+
+    /**
+     * Returns true if {@link #next()} may be called by several threads at once, so that
+     * bundles can be read from this source in parallel. Default is false.
+     */
+    public boolean isConcurrent() {
+        return false;
+    }
 }
@@ -36,6 +36,16 @@ public class FieldValueList implements BundleFormatted {
         this.bundleFormat = bundleFormat;
     }
 
+    /**
+     * Copies the committed values of {@code other} so they can be extended independently,
+     * for instance by another thread.
+     */
+    public FieldValueList(FieldValueList other, BundleFormat bundleFormat) {
+        this.bundleFormat = bundleFormat;
+        list.addAll(other.list.subList(0, other.lastCommit));
+        lastCommit = list.size();
+    }
+
     /**
      * pushes must be committed
      */
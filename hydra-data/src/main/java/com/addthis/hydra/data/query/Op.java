@@ -55,6 +55,7 @@ import com.addthis.hydra.data.query.op.OpSleep;
 import com.addthis.hydra.data.query.op.OpString;
 import com.addthis.hydra.data.query.op.OpTitle;
 import com.addthis.hydra.data.query.op.OpTranspose;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
 
 import io.netty.channel.ChannelProgressivePromise;
 
@@ -180,6 +181,11 @@ enum Op {
             return new OpGather(args, processor.memTip(), processor.rowTip(),
                                 processor.tempDir().toString(), opPromise);
         }
+
+        @Override
+        boolean ignoresInputOrder(String args) {
+            return MergeConfig.isOrderIndependent(args);
+        }
     },
     HISTO {
         @Override
@@ -428,6 +434,11 @@ enum Op {
                       ChannelProgressivePromise opPromise) {
             return GATHER.build(processor, args, opPromise);
         }
+
+        @Override
+        boolean ignoresInputOrder(String args) {
+            return MergeConfig.isOrderIndependent(args);
+        }
     },
     TITLE {
         @Override
@@ -457,4 +468,9 @@ enum Op {
     abstract QueryOp build(QueryOpProcessor processor,
                            String args,
                            ChannelProgressivePromise opPromise);
+
+    /** True if the output of this op with these arguments does not depend on the order of its input rows. */
+    boolean ignoresInputOrder(String args) {
+        return false;
+    }
 }
@@ -18,6 +18,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.addthis.basis.kv.KVPair;
 import com.addthis.basis.util.CUID;
 import com.addthis.basis.util.LessStrings;
 
@@ -182,6 +183,36 @@ public class Query implements Codable {
         return ops;
     }
 
+    public Query setOps(String... ops) {
+        this.ops = ops;
+        return this;
+    }
+
+    /**
+     * True if the first op applied to the rows of this query discards their order (e.g. gather).
+     * Ops run starting from the last element of the ops array, see {@link QueryOpProcessor#generateOps}.
+     */
+    public boolean ignoresInputOrder() {
+        if (ops == null) {
+            return false;
+        }
+        for (int i = ops.length - 1; i >= 0; i--) {
+            if (ops[i] == null) {
+                continue;
+            }
+            for (String s : LessStrings.split(ops[i], ";")) {
+                KVPair op = KVPair.parsePair(s);
+                String opName = op.getKey().toUpperCase();
+                try {
+                    return Op.valueOf(opName).ignoresInputOrder(op.getValue());
+                } catch (IllegalArgumentException ex) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * @return first a query suitable for the next query worker in the stack
      */
@@ -196,6 +196,17 @@ public class QueryElement implements SuperCodable {
         return hasdata;
     }
 
+    /**
+     * Returns the {@code [from, to)} bounds of the children matched by this element when they can be
+     * walked as independent key ranges, or null if the element must be iterated as a whole.
+     */
+    public String[] keyRange() {
+        if ((node == null) || flatten() || (skip() > 0) || (limit() > 0)) {
+            return null;
+        }
+        return node.keyRange();
+    }
+
     public Iterator<DataTreeNode> matchNodes(DataTree tree, LinkedList<DataTreeNode> stack) {
         return node != null ? node.getNodes(stack) : null;
     }
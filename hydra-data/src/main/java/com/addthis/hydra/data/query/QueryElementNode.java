@@ -290,6 +290,23 @@ public class QueryElementNode implements Codable {
         return not != null && not;
     }
 
+    /**
+     * Returns the {@code [from, to)} bounds of the children selected by this node when they form
+     * a single contiguous key range, or null otherwise. A null bound is open ended.
+     */
+    public String[] keyRange() {
+        if (up() || (path != null) || (data != null) || regex() || (defaultValue != null)) {
+            return null;
+        }
+        if (match == null) {
+            return new String[2];
+        }
+        if (rangeStrict() && (match.length <= 2)) {
+            return new String[]{match.length > 0 ? match[0] : null, match.length > 1 ? match[1] : null};
+        }
+        return null;
+    }
+
     private DataTreeNode followPath(DataTreeNode from, String[] path) {
         DataTreeNode node = from;
         for (String name : path) {
@@ -34,8 +34,11 @@ import com.addthis.bundle.channel.DataChannelOutput;
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.table.DataTable;
 import com.addthis.bundle.table.DataTableFactory;
+import com.addthis.hydra.data.query.op.OpSortLimit;
 import com.addthis.hydra.data.util.BundleUtils;
 
+import com.google.common.base.Strings;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +70,10 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
     private static final long   OP_MAXCELLS         = Parameter.longValue("query.max.cells", 0);
     private static final String TMP_SORT_DIR_STRING =
             Parameter.value("query.tmpdir", "query.tmpdir");
+    /** replace adjacent sort and limit ops with a bounded {@link OpSortLimit} */
+    private static final boolean FUSE_SORT_LIMIT = Parameter.boolValue("query.fuseSortLimit", true);
+    /** largest offset + count kept in the heap of an {@link OpSortLimit}. Larger limits use the disk sort */
+    private static final long FUSE_SORT_LIMIT_MAX_ROWS = Parameter.longValue("query.fuseSortLimit.maxRows", 10_000);
 
     private final long memTip;
     private final long rowTip;
@@ -166,15 +173,23 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
                 continue;
             }
 
-            for (String s : LessStrings.split(ops, ";")) {
-                KVPair kv = KVPair.parsePair(s);
+            String[] opStrings = LessStrings.split(ops, ";");
+            for (int j = 0; j < opStrings.length; j++) {
+                KVPair kv = KVPair.parsePair(opStrings[j]);
                 String args = kv.getValue();
                 String opName = kv.getKey().toUpperCase();
                 Op op = Op.valueOf(opName);
                 if (op == null) {
                     throw new RuntimeException("unknown op : " + kv);
                 }
-                QueryOp newOp = op.build(processor, args, promise);
+                QueryOp newOp;
+                KVPair limit = FUSE_SORT_LIMIT ? sortLimit(op, opStrings, j) : null;
+                if (limit != null) {
+                    newOp = new OpSortLimit(args, limit.getValue(), promise);
+                    j++;
+                } else {
+                    newOp = op.build(processor, args, promise);
+                }
                 if (lastOp == null) {
                     firstOp = newOp;
                 } else {
@@ -187,6 +202,30 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
         return firstOp;
     }
 
+    /** Returns the limit that directly follows a sort at {@code index}, or null if there is none. */
+    @Nullable private static KVPair sortLimit(Op op, String[] opStrings, int index) {
+        if (((op != Op.SORT) && (op != Op.DSORT)) || ((index + 1) >= opStrings.length)) {
+            return null;
+        }
+        KVPair next = KVPair.parsePair(opStrings[index + 1]);
+        if (!"limit".equalsIgnoreCase(next.getKey()) || Strings.isNullOrEmpty(next.getValue())) {
+            return null;
+        }
+        // the heap does not spill, so only small limits are fused
+        long rows = 0;
+        try {
+            for (String v : LessStrings.splitArray(next.getValue(), ":")) {
+                rows += Math.max(Long.parseLong(v), 0);
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        if (rows > FUSE_SORT_LIMIT_MAX_ROWS) {
+            return null;
+        }
+        return next;
+    }
+
     private void parseOps(String... opslist) {
         QueryOp newFirstOp = generateOps(this, opPromise, output, opslist);
         // follow the query operations to the lastOp
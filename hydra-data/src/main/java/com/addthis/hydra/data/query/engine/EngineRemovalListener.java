@@ -55,6 +55,7 @@ class EngineRemovalListener implements RemovalListener<String, QueryEngine> {
             } catch (Throwable t) {
                 log.error("Generic Error while closing Engine", t);
             }
+            engineCache.engineRemoved(qe);
             if (currentEngine == null) {
                 directoriesEvicted.mark();
             }
@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.data.query.engine;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 
 import java.util.Arrays;
@@ -20,14 +22,25 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.addthis.basis.util.ClosableIterator;
+import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
 import com.addthis.bundle.core.list.ListBundleFormat;
 import com.addthis.hydra.data.query.FieldValueList;
 import com.addthis.hydra.data.query.Query;
@@ -36,19 +49,44 @@ import com.addthis.hydra.data.query.QueryException;
 import com.addthis.hydra.data.tree.DataTree;
 import com.addthis.hydra.data.tree.DataTreeNode;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.channel.ChannelProgressivePromise;
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 
 /**
  * wraps a Tree and provides the real work behind the query engine. keeps track
  * of active queries so that they can be canceled.
+ * <p/>
+ * A query may set the {@code parallelDepth} parameter to the index of a path element. The children
+ * matched by that element are then split at storage page boundaries into key ranges that are walked on a
+ * shared bounded thread pool.
+ * Rows are still sent to the output from the searching thread, in key order unless the first op
+ * of the query ignores the order of its input.
  */
 public class QueryEngine {
 
     private static final Logger log = LoggerFactory.getLogger(QueryEngine.class);
 
+    static final int PARALLEL_THREADS =
+            Parameter.intValue("queryEngine.parallelThreads", Runtime.getRuntime().availableProcessors());
+    static final int PARALLEL_BRANCHES = Parameter.intValue("queryEngine.parallelBranches", 4 * PARALLEL_THREADS);
+    static final int PARALLEL_MIN_NODES = Parameter.intValue("queryEngine.parallelMinNodes", 1000);
+    static final int PARALLEL_BATCH = Parameter.intValue("queryEngine.parallelBatch", 256);
+    static final int PARALLEL_BRANCH_BATCHES = Parameter.intValue("queryEngine.parallelBranchBatches", 4);
+
+    /**
+     * Branches block while their output is full, so they get plain threads rather than fork-join workers.
+     * Idle threads exit after a minute.
+     */
+    private static final ThreadPoolExecutor branchPool = createBranchPool();
+
     protected final DataTree tree;
     private final AtomicInteger used;
     private final AtomicBoolean isOpen;
@@ -188,9 +226,19 @@ public class QueryEngine {
      */
     public void search(Query query, DataChannelOutput result,
             ChannelProgressivePromise queryPromise) throws QueryException {
+        int parallelDepth = -1;
+        String depthParameter = query.getParameter("parallelDepth");
+        if (depthParameter != null) {
+            try {
+                parallelDepth = Integer.parseInt(depthParameter);
+            } catch (NumberFormatException ex) {
+                throw new QueryException("invalid parallelDepth: " + depthParameter);
+            }
+        }
+        boolean ordered = !query.ignoresInputOrder();
         for (QueryElement[] path : query.getQueryPaths()) {
             if (!(queryPromise.isDone())) {
-                search(path, result, queryPromise);
+                search(path, result, queryPromise, parallelDepth, ordered);
             }
         }
     }
@@ -228,6 +276,28 @@ public class QueryEngine {
      */
     public void search(QueryElement[] path, DataChannelOutput result,
             ChannelProgressivePromise queryPromise) throws QueryException {
+        search(path, result, queryPromise, -1, true);
+    }
+
+    /**
+     * Performs a query search as {@link #search(QueryElement[], DataChannelOutput, ChannelProgressivePromise)},
+     * walking the children of the element at {@code parallelDepth} in parallel if that element allows it.
+     *
+     * @param parallelDepth index of the path element to split into key ranges, or -1 to walk serially
+     * @param ordered       if true then rows are sent in the order of a serial walk
+     */
+    public void search(QueryElement[] path, DataChannelOutput result,
+            ChannelProgressivePromise queryPromise, int parallelDepth, boolean ordered) throws QueryException {
+        SplitPoint split = null;
+        if ((parallelDepth >= 0) && (parallelDepth < path.length)) {
+            String[] range = path[parallelDepth].keyRange();
+            if (range != null) {
+                split = new SplitPoint(parallelDepth, range[0], range[1], ordered);
+            } else {
+                log.debug("element {} of {} cannot be split, searching serially",
+                          parallelDepth, Arrays.toString(path));
+            }
+        }
         init();
         Thread thread = Thread.currentThread();
         synchronized (active) {
@@ -238,7 +308,7 @@ public class QueryEngine {
         try {
             LinkedList<DataTreeNode> stack = new LinkedList<>();
             stack.push(tree);
-            tableSearch(stack, new FieldValueList(new ListBundleFormat()), path, 0, result, 0, queryPromise);
+            tableSearch(stack, new FieldValueList(new ListBundleFormat()), path, 0, result, 0, queryPromise, split);
         } catch (QueryException | CancellationException ex) {
             log.debug("", ex);
         } catch (RuntimeException ex)  {
@@ -275,9 +345,9 @@ public class QueryEngine {
      */
     private void tableSearch(LinkedList<DataTreeNode> stack, DataTreeNode root, FieldValueList prefix, QueryElement[] path,
             int pathIndex, DataChannelOutput result, int collect,
-            ChannelProgressivePromise queryPromise) throws QueryException {
+            ChannelProgressivePromise queryPromise, SplitPoint split) throws QueryException {
         stack.push(root);
-        tableSearch(stack, prefix, path, pathIndex, result, collect, queryPromise);
+        tableSearch(stack, prefix, path, pathIndex, result, collect, queryPromise, split);
         stack.pop();
     }
 
@@ -304,7 +374,7 @@ public class QueryEngine {
      */
     private void tableSearch(LinkedList<DataTreeNode> stack, FieldValueList prefix, QueryElement[] path,
             int pathIndex, DataChannelOutput sink, int collect,
-            ChannelProgressivePromise queryPromise) throws QueryException {
+            ChannelProgressivePromise queryPromise, SplitPoint split) throws QueryException {
         if (queryPromise.isDone()) {
             log.debug("Query promise completed during processing");
             if (queryPromise.isCancelled()) {
@@ -333,10 +403,31 @@ public class QueryEngine {
         }
         QueryElement next = path[pathIndex];
 
+        if ((split != null) && (split.depth == pathIndex) && (root != null)
+            && (root.getNodeCount() >= PARALLEL_MIN_NODES)) {
+            List<String> bounds = splitKeys(root, split);
+            if (bounds.size() > 2) {
+                parallelSearch(stack, prefix, path, pathIndex, sink, collect, queryPromise, split, bounds);
+                return;
+            }
+        }
+
         Iterator<DataTreeNode> iter = root != null ? next.matchNodes(tree, stack) : next.emptyok() ? new ArrayList<DataTreeNode>().iterator() : null;
         if (iter == null) {
             return;
         }
+        searchNodes(iter, stack, prefix, path, pathIndex, sink, collect, queryPromise, split);
+    }
+
+    /**
+     * Walks the nodes of {@code iter}, which are the children of the top of {@code stack} matched by
+     * {@code path[pathIndex]}, and closes the iterator when done.
+     */
+    private void searchNodes(Iterator<DataTreeNode> iter, LinkedList<DataTreeNode> stack, FieldValueList prefix,
+            QueryElement[] path, int pathIndex, DataChannelOutput sink, int collect,
+            ChannelProgressivePromise queryPromise, SplitPoint split) throws QueryException {
+        DataTreeNode root = stack != null ? stack.peek() : null;
+        QueryElement next = path[pathIndex];
         try {
             int skip = next.skip();
             int limit = next.limit();
@@ -376,7 +467,7 @@ public class QueryEngine {
                     limit--;
                 }
                 if (!queryPromise.isDone()) {
-                    tableSearch(null, prefix, path, pathIndex + 1, sink, collect + count, queryPromise);
+                    tableSearch(null, prefix, path, pathIndex + 1, sink, collect + count, queryPromise, split);
                 }
                 prefix.pop(count);
                 return;
@@ -414,7 +505,7 @@ public class QueryEngine {
                 int count = next.update(prefix, tn);
                 if (count >= 0) {
                     if (!queryPromise.isDone()) {
-                        tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise);
+                        tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise, split);
                     }
                     prefix.pop(count);
                     limit--;
@@ -432,4 +523,270 @@ public class QueryEngine {
         }
     }
 
+    /**
+     * Walks the children of the top of {@code stack} as independent key ranges on the branch pool. Each
+     * branch writes to a private {@link BranchOutput} and this thread forwards the buffered rows to
+     * {@code sink}, so the op chain is only ever called from the searching thread. A branch blocks once
+     * it has {@link #PARALLEL_BRANCH_BATCHES} batches waiting. When the output must keep key order and
+     * the next branch to emit has not started yet, this thread walks it itself straight into
+     * {@code sink}, so that blocked later branches can never hold up the branch being waited for.
+     * If the query is cancelled or a branch fails then the remaining branches are stopped through
+     * a shared promise.
+     */
+    private void parallelSearch(LinkedList<DataTreeNode> stack, FieldValueList prefix, QueryElement[] path,
+            int pathIndex, DataChannelOutput sink, int collect,
+            ChannelProgressivePromise queryPromise, SplitPoint split, List<String> bounds) throws QueryException {
+        int branches = bounds.size() - 1;
+        ChannelProgressivePromise branchPromise =
+                new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE);
+        GenericFutureListener<Future<? super Void>> stopBranches = future -> branchPromise.cancel(false);
+        queryPromise.addListener(stopBranches);
+        // counts the batches waiting in all branch outputs, only used when the order of rows does not matter
+        Semaphore available = split.ordered ? null : new Semaphore(0);
+        List<BranchOutput> outputs = new ArrayList<>(branches);
+        List<AtomicBoolean> claims = new ArrayList<>(branches);
+        try {
+            for (int i = 0; i < branches; i++) {
+                BranchOutput output = new BranchOutput(i, available, branchPromise);
+                AtomicBoolean claim = new AtomicBoolean();
+                outputs.add(output);
+                claims.add(claim);
+                String from = bounds.get(i);
+                String to = bounds.get(i + 1);
+                LinkedList<DataTreeNode> branchStack = new LinkedList<>(stack);
+                FieldValueList branchPrefix = new FieldValueList(prefix, output.format);
+                branchPool.execute(() -> {
+                    if (claim.compareAndSet(false, true)) {
+                        runBranch(from, to, branchStack, branchPrefix, path, pathIndex, output, collect,
+                                  branchPromise);
+                    }
+                });
+            }
+            int finished = 0;
+            int emitting = 0;
+            int scan = 0;
+            while (finished < branches) {
+                if (Thread.currentThread().isInterrupted()) {
+                    QueryException exception = new QueryException("query interrupted");
+                    log.warn("Query closed due to thread interruption:\n", exception);
+                    throw exception;
+                }
+                if (queryPromise.isDone()) {
+                    log.debug("Query promise completed during parallel processing. root={}", stack.peek());
+                    if (queryPromise.isCancelled()) {
+                        throw (CancellationException) queryPromise.cause();
+                    }
+                    throw new QueryException("Query closed during processing, root=" + stack.peek());
+                }
+                BranchBatch batch = null;
+                try {
+                    if (split.ordered) {
+                        if (claims.get(emitting).compareAndSet(false, true)) {
+                            LinkedList<DataTreeNode> branchStack = new LinkedList<>(stack);
+                            FieldValueList branchPrefix = new FieldValueList(prefix, prefix.getFormat());
+                            ClosableIterator<DataTreeNode> iter =
+                                    branchStack.peek().getIterator(bounds.get(emitting), bounds.get(emitting + 1));
+                            searchNodes(iter, branchStack, branchPrefix, path, pathIndex, sink, collect,
+                                        queryPromise, null);
+                            finished++;
+                            emitting++;
+                            continue;
+                        }
+                        batch = outputs.get(emitting).batches.poll(100, TimeUnit.MILLISECONDS);
+                    } else if (available.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                        // a permit is only released after its batch was queued, so one of the queues has it
+                        for (int k = 0; (k < branches) && (batch == null); k++) {
+                            int next = (scan + k) % branches;
+                            batch = outputs.get(next).batches.poll();
+                            if (batch != null) {
+                                scan = next + 1;
+                            }
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new QueryException("query interrupted");
+                }
+                if (batch == null) {
+                    continue;
+                }
+                if (batch.error != null) {
+                    if (batch.error instanceof QueryException) {
+                        throw (QueryException) batch.error;
+                    }
+                    throw new QueryException("parallel query branch failed", batch.error);
+                }
+                if (batch.last) {
+                    finished++;
+                    if (split.ordered) {
+                        emitting++;
+                    }
+                }
+                forwardRows(batch.rows, sink, queryPromise);
+            }
+        } finally {
+            branchPromise.cancel(false);
+            queryPromise.removeListener(stopBranches);
+        }
+    }
+
+    /**
+     * Returns the boundaries of the key ranges to walk under {@code root}: the lower bound of the split
+     * element, the first children of evenly spaced storage pages in between, and the upper bound of the
+     * split element. Branch i walks {@code [bounds[i], bounds[i + 1])}. Only page boundaries are read, so
+     * this does not walk the children. Fewer than two ranges means the node cannot be split.
+     */
+    private static List<String> splitKeys(DataTreeNode root, SplitPoint split) {
+        List<String> pageKeys = root.getChildPageKeys(split.from, split.to, PARALLEL_BRANCHES - 1);
+        List<String> bounds = new ArrayList<>(pageKeys.size() + 2);
+        bounds.add(split.from == null ? "" : split.from);
+        bounds.addAll(pageKeys);
+        bounds.add(split.to);
+        return bounds;
+    }
+
+    private static ThreadPoolExecutor createBranchPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                PARALLEL_THREADS, PARALLEL_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("queryBranch-%d").setDaemon(true).build());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private void runBranch(String from, String to, LinkedList<DataTreeNode> stack, FieldValueList prefix,
+            QueryElement[] path, int pathIndex, BranchOutput output, int collect,
+            ChannelProgressivePromise branchPromise) {
+        try {
+            if (!branchPromise.isDone()) {
+                ClosableIterator<DataTreeNode> iter = stack.peek().getIterator(from, to);
+                searchNodes(iter, stack, prefix, path, pathIndex, output, collect, branchPromise, null);
+            }
+        } catch (Throwable ex) {
+            if (!branchPromise.isDone()) {
+                output.sourceError(ex);
+                return;
+            }
+            log.debug("parallel query branch stopped", ex);
+        }
+        output.sendComplete();
+    }
+
+    /** Copies rows built by a branch into bundles of {@code sink} and sends them. */
+    private static void forwardRows(List<Bundle> rows, DataChannelOutput sink,
+            ChannelProgressivePromise queryPromise) {
+        for (Bundle row : rows) {
+            if (queryPromise.isDone()) {
+                return;
+            }
+            Bundle copy = sink.createBundle();
+            for (BundleField field : row) {
+                copy.setValue(copy.getFormat().getField(field.getName()), row.getValue(field));
+            }
+            sink.send(copy);
+        }
+    }
+
+    /** The path element a search splits into key ranges, and whether the output must keep key order. */
+    private static final class SplitPoint {
+
+        final int depth;
+        final String from;
+        final String to;
+        final boolean ordered;
+
+        SplitPoint(int depth, String from, String to, boolean ordered) {
+            this.depth = depth;
+            this.from = from;
+            this.to = to;
+            this.ordered = ordered;
+        }
+    }
+
+    /** A batch of rows from one branch. The last batch of a branch may carry the error that ended it. */
+    private static final class BranchBatch {
+
+        final int branch;
+        final List<Bundle> rows;
+        final boolean last;
+        final Throwable error;
+
+        BranchBatch(int branch, List<Bundle> rows, boolean last, Throwable error) {
+            this.branch = branch;
+            this.rows = rows;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Output of one branch of a parallel search. Rows use a private bundle format and are handed
+     * to the searching thread every {@link #PARALLEL_BATCH} rows, through a queue of at most
+     * {@link #PARALLEL_BRANCH_BATCHES} batches.
+     */
+    private static final class BranchOutput implements DataChannelOutput {
+
+        final ListBundleFormat format = new ListBundleFormat();
+        final BlockingQueue<BranchBatch> batches = new ArrayBlockingQueue<>(Math.max(1, PARALLEL_BRANCH_BATCHES));
+        private final int branch;
+        @Nullable private final Semaphore available;
+        private final ChannelProgressivePromise branchPromise;
+        private List<Bundle> rows = new ArrayList<>();
+
+        BranchOutput(int branch, @Nullable Semaphore available, ChannelProgressivePromise branchPromise) {
+            this.branch = branch;
+            this.available = available;
+            this.branchPromise = branchPromise;
+        }
+
+        /** Waits for room in the queue. Gives up, dropping the batch, once the branches are stopped. */
+        private boolean hand(BranchBatch batch) {
+            try {
+                while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    if (branchPromise.isDone()) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (available != null) {
+                available.release();
+            }
+            return true;
+        }
+
+        @Override
+        public void send(Bundle row) {
+            rows.add(row);
+            if (rows.size() >= PARALLEL_BATCH) {
+                if (!hand(new BranchBatch(branch, rows, false, null))) {
+                    throw new QueryException("parallel query branch stopped");
+                }
+                rows = new ArrayList<>();
+            }
+        }
+
+        @Override
+        public void send(List<Bundle> bundles) {
+            for (Bundle bundle : bundles) {
+                send(bundle);
+            }
+        }
+
+        @Override
+        public void sendComplete() {
+            hand(new BranchBatch(branch, rows, true, null));
+        }
+
+        @Override
+        public void sourceError(Throwable er) {
+            hand(new BranchBatch(branch, rows, true, er));
+        }
+
+        @Override
+        public Bundle createBundle() {
+            return new ListBundle(format);
+        }
+    }
 }
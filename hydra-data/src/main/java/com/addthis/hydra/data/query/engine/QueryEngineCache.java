@@ -13,9 +13,12 @@
  */
 package com.addthis.hydra.data.query.engine;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import com.addthis.basis.util.Parameter;
 
@@ -96,6 +99,11 @@ public class QueryEngineCache {
      */
     protected final LoadingCache<String, QueryEngine> loadingEngineCache;
 
+    /**
+     * Called with the directory of every engine that is replaced by a refresh or evicted.
+     */
+    private final List<Consumer<String>> removalListeners = new CopyOnWriteArrayList<>();
+
     private final long engineCacheSize;
     private final long refreshInterval;
     private final long failInterval;
@@ -199,6 +207,27 @@ public class QueryEngineCache {
         throw new RuntimeException("Can't lease engine");
     }
 
+    /**
+     * Registers a callback for the directory of every engine that is replaced by a refresh or evicted
+     * from the cache, eg. to drop state that was derived from that engine's data.
+     */
+    public void addRemovalListener(Consumer<String> listener) {
+        removalListeners.add(listener);
+    }
+
+    void engineRemoved(QueryEngine engine) {
+        if (engine instanceof QueryEngineDirectory) {
+            String dir = ((QueryEngineDirectory) engine).getDirectory();
+            for (Consumer<String> listener : removalListeners) {
+                try {
+                    listener.accept(dir);
+                } catch (Throwable t) {
+                    log.error("Generic Error while notifying removal of engine for {}", dir, t);
+                }
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -0,0 +1,347 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.addthis.basis.util.LessFiles;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.io.DataChannelReader;
+import com.addthis.bundle.io.DataChannelWriter;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.query.op.merge.MergedValue;
+
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spills the table of a gather to sorted run files when it no longer fits in memory, and merges the runs
+ * back together when the gather completes.
+ * <p/>
+ * Each run holds the partially merged rows of the table at the time it was spilled, sorted by key and
+ * LZF compressed. When the gather completes the runs and the rows still in memory are k-way merged by key.
+ * Rows with the same key are combined in the order they were spilled with {@link MergedRow#mergePartial},
+ * so this is only used for gathers whose columns allow it (see
+ * {@link com.addthis.hydra.data.query.op.merge.MergeConfig#canMergePartials(CharSequence)}).
+ */
+class GatherSpill implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GatherSpill.class);
+
+    /** once this many runs exist they are merged into one before the next is written */
+    private static final int MAX_RUNS = Parameter.intValue("opgather.spill.maxRuns", 128);
+
+    private static final String KEY_FIELD = "key";
+    private static final String COUNT_FIELD = "count";
+
+    private final MergedValue[] conf;
+    private final ListBundleFormat format;
+    private final Path directory;
+    private final ListBundleFormat recordFormat = new ListBundleFormat();
+    private final BundleField recordKey;
+    private final BundleField recordCount;
+    private final BundleField[] recordValues;
+
+    private final List<Path> runs = new ArrayList<>();
+    private int nextRun = 0;
+
+    GatherSpill(MergedValue[] conf, ListBundleFormat format, String tmpDir) {
+        this.conf = conf;
+        this.format = format;
+        this.directory = Paths.get(tmpDir, "gather-" + UUID.randomUUID());
+        this.recordKey = recordFormat.getField(KEY_FIELD);
+        this.recordCount = recordFormat.getField(COUNT_FIELD);
+        this.recordValues = new BundleField[conf.length];
+        for (int i = 0; i < conf.length; i++) {
+            if (conf[i] != null) {
+                recordValues[i] = recordFormat.getField(Integer.toString(i));
+            }
+        }
+    }
+
+    boolean hasRuns() {
+        return !runs.isEmpty();
+    }
+
+    /** Writes the rows of {@code table} to a new run. The caller should clear the table afterwards. */
+    void spill(Map<String, MergedRow> table) throws IOException {
+        if (runs.size() >= MAX_RUNS) {
+            compact();
+        }
+        Files.createDirectories(directory);
+        Path run = writeRun(sorted(table));
+        log.debug("spilled {} gathered rows to {}", table.size(), run);
+        runs.add(run);
+    }
+
+    /**
+     * Sends every merged row of the runs and {@code table} to {@code output} in key order, until
+     * output returns false.
+     */
+    void emit(Map<String, MergedRow> table, Predicate<MergedRow> output) throws IOException {
+        List<Iterator<Map.Entry<String, MergedRow>>> sources = openRuns();
+        sources.add(sorted(table));
+        try {
+            merge(sources, output);
+        } finally {
+            closeAll(sources);
+        }
+    }
+
+    private void compact() throws IOException {
+        List<Path> merged = new ArrayList<>(runs);
+        List<Iterator<Map.Entry<String, MergedRow>>> sources = openRuns();
+        Path run;
+        try {
+            run = writeRun(new Iterator<Map.Entry<String, MergedRow>>() {
+                private final PriorityQueue<Cursor> queue = cursors(sources);
+
+                @Override public boolean hasNext() {
+                    return !queue.isEmpty();
+                }
+
+                @Override public Map.Entry<String, MergedRow> next() {
+                    if (queue.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    return nextGroup(queue);
+                }
+            });
+        } finally {
+            closeAll(sources);
+        }
+        runs.clear();
+        runs.add(run);
+        for (Path path : merged) {
+            Files.deleteIfExists(path);
+        }
+        log.debug("compacted {} gather runs into {}", merged.size(), run);
+    }
+
+    private static Iterator<Map.Entry<String, MergedRow>> sorted(Map<String, MergedRow> table) {
+        List<Map.Entry<String, MergedRow>> entries = new ArrayList<>(table.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        return entries.iterator();
+    }
+
+    private Path writeRun(Iterator<Map.Entry<String, MergedRow>> rows) throws IOException {
+        Path run = directory.resolve("run-" + (nextRun++));
+        try (OutputStream out = new LZFOutputStream(new BufferedOutputStream(Files.newOutputStream(run)));
+             DataChannelWriter writer = new DataChannelWriter(out)) {
+            Bundle record = new ListBundle(recordFormat);
+            while (rows.hasNext()) {
+                Map.Entry<String, MergedRow> entry = rows.next();
+                MergedRow row = entry.getValue();
+                record.setValue(recordKey, ValueFactory.create(entry.getKey()));
+                record.setValue(recordCount, ValueFactory.create(row.numMergedRows));
+                for (int i = 0; i < conf.length; i++) {
+                    if (conf[i] != null) {
+                        record.setValue(recordValues[i], row.getValue(conf[i].getTo()));
+                    }
+                }
+                writer.write(record);
+            }
+        }
+        return run;
+    }
+
+    private List<Iterator<Map.Entry<String, MergedRow>>> openRuns() throws IOException {
+        List<Iterator<Map.Entry<String, MergedRow>>> sources = new ArrayList<>(runs.size() + 1);
+        try {
+            for (Path run : runs) {
+                sources.add(new RunReader(run));
+            }
+        } catch (IOException | RuntimeException ex) {
+            closeAll(sources);
+            throw ex;
+        }
+        return sources;
+    }
+
+    private static void closeAll(List<Iterator<Map.Entry<String, MergedRow>>> sources) {
+        for (Iterator<Map.Entry<String, MergedRow>> source : sources) {
+            if (source instanceof RunReader) {
+                ((RunReader) source).close();
+            }
+        }
+    }
+
+    private static void merge(List<Iterator<Map.Entry<String, MergedRow>>> sources,
+                              Predicate<MergedRow> output) {
+        PriorityQueue<Cursor> queue = cursors(sources);
+        while (!queue.isEmpty()) {
+            if (!output.test(nextGroup(queue).getValue())) {
+                return;
+            }
+        }
+    }
+
+    private static PriorityQueue<Cursor> cursors(List<Iterator<Map.Entry<String, MergedRow>>> sources) {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(sources.size(), 1));
+        for (int i = 0; i < sources.size(); i++) {
+            Cursor cursor = new Cursor(sources.get(i), i);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return queue;
+    }
+
+    /** Removes every row with the smallest key from the queue and combines them, oldest run first. */
+    private static Map.Entry<String, MergedRow> nextGroup(PriorityQueue<Cursor> queue) {
+        Cursor cursor = queue.poll();
+        String key = cursor.key;
+        MergedRow combined = cursor.row;
+        if (cursor.advance()) {
+            queue.add(cursor);
+        }
+        while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+            cursor = queue.poll();
+            combined.mergePartial(cursor.row);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(key, combined);
+    }
+
+    @Override
+    public void close() {
+        if (Files.exists(directory) && !LessFiles.deleteDir(directory.toFile())) {
+            log.warn("ERROR while deleting {} for gather spill", directory);
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+
+        private final Iterator<Map.Entry<String, MergedRow>> source;
+        private final int index;
+
+        String key;
+        MergedRow row;
+
+        Cursor(Iterator<Map.Entry<String, MergedRow>> source, int index) {
+            this.source = source;
+            this.index = index;
+        }
+
+        boolean advance() {
+            if (!source.hasNext()) {
+                return false;
+            }
+            Map.Entry<String, MergedRow> entry = source.next();
+            key = entry.getKey();
+            row = entry.getValue();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int delta = key.compareTo(other.key);
+            return (delta != 0) ? delta : Integer.compare(index, other.index);
+        }
+    }
+
+    /** Reads the merged rows of one run file in key order. */
+    private final class RunReader implements Iterator<Map.Entry<String, MergedRow>> {
+
+        private final DataChannelReader reader;
+        private Map.Entry<String, MergedRow> next;
+
+        RunReader(Path run) throws IOException {
+            reader = new DataChannelReader(new ListBundle(),
+                                           new LZFInputStream(new BufferedInputStream(Files.newInputStream(run))));
+            next = read();
+        }
+
+        private Map.Entry<String, MergedRow> read() {
+            Bundle record;
+            try {
+                record = reader.read();
+            } catch (EOFException ignored) {
+                return null;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+            if (record == null) {
+                return null;
+            }
+            BundleFormat recordFormat = record.getFormat();
+            MergedRow row = new MergedRow(conf, new ListBundle(format));
+            row.numMergedRows = (int) record.getValue(recordFormat.getField(COUNT_FIELD)).asLong().getLong();
+            for (int i = 0; i < conf.length; i++) {
+                if (conf[i] != null) {
+                    ValueObject value = record.getValue(recordFormat.getField(Integer.toString(i)));
+                    if (value != null) {
+                        row.setValue(conf[i].getTo(), value);
+                    }
+                }
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(
+                    record.getValue(recordFormat.getField(KEY_FIELD)).asString().asNative(), row);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, MergedRow> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, MergedRow> current = next;
+            next = read();
+            return current;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (Exception ex) {
+                log.warn("exception while trying to close gather spill reader", ex);
+            }
+        }
+    }
+}
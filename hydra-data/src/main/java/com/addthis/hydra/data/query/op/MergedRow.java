@@ -14,6 +14,8 @@
 
 package com.addthis.hydra.data.query.op;
 
+import javax.annotation.Nullable;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
@@ -28,20 +30,32 @@ import com.addthis.bundle.core.BundleFormat;
 import com.addthis.bundle.core.list.ListBundle;
 import com.addthis.bundle.core.list.ListBundleFormat;
 import com.addthis.bundle.io.DataChannelCodec;
+import com.addthis.bundle.value.ValueMapEntry;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.DiskBackedMap;
 import com.addthis.hydra.data.query.op.merge.MergedValue;
+import com.addthis.hydra.data.tree.prop.DataCounting;
 
 public class MergedRow implements DiskBackedMap.DiskObject, Bundle {
 
+    /** approximate heap bytes of a row without values: this object, its bundle and the bundle's list */
+    private static final long ROW_OVERHEAD = 96;
+
     private final MergedValue[] conf;
     private final Bundle mergedBundle;
 
     int numMergedRows = 0;
 
+    /**
+     * Approximate heap bytes used by this row. Kept up to date by {@link #setValue} and by merged values
+     * that change a value in place (see {@link #addEstimatedSize(long)}), so that it is cheap to read.
+     */
+    private long estimatedSize;
+
     MergedRow(MergedValue[] conf, Bundle backingBundle) {
         this.conf = conf;
         this.mergedBundle = backingBundle;
+        this.estimatedSize = ROW_OVERHEAD + (8L * conf.length);
     }
 
     void merge(Bundle row) {
@@ -54,6 +68,20 @@ public class MergedRow implements DiskBackedMap.DiskObject, Bundle {
         }
     }
 
+    /**
+     * Combines a row that partially merged later bundles with the same key into this one.
+     * See {@link MergedValue#mergePartial(MergedRow, MergedRow)}.
+     */
+    void mergePartial(MergedRow partial) {
+        numMergedRows += partial.numMergedRows;
+        for (MergedValue map : conf) {
+            if (map == null) {
+                continue;
+            }
+            map.mergePartial(partial, this);
+        }
+    }
+
     Bundle emit() {
         for (MergedValue map : conf) {
             if (map == null) {
@@ -68,6 +96,52 @@ public class MergedRow implements DiskBackedMap.DiskObject, Bundle {
         return numMergedRows;
     }
 
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /** Called by merged values that grow or shrink a value of this row without replacing it. */
+    public void addEstimatedSize(long bytes) {
+        estimatedSize += bytes;
+    }
+
+    /**
+     * Returns the approximate heap bytes of a value. This does not use reflection and only visits the
+     * elements of arrays and maps.
+     */
+    public static long estimateSize(@Nullable ValueObject value) {
+        if (value == null) {
+            return 0;
+        }
+        switch (value.getObjectType()) {
+            case INT:
+            case FLOAT:
+                return 24;
+            case STRING:
+                return 56 + (2L * value.toString().length());
+            case BYTES:
+                return 32 + value.asBytes().asNative().length;
+            case ARRAY:
+                long arraySize = 40;
+                for (ValueObject element : value.asArray()) {
+                    arraySize += 8 + estimateSize(element);
+                }
+                return arraySize;
+            case MAP:
+                long mapSize = 64;
+                for (ValueMapEntry entry : value.asMap()) {
+                    mapSize += 48 + (2L * entry.getKey().length()) + estimateSize(entry.getValue());
+                }
+                return mapSize;
+            case CUSTOM:
+            default:
+                if (value instanceof DataCounting.LCValue) {
+                    return 64 + ((DataCounting.LCValue) value).asNative().sizeof();
+                }
+                return 64;
+        }
+    }
+
     @Override
     public byte[] toBytes() {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -102,11 +176,16 @@ public class MergedRow implements DiskBackedMap.DiskObject, Bundle {
 
     @Override
     public void setValue(BundleField field, ValueObject value) throws BundleException {
+        ValueObject previous = mergedBundle.getValue(field);
+        if (previous != value) {
+            estimatedSize += estimateSize(value) - estimateSize(previous);
+        }
         mergedBundle.setValue(field, value);
     }
 
     @Override
     public void removeValue(BundleField field) throws BundleException {
+        estimatedSize -= estimateSize(mergedBundle.getValue(field));
         mergedBundle.removeValue(field);
     }
 
@@ -13,19 +13,23 @@
  */
 package com.addthis.hydra.data.query.op;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.StringTokenizer;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -33,17 +37,12 @@ import java.nio.file.Paths;
 
 import com.addthis.basis.util.LessFiles;
 import com.addthis.basis.util.Parameter;
-import com.addthis.basis.util.LessStrings;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleFactory;
-import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.core.list.ListBundle;
 import com.addthis.bundle.io.DataChannelReader;
 import com.addthis.bundle.io.DataChannelWriter;
-import com.addthis.bundle.util.BundleColumnBinder;
-import com.addthis.bundle.util.ValueUtil;
-import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.AbstractRowOp;
 import com.addthis.muxy.WritableMuxFile;
 import com.addthis.muxy.MuxFileDirectory;
@@ -51,6 +50,8 @@ import com.addthis.muxy.MuxyEventListener;
 import com.addthis.muxy.MuxyFileEvent;
 import com.addthis.muxy.MuxyStreamEvent;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import com.ning.compress.lzf.LZFInputStream;
 import com.ning.compress.lzf.LZFOutputStream;
 
@@ -84,6 +85,9 @@ import io.netty.channel.ChannelProgressivePromise;
  * 1 B 2
  * 1 A 1
  * </pre>
+ * <p/>
+ * <p>Rows are buffered in chunks. Full chunks are sorted and written to disk by a shared pool of
+ * threads while more rows arrive, and the chunks are merged when the input is complete.</p>
  *
  * @user-reference
  * @hydra-name dsort
@@ -94,20 +98,27 @@ public class OpDiskSort extends AbstractRowOp {
     private static final int CHUNK_ROWS = Parameter.intValue("op.disksort.chunk.rows", 5000);
     private static final int CHUNK_MERGES = Parameter.intValue("op.disksort.chunk.merges", 1000);
     private static final int GZTYPE = Parameter.intValue("op.disksort.gz.type", 0);
+    /** number of threads shared by all disk sorts to sort and write chunks */
+    private static final int CHUNK_THREADS = Parameter.intValue("op.disksort.chunk.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    /** chunks of a sort that may be waiting to be written before more input is accepted */
+    private static final int CHUNK_PENDING = Math.max(1, Parameter.intValue("op.disksort.chunk.pending", 2));
     private static final MuxyEventListener DISCARDER = new SingleDirMuxyEventListener();
 
-    private final Bundle[] buffer = new Bundle[CHUNK_ROWS + 1];
+    private static final ExecutorService chunkPool = Executors.newFixedThreadPool(Math.max(1, CHUNK_THREADS),
+            new ThreadFactoryBuilder().setNameFormat("diskSort-%d").setDaemon(true).build());
+
     private final BundleFactory factory = new ListBundle();
     private final ChannelProgressivePromise queryPromise;
+    private final ArrayDeque<Future<?>> pendingChunks = new ArrayDeque<>();
 
     private Path tempDir;
-    private String[] cols;
-    private char[] type;
-    private char[] dir;
     private MuxFileDirectory mfm;
+    private SortEntry[] buffer = new SortEntry[CHUNK_ROWS + 1];
     private int bufferIndex = 0;
-    private BundleComparator comparator;
-    private BundleComparator comparatorSS;
+    private SortComparator comparator;
+    private SortComparator comparatorSS;
+    private Comparator<SortEntry> entryComparator;
     private int chunk = 0;
 
     public OpDiskSort(String args, String tempDirString, ChannelProgressivePromise queryPromise) {
@@ -134,27 +145,22 @@ public class OpDiskSort extends AbstractRowOp {
             throw new RuntimeException(ex);
         }
 
-        StringTokenizer st = new StringTokenizer(args, ":");
-        cols = LessStrings.splitArray(st.hasMoreElements() ? st.nextToken() : "0", ",");
-
-        String ts = st.hasMoreElements() ? st.nextToken() : "s";
-        while (ts.length() < cols.length) {
-            ts = ts.concat(ts.substring(0, 1));
-        }
-        type = ts.toCharArray();
-
-        String ds = st.hasMoreElements() ? st.nextToken() : "a";
-        while (ds.length() < cols.length) {
-            ds = ds.concat(ds.substring(0, 1));
-        }
-        dir = ds.toCharArray();
-
-        comparator = new BundleComparator();
-        comparatorSS = new BundleComparator();
+        comparator = new SortComparator(args);
+        comparatorSS = comparator.copy();
+        entryComparator = (e1, e2) -> comparator.compareKeys(e1.key, e2.key);
     }
 
     @Override
     public void close() throws IOException {
+        // chunks that are still being written must finish before their files are removed
+        for (Future<?> pending : pendingChunks) {
+            try {
+                pending.get();
+            } catch (Exception ex) {
+                log.debug("chunk write failed during close", ex);
+            }
+        }
+        pendingChunks.clear();
         try {
             mfm.waitForWriteClosure(0);
         } finally {
@@ -172,29 +178,57 @@ public class OpDiskSort extends AbstractRowOp {
         if (bufferIndex > CHUNK_ROWS) {
             dumpBufferToMFM();
         }
-        buffer[bufferIndex++] = row;
+        // keys are extracted here so that the columns are only bound and read on the calling thread
+        buffer[bufferIndex++] = new SortEntry(comparator.key(row), row);
         return null;
     }
 
+    /** Hands the buffered rows to the chunk pool to be sorted and written as the next level 0 chunk. */
     private void dumpBufferToMFM() {
         if (bufferIndex > 0) {
             log.debug("dumpBufferToMFM buffer={} chunk={}", bufferIndex, chunk);
+            SortEntry[] rows = buffer;
+            int count = bufferIndex;
+            String name = "l0-c" + (chunk++);
+            buffer = new SortEntry[CHUNK_ROWS + 1];
+            bufferIndex = 0;
+            awaitChunks(CHUNK_PENDING - 1);
+            pendingChunks.add(chunkPool.submit(() -> writeChunk(name, rows, count)));
+        }
+    }
+
+    /** Waits until no more than {@code maxPending} chunks are still being sorted or written. */
+    private void awaitChunks(int maxPending) {
+        while (pendingChunks.size() > maxPending) {
             try {
-                Arrays.sort(buffer, 0, bufferIndex, comparator);
-                WritableMuxFile meta = mfm.openFile("l0-c" + (chunk++), true);
-                OutputStream out = wrapOutputStream(meta.append());
-                DataChannelWriter writer = new DataChannelWriter(out);
-                for (int i = 0; i < bufferIndex; i++) {
-                    writer.write(buffer[i]);
-                }
-                writer.close();
-                out.close();
-                meta.sync();
-                bufferIndex = 0;
-            } catch (Exception ex) {
+                pendingChunks.removeFirst().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
                 throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+    }
+
+    private Void writeChunk(String name, SortEntry[] rows, int count) throws IOException {
+        Arrays.sort(rows, 0, count, entryComparator);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = wrapOutputStream(bytes);
+             DataChannelWriter writer = new DataChannelWriter(out)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(rows[i].row);
+            }
+        }
+        // encoding runs in parallel, only the copy into the mux directory is serialized
+        synchronized (mfm) {
+            WritableMuxFile meta = mfm.openFile(name, true);
+            try (OutputStream out = meta.append()) {
+                bytes.writeTo(out);
             }
+            meta.sync();
         }
+        return null;
     }
 
     // TODO: We really need a canonical library place for this kind of logic
@@ -220,10 +254,10 @@ public class OpDiskSort extends AbstractRowOp {
     public void sendComplete() {
         /** optimization for when buffer hasn't yet spilled */
         if (chunk == 0) {
-            Arrays.sort(buffer, 0, bufferIndex, comparator);
+            Arrays.sort(buffer, 0, bufferIndex, entryComparator);
             for (int i = 0; i < bufferIndex; i++) {
                 if (!queryPromise.isDone()) {
-                    getNext().send(buffer[i]);
+                    getNext().send(buffer[i].row);
                 } else {
                     break;
                 }
@@ -233,6 +267,7 @@ public class OpDiskSort extends AbstractRowOp {
         }
         if (!queryPromise.isDone()) {
             dumpBufferToMFM();
+            awaitChunks(0);
         } else {
             super.sendComplete();
             return;
@@ -305,62 +340,6 @@ public class OpDiskSort extends AbstractRowOp {
         }
     }
 
-    /**
-     * @param s1
-     * @param s2
-     * @return
-     */
-    private static int longCompare(ValueObject s1, ValueObject s2) {
-        if (s1 == s2) {
-            return 0;
-        }
-        if (s1 == null) {
-            return 1;
-        }
-        if (s2 == null) {
-            return -1;
-        }
-        return Long.compare(ValueUtil.asNumberOrParseLong(s1, 10).asLong().getLong(),
-                ValueUtil.asNumberOrParseLong(s2, 10).asLong().getLong());
-    }
-
-    /**
-     * @param s1
-     * @param s2
-     * @return
-     */
-    private static int doubleCompare(ValueObject s1, ValueObject s2) {
-        if (s1 == s2) {
-            return 0;
-        }
-        if (s1 == null) {
-            return 1;
-        }
-        if (s2 == null) {
-            return -1;
-        }
-        return Double.compare(ValueUtil.asNumberOrParseDouble(s1).asDouble().getDouble(),
-                ValueUtil.asNumberOrParseDouble(s2).asDouble().getDouble());
-    }
-
-    /**
-     * @param s1
-     * @param s2
-     * @return
-     */
-    private static int stringCompare(ValueObject s1, ValueObject s2) {
-        if (s1 == s2) {
-            return 0;
-        }
-        if (s1 == null) {
-            return 1;
-        }
-        if (s2 == null) {
-            return -1;
-        }
-        return s1.toString().compareTo(s2.toString());
-    }
-
     private static InputStream wrapInputStream(InputStream inputStream) throws IOException {
 
         switch (GZTYPE) {
@@ -378,55 +357,33 @@ public class OpDiskSort extends AbstractRowOp {
         }
     }
 
-    private class BundleComparator implements Comparator<Bundle> {
+    /** A buffered row and its sort key. */
+    private static final class SortEntry {
 
-        private BundleField[] columns;
+        final Object[] key;
+        final Bundle row;
 
-        @Override
-        public int compare(Bundle o1, Bundle o2) {
-            if (columns == null) {
-                columns = new BundleColumnBinder(o1, cols).getFields();
-            }
-            int delta = 0;
-            for (int i = 0; i < columns.length; i++) {
-                BundleField col = columns[i];
-                if (delta == 0) {
-                    switch (type[i]) {
-                        case 'i': // int
-                        case 'l': // long
-                        case 'n': // legacy "number"
-                            delta = longCompare(o1.getValue(col), o2.getValue(col));
-                            break;
-                        case 'd': // double
-                        case 'f': // float
-                            delta = doubleCompare(o1.getValue(col), o2.getValue(col));
-                            break;
-                        case 's': // string
-                        default:
-                            delta = stringCompare(o1.getValue(col), o2.getValue(col));
-                            break;
-                    }
-
-                    if (dir[i] == 'd') {
-                        delta = -delta;
-                    }
-                } else {
-                    break;
-                }
-                log.debug("compare i={} col={} o1={} o2={} type={} delta={} o1v={} o2v={}",
-                        i, col, o1, o2, type[i], delta, o1.getValue(col), o2.getValue(col));
-            }
-            return delta;
+        SortEntry(Object[] key, Bundle row) {
+            this.key = key;
+            this.row = row;
         }
     }
 
+    /**
+     * Merges sorted chunks with a loser tree. Each call to {@link #next()} replays the path of the
+     * source that was consumed, which takes one key comparison per level of the tree. Rows with equal
+     * keys are returned in chunk order, so the sort is stable.
+     */
     private final class SortedSource implements Closeable {
 
-        private final TreeSet<SourceBundle> sorted = new TreeSet<>(new SourceBundleComparator());
-        private final LinkedList<DataChannelReader> readers = new LinkedList<>();
-        private long bundleCounter = 0L;
+        private final List<DataChannelReader> readers = new ArrayList<>();
+        private final Bundle[] heads;
+        private final Object[][] keys;
+        /** tree[0] is the source of the next row, the other nodes hold the loser of their match */
+        private final int[] tree;
 
         SortedSource(final int level, int chunk, int count) {
+            List<Bundle> firstRows = new ArrayList<>(count);
             while (count-- > 0) {
                 try {
                     // TODO figure out how to delete these files after consuming them to keep the index small in mem
@@ -441,7 +398,7 @@ public class OpDiskSort extends AbstractRowOp {
                         log.debug("source source open level={} chunk={} next={} meta={}",
                                 level, chunk - 1, next, meta);
                         readers.add(reader);
-                        sorted.add(new SourceBundle(next, reader, bundleCounter++));
+                        firstRows.add(next);
                     } else {
                         reader.close();
                     }
@@ -453,7 +410,33 @@ public class OpDiskSort extends AbstractRowOp {
                     throw new RuntimeException(e);
                 }
             }
-            log.debug("SortedSource seeded with {} entries", sorted.size());
+            int sources = readers.size();
+            heads = firstRows.toArray(new Bundle[sources]);
+            keys = new Object[sources][];
+            for (int i = 0; i < sources; i++) {
+                keys[i] = comparatorSS.key(heads[i]);
+            }
+            tree = new int[Math.max(sources, 1)];
+            if (sources > 0) {
+                // leaves are at sources + i, play every match bottom up
+                int[] winners = new int[sources * 2];
+                for (int i = 0; i < sources; i++) {
+                    winners[sources + i] = i;
+                }
+                for (int node = sources - 1; node >= 1; node--) {
+                    int left = winners[node * 2];
+                    int right = winners[(node * 2) + 1];
+                    if (before(left, right)) {
+                        winners[node] = left;
+                        tree[node] = right;
+                    } else {
+                        winners[node] = right;
+                        tree[node] = left;
+                    }
+                }
+                tree[0] = winners[1];
+            }
+            log.debug("SortedSource seeded with {} entries", sources);
         }
 
         @Override
@@ -475,66 +458,56 @@ public class OpDiskSort extends AbstractRowOp {
          * each call to next re-populates the tree from the same source
          */
         public Bundle next() {
-            if (!sorted.isEmpty()) {
-                Iterator<SourceBundle> iter = sorted.iterator();
-                SourceBundle nextOrdered = iter.next();
-                iter.remove();
-                try {
-                    Bundle nextFromSource = nextOrdered.reader.read();
-                    if (nextFromSource != null) {
-                        sorted.add(new SourceBundle(nextFromSource, nextOrdered.reader, bundleCounter++));
-                    }
-                } catch (EOFException ignored) {
-                    log.debug("closing source on EOF size={}", sorted.size());
-                    try {
-                        nextOrdered.reader.close();
-                    } catch (Exception ex2) {
-                        // ignore
-                    }
-                } catch (Exception ex) {
-                    log.warn("swallowing mystery exception", ex);
+            if (heads.length == 0) {
+                return null;
+            }
+            int winner = tree[0];
+            Bundle next = heads[winner];
+            if (next == null) {
+                return null;
+            }
+            advance(winner);
+            for (int node = (winner + heads.length) >> 1; node >= 1; node >>= 1) {
+                if (before(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
                 }
-                return nextOrdered.bundle;
             }
-            return null;
+            tree[0] = winner;
+            return next;
         }
 
-        private class SourceBundle {
-
-            public final Bundle bundle;
-            public final DataChannelReader reader;
-            public final long uniqueID;
-
-            SourceBundle(Bundle bundle, DataChannelReader reader, long uniqueID) {
-                this.bundle = bundle;
-                this.reader = reader;
-                this.uniqueID = uniqueID;
+        private void advance(int source) {
+            DataChannelReader reader = readers.get(source);
+            Bundle nextFromSource = null;
+            try {
+                nextFromSource = reader.read();
+            } catch (EOFException ignored) {
+                log.debug("closing source on EOF source={}", source);
+                try {
+                    reader.close();
+                } catch (Exception ex2) {
+                    // ignore
+                }
+            } catch (Exception ex) {
+                log.warn("swallowing mystery exception", ex);
             }
+            heads[source] = nextFromSource;
+            keys[source] = (nextFromSource != null) ? comparatorSS.key(nextFromSource) : null;
         }
 
-        private class SourceBundleComparator implements Comparator<SourceBundle> {
-
-            @Override
-            public int compare(SourceBundle o1, SourceBundle o2) {
-                int comp = comparatorSS.compare(o1.bundle, o2.bundle);
-                if (comp == 0) {
-                    // The following two comparisons are necessary to avoid overflow or underflow
-                    // that can result from using (o1.uniqueID - o2.uniqueID).
-                    // When support is dropped for Java 6, these comparisons can be replaced with
-                    /// Long.compare(o1.uniqueID, o2.uniqueID) (introduced in Java 7).
-                    if (o1.uniqueID > o2.uniqueID) {
-                        return 1;
-                    } else if (o1.uniqueID == o2.uniqueID) {
-                        return 0;
-                    } else {
-                        return -1;
-                    }
-                } else {
-                    return comp;
-                }
+        /** exhausted sources lose every match, ties go to the earlier chunk */
+        private boolean before(int a, int b) {
+            if (heads[a] == null) {
+                return (heads[b] == null) && (a < b);
             }
+            if (heads[b] == null) {
+                return true;
+            }
+            int comp = comparatorSS.compareKeys(keys[a], keys[b]);
+            return (comp < 0) || ((comp == 0) && (a < b));
         }
-
     }
 
     private static class SingleDirMuxyEventListener implements MuxyEventListener {
@@ -21,7 +21,6 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
-import com.addthis.basis.util.MemoryCounter;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.channel.DataChannelError;
@@ -114,6 +113,11 @@ public class OpGather extends AbstractQueryOp {
 
     private boolean tippedToDisk = false;
     private boolean tipToDisk = Parameter.boolValue("opgather.tiptodisk", false);
+    /** spill to sorted run files instead of a disk backed map when the merge columns allow it */
+    private static final boolean SPILL_RUNS = Parameter.boolValue("opgather.spillRuns", true);
+
+    private final boolean spillRuns;
+    private GatherSpill spill;
 
 
     private static final Meter diskTips = Metrics.newMeter(OpGather.class, "diskTips", "diskTips", TimeUnit.SECONDS);
@@ -130,6 +134,7 @@ public class OpGather extends AbstractQueryOp {
         topper = mergeConfig.topper;
         topSize = mergeConfig.numericArg;
         conf = mergeConfig.conf;
+        spillRuns = SPILL_RUNS && (topper == null) && MergeConfig.canMergePartials(args);
     }
 
     @Override
@@ -139,24 +144,20 @@ public class OpGather extends AbstractQueryOp {
         }
         String key = mergeConfig.handleBindAndGetKey(row, format);
         MergedRow merge = resultTable.get(key);
+        long sizeBefore;
         if (merge == null) {
             merge = new MergedRow(conf, new ListBundle(format));
             resultTable.put(key, merge);
-
-            if (!tippedToDisk) {
-                totalMem += MemoryCounter.estimateSize(merge);
-            }
-        }
-        if (!tippedToDisk) {
-            totalMem -= MemoryCounter.estimateSize(merge);
+            sizeBefore = 0;
+        } else {
+            sizeBefore = merge.getEstimatedSize();
         }
         merge.merge(row);
         if (tippedToDisk) {
             // Update the result on the disk, we need to put again
             resultTable.put(key, merge);
-        }
-        if (!tippedToDisk) {
-            totalMem += MemoryCounter.estimateSize(merge);
+        } else {
+            totalMem += merge.getEstimatedSize() - sizeBefore;
         }
 
         if (topColumn >= 0) {
@@ -168,11 +169,10 @@ public class OpGather extends AbstractQueryOp {
                 }
                 String drop = topper.update(key, num.asLong().getLong(), topSize);
                 if (drop != null) {
-                    if (!tippedToDisk) {
-                        totalMem -= MemoryCounter.estimateSize(resultTable.get(drop));
+                    MergedRow dropped = resultTable.remove(drop);
+                    if (!tippedToDisk && (dropped != null)) {
+                        totalMem -= dropped.getEstimatedSize();
                     }
-
-                    resultTable.remove(drop);
                 }
             }
         }
@@ -189,8 +189,12 @@ public class OpGather extends AbstractQueryOp {
         } else {
             // If we're tipping to disk, and the tips are non zero, then spill to disk once we pass them
             if (!tippedToDisk && ((tipMem > 0 && totalMem > tipMem) || (tipRow > 0 && resultTable.size() > tipRow))) {
-                tippedToDisk = true;
                 diskTips.mark();
+                if (spillRuns) {
+                    spillRun();
+                    return;
+                }
+                tippedToDisk = true;
 
                 // Use the smaller amount of memory for the JE cache environment
                 long memToUse = totalMem;
@@ -207,9 +211,38 @@ public class OpGather extends AbstractQueryOp {
         }
     }
 
+    /** Writes the rows gathered so far to a sorted run and starts over with an empty table. */
+    private void spillRun() {
+        if (spill == null) {
+            spill = new GatherSpill(conf, format, tmpDir);
+        }
+        try {
+            spill.spill(resultTable);
+        } catch (IOException e) {
+            throw new DataChannelError(e);
+        }
+        resultTable = new HashMap<>();
+        totalMem = 0;
+    }
+
     @Override
     public void sendComplete() {
         QueryOp next = getNext();
+        if ((spill != null) && spill.hasRuns()) {
+            try {
+                spill.emit(resultTable, mergedRow -> {
+                    if (opPromise.isDone()) {
+                        return false;
+                    }
+                    next.send(mergedRow.emit());
+                    return true;
+                });
+            } catch (IOException e) {
+                throw new DataChannelError(e);
+            }
+            next.sendComplete();
+            return;
+        }
         for (MergedRow mergedRow : resultTable.values()) {
             if (!opPromise.isDone()) {
                 next.send(mergedRow.emit());
@@ -225,5 +258,8 @@ public class OpGather extends AbstractQueryOp {
         if (resultTable instanceof Closeable) {
             ((Closeable) resultTable).close();
         }
+        if (spill != null) {
+            spill.close();
+        }
     }
 }
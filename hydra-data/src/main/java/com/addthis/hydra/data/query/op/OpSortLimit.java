@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import com.addthis.basis.util.LessStrings;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.hydra.data.query.AbstractQueryOp;
+
+import io.netty.channel.ChannelProgressivePromise;
+
+/**
+ * A sort directly followed by a limit. Only the rows that the limit can emit are kept, in a bounded
+ * heap, so memory use depends on the limit and not on the number of input rows.
+ * <p/>
+ * {@link com.addthis.hydra.data.query.QueryOpProcessor} builds this op in place of an adjacent
+ * "sort=ARGS;limit=N" or "dsort=ARGS;limit=M:N" pair. Rows that compare equal are emitted in the
+ * order they were received, as with the sort.
+ */
+public class OpSortLimit extends AbstractQueryOp {
+
+    private final SortComparator comparator;
+    private final Comparator<Entry> entryComparator;
+    private final PriorityQueue<Entry> heap;
+    private final int skipCount;
+    private final int sendCount;
+    private final int capacity;
+
+    private long received;
+    private boolean done;
+
+    public OpSortLimit(String sortArgs, String limitArgs, ChannelProgressivePromise queryPromise) {
+        super(queryPromise);
+        String[] v = LessStrings.splitArray(limitArgs, ":");
+        if (v.length == 1) {
+            this.skipCount = 0;
+            this.sendCount = Integer.parseInt(v[0]);
+        } else if (v.length == 2) {
+            this.skipCount = Integer.parseInt(v[0]);
+            this.sendCount = Integer.parseInt(v[1]);
+        } else {
+            throw new IllegalArgumentException("OpLimit requires [1,2] integer parameters");
+        }
+        if (sendCount <= 0) {
+            throw new IllegalArgumentException("sendCount must be > 0");
+        }
+        this.capacity = Math.max(skipCount, 0) + sendCount;
+        this.comparator = new SortComparator(sortArgs);
+        this.entryComparator = (e1, e2) -> {
+            int delta = comparator.compare(e1.row, e2.row);
+            return (delta != 0) ? delta : Long.compare(e1.order, e2.order);
+        };
+        // the head of the heap is the last row that would currently be emitted
+        this.heap = new PriorityQueue<>(Math.min(capacity, 1024) + 1, entryComparator.reversed());
+    }
+
+    @Override
+    public void send(Bundle row) {
+        long order = received++;
+        if (heap.size() < capacity) {
+            heap.add(new Entry(row, order));
+        } else if (comparator.compare(row, heap.peek().row) < 0) {
+            // a later row that compares equal to the head would be emitted after it, so it is dropped
+            heap.poll();
+            heap.add(new Entry(row, order));
+        }
+    }
+
+    @Override
+    public void sendComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        Entry[] sorted = heap.toArray(new Entry[heap.size()]);
+        heap.clear();
+        Arrays.sort(sorted, entryComparator);
+        for (int i = Math.max(skipCount, 0); i < sorted.length; i++) {
+            if (opPromise.isDone()) {
+                break;
+            }
+            getNext().send(sorted[i].row);
+        }
+        getNext().sendComplete();
+    }
+
+    @Override
+    public void close() {
+        heap.clear();
+    }
+
+    private static final class Entry {
+
+        final Bundle row;
+        final long order;
+
+        Entry(Bundle row, long order) {
+            this.row = row;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.util.Comparator;
+import java.util.StringTokenizer;
+
+import com.addthis.basis.util.LessStrings;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.util.BundleColumnBinder;
+import com.addthis.bundle.util.ValueUtil;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * Compares rows as described by sort arguments of the form [cols]:[type]:[direction]
+ * (see {@link OpDiskSort}). Columns are bound to the fields of the first row that is compared,
+ * so an instance should only be used for rows of one format.
+ * <p/>
+ * Rows that are compared many times can instead be reduced once to a sort key with {@link #key(Bundle)}
+ * and compared with {@link #compareKeys(Object[], Object[])}. A key holds a {@link Long} for every
+ * number column (doubles as bits that order like {@link Double#compare}), a {@link String} for every
+ * string column, or null for missing values. Comparing keys does not use the bound columns, so it is
+ * safe from any thread.
+ */
+final class SortComparator implements Comparator<Bundle> {
+
+    private final String[] cols;
+    private final char[] type;
+    private final char[] dir;
+
+    private BundleField[] columns;
+
+    SortComparator(String args) {
+        StringTokenizer st = new StringTokenizer(args, ":");
+        cols = LessStrings.splitArray(st.hasMoreElements() ? st.nextToken() : "0", ",");
+
+        String ts = st.hasMoreElements() ? st.nextToken() : "s";
+        while (ts.length() < cols.length) {
+            ts = ts.concat(ts.substring(0, 1));
+        }
+        type = ts.toCharArray();
+
+        String ds = st.hasMoreElements() ? st.nextToken() : "a";
+        while (ds.length() < cols.length) {
+            ds = ds.concat(ds.substring(0, 1));
+        }
+        dir = ds.toCharArray();
+    }
+
+    /** Returns a comparator for the same arguments that binds its own columns. */
+    SortComparator copy() {
+        return new SortComparator(cols, type, dir);
+    }
+
+    private SortComparator(String[] cols, char[] type, char[] dir) {
+        this.cols = cols;
+        this.type = type;
+        this.dir = dir;
+    }
+
+    @Override
+    public int compare(Bundle o1, Bundle o2) {
+        if (columns == null) {
+            columns = new BundleColumnBinder(o1, cols).getFields();
+        }
+        int delta = 0;
+        for (int i = 0; i < columns.length; i++) {
+            BundleField col = columns[i];
+            switch (type[i]) {
+                case 'i': // int
+                case 'l': // long
+                case 'n': // legacy "number"
+                    delta = longCompare(o1.getValue(col), o2.getValue(col));
+                    break;
+                case 'd': // double
+                case 'f': // float
+                    delta = doubleCompare(o1.getValue(col), o2.getValue(col));
+                    break;
+                case 's': // string
+                default:
+                    delta = stringCompare(o1.getValue(col), o2.getValue(col));
+                    break;
+            }
+            if (dir[i] == 'd') {
+                delta = -delta;
+            }
+            if (delta != 0) {
+                break;
+            }
+        }
+        return delta;
+    }
+
+    /** Returns the sort key of {@code row}, binding the columns to its format if needed. */
+    Object[] key(Bundle row) {
+        if (columns == null) {
+            columns = new BundleColumnBinder(row, cols).getFields();
+        }
+        Object[] key = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            ValueObject value = row.getValue(columns[i]);
+            if (value == null) {
+                continue;
+            }
+            switch (type[i]) {
+                case 'i':
+                case 'l':
+                case 'n':
+                    key[i] = ValueUtil.asNumberOrParseLong(value, 10).asLong().getLong();
+                    break;
+                case 'd':
+                case 'f':
+                    key[i] = sortableBits(ValueUtil.asNumberOrParseDouble(value).asDouble().getDouble());
+                    break;
+                case 's':
+                default:
+                    key[i] = value.toString();
+                    break;
+            }
+        }
+        return key;
+    }
+
+    /** Compares two keys returned by {@link #key(Bundle)} the same way as {@link #compare(Bundle, Bundle)}. */
+    int compareKeys(Object[] k1, Object[] k2) {
+        int delta = 0;
+        for (int i = 0; i < k1.length; i++) {
+            Object v1 = k1[i];
+            Object v2 = k2[i];
+            if (v1 == v2) {
+                delta = 0;
+            } else if (v1 == null) {
+                delta = 1;
+            } else if (v2 == null) {
+                delta = -1;
+            } else if (v1 instanceof Long) {
+                delta = Long.compare((Long) v1, (Long) v2);
+            } else {
+                delta = ((String) v1).compareTo((String) v2);
+            }
+            if (dir[i] == 'd') {
+                delta = -delta;
+            }
+            if (delta != 0) {
+                break;
+            }
+        }
+        return delta;
+    }
+
+    /** Returns a long that orders like the double under {@link Double#compare}. */
+    static long sortableBits(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static int longCompare(ValueObject s1, ValueObject s2) {
+        if (s1 == s2) {
+            return 0;
+        }
+        if (s1 == null) {
+            return 1;
+        }
+        if (s2 == null) {
+            return -1;
+        }
+        return Long.compare(ValueUtil.asNumberOrParseLong(s1, 10).asLong().getLong(),
+                ValueUtil.asNumberOrParseLong(s2, 10).asLong().getLong());
+    }
+
+    private static int doubleCompare(ValueObject s1, ValueObject s2) {
+        if (s1 == s2) {
+            return 0;
+        }
+        if (s1 == null) {
+            return 1;
+        }
+        if (s2 == null) {
+            return -1;
+        }
+        return Double.compare(ValueUtil.asNumberOrParseDouble(s1).asDouble().getDouble(),
+                ValueUtil.asNumberOrParseDouble(s2).asDouble().getDouble());
+    }
+
+    private static int stringCompare(ValueObject s1, ValueObject s2) {
+        if (s1 == s2) {
+            return 0;
+        }
+        if (s1 == null) {
+            return 1;
+        }
+        if (s2 == null) {
+            return -1;
+        }
+        return s1.toString().compareTo(s2.toString());
+    }
+}
@@ -44,6 +44,16 @@ public abstract class AbstractMergedValue<T extends ValueObject> implements Merg
         mergedRow.setValue(to, mergedValue);
     }
 
+    @Override
+    public void mergePartial(MergedRow partial, MergedRow mergedRow) {
+        ValueObject partialValue = partial.getValue(to);
+        if (partialValue == null) {
+            return;
+        }
+        ValueObject value = mergedRow.getValue(to);
+        mergedRow.setValue(to, merge(partialValue, value));
+    }
+
     protected ValueObject merge(ValueObject nextValue, ValueObject value) {
         T nextValueT = convert(nextValue);
         if (value == null) {
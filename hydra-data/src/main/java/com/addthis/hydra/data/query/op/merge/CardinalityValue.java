@@ -13,6 +13,7 @@
  */
 package com.addthis.hydra.data.query.op.merge;
 
+import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.value.ValueArray;
 import com.addthis.bundle.value.ValueFactory;
 import com.addthis.bundle.value.ValueMap;
@@ -30,6 +31,18 @@ import org.slf4j.LoggerFactory;
 public class CardinalityValue extends AbstractMergedValue<ValueObject> {
     private static final Logger log = LoggerFactory.getLogger(CardinalityValue.class);
 
+    @Override public void merge(Bundle nextBundle, MergedRow mergedRow) {
+        ValueObject value = mergedRow.getValue(to);
+        if (!(value instanceof DataCounting.LCValue)) {
+            super.merge(nextBundle, mergedRow);
+            return;
+        }
+        // the estimator is updated in place, so report how much it grew to the row
+        long before = MergedRow.estimateSize(value);
+        super.merge(nextBundle, mergedRow);
+        mergedRow.addEstimatedSize(MergedRow.estimateSize(value) - before);
+    }
+
     @Override protected ValueObject doMerge(ValueObject nextValue, ValueObject value) {
         DataCounting.LCValue lcValue = toLcValue(value);
         ICardinality estimator = lcValue.asNative();
@@ -14,6 +14,7 @@
 
 package com.addthis.hydra.data.query.op.merge;
 
+import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.util.ValueUtil;
 import com.addthis.bundle.value.ValueArray;
 import com.addthis.bundle.value.ValueFactory;
@@ -40,6 +41,38 @@ public class JoinedValue extends AbstractMergedValue<ValueObject> {
         this(DEFAULT_JOINER);
     }
 
+    @Override
+    public void merge(Bundle nextBundle, MergedRow mergedRow) {
+        ValueObject value = mergedRow.getValue(to);
+        if ((value == null) || (value.getObjectType() != ValueObject.TYPE.ARRAY)) {
+            super.merge(nextBundle, mergedRow);
+            return;
+        }
+        ValueObject nextValue = nextBundle.getValue(from);
+        if (nextValue != null) {
+            // the array is appended to in place, so only the new element changes the size of the row
+            ValueObject element = convert(nextValue);
+            value.asArray().add(element);
+            mergedRow.addEstimatedSize(8 + MergedRow.estimateSize(element));
+        }
+    }
+
+    @Override
+    public void mergePartial(MergedRow partial, MergedRow mergedRow) {
+        ValueObject partialValue = partial.getValue(to);
+        ValueObject value = mergedRow.getValue(to);
+        if ((partialValue == null) || (value == null) || (partialValue.getObjectType() != ValueObject.TYPE.ARRAY)) {
+            super.mergePartial(partial, mergedRow);
+            return;
+        }
+        // append the elements that were joined in the partial row rather than the array itself
+        ValueArray values = ValueUtil.asArray(convert(value));
+        for (ValueObject element : partialValue.asArray()) {
+            values.add(element);
+        }
+        mergedRow.setValue(to, values);
+    }
+
     @Override
     protected ValueObject doMerge(ValueObject nextValue, ValueObject value) {
         ValueArray values = ValueUtil.asArray(value);
@@ -14,6 +14,8 @@
 
 package com.addthis.hydra.data.query.op.merge;
 
+import javax.annotation.Nullable;
+
 import java.util.ArrayList;
 
 import com.addthis.bundle.core.Bundle;
@@ -108,6 +110,92 @@ public class MergeConfig {
         this.conf = conf.toArray(new MergedValue[conf.size()]);
     }
 
+    /**
+     * Returns true if merging rows that were already merged with {@code args} gives the same result as
+     * merging all of the original rows at once. This holds for key, ignore, sum, min, max, product and
+     * join columns, but not for averages, diffs, cardinalities, toppers or merge counts.
+     */
+    public static boolean isAssociative(CharSequence args) {
+        for (int i = 0; i < args.length(); i++) {
+            switch (args.charAt(i)) {
+                case ',':
+                case 'k':
+                case 'i':
+                case 's':
+                case 'm':
+                case 'M':
+                case 'p':
+                case 'j':
+                    continue;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the arguments for a partial merge whose output can be merged again with {@code args},
+     * or null if {@code args} is not associative. Ignored columns are kept as 'last' so that the
+     * partially merged rows have the columns that {@code args} expects.
+     */
+    @Nullable public static String partialArgs(@Nullable String args) {
+        if ((args == null) || args.isEmpty() || !isAssociative(args)) {
+            return null;
+        }
+        return args.replace('i', 'l');
+    }
+
+    /**
+     * Returns true if rows that were partially merged with {@code args} (and not emitted) can be combined
+     * with {@link MergedValue#mergePartial}. In addition to the associative columns this includes last,
+     * average and merge count columns, but not cardinalities, diffs or toppers.
+     */
+    public static boolean canMergePartials(CharSequence args) {
+        for (int i = 0; i < args.length(); i++) {
+            switch (args.charAt(i)) {
+                case 'l':
+                case 'a':
+                case 'u':
+                    continue;
+                default:
+                    if (!isAssociative(args.subSequence(i, i + 1))) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if merging with {@code args} gives the same rows whatever the order of the input rows.
+     * This holds for key, ignore, sum, min, max, product, cardinality, average and merge count columns,
+     * but not for last, join or diff columns, which depend on the order of the rows they merge, or toppers.
+     */
+    public static boolean isOrderIndependent(@Nullable CharSequence args) {
+        if (args == null) {
+            return false;
+        }
+        for (int i = 0; i < args.length(); i++) {
+            switch (args.charAt(i)) {
+                case ',':
+                case 'k':
+                case 'i':
+                case 's':
+                case 'm':
+                case 'M':
+                case 'p':
+                case 'c':
+                case 'u':
+                case 'a':
+                    continue;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
     public String handleBindAndGetKey(Bundle row, ListBundleFormat format) {
         String key = "";
         int i = 0;
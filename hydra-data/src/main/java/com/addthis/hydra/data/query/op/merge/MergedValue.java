@@ -37,6 +37,14 @@ public interface MergedValue {
      */
     public void merge(Bundle nextBundle, MergedRow mergedRow);
 
+    /**
+     * Merges the value of another partially merged row into mergedRow, as if all of the bundles that
+     * were merged into partial had been merged into mergedRow after its own. Neither row has been
+     * emitted. Only meaningful for values where {@link MergeConfig#canMergePartials(CharSequence)}
+     * holds.
+     */
+    public void mergePartial(MergedRow partial, MergedRow mergedRow);
+
     /**
      * Signals the end of additional bundles/values to merge. May set a value
      * in mergedRow based on accumulated data.
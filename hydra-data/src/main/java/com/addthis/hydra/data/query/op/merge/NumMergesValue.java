@@ -26,6 +26,11 @@ public class NumMergesValue extends AbstractMergedNumber {
     public void merge(Bundle nextBundle, MergedRow mergedRow) {
     }
 
+    @Override
+    public void mergePartial(MergedRow partial, MergedRow mergedRow) {
+        // the merged row counts are combined by the rows themselves
+    }
+
     @Override
     protected Numeric doMerge(Numeric nextValue, Numeric value) {
         throw new UnsupportedOperationException(
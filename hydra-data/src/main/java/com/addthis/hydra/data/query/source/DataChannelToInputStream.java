@@ -18,7 +18,9 @@ import javax.annotation.concurrent.GuardedBy;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
@@ -85,6 +87,12 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
      */
     private volatile boolean closed = false;
 
+    /**
+     * Collects the encoded output for the {@link QueryResultCache} when the query missed it, otherwise null.
+     */
+    @GuardedBy("out")
+    private QueryResultCache.Recording recording;
+
     /**
      * A non-public constructor. This class can only be instantiated from it outer class MeshQueryMaster. The objects
      * can be accessed elsewhere using the interfaces.
@@ -140,6 +148,16 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
         }
         byte[] bytes = out.toByteArray();
         out.reset();
+        if ((recording != null) && !recording.append(bytes)) {
+            recording = null;
+        }
+        enqueue(bytes);
+    }
+
+    /**
+     * Hands a chunk of encoded output to meshy, waiting up to {@link #queueAttemptLimit} seconds for room.
+     */
+    private void enqueue(byte[] bytes) {
         try {
             for (int i = 0; i < queueAttemptLimit; i++) //Try adding to queue queueAttemptLimit times
             {
@@ -161,6 +179,34 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
         }
     }
 
+    /**
+     * Records the encoded output of this query so it can be added to the result cache on completion.
+     */
+    void record(QueryResultCache.Recording recording) {
+        synchronized (out) {
+            this.recording = recording;
+        }
+    }
+
+    /**
+     * Sends the cached encoded output of an identical query, which already ends with an EOF frame,
+     * in place of running the query.
+     */
+    void replay(InputStream cached) throws IOException {
+        synchronized (out) {
+            byte[] buffer = new byte[outputBufferSize];
+            int read;
+            while ((read = cached.read(buffer)) > 0) {
+                if (closed) {
+                    log.debug("Unable to replay cached result due to closed channel");
+                    throw new CancellationException("master cancelled query");
+                }
+                enqueue(Arrays.copyOf(buffer, read));
+            }
+            eof = true;
+        }
+    }
+
     /**
      * Returns true if the eof flag is set and there is no data queued in the stream to be sent.
      *
@@ -178,6 +224,9 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
     public void close() {
         closed = true;
         queryPromise.cancel(false);
+        synchronized (out) {
+            recording = null;
+        }
     }
 
     /**
@@ -236,6 +285,10 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
             out.write(FramedDataChannelReader.FRAME_EOF);
             emitChunks();
             eof = true;
+            if (recording != null) {
+                recording.complete();
+                recording = null;
+            }
         }
     }
 
@@ -254,6 +307,7 @@ class DataChannelToInputStream implements DataChannelOutput, VirtualFileInput, B
             // if we know writer is closed, don't try to write to it.
             if (!writer.isClosed()) {
                 synchronized (out) {
+                    recording = null;
                     out.write(FramedDataChannelReader.FRAME_ERROR);
                     LessBytes.writeString(er.getClass().getCanonicalName(), out);
                     LessBytes.writeString(er.getMessage(), out);
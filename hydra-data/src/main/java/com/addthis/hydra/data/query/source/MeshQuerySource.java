@@ -90,6 +90,13 @@ public class MeshQuerySource implements LocalFileHandler {
     //Temp directory to use for sorting and caching
     private static final String tmpDirPath = Parameter.value("query.tmpdir", "query.tmpdir");
 
+    //Encoded results of recent queries, dropped when their engine is refreshed or evicted
+    static final QueryResultCache queryResultCache = new QueryResultCache(new File(tmpDirPath, "resultCache"));
+
+    static {
+        queryEngineCache.addRemovalListener(queryResultCache::invalidateDirectory);
+    }
+
     public MeshQuerySource() {
         log.info("[MeshQuerySource] started.  base directory={}", QueryReference.queryRoot);
         log.info("Max concurrent queries (thread count):{}", SearchRunner.SEARCH_THREADS);
@@ -0,0 +1,307 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.source;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryElement;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the encoded output of worker queries so that a repeated query against the same data directory
+ * can be answered without walking the tree or running the ops again.
+ * <p/>
+ * Results are keyed by the canonical directory of the engine that answered them plus the normalized
+ * paths and ops of the query. Data directories are immutable once they are served, so an entry is
+ * valid for as long as its directory is. {@link #invalidateDirectory(String)} is called when the
+ * engine cache replaces or evicts the engine for a directory.
+ * <p/>
+ * Entries are bounded by bytes. If a disk budget is configured then the least recently used entries
+ * move from memory to files in a local directory on a background thread, and are deleted once the disk
+ * budget is exceeded too. The directory is wiped when the cache is created since spilled files do not
+ * outlive the process. Results larger than a single entry limit, and results of failed or cancelled
+ * queries, are not cached. A query can bypass the cache by setting the {@code cache} parameter to false.
+ * The cache is off unless {@code queryResultCache.memoryBytes} is set.
+ */
+class QueryResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryResultCache.class);
+
+    /** bytes of encoded results to keep in memory. 0 disables the cache. */
+    private static final long DEFAULT_MEMORY_BYTES = Parameter.longValue("queryResultCache.memoryBytes", 0);
+
+    /** bytes of encoded results to keep on disk after they are evicted from memory. 0 disables spilling. */
+    private static final long DEFAULT_DISK_BYTES = Parameter.longValue("queryResultCache.diskBytes", 0);
+
+    /** results that encode to more bytes than this are not cached */
+    private static final int DEFAULT_MAX_ENTRY_BYTES = Parameter.intValue("queryResultCache.maxEntryBytes", 8 << 20);
+
+    static final Meter cacheHits = Metrics.newMeter(QueryResultCache.class, "cacheHits", "cacheHits", TimeUnit.MINUTES);
+    static final Meter cacheMisses =
+            Metrics.newMeter(QueryResultCache.class, "cacheMisses", "cacheMisses", TimeUnit.MINUTES);
+    static final Meter cacheSpills =
+            Metrics.newMeter(QueryResultCache.class, "cacheSpills", "cacheSpills", TimeUnit.MINUTES);
+
+    private final File spillDirectory;
+    private final long memoryBytes;
+    private final long diskBytes;
+    private final int maxEntryBytes;
+
+    private final Executor spillExecutor;
+
+    private final Cache<Key, byte[]> memoryCache;
+    private final Cache<Key, File> diskCache;
+
+    QueryResultCache(File spillDirectory) {
+        this(spillDirectory, DEFAULT_MEMORY_BYTES, DEFAULT_DISK_BYTES, DEFAULT_MAX_ENTRY_BYTES,
+             Executors.newSingleThreadExecutor(
+                     new ThreadFactoryBuilder().setNameFormat("queryResultSpill-%d").setDaemon(true).build()));
+    }
+
+    /**
+     * @param spillExecutor writes results evicted from memory to disk, so that the query thread that
+     *                      triggered the eviction does not. Must run tasks in order.
+     */
+    QueryResultCache(File spillDirectory, long memoryBytes, long diskBytes, int maxEntryBytes,
+                     Executor spillExecutor) {
+        this.spillDirectory = spillDirectory;
+        this.memoryBytes = memoryBytes;
+        this.diskBytes = diskBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.spillExecutor = spillExecutor;
+        // spilled results of a previous process are not in the disk cache and would never be deleted
+        if (spillDirectory.exists() && !LessFiles.deleteDir(spillDirectory)) {
+            log.warn("Unable to delete old spilled query results in {}", spillDirectory);
+        }
+        // a single segment so that entries close to the entry limit do not overflow a fraction of the budget
+        this.diskCache = CacheBuilder.newBuilder()
+                                     .concurrencyLevel(1)
+                                     .maximumWeight(Math.max(diskBytes, 1))
+                                     .<Key, File>weigher((key, file) -> (int) Math.min(file.length(), Integer.MAX_VALUE))
+                                     .removalListener(this::deleteSpill)
+                                     .build();
+        this.memoryCache = CacheBuilder.newBuilder()
+                                       .concurrencyLevel(1)
+                                       .maximumWeight(Math.max(memoryBytes, 1))
+                                       .<Key, byte[]>weigher((key, bytes) -> bytes.length)
+                                       .removalListener(this::spill)
+                                       .build();
+        log.info("Initializing QueryResultCache: {}", this);
+    }
+
+    boolean isEnabled() {
+        return memoryBytes > 0;
+    }
+
+    /**
+     * Returns the cache key for {@code query} when answered from {@code directory}, or null if the query
+     * should not use the cache.
+     */
+    @Nullable Key keyFor(String directory, Query query) {
+        if (!isEnabled() || "false".equals(query.getParameter("cache"))) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (QueryElement[] path : query.getQueryPaths()) {
+            sb.append(Query.getPathString(path)).append('\n');
+        }
+        sb.append(Arrays.toString(query.getOps()));
+        return new Key(directory, sb.toString());
+    }
+
+    /**
+     * Returns a stream over the cached encoded output for {@code key}, or null on a miss.
+     * The caller must close the stream.
+     */
+    @Nullable InputStream get(Key key) {
+        byte[] bytes = memoryCache.getIfPresent(key);
+        if (bytes != null) {
+            cacheHits.mark();
+            return new ByteArrayInputStream(bytes);
+        }
+        File file = diskCache.getIfPresent(key);
+        if (file != null) {
+            try {
+                InputStream in = new FileInputStream(file);
+                cacheHits.mark();
+                return in;
+            } catch (FileNotFoundException ex) {
+                log.debug("spilled query result {} was deleted before it could be read", file);
+            }
+        }
+        cacheMisses.mark();
+        return null;
+    }
+
+    /** Starts recording the encoded output of a query that missed the cache. */
+    Recording record(Key key) {
+        return new Recording(key);
+    }
+
+    /** Drops every result answered from {@code directory}. */
+    void invalidateDirectory(String directory) {
+        memoryCache.asMap().keySet().removeIf(key -> key.directory.equals(directory));
+        diskCache.asMap().keySet().removeIf(key -> key.directory.equals(directory));
+        if (diskBytes > 0) {
+            // results that were already queued for spilling reach the disk cache after this
+            spillExecutor.execute(() -> diskCache.asMap().keySet().removeIf(key -> key.directory.equals(directory)));
+        }
+        log.debug("invalidated query results for {}", directory);
+    }
+
+    private void spill(RemovalNotification<Key, byte[]> notification) {
+        if ((notification.getCause() != RemovalCause.SIZE) || (diskBytes <= 0)) {
+            return;
+        }
+        Key key = notification.getKey();
+        byte[] bytes = notification.getValue();
+        spillExecutor.execute(() -> writeSpill(key, bytes));
+    }
+
+    private void writeSpill(Key key, byte[] bytes) {
+        File file = new File(spillDirectory, UUID.randomUUID().toString());
+        try {
+            Files.createDirectories(spillDirectory.toPath());
+            Files.write(file.toPath(), bytes);
+            diskCache.put(key, file);
+            cacheSpills.mark();
+        } catch (IOException ex) {
+            log.warn("Unable to spill query result to {}", file, ex);
+            deleteFile(file);
+        }
+    }
+
+    private void deleteSpill(RemovalNotification<Key, File> notification) {
+        deleteFile(notification.getValue());
+    }
+
+    private static void deleteFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ex) {
+            log.warn("Unable to delete spilled query result {}", file, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                          .add("spillDirectory", spillDirectory)
+                          .add("memoryBytes", memoryBytes)
+                          .add("diskBytes", diskBytes)
+                          .add("maxEntryBytes", maxEntryBytes)
+                          .toString();
+    }
+
+    /** Canonical data directory and normalized query text. */
+    static final class Key {
+
+        final String directory;
+        final String query;
+
+        Key(String directory, String query) {
+            this.directory = directory;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return directory.equals(other.directory) && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(directory, query);
+        }
+
+        @Override
+        public String toString() {
+            return directory + ":" + query;
+        }
+    }
+
+    /**
+     * Collects the encoded output of one query. The output is only cached if {@link #complete()} is
+     * called before the recording grows past the entry limit.
+     */
+    final class Recording {
+
+        private final Key key;
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private Recording(Key key) {
+            this.key = key;
+        }
+
+        /** Appends a chunk of encoded output and returns false once the result is too large to cache. */
+        boolean append(byte[] chunk) {
+            if (bytes == null) {
+                return false;
+            }
+            if ((bytes.size() + chunk.length) > maxEntryBytes) {
+                bytes = null;
+                return false;
+            }
+            bytes.write(chunk, 0, chunk.length);
+            return true;
+        }
+
+        void complete() {
+            if (bytes != null) {
+                memoryCache.put(key, bytes.toByteArray());
+                bytes = null;
+            }
+        }
+    }
+}
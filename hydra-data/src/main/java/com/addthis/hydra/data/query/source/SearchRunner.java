@@ -14,6 +14,9 @@
 
 package com.addthis.hydra.data.query.source;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
@@ -28,6 +31,7 @@ import com.addthis.codec.json.CodecJSON;
 import com.addthis.hydra.data.query.Query;
 import com.addthis.hydra.data.query.QueryOpProcessor;
 import com.addthis.hydra.data.query.engine.QueryEngine;
+import com.addthis.hydra.data.query.engine.QueryEngineDirectory;
 import com.addthis.hydra.data.util.BundleUtils;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -93,7 +97,9 @@ public class SearchRunner implements Runnable {
         try {
             setup();
             finalEng = getEngine();
-            search();
+            if (!replayCachedResult()) {
+                search();
+            }
             //success
         } catch (CancellationException ignored) {
             log.info("query was cancelled remotely; stopping processing early");
@@ -187,6 +193,36 @@ public class SearchRunner implements Runnable {
         return engine;
     }
 
+    /**
+     * Part 2.5 - RESULT CACHE
+     * Send the cached output of an identical query against the same directory if there is one, otherwise
+     * start recording the output of this query for the cache.
+     *
+     * @return true if the cached output was sent and the search should be skipped
+     */
+    protected boolean replayCachedResult() throws IOException {
+        if (!(finalEng instanceof QueryEngineDirectory)) {
+            return false;
+        }
+        QueryResultCache cache = MeshQuerySource.queryResultCache;
+        QueryResultCache.Key key = cache.keyFor(((QueryEngineDirectory) finalEng).getDirectory(), query);
+        if (key == null) {
+            return false;
+        }
+        try (InputStream cached = cache.get(key)) {
+            if (cached == null) {
+                bridge.record(cache.record(key));
+                return false;
+            }
+            bridge.replay(cached);
+        }
+        if (log.isDebugEnabled() || query.isTraced()) {
+            Query.traceLog.info("[QueryReference] answered {} from the result cache directory: {}",
+                                query.uuid(), key.directory);
+        }
+        return true;
+    }
+
     /**
      * Part 3 - SEARCH
      * Run the search -- most of this logic is in QueryEngine.search(). We only take care of logging times and
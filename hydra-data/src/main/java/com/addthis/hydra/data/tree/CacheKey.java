@@ -33,6 +33,11 @@ public class CacheKey {
         hc = hash;
     }
 
+    public CacheKey(long db, long name) {
+        this(db, Long.toString(name));
+        this.dbkey = DBKey.numeric(db, name);
+    }
+
     public DBKey dbkey() {
         if (dbkey == null) {
             dbkey = new DBKey(db, Raw.get(name));
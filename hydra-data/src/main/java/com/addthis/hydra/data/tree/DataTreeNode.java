@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.data.tree;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import com.addthis.basis.util.ClosableIterator;
@@ -56,6 +58,12 @@ public interface DataTreeNode extends Iterable<DataTreeNode> {
      * The 'from' is inclusive and the 'to' is exclusive. */
     public ClosableIterator<DataTreeNode> getIterator(String from, String to);
 
+    /** Returns the names of at most {@code maxKeys} evenly spaced children in [from, to) that begin a storage
+     * page, without reading the children. A null bound is open. Empty if the node cannot tell. */
+    public default List<String> getChildPageKeys(String from, String to, int maxKeys) {
+        return Collections.emptyList();
+    }
+
     // Mutation Methods
 
     /** atomically increment intrinsic counter */
@@ -87,6 +95,15 @@ public interface DataTreeNode extends Iterable<DataTreeNode> {
         throw new UnsupportedOperationException("updateParentData");
     }
 
+    /**
+     * Adds the counter of {@code source} to this node and merges its data attachments
+     * with {@link TreeNodeData#merge}. Attachments missing from this node are moved over.
+     * Children of {@code source} are not visited.
+     */
+    public default void mergeNode(DataTreeNode source) {
+        throw new UnsupportedOperationException("mergeNode");
+    }
+
     /** Make this node an alias (link) to another node. This can succeed only if this node currently has no children. */
     public default boolean aliasTo(DataTreeNode target) {
         throw new UnsupportedOperationException("aliasTo");
@@ -107,6 +124,14 @@ public interface DataTreeNode extends Iterable<DataTreeNode> {
         throw new UnsupportedOperationException("getOrCreateNode");
     }
 
+    /**
+     * Equivalent to {@code getOrCreateNode(Long.toString(name), init)}. Implementations
+     * may avoid allocating a key for names that have been looked up recently.
+     */
+    public default DataTreeNode getOrCreateNode(long name, DataTreeNodeInitializer init) {
+        return getOrCreateNode(Long.toString(name), init);
+    }
+
     /**
      * return node if it exists, do not create otherwise.
      * returned node is mutable.  MUST call release().
@@ -115,6 +140,11 @@ public interface DataTreeNode extends Iterable<DataTreeNode> {
         throw new UnsupportedOperationException("getLeasedNode");
     }
 
+    /** Equivalent to {@code getLeasedNode(Long.toString(name))}. */
+    public default DataTreeNode getLeasedNode(long name) {
+        return getLeasedNode(Long.toString(name));
+    }
+
     /** TODO temporary workaround.  MUST call ONLY for nodes retrieved via getOrCreateNode(). */
     public default void release() {
         throw new UnsupportedOperationException("release");
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree;
+
+import com.addthis.basis.util.Parameter;
+
+/**
+ * Open addressing table of the cache keys of numeric child names. Looking
+ * up a (node db, name) pair that is already in the table allocates nothing,
+ * so repeated updates of the same numeric nodes do not create a new
+ * {@link CacheKey}, name string and {@link com.addthis.hydra.store.db.DBKey}
+ * for every bundle.
+ * <p/>
+ * The table has a fixed capacity. When every slot of a probe sequence is
+ * occupied the home slot is overwritten. This class is not thread-safe.
+ */
+public final class LongCacheKeys {
+
+    public static final int defaultCapacity = Parameter.intValue("hydra.tree.longkeys.capacity", 4096);
+
+    private static final int MAX_PROBES = 8;
+
+    private final long[] dbs;
+    private final long[] names;
+    private final CacheKey[] keys;
+    private final int mask;
+
+    public LongCacheKeys() {
+        this(defaultCapacity);
+    }
+
+    public LongCacheKeys(int capacity) {
+        int size = Integer.highestOneBit(Math.max(MAX_PROBES, capacity - 1) << 1);
+        this.dbs = new long[size];
+        this.names = new long[size];
+        this.keys = new CacheKey[size];
+        this.mask = size - 1;
+    }
+
+    public CacheKey get(long db, long name) {
+        int home = slot(db, name);
+        int empty = -1;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int index = (home + i) & mask;
+            CacheKey key = keys[index];
+            if (key == null) {
+                empty = index;
+                break;
+            } else if ((dbs[index] == db) && (names[index] == name)) {
+                return key;
+            }
+        }
+        int index = (empty >= 0) ? empty : home;
+        CacheKey key = new CacheKey(db, name);
+        dbs[index] = db;
+        names[index] = name;
+        keys[index] = key;
+        return key;
+    }
+
+    private int slot(long db, long name) {
+        long hash = (db * 0x9E3779B97F4A7C15L) ^ name;
+        hash ^= (hash >>> 33);
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= (hash >>> 33);
+        return (int) hash & mask;
+    }
+}
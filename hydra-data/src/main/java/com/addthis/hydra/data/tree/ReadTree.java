@@ -19,6 +19,8 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -29,6 +31,7 @@ import com.addthis.hydra.store.db.IPageDB;
 import com.addthis.hydra.store.db.ReadPageDB;
 import com.addthis.hydra.store.kv.ReadExternalPagedStore;
 import com.addthis.hydra.store.util.Raw;
+import com.addthis.hydra.store.util.SharedCache;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -86,7 +89,8 @@ public final class ReadTree implements DataTree {
     public final boolean metrics;
 
     private final ReadPageDB<ReadTreeNode> source;
-    private final LoadingCache<CacheKey, ReadTreeNode> loadingNodeCache;
+    @Nullable private final LoadingCache<CacheKey, ReadTreeNode> loadingNodeCache;
+    @Nullable private final SharedCache.Partition<CacheKey, ReadTreeNode> sharedNodeCache;
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
     public ReadTree(File root) throws Exception {
@@ -104,48 +108,64 @@ public final class ReadTree implements DataTree {
         this.advanced = TreeConfig.readFromDataDirectory(root.toPath());
         source = initSource();
         try {
-            CacheBuilder<? super CacheKey, ? super ReadTreeNode> cacheBuilder = CacheBuilder.newBuilder();
-            if (nodeCacheWeight != 0) {
-                // limit by weight
-                cacheBuilder = cacheBuilder
-                        .maximumWeight((long) (nodeCacheWeight * advanced.cacheWeight))
-                        .weigher((key, value) -> {
-                            /* A lean node goes from 24 to 24 + its string name and + cacheKey. the 24 becomes a
-                            small percentage.
-
-                            Dangerous, fat nodes typically have lots of serialized strings in their value payload.
-                            The inflation ratio there is actually probably less than for lean nodes since the various
-                            pointers for the string objects may not be nearly as large as the strings themselves.
-                            Therefore, holding them to the lean node's expansion standard is probably conservative
-                            enough. */
-                            return value.getWeight();
-                        });
+            SharedCache sharedCache = SharedCache.processCache();
+            if (sharedCache != null) {
+                // nodes are weighed as they would be by the weighted node cache
+                sharedNodeCache = sharedCache.partition(root.getPath(), ReadTreeNode::getWeight);
+                loadingNodeCache = null;
             } else {
-                // Limit by the number of nodes
-                cacheBuilder = cacheBuilder.maximumSize((long) (nodeCacheSize * advanced.cacheWeight));
+                sharedNodeCache = null;
+                loadingNodeCache = newNodeCache();
             }
-            loadingNodeCache = cacheBuilder.build(
-                    new CacheLoader<CacheKey, ReadTreeNode>() {
-                        @Override public ReadTreeNode load(CacheKey key) throws Exception {
-                            ReadTreeNode node = sourceGet(key.dbkey());
-                            if (node != null) {
-                                node.init(ReadTree.this, key.name);
-                                return node;
-                            } else {
-                                return MISSING;
-                            }
-                        }
-                    });
             rootNode = getNode(1, "root");
             if (rootNode == null) {
                 throw new IllegalStateException("missing root in readonly tree");
             }
         } catch (Exception e) {
-            source.close();
+            close();
             throw e;
         }
     }
 
+    private LoadingCache<CacheKey, ReadTreeNode> newNodeCache() {
+        CacheBuilder<? super CacheKey, ? super ReadTreeNode> cacheBuilder = CacheBuilder.newBuilder();
+        if (nodeCacheWeight != 0) {
+            // limit by weight
+            cacheBuilder = cacheBuilder
+                    .maximumWeight((long) (nodeCacheWeight * advanced.cacheWeight))
+                    .weigher((key, value) -> {
+                        /* A lean node goes from 24 to 24 + its string name and + cacheKey. the 24 becomes a
+                        small percentage.
+
+                        Dangerous, fat nodes typically have lots of serialized strings in their value payload.
+                        The inflation ratio there is actually probably less than for lean nodes since the various
+                        pointers for the string objects may not be nearly as large as the strings themselves.
+                        Therefore, holding them to the lean node's expansion standard is probably conservative
+                        enough. */
+                        return value.getWeight();
+                    });
+        } else {
+            // Limit by the number of nodes
+            cacheBuilder = cacheBuilder.maximumSize((long) (nodeCacheSize * advanced.cacheWeight));
+        }
+        return cacheBuilder.build(
+                new CacheLoader<CacheKey, ReadTreeNode>() {
+                    @Override public ReadTreeNode load(CacheKey key) throws Exception {
+                        return loadNode(key);
+                    }
+                });
+    }
+
+    private ReadTreeNode loadNode(CacheKey key) {
+        ReadTreeNode node = sourceGet(key.dbkey());
+        if (node != null) {
+            node.init(this, key.name);
+            return node;
+        } else {
+            return MISSING;
+        }
+    }
+
     /**
      * Creates the ReadPageDB source object and also emits some timing metrics for that operation. The returned source
      * MUST be closed when no longer needed.
@@ -168,7 +188,13 @@ public final class ReadTree implements DataTree {
      */
     public void warmCacheFrom(Iterable<CacheKey> keys) {
         try {
-            loadingNodeCache.getAll(keys);
+            if (sharedNodeCache != null) {
+                for (CacheKey key : keys) {
+                    sharedNodeCache.get(key, () -> loadNode(key));
+                }
+            } else {
+                loadingNodeCache.getAll(keys);
+            }
         } catch (Exception e) {
             log.error("Unexpected error warming cache for {} from {}", this, keys, e);
         }
@@ -179,6 +205,9 @@ public final class ReadTree implements DataTree {
      * be used for warming other caches but could also be helpful for metrics or debugging.
      */
     public Iterable<CacheKey> getCacheIterable() {
+        if (sharedNodeCache != null) {
+            return sharedNodeCache.keys();
+        }
         return loadingNodeCache.asMap().keySet();
     }
 
@@ -189,7 +218,12 @@ public final class ReadTree implements DataTree {
     @Nullable private ReadTreeNode getNode(long parentID, final String childName) {
         try {
             CacheKey key = new CacheKey(parentID, childName);
-            ReadTreeNode node = loadingNodeCache.get(key);
+            ReadTreeNode node;
+            if (sharedNodeCache != null) {
+                node = sharedNodeCache.get(key, () -> loadNode(key));
+            } else {
+                node = loadingNodeCache.get(key);
+            }
             if (node == MISSING) {
                 log.trace("[node.get] {} --> {} --> MISSING", parentID, childName);
                 return null;
@@ -241,6 +275,9 @@ public final class ReadTree implements DataTree {
             return;
         }
         log.debug("closing {}", this);
+        if (sharedNodeCache != null) {
+            sharedNodeCache.close();
+        }
         try {
             source.close();
         } catch (Exception ex)  {
@@ -275,6 +312,22 @@ public final class ReadTree implements DataTree {
         }
     }
 
+    /**
+     * Returns the names of at most {@code max} evenly spaced children of {@code db} in [from, to) that start
+     * a storage page. Only page boundaries are read; a null bound is open.
+     */
+    List<String> fetchPageNames(long db, String from, String to, int max) {
+        List<DBKey> keys = source.pageKeys(from == null ? new DBKey(db) : new DBKey(db, Raw.get(from)),
+                                           to == null ? new DBKey(db + 1) : new DBKey(db, Raw.get(to)), max);
+        List<String> names = new ArrayList<>(keys.size());
+        for (DBKey key : keys) {
+            if ((key.id() == db) && (key.rawKey() != null)) {
+                names.add(key.rawKey().toString());
+            }
+        }
+        return names;
+    }
+
     /**
      * The object that acts as the hash-key for the loading node cache. Also importantly provides the DBKey
      * used to pull nodes from the underlying data store. This class is static so that it will not hold a
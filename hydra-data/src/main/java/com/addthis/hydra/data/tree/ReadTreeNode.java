@@ -16,7 +16,9 @@ package com.addthis.hydra.data.tree;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -175,6 +177,10 @@ public class ReadTreeNode extends AbstractTreeNode implements IReadWeighable {
         return !hasNodes() ? new Iter(null) : new Iter(tree.fetchNodeRange(nodedb, from, to));
     }
 
+    @Override public List<String> getChildPageKeys(String from, String to, int maxKeys) {
+        return !hasNodes() ? Collections.emptyList() : tree.fetchPageNames(nodedb, from, to, maxKeys);
+    }
+
     @Override public byte[] bytesEncode(long version) {
         throw new UnsupportedOperationException("ReadTreeNode cannot be encoded");
     }
@@ -27,6 +27,8 @@ public class TreeCommonParameters {
     // max memory for a given page
     public static int maxPageMem = Parameter.intValue("hydra.tree.page.maxMem", 0);
     public static int memSample = Parameter.intValue("hydra.tree.mem.sample", 0);
+    // keep the values of clean pages in direct memory
+    public static boolean offHeapPages = Parameter.boolValue("hydra.tree.page.offheap", false);
     public static int meterLogging = Parameter.intValue("hydra.tree.meterlog", 0);
     public static final int meterLogLines = Parameter.intValue("hydra.tree.loglines", 100000);
     public static int cacheShards = Parameter.intValue("hydra.tree.shards", Runtime.getRuntime().availableProcessors() * 8);
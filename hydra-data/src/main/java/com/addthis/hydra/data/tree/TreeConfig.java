@@ -51,11 +51,25 @@ public final class TreeConfig {
     public final double cacheWeight;
     /** (dangerous!) Forces a (query) cache weight of zero regardless of actual memory usage or cache ratio. */
     public final boolean unevictable;
+    /** Implementation of the cache of live nodes used by a concurrent tree while it is being built. */
+    public final NodeCacheType nodeCache;
 
     public TreeConfig(@JsonProperty("cacheWeight") double cacheWeight,
-                      @JsonProperty("unevictable") boolean unevictable) {
+                      @JsonProperty("unevictable") boolean unevictable,
+                      @JsonProperty("nodeCache") NodeCacheType nodeCache) {
         this.cacheWeight = cacheWeight;
         this.unevictable = unevictable;
+        this.nodeCache = (nodeCache != null) ? nodeCache : NodeCacheType.LINKED;
+    }
+
+    public enum NodeCacheType {
+        /** A single concurrent linked hash map that writes evicted nodes from the evicting thread. */
+        LINKED,
+        /**
+         * A cache striped by key hash with per-stripe TinyLFU admission. Evicted
+         * nodes are written to the page store in batches by a background thread.
+         */
+        STRIPED
     }
 
     @JsonIgnore public double cacheWeight() {
@@ -97,17 +111,19 @@ public final class TreeConfig {
         }
         TreeConfig config = (TreeConfig) o;
         return Objects.equals(this.cacheWeight, config.cacheWeight) &&
-               Objects.equals(this.unevictable, config.unevictable);
+               Objects.equals(this.unevictable, config.unevictable) &&
+               Objects.equals(this.nodeCache, config.nodeCache);
     }
 
     @Override public int hashCode() {
-        return Objects.hash(this.cacheWeight, this.unevictable);
+        return Objects.hash(this.cacheWeight, this.unevictable, this.nodeCache);
     }
 
     @Override public String toString() {
         return toStringHelper(this)
                 .add("cacheWeight", cacheWeight)
                 .add("unevictable", unevictable)
+                .add("nodeCache", nodeCache)
                 .toString();
     }
 }
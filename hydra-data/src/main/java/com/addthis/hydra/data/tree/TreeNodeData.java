@@ -65,6 +65,24 @@ public abstract class TreeNodeData<C extends TreeDataParameters<?>> implements B
         return false;
     }
 
+    /**
+     * override and return true if {@link #merge(TreeNodeData)} is implemented
+     * and the attachment does not update its parent node. Such attachments
+     * may be built in a private subtree and folded into the tree later.
+     */
+    public boolean isMergeable() {
+        return false;
+    }
+
+    /**
+     * fold the state of another instance, created from the same configuration,
+     * into this instance. The result should be the same as if the updates
+     * applied to {@code other} had been applied to this instance.
+     */
+    public void merge(TreeNodeData<C> other) {
+        throw new UnsupportedOperationException("merge");
+    }
+
     /**
      * return a stored value to the query engine given a query key
      */
@@ -19,8 +19,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
@@ -47,7 +49,9 @@ import com.addthis.hydra.data.tree.DataTreeNode;
 import com.addthis.hydra.data.tree.DataTreeNodeActor;
 import com.addthis.hydra.data.tree.DataTreeNodeInitializer;
 import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.LongCacheKeys;
 import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.data.tree.TreeConfig;
 import com.addthis.hydra.data.tree.TreeDataParent;
 import com.addthis.hydra.data.tree.TreeNodeData;
 import com.addthis.hydra.store.common.PageFactory;
@@ -57,6 +61,7 @@ import com.addthis.hydra.store.db.IPageDB;
 import com.addthis.hydra.store.db.PageDB;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.skiplist.ConcurrentPage;
+import com.addthis.hydra.store.skiplist.OffHeapPage;
 import com.addthis.hydra.store.skiplist.SkipListCache;
 import com.addthis.hydra.store.util.MeterFileLogger;
 import com.addthis.hydra.store.util.MeterFileLogger.MeterDataSource;
@@ -114,8 +119,11 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     private final Meter<METERTREE> meter;
     private final MeterFileLogger logger;
     private final AtomicDouble cacheHitRate = new AtomicDouble(0.0);
-    private final MediatedEvictionConcurrentHashMap<CacheKey, ConcurrentTreeNode> cache;
+    private final ConcurrentMap<CacheKey, ConcurrentTreeNode> cache;
+    /** Non-null when the node cache is a {@link StripedNodeCache}. */
+    private final StripedNodeCache stripedCache;
     private final ScheduledExecutorService deletionThreadPool;
+    private final ThreadLocal<LongCacheKeys> longCacheKeys = ThreadLocal.withInitial(LongCacheKeys::new);
 
     @GuardedBy("treeTrashNode")
     private IPageDB.Range<DBKey, ConcurrentTreeNode> trashIterator;
@@ -142,6 +150,12 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
 
     ConcurrentTree(File root, int numDeletionThreads, int cleanQSize, int maxCacheSize,
                    int maxPageSize, PageFactory factory) throws Exception {
+        this(root, numDeletionThreads, cleanQSize, maxCacheSize, maxPageSize, factory,
+             TreeConfig.NodeCacheType.LINKED);
+    }
+
+    ConcurrentTree(File root, int numDeletionThreads, int cleanQSize, int maxCacheSize,
+                   int maxPageSize, PageFactory factory, TreeConfig.NodeCacheType nodeCache) throws Exception {
         LessFiles.initDirectory(root);
         this.root = root;
         long start = System.currentTimeMillis();
@@ -166,10 +180,16 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         source.setPageMem(TreeCommonParameters.maxPageMem);
         source.setMemSampleInterval(TreeCommonParameters.memSample);
         // create cache
-        cache = new MediatedEvictionConcurrentHashMap.Builder<CacheKey, ConcurrentTreeNode>()
-                .mediator(new CacheMediator(source))
-                .maximumWeightedCapacity(cleanQSize)
-                .build();
+        if (nodeCache == TreeConfig.NodeCacheType.STRIPED) {
+            stripedCache = new StripedNodeCache(source, cleanQSize, scope);
+            cache = stripedCache;
+        } else {
+            stripedCache = null;
+            cache = new MediatedEvictionConcurrentHashMap.Builder<CacheKey, ConcurrentTreeNode>()
+                    .mediator(new CacheMediator(source))
+                    .maximumWeightedCapacity(cleanQSize)
+                    .build();
+        }
 
         // get stored next db id
         idFile = new File(root, "nextID");
@@ -200,9 +220,14 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     }
 
     public ConcurrentTree(File root) throws Exception {
+        this(root, TreeConfig.NodeCacheType.LINKED);
+    }
+
+    public ConcurrentTree(File root, TreeConfig.NodeCacheType nodeCache) throws Exception {
         this(root, defaultNumDeletionThreads, TreeCommonParameters.cleanQMax,
                 TreeCommonParameters.maxCacheSize, TreeCommonParameters.maxPageSize,
-                ConcurrentPage.ConcurrentPageFactory.singleton);
+                TreeCommonParameters.offHeapPages ? OffHeapPage.OffHeapPageFactory.singleton :
+                ConcurrentPage.ConcurrentPageFactory.singleton, nodeCache);
     }
 
     public void meter(METERTREE meterval) {
@@ -241,7 +266,19 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
             log.trace("[node.get] {} --> {} NOMAP --> null", parent, child);
             return null;
         }
-        CacheKey key = new CacheKey(nodedb, child);
+        return getNode(new CacheKey(nodedb, child), lease);
+    }
+
+    public ConcurrentTreeNode getNode(final ConcurrentTreeNode parent, final long child, final boolean lease) {
+        long nodedb = parent.nodeDB();
+        if (nodedb <= 0) {
+            log.trace("[node.get] {} --> {} NOMAP --> null", parent, child);
+            return null;
+        }
+        return getNode(longCacheKeys.get().get(nodedb, child), lease);
+    }
+
+    private ConcurrentTreeNode getNode(final CacheKey key, final boolean lease) {
 
         /**
          * (1) First check the cache for the (key, value) pair. If the value
@@ -292,7 +329,21 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     public ConcurrentTreeNode getOrCreateNode(final ConcurrentTreeNode parent, final String child,
                                               final DataTreeNodeInitializer creator) {
         parent.requireNodeDB();
-        CacheKey key = new CacheKey(parent.nodeDB(), child);
+        return getOrCreateNode(parent, new CacheKey(parent.nodeDB(), child), creator);
+    }
+
+    /**
+     * Numeric child names are looked up through a thread local {@link LongCacheKeys}
+     * so that updating an existing node does not allocate a new cache key.
+     */
+    public ConcurrentTreeNode getOrCreateNode(final ConcurrentTreeNode parent, final long child,
+                                              final DataTreeNodeInitializer creator) {
+        parent.requireNodeDB();
+        return getOrCreateNode(parent, longCacheKeys.get().get(parent.nodeDB(), child), creator);
+    }
+
+    private ConcurrentTreeNode getOrCreateNode(final ConcurrentTreeNode parent, final CacheKey key,
+                                               final DataTreeNodeInitializer creator) {
         ConcurrentTreeNode newNode = null;
 
         while (true) {
@@ -407,6 +458,22 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
                 to == null ? new DBKey(db+1, (Raw)null) : new DBKey(db, Raw.get(to)));
     }
 
+    /**
+     * Returns the names of at most {@code max} evenly spaced children of {@code db} in [from, to) that start
+     * a storage page. Only page boundaries are read; a null bound is open.
+     */
+    List<String> fetchPageNames(long db, String from, String to, int max) {
+        List<DBKey> keys = source.pageKeys(from == null ? new DBKey(db) : new DBKey(db, Raw.get(from)),
+                                           to == null ? new DBKey(db + 1) : new DBKey(db, Raw.get(to)), max);
+        List<String> names = new ArrayList<>(keys.size());
+        for (DBKey key : keys) {
+            if ((key.id() == db) && (key.rawKey() != null)) {
+                names.add(key.rawKey().toString());
+            }
+        }
+        return names;
+    }
+
     @Override public ConcurrentTreeNode getRootNode() {
         return treeRootNode;
     }
@@ -468,6 +535,9 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     @Override
     public void sync() throws IOException {
         log.debug("[sync] start");
+        if (stripedCache != null) {
+            stripedCache.flush();
+        }
         for (ConcurrentTreeNode node : cache.values()) {
             if (!node.isDeleted() && node.isChanged()) {
                 source.put(node.getDbkey(), node);
@@ -521,6 +591,9 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
             treeTrashNode.release();
         }
         sync();
+        if (stripedCache != null) {
+            stripedCache.close();
+        }
         if (source != null) {
             int status = source.close(cleanLog, operation);
             if (status != 0) {
@@ -15,6 +15,7 @@ package com.addthis.hydra.data.tree.concurrent;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -183,8 +184,22 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         return leases.getAndSet(-2) != -2;
     }
 
-    protected void evictionComplete() {
-        leases.compareAndSet(-1, -3);
+    /**
+     * Transition from the evicting state to the evicted state.
+     *
+     * @return {@code true} if the node was in the evicting state
+     */
+    protected boolean evictionComplete() {
+        return leases.compareAndSet(-1, -3);
+    }
+
+    /**
+     * Return a node that is being evicted to the idle state.
+     *
+     * @return {@code true} if the node was in the evicting state
+     */
+    boolean cancelEviction() {
+        return leases.compareAndSet(-1, 0);
     }
 
     protected synchronized void markAlias() {
@@ -332,6 +347,13 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         return new Iter(tree.fetchNodeRange(nodedb, from, to), true);
     }
 
+    @Override public List<String> getChildPageKeys(String from, String to, int maxKeys) {
+        if (!hasNodes() || isDeleted()) {
+            return Collections.emptyList();
+        }
+        return tree.fetchPageNames(nodedb, from, to, maxKeys);
+    }
+
     @Override public ConcurrentTreeNode getNode(String name) {
         return tree.getNode(this, name, false);
     }
@@ -340,6 +362,10 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         return tree.getNode(this, name, true);
     }
 
+    @Override public ConcurrentTreeNode getLeasedNode(long name) {
+        return tree.getNode(this, name, true);
+    }
+
     public ConcurrentTreeNode getOrCreateEditableNode(String name) {
         return getOrCreateEditableNode(name, null);
     }
@@ -453,6 +479,33 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         }
     }
 
+    @Override @SuppressWarnings("unchecked")
+    public void mergeNode(DataTreeNode source) {
+        requireEditable();
+        Map<String, TreeNodeData> sourceData = source.getDataMap();
+        lock.writeLock().lock();
+        try {
+            hits += source.getCounter();
+            if (sourceData != null) {
+                if (data == null) {
+                    data = new HashMap<>(sourceData.size());
+                }
+                for (Entry<String, TreeNodeData> el : sourceData.entrySet()) {
+                    TreeNodeData tnd = data.get(el.getKey());
+                    if (tnd == null) {
+                        el.getValue().setBoundNode(this);
+                        data.put(el.getKey(), el.getValue());
+                    } else if (tnd.getClass() == el.getValue().getClass()) {
+                        tnd.merge(el.getValue());
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        changed.set(true);
+    }
+
     // TODO concurrent broken -- data classes should be responsible for their
     // own get/update sync
     @Override public DataTreeNodeActor getData(String key) {
@@ -606,6 +659,11 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         return getOrCreateEditableNode(name, init);
     }
 
+    @Override
+    public DataTreeNode getOrCreateNode(long name, DataTreeNodeInitializer init) {
+        return tree.getOrCreateNode(this, name, init);
+    }
+
     /**
      * The synchronized methods protecting the {@code counter} field
      * is a code smell. This should probably be protected by the
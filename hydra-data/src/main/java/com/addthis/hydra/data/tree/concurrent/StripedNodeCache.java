@@ -0,0 +1,395 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.concurrent;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.data.tree.CacheKey;
+import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.IPageDB;
+import com.addthis.hydra.store.util.FrequencySketch;
+import com.addthis.hydra.store.util.NamedThreadFactory;
+
+import com.google.common.collect.Iterators;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node cache of a {@link ConcurrentTree} that is striped by the hash of the cache key.
+ * Lookups are a single {@link ConcurrentHashMap#get(Object)} on the stripe plus a
+ * frequency sketch increment and take no locks. Insertions take the lock of their
+ * stripe only.
+ * <p/>
+ * Each stripe is bounded and uses TinyLFU admission. New keys enter a probation queue.
+ * When the stripe is full the oldest probationary key competes with the oldest key of
+ * the main queue and the key with the lower estimated frequency is evicted. Nodes that
+ * are leased are never evicted, they are moved to the back of their queue instead.
+ * <p/>
+ * A changed node that is evicted stays in its stripe in the evicting state until a
+ * background thread has written it to the page store. Writes are batched and sorted by
+ * key. The node is removed from the stripe only after it has been written so the page
+ * store is never read while a newer copy of a node is waiting to be written, and a
+ * lookup of a node that is waiting to be written cancels its eviction. Evicting threads
+ * write the backlog themselves once it exceeds the cache capacity.
+ */
+final class StripedNodeCache extends AbstractMap<CacheKey, ConcurrentTreeNode>
+        implements ConcurrentMap<CacheKey, ConcurrentTreeNode> {
+
+    private static final Logger log = LoggerFactory.getLogger(StripedNodeCache.class);
+
+    /** Minimum number of nodes per stripe. Small caches use fewer stripes. */
+    private static final int minStripeSize = Parameter.intValue("hydra.tree.striped.minStripeSize", 16);
+    /** Percentage of each stripe reserved for keys that won admission. */
+    private static final int mainPercent = Parameter.intValue("hydra.tree.striped.mainPercent", 80);
+    private static final int writeBackBatch = Parameter.intValue("hydra.tree.striped.writeback.batch", 256);
+    private static final int writeBackInterval = Parameter.intValue("hydra.tree.striped.writeback.interval", 50);
+
+    /** Upper bound on the keys examined for a single eviction. */
+    private static final int MAX_EVICTION_ATTEMPTS = 64;
+
+    private static final Comparator<Map.Entry<CacheKey, Pending>> KEY_ORDER =
+            Comparator.comparing((Map.Entry<CacheKey, Pending> entry) -> entry.getKey().dbkey());
+
+    private final IPageDB<DBKey, ConcurrentTreeNode> source;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacity;
+
+    /**
+     * Evicted nodes that are waiting to be written. Every eviction
+     * is a distinct {@link Pending} instance so that the writer can
+     * detect a node that was evicted again while it was being written.
+     */
+    private final ConcurrentHashMap<CacheKey, Pending> writeBack = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    final AtomicLong evictions = new AtomicLong();
+    final AtomicLong cancelled = new AtomicLong();
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong nodesWritten = new AtomicLong();
+
+    StripedNodeCache(IPageDB<DBKey, ConcurrentTreeNode> source, int capacity, String scope) {
+        this.source = source;
+        this.capacity = capacity;
+        int maxStripes = Math.max(1, capacity / minStripeSize);
+        int numStripes = Integer.highestOneBit(Math.max(1, Math.min(TreeCommonParameters.cacheShards, maxStripes)));
+        int stripeCapacity = (capacity + numStripes - 1) / numStripes;
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+        this.stripeMask = numStripes - 1;
+        this.writer = new NamedThreadFactory(scope + "-writeback-", true).newThread(this::run);
+        this.writer.start();
+    }
+
+    private Stripe stripe(Object key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+    }
+
+    @Override
+    public ConcurrentTreeNode get(Object key) {
+        Stripe stripe = stripe(key);
+        CacheKey cacheKey = (CacheKey) key;
+        stripe.sketch.increment(cacheKey.hc);
+        ConcurrentTreeNode node = stripe.map.get(cacheKey);
+        if ((node != null) && node.cancelEviction()) {
+            // the node is still waiting to be written and is active again
+            cancelled.incrementAndGet();
+            stripe.lock.lock();
+            try {
+                stripe.probation.addLast(cacheKey);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return node;
+    }
+
+    @Override
+    public ConcurrentTreeNode putIfAbsent(CacheKey key, ConcurrentTreeNode node) {
+        Stripe stripe = stripe(key);
+        ConcurrentTreeNode prev = stripe.map.putIfAbsent(key, node);
+        if (prev == null) {
+            admit(stripe, key);
+        }
+        return prev;
+    }
+
+    @Override
+    public ConcurrentTreeNode put(CacheKey key, ConcurrentTreeNode node) {
+        Stripe stripe = stripe(key);
+        ConcurrentTreeNode prev = stripe.map.put(key, node);
+        if (prev == null) {
+            admit(stripe, key);
+        }
+        return prev;
+    }
+
+    private void admit(Stripe stripe, CacheKey key) {
+        stripe.lock.lock();
+        try {
+            stripe.probation.addLast(key);
+            while (((stripe.map.size() - stripe.pending.get()) > stripe.capacity) && stripe.evictOne()) {
+                evictions.incrementAndGet();
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (writeBack.size() > capacity) {
+            flush();
+        }
+    }
+
+    @Override
+    public ConcurrentTreeNode remove(Object key) {
+        return stripe(key).map.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return stripe(key).map.remove(key, value);
+    }
+
+    @Override
+    public boolean replace(CacheKey key, ConcurrentTreeNode oldValue, ConcurrentTreeNode newValue) {
+        return stripe(key).map.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public ConcurrentTreeNode replace(CacheKey key, ConcurrentTreeNode value) {
+        return stripe(key).map.replace(key, value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return stripe(key).map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.map.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<CacheKey, ConcurrentTreeNode>> entrySet() {
+        return new AbstractSet<Entry<CacheKey, ConcurrentTreeNode>>() {
+            @Override
+            public Iterator<Entry<CacheKey, ConcurrentTreeNode>> iterator() {
+                List<Iterator<Entry<CacheKey, ConcurrentTreeNode>>> iterators = new ArrayList<>(stripes.length);
+                for (Stripe stripe : stripes) {
+                    iterators.add(stripe.map.entrySet().iterator());
+                }
+                return Iterators.concat(iterators.iterator());
+            }
+
+            @Override
+            public int size() {
+                return StripedNodeCache.this.size();
+            }
+        };
+    }
+
+    int pendingWrites() {
+        return writeBack.size();
+    }
+
+    private void run() {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(writeBackInterval);
+        while (running) {
+            LockSupport.parkNanos(this, intervalNanos);
+            if (running && !writeBack.isEmpty()) {
+                try {
+                    flush();
+                } catch (Exception ex) {
+                    log.error("Error writing evicted nodes. Nodes will be retried.", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes every node that is waiting to be written back.
+     */
+    void flush() {
+        writeLock.lock();
+        try {
+            Iterator<Entry<CacheKey, Pending>> iterator = writeBack.entrySet().iterator();
+            List<Entry<CacheKey, Pending>> batch = new ArrayList<>(writeBackBatch);
+            while (iterator.hasNext()) {
+                batch.clear();
+                while (iterator.hasNext() && (batch.size() < writeBackBatch)) {
+                    batch.add(iterator.next());
+                }
+                // consecutive keys are usually stored in the same page
+                batch.sort(KEY_ORDER);
+                for (Entry<CacheKey, Pending> entry : batch) {
+                    write(entry.getKey(), entry.getValue());
+                }
+                batches.incrementAndGet();
+                nodesWritten.addAndGet(batch.size());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void write(CacheKey key, Pending pending) {
+        ConcurrentTreeNode node = pending.node;
+        if (!node.isDeleted()) {
+            source.put(key.dbkey(), node);
+        }
+        Stripe stripe = stripe(key);
+        if (node.evictionComplete()) {
+            // the node can no longer be leased. If it was reactivated and evicted
+            // again while it was being written then write its final state.
+            if ((writeBack.get(key) != pending) && !node.isDeleted()) {
+                source.put(key.dbkey(), node);
+            }
+            stripe.map.remove(key, node);
+        }
+        if (writeBack.remove(key, pending)) {
+            stripe.pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops the background writer and writes the remaining evicted nodes.
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        log.info("striped node cache: evictions={} cancelled={} batches={} written={}",
+                 evictions, cancelled, batches, nodesWritten);
+    }
+
+    private static final class Pending {
+
+        final ConcurrentTreeNode node;
+
+        Pending(ConcurrentTreeNode node) {
+            this.node = node;
+        }
+    }
+
+    private final class Stripe {
+
+        final ConcurrentHashMap<CacheKey, ConcurrentTreeNode> map;
+        final FrequencySketch sketch;
+        final int capacity;
+        final int mainCapacity;
+        /** Number of keys of this stripe in the write-back map. */
+        final AtomicInteger pending = new AtomicInteger();
+
+        final ReentrantLock lock = new ReentrantLock();
+        /** Keys that have not yet won admission. Guarded by {@link #lock}. */
+        final ArrayDeque<CacheKey> probation = new ArrayDeque<>();
+        /** Keys that have won admission. Guarded by {@link #lock}. */
+        final ArrayDeque<CacheKey> main = new ArrayDeque<>();
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            this.mainCapacity = Math.max(1, (capacity * mainPercent) / 100);
+            this.map = new ConcurrentHashMap<>(capacity + (capacity >> 1));
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        /**
+         * Evicts one node. Queue entries of keys that have already left the map
+         * are discarded along the way. Returns false if nothing could be evicted.
+         */
+        boolean evictOne() {
+            for (int attempt = 0; attempt < MAX_EVICTION_ATTEMPTS; attempt++) {
+                CacheKey candidate = probation.peekFirst();
+                if ((candidate != null) && (main.size() < mainCapacity)) {
+                    main.addLast(probation.pollFirst());
+                    continue;
+                }
+                CacheKey victim = main.peekFirst();
+                ArrayDeque<CacheKey> queue;
+                if (candidate == null) {
+                    if (victim == null) {
+                        return false;
+                    }
+                    queue = main;
+                } else if ((victim != null) && (sketch.frequency(candidate.hc) > sketch.frequency(victim.hc))) {
+                    main.addLast(probation.pollFirst());
+                    queue = main;
+                } else {
+                    queue = probation;
+                }
+                CacheKey key = queue.pollFirst();
+                ConcurrentTreeNode node = map.get(key);
+                if (node == null) {
+                    continue;
+                } else if (tryEvict(key, node)) {
+                    return true;
+                } else if (node.getLeaseCount() >= 0) {
+                    queue.addLast(key);
+                }
+            }
+            return false;
+        }
+
+        private boolean tryEvict(CacheKey key, ConcurrentTreeNode node) {
+            if (!node.trySetEviction()) {
+                return false;
+            }
+            if (!node.isDeleted() && node.isChanged()) {
+                if (writeBack.put(key, new Pending(node)) == null) {
+                    pending.incrementAndGet();
+                }
+                if (writeBack.size() >= writeBackBatch) {
+                    LockSupport.unpark(writer);
+                }
+            } else {
+                map.remove(key, node);
+                node.evictionComplete();
+            }
+            return true;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import com.addthis.hydra.data.tree.DataTreeNode;
 import com.addthis.hydra.data.tree.DataTreeNodeActor;
 import com.addthis.hydra.data.tree.DataTreeNodeInitializer;
 import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.LongCacheKeys;
 import com.addthis.hydra.data.tree.TreeCommonParameters;
 import com.addthis.hydra.data.tree.TreeDataParent;
 import com.addthis.hydra.data.tree.TreeNodeData;
@@ -89,6 +90,7 @@ public final class NonConcurrentTree implements DataTree, MeterDataSource {
     final AtomicBoolean closed = new AtomicBoolean(false);
     private final Meter<METERTREE> meter;
     private final MeterFileLogger logger;
+    private final LongCacheKeys longCacheKeys = new LongCacheKeys();
 
     // number of nodes in between trash removal logging messages
     @Configuration.Parameter
@@ -173,7 +175,19 @@ public final class NonConcurrentTree implements DataTree, MeterDataSource {
             log.trace("[node.get] {} --> {} NOMAP --> null", parent, child);
             return null;
         }
-        CacheKey key = new CacheKey(nodedb, child);
+        return getNode(new CacheKey(nodedb, child));
+    }
+
+    public NonConcurrentTreeNode getNode(final NonConcurrentTreeNode parent, final long child, final boolean lease) {
+        long nodedb = parent.nodeDB();
+        if (nodedb <= 0) {
+            log.trace("[node.get] {} --> {} NOMAP --> null", parent, child);
+            return null;
+        }
+        return getNode(longCacheKeys.get(nodedb, child));
+    }
+
+    private NonConcurrentTreeNode getNode(final CacheKey key) {
         DBKey dbkey = key.dbkey();
         NonConcurrentTreeNode node = source.get(dbkey);
         if (node == null) {
@@ -188,8 +202,21 @@ public final class NonConcurrentTree implements DataTree, MeterDataSource {
     public NonConcurrentTreeNode getOrCreateNode(final NonConcurrentTreeNode parent, final String child,
                                                  final DataTreeNodeInitializer creator) {
         parent.requireNodeDB();
-        CacheKey key = new CacheKey(parent.nodeDB(), child);
+        return getOrCreateNode(parent, new CacheKey(parent.nodeDB(), child), creator);
+    }
+
+    /**
+     * Numeric child names are looked up through a {@link LongCacheKeys}
+     * so that updating an existing node does not allocate a new key.
+     */
+    public NonConcurrentTreeNode getOrCreateNode(final NonConcurrentTreeNode parent, final long child,
+                                                 final DataTreeNodeInitializer creator) {
+        parent.requireNodeDB();
+        return getOrCreateNode(parent, longCacheKeys.get(parent.nodeDB(), child), creator);
+    }
 
+    private NonConcurrentTreeNode getOrCreateNode(final NonConcurrentTreeNode parent, final CacheKey key,
+                                                  final DataTreeNodeInitializer creator) {
         DBKey dbkey = key.dbkey();
         NonConcurrentTreeNode node = source.get(dbkey);
 
@@ -163,6 +163,11 @@ public class NonConcurrentTreeNode extends AbstractTreeNode {
         return tree.getNode(this, name, true);
     }
 
+    @Override
+    public NonConcurrentTreeNode getLeasedNode(long name) {
+        return tree.getNode(this, name, true);
+    }
+
     public NonConcurrentTreeNode getOrCreateEditableNode(String name) {
         return getOrCreateEditableNode(name, null);
     }
@@ -325,6 +330,11 @@ public class NonConcurrentTreeNode extends AbstractTreeNode {
         return getOrCreateEditableNode(name, init);
     }
 
+    @Override
+    public DataTreeNode getOrCreateNode(long name, DataTreeNodeInitializer init) {
+        return tree.getOrCreateNode(this, name, init);
+    }
+
 
     @Override
     public long getCounter() {
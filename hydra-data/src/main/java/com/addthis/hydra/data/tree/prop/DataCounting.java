@@ -296,6 +296,20 @@ public class DataCounting extends TreeNodeData<DataCounting.Config> implements S
         return true;
     }
 
+    @Override
+    public boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    public void merge(TreeNodeData<Config> other) {
+        try {
+            ic = ic.merge(((DataCounting) other).ic);
+        } catch (CardinalityMergeException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void updateCounter(ValueObject value) {
         if (value == null) {
             return;
@@ -222,6 +222,16 @@ public class DataKeyTop extends TreeNodeData<DataKeyTop.Config> implements Codab
         }
     }
 
+    @Override
+    public boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    public void merge(TreeNodeData<Config> other) {
+        top.merge(((DataKeyTop) other).top, size);
+    }
+
     @Override
     public ValueObject getValue(String key) {
         if (key != null && key.length() > 0) {
@@ -141,6 +141,18 @@ public class DataSum extends TreeNodeData<DataSum.Config> {
         return true;
     }
 
+    @Override
+    public boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    public void merge(TreeNodeData<Config> other) {
+        DataSum ds = (DataSum) other;
+        sum += ds.sum;
+        num += ds.num;
+    }
+
     @Override
     public ValueObject getValue(String key) {
         if (key == null) {
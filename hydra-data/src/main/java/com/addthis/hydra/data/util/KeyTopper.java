@@ -206,6 +206,37 @@ public final class KeyTopper implements Codable, BytesCodable {
         return update(id, count + weight, maxsize);
     }
 
+    /**
+     * Adds the counts of another top N into this one. Each key of
+     * {@code other} is applied as a weighted {@link #increment}. If
+     * either top N is lossy then the merged counts are estimates and
+     * the error estimates of {@code other} are added to this one.
+     *
+     * @param other   top N to merge into this one
+     * @param maxsize maximum number of elements
+     */
+    public void merge(@Nonnull KeyTopper other, int maxsize) {
+        for (Map.Entry<String, Long> entry : other.getSortedEntries()) {
+            String id = entry.getKey();
+            Long count = map.get(id);
+            if (count == null) {
+                if (lossy && map.size() >= maxsize) {
+                    recreateMinimum(false);
+                    count = minVal;
+                } else {
+                    count = 0L;
+                }
+            }
+            String rejected = update(id, count + entry.getValue(), maxsize);
+            if (hasErrors() && other.hasErrors() && !id.equals(rejected)) {
+                long error = other.getError(id);
+                if (error > 0) {
+                    errors.merge(id, error, Long::sum);
+                }
+            }
+        }
+    }
+
     /**
      * Increments the count for 'ID' in the top map if 'ID' already exists in
      * the map. This method is used if you want to increment a lossy top without
@@ -174,6 +174,30 @@ public class TestOpGather extends TestOp {
         );
     }
 
+    @Test
+    public void testGatherSpillsSortedRuns() throws Exception {
+        System.setProperty("opgather.tiptodisk", "true");
+
+        // every key is spread over several runs and the last rows are still in memory at completion
+        doOpTest(
+                new DataTableHelper().
+                        tr().td("c", "1", "x").
+                        tr().td("a", "2", "y").
+                        tr().td("b", "3", "x").
+                        tr().td("a", "4", "z").
+                        tr().td("c", "5", "y").
+                        tr().td("b", "6", "y").
+                        tr().td("a", "7", "x").
+                        tr().td("c", "8", "z"),
+                "gather=ksju",
+                new DataTableHelper().
+                        tr().td("a", "13", "y,z,x", "3").
+                        tr().td("b", "9", "x,y", "2").
+                        tr().td("c", "14", "x,y,z", "3"),
+                2, 0
+        );
+    }
+
     //@Test
     public void comparePerformance() throws Exception {
         long inMemoryTime = 0;
@@ -38,4 +38,21 @@ public class TestOpSort extends TestOp {
         doOpTest(dataTable2, "sort", parse("1 X|2 B|3 A|4 C"));
         doOpTest(dataTableDecimals, "sort=1:d:a", parse("D .102392|B .8282|A .9|C .95"));
     }
+
+    @Test
+    public void testSortLimit() throws Exception {
+        DataTableHelper basicTable = parse("A 1 art|B 2 bot|C 3 cog|D 4 din");
+        DataTableHelper dataTable = parse("0 A 3|1 A 1|0 A 5|1 B 2");
+        doOpTest(parse(""), "sort=1:n:d;limit=2", parse(""));
+        doOpTest(basicTable, "sort=1:n:d;limit=2", parse("D 4 din|C 3 cog"));
+        doOpTest(basicTable, "dsort=1:n:d;limit=1:2", parse("C 3 cog|B 2 bot"));
+        doOpTest(basicTable, "sort=1:n:a;limit=10", parse("A 1 art|B 2 bot|C 3 cog|D 4 din"));
+        // rows that compare equal keep their input order
+        doOpTest(dataTable, "sort=0:n:a;limit=2", parse("0 A 3|0 A 5"));
+        doOpTest(dataTable, "sort=0:n:d;limit=3", parse("1 A 1|1 B 2|0 A 3"));
+        doOpTest(basicTable, "sort=1:n:d;limit=3;sort=1:n:a", parse("B 2 bot|C 3 cog|D 4 din"));
+        // limits above query.fuseSortLimit.maxRows keep the disk sort
+        doOpTest(basicTable, "sort=1:n:d;limit=1000000", parse("D 4 din|C 3 cog|B 2 bot|A 1 art"));
+        doOpTest(basicTable, "dsort=1:n:d;limit=1:2000000000", parse("C 3 cog|B 2 bot|A 1 art"));
+    }
 }
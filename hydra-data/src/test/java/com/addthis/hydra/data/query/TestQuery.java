@@ -13,11 +13,34 @@
  */
 package com.addthis.hydra.data.query;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.hydra.data.query.engine.QueryEngine;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+import com.addthis.hydra.data.tree.concurrent.TreeBuilder;
+import com.addthis.hydra.store.db.CloseOperation;
+
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 
 public class TestQuery {
 
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Test
     public void testCompact() {
         String path = "+:+hits,+nodes$+foo=123/+/++123/+%top=hit/a,b,c/|foo/|+bar/*/+%goo/(1-5)+";
@@ -33,4 +56,95 @@ public class TestQuery {
         Query subQ = q.createPipelinedQuery();
         System.out.println(subQ.toString());
     }
+
+    @Test
+    public void keyRange() {
+        Query q = new Query("job", new String[] {"+/+@a,m/a,b/../|+foo"}, null);
+        QueryElement[] path = q.getQueryPaths().get(0);
+        Assert.assertArrayEquals(new String[2], path[0].keyRange());
+        Assert.assertArrayEquals(new String[] {"a", "m"}, path[1].keyRange());
+        Assert.assertNull(path[2].keyRange());
+        Assert.assertNull(path[3].keyRange());
+        Assert.assertNull(path[4].keyRange());
+    }
+
+    @Test
+    public void ignoresInputOrder() {
+        String[] paths = {"+"};
+        Assert.assertFalse(new Query("job", paths, null).ignoresInputOrder());
+        Assert.assertFalse(new Query("job", paths, new String[] {"sort=0"}).ignoresInputOrder());
+        Assert.assertTrue(new Query("job", paths, new String[] {"gather=ks;sort=0"}).ignoresInputOrder());
+        Assert.assertTrue(new Query("job", paths, new String[] {"limit=5", "top=ks"}).ignoresInputOrder());
+        Assert.assertFalse(new Query("job", paths, new String[] {"gather=kj"}).ignoresInputOrder());
+        Assert.assertFalse(new Query("job", paths, new String[] {"gather=kd"}).ignoresInputOrder());
+        Assert.assertFalse(new Query("job", paths, new String[] {"gather=ksl"}).ignoresInputOrder());
+        Assert.assertTrue(new Query("job", paths, new String[] {"gather=kscua"}).ignoresInputOrder());
+    }
+
+    @Test
+    public void parallelSearchMatchesSerial() throws Exception {
+        ConcurrentTree tree = new TreeBuilder(tempFolder.newFolder()).maxPageSize(50).multiThreadedTree();
+        try {
+            ConcurrentTreeNode root = tree.getRootNode();
+            // enough children under the root for the search to split it into branches
+            for (int i = 0; i < 3000; i++) {
+                ConcurrentTreeNode node = tree.getOrCreateNode(root, String.format("%05d", i), null);
+                for (int j = 0; j < 3; j++) {
+                    tree.getOrCreateNode(node, Integer.toString(j), null).release();
+                }
+                node.release();
+            }
+            // the search splits at page boundaries, so the children must span several pages
+            Assert.assertFalse(root.getChildPageKeys(null, null, 8).isEmpty());
+            QueryEngine engine = new QueryEngine(tree);
+            List<String> serial = search(engine, null, null);
+            Assert.assertEquals(9000, serial.size());
+            // ordered: same rows in the same order
+            Assert.assertEquals(serial, search(engine, "0", null));
+            // unordered: same rows in any order
+            List<String> unordered = search(engine, "0", "gather=kk");
+            Collections.sort(unordered);
+            List<String> sorted = new ArrayList<>(serial);
+            Collections.sort(sorted);
+            Assert.assertEquals(sorted, unordered);
+        } finally {
+            tree.close(false, CloseOperation.TEST);
+        }
+    }
+
+    private static List<String> search(QueryEngine engine, String parallelDepth, String ops) throws Exception {
+        Query query = new Query("job", new String[] {"+/+"}, (ops == null) ? null : new String[] {ops});
+        if (parallelDepth != null) {
+            query.setParameter("parallelDepth", parallelDepth);
+        }
+        List<String> rows = new ArrayList<>();
+        ListBundleFormat format = new ListBundleFormat();
+        DataChannelOutput output = new DataChannelOutput() {
+            @Override public void send(Bundle row) {
+                StringBuilder sb = new StringBuilder();
+                for (BundleField field : row) {
+                    sb.append(row.getValue(field)).append('/');
+                }
+                synchronized (rows) {
+                    rows.add(sb.toString());
+                }
+            }
+
+            @Override public void send(List<Bundle> bundles) {
+                bundles.forEach(this::send);
+            }
+
+            @Override public void sendComplete() { }
+
+            @Override public void sourceError(Throwable er) {
+                throw new AssertionError(er);
+            }
+
+            @Override public Bundle createBundle() {
+                return new ListBundle(format);
+            }
+        };
+        engine.search(query, output, new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE));
+        return rows;
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
+import com.addthis.hydra.data.query.op.merge.MergedValue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MergedRowTest {
+
+    private static long recomputedSize(MergedRow row, MergeConfig config) {
+        long size = new MergedRow(config.conf, new ListBundle(new ListBundleFormat())).getEstimatedSize();
+        for (MergedValue value : config.conf) {
+            if (value != null) {
+                size += MergedRow.estimateSize(row.getValue(value.getTo()));
+            }
+        }
+        return size;
+    }
+
+    @Test
+    public void estimatedSizeTracksMerges() {
+        ListBundleFormat inputFormat = new ListBundleFormat();
+        BundleField key = inputFormat.getField("key");
+        BundleField count = inputFormat.getField("count");
+        BundleField name = inputFormat.getField("name");
+        MergeConfig config = new MergeConfig("ksj");
+        ListBundleFormat format = new ListBundleFormat();
+        MergedRow row = null;
+        long previous = 0;
+        for (int i = 0; i < 20; i++) {
+            Bundle input = new ListBundle(inputFormat);
+            input.setValue(key, ValueFactory.create("a"));
+            input.setValue(count, ValueFactory.create(i));
+            input.setValue(name, ValueFactory.create("name" + i));
+            config.handleBindAndGetKey(input, format);
+            if (row == null) {
+                row = new MergedRow(config.conf, new ListBundle(format));
+            }
+            row.merge(input);
+            assertEquals(recomputedSize(row, config), row.getEstimatedSize());
+            assertTrue(row.getEstimatedSize() > previous);
+            previous = row.getEstimatedSize();
+        }
+        row.emit();
+        assertEquals(recomputedSize(row, config), row.getEstimatedSize());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.basis.util.MemoryCounter;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+/**
+ * Sends rows with a configurable number of distinct keys through {@link OpGather} with a memory tip
+ * set, so that the size of every merged row is tracked. {@link #reflectiveEstimate()} measures one
+ * {@link MemoryCounter#estimateSize(Object)} call on a merged row, which gather used to make two or
+ * three times per input row. Run with {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpGatherBenchmark {
+
+    /** Number of distinct keys. */
+    @Param({"1000", "100000", "1000000"})
+    public int keys;
+
+    /** Gather arguments for rows of key, name, count and tag columns. */
+    @Param({"kisi", "kisj", "kisc"})
+    public String args;
+
+    private final Bundle[] rows = new Bundle[1 << 16];
+    private int position;
+    private OpGather gather;
+    private MergedRow sampleRow;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ListBundleFormat format = new ListBundleFormat();
+        BundleField key = format.getField("key");
+        BundleField name = format.getField("name");
+        BundleField count = format.getField("count");
+        BundleField tag = format.getField("tag");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < rows.length; i++) {
+            Bundle row = new ListBundle(format);
+            row.setValue(key, ValueFactory.create("key-" + random.nextInt(keys)));
+            row.setValue(name, ValueFactory.create("name-" + random.nextInt(100)));
+            row.setValue(count, ValueFactory.create(random.nextInt(1000)));
+            row.setValue(tag, ValueFactory.create("tag-" + random.nextInt(10)));
+            rows[i] = row;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupGather() {
+        gather = new OpGather(args, Long.MAX_VALUE, 0, "gather.benchmark",
+                              new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE));
+        MergeConfig mergeConfig = new MergeConfig(args);
+        ListBundleFormat format = new ListBundleFormat();
+        mergeConfig.handleBindAndGetKey(rows[0], format);
+        sampleRow = new MergedRow(mergeConfig.conf, new ListBundle(format));
+        for (int i = 0; i < 100; i++) {
+            sampleRow.merge(rows[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void teardown() throws Exception {
+        gather.close();
+    }
+
+    @Benchmark
+    public void gather() {
+        gather.send(rows[position++ & (rows.length - 1)]);
+    }
+
+    @Benchmark
+    public long reflectiveEstimate() {
+        return MemoryCounter.estimateSize(sampleRow);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(OpGatherBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
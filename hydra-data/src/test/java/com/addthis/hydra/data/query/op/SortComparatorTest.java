@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SortComparatorTest {
+
+    private static List<Bundle> rows() {
+        ListBundleFormat format = new ListBundleFormat();
+        BundleField name = format.getField("name");
+        BundleField count = format.getField("count");
+        BundleField ratio = format.getField("ratio");
+        String[] names = {"b", "a", null, "ab", "B", "a"};
+        String[] counts = {"3", "-7", "12", null, "3", "0"};
+        double[] ratios = {0.5, -0.0, 0.0, -2.5, Double.NaN, Double.POSITIVE_INFINITY};
+        List<Bundle> rows = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            Bundle row = new ListBundle(format);
+            if (names[i] != null) {
+                row.setValue(name, ValueFactory.create(names[i]));
+            }
+            if (counts[i] != null) {
+                row.setValue(count, ValueFactory.create(counts[i]));
+            }
+            row.setValue(ratio, ValueFactory.create(ratios[i]));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static void assertKeysMatchRows(String args) {
+        SortComparator comparator = new SortComparator(args);
+        List<Bundle> rows = rows();
+        for (Bundle r1 : rows) {
+            for (Bundle r2 : rows) {
+                int expected = Integer.signum(comparator.compare(r1, r2));
+                int actual = Integer.signum(comparator.compareKeys(comparator.key(r1), comparator.key(r2)));
+                assertEquals(args + " " + r1 + " " + r2, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void keysCompareLikeRows() {
+        assertKeysMatchRows("0");
+        assertKeysMatchRows("0:s:d");
+        assertKeysMatchRows("1:n:a");
+        assertKeysMatchRows("1,0:ns:da");
+        assertKeysMatchRows("2:d:a");
+        assertKeysMatchRows("2,0:fs:ad");
+    }
+
+    @Test
+    public void sortableBitsOrderLikeDoubles() {
+        double[] values = {Double.NEGATIVE_INFINITY, -1e300, -1, -Double.MIN_VALUE, -0.0, 0.0,
+                           Double.MIN_VALUE, 1, 1e300, Double.POSITIVE_INFINITY, Double.NaN};
+        for (double d1 : values) {
+            for (double d2 : values) {
+                assertEquals(Integer.signum(Double.compare(d1, d2)),
+                             Integer.signum(Long.compare(SortComparator.sortableBits(d1),
+                                                         SortComparator.sortableBits(d2))));
+            }
+        }
+    }
+}
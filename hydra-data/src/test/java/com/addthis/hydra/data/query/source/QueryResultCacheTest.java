@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.data.query.Query;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryResultCacheTest {
+
+    private File spillDir;
+
+    @Before
+    public void setup() throws IOException {
+        spillDir = LessFiles.createTempDir();
+    }
+
+    @After
+    public void cleanup() {
+        LessFiles.deleteDir(spillDir);
+    }
+
+    private static Query query(String path, String... ops) {
+        return new Query("job", new String[]{path}, ops);
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        java.util.Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+
+    @Test
+    public void keys() {
+        QueryResultCache cache = new QueryResultCache(spillDir, 1000, 1000, 100, MoreExecutors.directExecutor());
+        assertEquals(cache.keyFor("a", query("+:+hits", "gather=ks")),
+                     cache.keyFor("a", query("+:+hits", "gather=ks")));
+        assertNotEquals(cache.keyFor("a", query("+:+hits", "gather=ks")),
+                        cache.keyFor("b", query("+:+hits", "gather=ks")));
+        assertNotEquals(cache.keyFor("a", query("+:+hits", "gather=ks")),
+                        cache.keyFor("a", query("+:+hits", "gather=ka")));
+        assertNull(cache.keyFor("a", query("+:+hits").setParameter("cache", false)));
+        assertNull(new QueryResultCache(spillDir, 0, 0, 100, MoreExecutors.directExecutor()).keyFor("a", query("+:+hits")));
+    }
+
+    @Test
+    public void recordAndReplay() throws IOException {
+        QueryResultCache cache = new QueryResultCache(spillDir, 1000, 1000, 100, MoreExecutors.directExecutor());
+        QueryResultCache.Key key = cache.keyFor("a", query("+"));
+        assertNull(cache.get(key));
+
+        QueryResultCache.Recording recording = cache.record(key);
+        recording.append(bytes(10, 1));
+        recording.append(bytes(10, 2));
+        assertNull(cache.get(key));
+        recording.complete();
+        byte[] expected = new byte[20];
+        System.arraycopy(bytes(10, 1), 0, expected, 0, 10);
+        System.arraycopy(bytes(10, 2), 0, expected, 10, 10);
+        assertArrayEquals(expected, read(cache.get(key)));
+    }
+
+    @Test
+    public void oversizedResultsAreNotCached() {
+        QueryResultCache cache = new QueryResultCache(spillDir, 1000, 1000, 100, MoreExecutors.directExecutor());
+        QueryResultCache.Key key = cache.keyFor("a", query("+"));
+        QueryResultCache.Recording recording = cache.record(key);
+        recording.append(bytes(60, 1));
+        recording.append(bytes(60, 1));
+        recording.complete();
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void spillAndInvalidate() throws IOException {
+        QueryResultCache cache = new QueryResultCache(spillDir, 100, 1000, 100, MoreExecutors.directExecutor());
+        QueryResultCache.Key first = cache.keyFor("a", query("+"));
+        QueryResultCache.Key second = cache.keyFor("a", query("+/+"));
+        QueryResultCache.Key other = cache.keyFor("b", query("+"));
+        for (QueryResultCache.Key key : new QueryResultCache.Key[]{first, second, other}) {
+            QueryResultCache.Recording recording = cache.record(key);
+            recording.append(bytes(60, key.query.length()));
+            recording.complete();
+        }
+        // the first two results no longer fit in memory and were spilled
+        assertEquals(2, spillDir.list().length);
+        assertArrayEquals(bytes(60, first.query.length()), read(cache.get(first)));
+        assertArrayEquals(bytes(60, second.query.length()), read(cache.get(second)));
+
+        cache.invalidateDirectory("a");
+        assertNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertEquals(0, spillDir.list().length);
+        assertArrayEquals(bytes(60, other.query.length()), read(cache.get(other)));
+    }
+
+    @Test
+    public void spillsRunOnTheSpillExecutor() throws IOException {
+        Queue<Runnable> spills = new ArrayDeque<>();
+        QueryResultCache cache = new QueryResultCache(spillDir, 100, 1000, 100, spills::add);
+        QueryResultCache.Key first = cache.keyFor("a", query("+"));
+        QueryResultCache.Key second = cache.keyFor("a", query("+/+"));
+        for (QueryResultCache.Key key : new QueryResultCache.Key[]{first, second}) {
+            QueryResultCache.Recording recording = cache.record(key);
+            recording.append(bytes(60, key.query.length()));
+            recording.complete();
+        }
+        // the evicting thread only queued the spill
+        assertEquals(1, spills.size());
+        assertNull(cache.get(first));
+        spills.poll().run();
+        assertArrayEquals(bytes(60, first.query.length()), read(cache.get(first)));
+
+        // a spill that was queued before an invalidation is dropped once it is written
+        QueryResultCache.Recording recording = cache.record(first);
+        recording.append(bytes(60, 1));
+        recording.complete();
+        cache.invalidateDirectory("a");
+        while (!spills.isEmpty()) {
+            spills.poll().run();
+        }
+        assertNull(cache.get(second));
+        assertEquals(0, spillDir.list().length);
+    }
+
+    @Test
+    public void oldSpillsAreDeleted() throws IOException {
+        File old = new File(spillDir, "old");
+        assertTrue(old.createNewFile());
+        new QueryResultCache(spillDir, 100, 1000, 100, MoreExecutors.directExecutor());
+        assertFalse(old.exists());
+    }
+}
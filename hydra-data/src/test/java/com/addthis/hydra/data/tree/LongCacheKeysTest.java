@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class LongCacheKeysTest {
+
+    @Test
+    public void reuseKeys() {
+        LongCacheKeys keys = new LongCacheKeys(64);
+        CacheKey key = keys.get(3, 20141231);
+        assertSame(key, keys.get(3, 20141231));
+        assertEquals(new CacheKey(3, "20141231"), key);
+        assertEquals(new CacheKey(3, "20141231").hashCode(), key.hashCode());
+        assertEquals(new CacheKey(3, "20141231").dbkey(), key.dbkey());
+    }
+
+    @Test
+    public void overflow() {
+        LongCacheKeys keys = new LongCacheKeys(16);
+        for (long i = 0; i < 1000; i++) {
+            CacheKey key = keys.get(i % 3, i);
+            assertEquals(i % 3, key.db);
+            assertEquals(Long.toString(i), key.name);
+            assertSame(key, keys.get(i % 3, i));
+        }
+    }
+}
@@ -37,4 +37,10 @@ public class TreeConfigTest {
         config = Configs.decodeObject(TreeConfig.class, "unevictable = false, cacheWeight = 5");
         assertNotEquals(0.0d, config.cacheWeight(), 0.001);
     }
-}
\ No newline at end of file
+
+    @Test public void nodeCache() throws Exception {
+        assertEquals(TreeConfig.NodeCacheType.LINKED, Configs.newDefault(TreeConfig.class).nodeCache);
+        TreeConfig config = Configs.decodeObject(TreeConfig.class, "nodeCache = STRIPED");
+        assertEquals(TreeConfig.NodeCacheType.STRIPED, config.nodeCache);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.concurrent;
+
+import java.io.File;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.data.tree.TreeConfig;
+import com.addthis.hydra.store.db.CloseOperation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Drives {@link ConcurrentTree#getOrCreateNode} from many threads with Zipf distributed
+ * child names to compare the node cache implementations. Every operation updates the
+ * node so evictions must be written back. Run with {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class NodeCacheBenchmark {
+
+    @Param({"LINKED", "STRIPED"})
+    public TreeConfig.NodeCacheType nodeCache;
+
+    /** Number of distinct child names. */
+    @Param({"200000"})
+    public int keys;
+
+    /** Zipf exponent of the child name distribution. */
+    @Param({"0.99"})
+    public double skew;
+
+    @Param({"10000"})
+    public int cacheSize;
+
+    private File dir;
+    private ConcurrentTree tree;
+    private ConcurrentTreeNode parent;
+    private String[] names;
+    private double[] cumulative;
+
+    @State(Scope.Thread)
+    public static class Keys {
+
+        private final int[] sample = new int[1 << 16];
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setup(NodeCacheBenchmark benchmark) {
+            for (int i = 0; i < sample.length; i++) {
+                double p = ThreadLocalRandom.current().nextDouble();
+                int index = Arrays.binarySearch(benchmark.cumulative, p);
+                sample[i] = Math.min(benchmark.keys - 1, (index >= 0) ? index : -(index + 1));
+            }
+        }
+
+        int next() {
+            return sample[position++ & (sample.length - 1)];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cumulative = new double[keys];
+        double total = 0;
+        for (int i = 0; i < keys; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < keys; i++) {
+            cumulative[i] /= total;
+        }
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = Integer.toString(i);
+        }
+        dir = LessFiles.createTempDir();
+        tree = new TreeBuilder(dir).nodeCacheSize(cacheSize).nodeCache(nodeCache).multiThreadedTree();
+        parent = tree.getOrCreateNode(tree.getRootNode(), "bench", null);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        parent.release();
+        tree.close(false, CloseOperation.NONE);
+        LessFiles.deleteDir(dir);
+    }
+
+    @Benchmark
+    public long getOrCreateNode(Keys keys) {
+        ConcurrentTreeNode node = tree.getOrCreateNode(parent, names[keys.next()], null);
+        try {
+            node.markChanged();
+            return node.incrementCounter(1);
+        } finally {
+            node.release();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(NodeCacheBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
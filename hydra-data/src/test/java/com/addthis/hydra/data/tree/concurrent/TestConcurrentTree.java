@@ -26,6 +26,7 @@ import com.addthis.basis.util.ClosableIterator;
 
 import com.addthis.hydra.data.tree.DataTreeNode;
 import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.data.tree.TreeConfig;
 import com.addthis.hydra.store.db.CloseOperation;
 
 import org.junit.Rule;
@@ -234,23 +235,59 @@ public class TestConcurrentTree {
 
     @Test
     public void getOrCreateFast() throws Exception {
-        getOrCreateMultiThread(fastNumElements, fastNumThreads);
+        getOrCreateMultiThread(fastNumElements, fastNumThreads, TreeConfig.NodeCacheType.LINKED);
+    }
+
+    @Test
+    public void getOrCreateStriped() throws Exception {
+        getOrCreateMultiThread(fastNumElements, fastNumThreads, TreeConfig.NodeCacheType.STRIPED);
+    }
+
+    @Test
+    public void stripedCacheWriteBack() throws Exception {
+        File dir = tempFolder.newFolder();
+        int rounds = 10;
+        ConcurrentTree tree = new TreeBuilder(dir).nodeCacheSize(32)
+                .nodeCache(TreeConfig.NodeCacheType.STRIPED).multiThreadedTree();
+        ConcurrentTreeNode root = tree.getRootNode();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < veryFastNumElements; i++) {
+                ConcurrentTreeNode node = tree.getOrCreateNode(root, Integer.toString(i), null);
+                node.incrementCounter();
+                node.markChanged();
+                node.release();
+            }
+        }
+        assertTrue(tree.getCache().size() < veryFastNumElements);
+        for (int i = 0; i < veryFastNumElements; i++) {
+            ConcurrentTreeNode node = tree.getNode(root, Integer.toString(i), false);
+            assertEquals(rounds, node.getCounter());
+        }
+        tree.close(false, close);
+        tree = new TreeBuilder(dir).multiThreadedTree();
+        root = tree.getRootNode();
+        for (int i = 0; i < veryFastNumElements; i++) {
+            ConcurrentTreeNode node = tree.getNode(root, Integer.toString(i), false);
+            assertEquals(rounds, node.getCounter());
+        }
+        tree.close(false, close);
     }
 
     @Test
     @Category(SlowTest.class)
     public void getOrCreateSlow() throws Exception {
-        getOrCreateMultiThread(slowNumElements, slowNumThreads);
+        getOrCreateMultiThread(slowNumElements, slowNumThreads, TreeConfig.NodeCacheType.LINKED);
     }
 
-    private void getOrCreateMultiThread(int numElements, int numThreads) throws Exception {
+    private void getOrCreateMultiThread(int numElements, int numThreads,
+                                        TreeConfig.NodeCacheType nodeCache) throws Exception {
         log.info("getOrCreateMultiThread");
         File dir = tempFolder.newFolder();
         ArrayList<Integer> values = new ArrayList<>(numElements);
         final CyclicBarrier barrier = new CyclicBarrier(numThreads);
         ArrayList<Integer> threadId = new ArrayList<>(numElements);
         InsertionThread[] threads = new InsertionThread[numThreads];
-        ConcurrentTree tree = new TreeBuilder(dir).multiThreadedTree();
+        ConcurrentTree tree = new TreeBuilder(dir).nodeCache(nodeCache).multiThreadedTree();
         ConcurrentTreeNode root = tree.getRootNode();
 
         for (int i = 0; i < numElements; i++) {
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.prop;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.util.AutoField;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.TreeDataParameters;
+import com.addthis.hydra.data.tree.TreeNodeData;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataMergeTest {
+
+    private static DataTreeNodeUpdater generateUpdater(Bundle bundle) {
+        return new DataTreeNodeUpdater() {
+            @Override public Bundle getBundle() {
+                return bundle;
+            }
+
+            @Override public int getCountValue() {
+                return 1;
+            }
+
+            @Override public long getAssignmentValue() {
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Apply the values to two instances, merge the second into the first
+     * and compare the result against a single instance given every value.
+     */
+    @SuppressWarnings("unchecked")
+    private static <C extends TreeDataParameters<?>> void assertMerge(C config, String query, String... values) {
+        ListBundleFormat format = new ListBundleFormat();
+        AutoField foo = AutoField.newAutoField("foo");
+        TreeNodeData<C> expected = (TreeNodeData<C>) config.newInstance();
+        TreeNodeData<C> left = (TreeNodeData<C>) config.newInstance();
+        TreeNodeData<C> right = (TreeNodeData<C>) config.newInstance();
+        assertTrue(left.isMergeable());
+        for (int i = 0; i < values.length; i++) {
+            Bundle bundle = format.createBundle();
+            foo.setValue(bundle, ValueFactory.create(values[i]));
+            expected.updateChildData(generateUpdater(bundle), null, config);
+            TreeNodeData<C> target = (i % 3 == 0) ? left : right;
+            target.updateChildData(generateUpdater(bundle), null, config);
+        }
+        left.merge(right);
+        assertEquals(expected.getValue(query), left.getValue(query));
+    }
+
+    @Test
+    public void mergeSum() throws Exception {
+        DataSum.Config config = Configs.decodeObject(DataSum.Config.class, "key: foo");
+        assertMerge(config, "sum", "1", "2", "3", "4", "5", "6", "7");
+        assertMerge(config, "num", "1", "2", "3", "4", "5", "6", "7");
+    }
+
+    @Test
+    public void mergeKeyTop() throws Exception {
+        DataKeyTop.Config config = Configs.decodeObject(DataKeyTop.Config.class, "key: foo, size: 10");
+        assertMerge(config, "size", "a", "b", "a", "c", "a", "b", "d");
+        assertMerge(config, "ga", "a", "b", "a", "c", "a", "b", "d");
+        assertMerge(config, "k1", "a", "b", "a", "c", "a", "b", "d");
+        assertMerge(config, "v2", "a", "b", "a", "c", "a", "b", "d");
+    }
+
+    @Test
+    public void mergeCounting() throws Exception {
+        DataCounting.Config config = Configs.decodeObject(DataCounting.Config.class, "key: foo, ver: hllp");
+        assertMerge(config, "count", "a", "b", "a", "c", "a", "b", "d", "e", "f");
+    }
+}
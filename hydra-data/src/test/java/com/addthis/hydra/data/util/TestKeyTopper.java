@@ -76,6 +76,25 @@ public class TestKeyTopper {
         assertEquals(new Long(1), topper2.getError("d"));
     }
 
+    @Test
+    public void merge() {
+        KeyTopper topper1 = new KeyTopper();
+        topper1.init().setLossy(true);
+        topper1.increment("a", 3, 3);
+        topper1.increment("b", 1, 3);
+        KeyTopper topper2 = new KeyTopper();
+        topper2.init().setLossy(true);
+        topper2.increment("a", 2, 3);
+        topper2.increment("c", 4, 3);
+        topper2.increment("d", 5, 3);
+        topper1.merge(topper2, 3);
+        assertEquals(3, topper1.size());
+        assertEquals(new Long(5), topper1.get("a"));
+        assertEquals(new Long(5), topper1.get("d"));
+        assertEquals(new Long(5), topper1.get("c"));
+        assertNull(topper1.get("b"));
+    }
+
     @Test
     public void minimumKey() {
         KeyTopper topper = new KeyTopper();
@@ -136,6 +136,13 @@ public class Tokenizer implements Codable {
         return group;
     }
 
+    /**
+     * @return the escape string (its first character escapes the next character)
+     */
+    public String getEscape() {
+        return escape;
+    }
+
     /**
      * @return will all fields be packed into one?
      */
@@ -216,6 +216,8 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter implements Au
         // query and remoteQuery are exact copies except that: query's ops contains the first element of the original,
         // and remoteQuery's ops contains the rest (i.e. query contains ops, and remoteQuery contains rops)
         Query remoteQuery = query.createPipelinedQuery();
+        // without rops, let the workers partially compute a re-mergeable first master op
+        OpPushdown.apply(query, remoteQuery);
 
 
         boolean allowPartial = Boolean.valueOf(query.getParameter("allowPartial"));
@@ -243,7 +245,8 @@ public class MeshQueryMaster extends ChannelOutboundHandlerAdapter implements Au
             sourcesByTaskID = sourcesPerDir.get(0);
         }
 
-        MeshSourceAggregator aggregator = new MeshSourceAggregator(sourcesByTaskID, meshy, this, remoteQuery);
+        MeshSourceAggregator aggregator = new MeshSourceAggregator(sourcesByTaskID, meshy, this, remoteQuery,
+                                                                     query.getOps());
         ctx.pipeline().addLast(ctx.executor(), "query aggregator", aggregator);
         TrackerHandler trackerHandler = new TrackerHandler(tracker, opsLog, aggregator);
         ctx.pipeline().addLast(ctx.executor(), "query tracker", trackerHandler);
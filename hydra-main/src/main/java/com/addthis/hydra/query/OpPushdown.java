@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query;
+
+import javax.annotation.Nullable;
+
+import com.addthis.basis.kv.KVPair;
+import com.addthis.basis.util.LessStrings;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
+
+import com.google.common.primitives.Ints;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds a partial copy of the first master op to the worker ops of queries that have no worker ops,
+ * so that each task sends already combined rows instead of every raw row. The master op still runs
+ * on the master and combines the partial results of all tasks.
+ * <p/>
+ * Only ops whose output can be fed back into the same op are pushed down:
+ * <ul>
+ * <li>gather, top and merge with key, ignore, sum, min, max, product and join columns</li>
+ * <li>sort (or dsort) followed by limit, which becomes a per task sort and limit of offset + count rows</li>
+ * </ul>
+ * A query can opt out by setting the {@code pushdown} parameter to false.
+ */
+final class OpPushdown {
+
+    private static final Logger log = LoggerFactory.getLogger(OpPushdown.class);
+
+    private static final boolean enabled = Parameter.boolValue("qmaster.pushdownOps", true);
+
+    private OpPushdown() {}
+
+    /**
+     * Sets the worker ops of {@code remoteQuery} from the master ops of {@code query} if the query
+     * has no worker ops and its first master op can be pushed down.
+     */
+    static void apply(Query query, Query remoteQuery) {
+        if (!enabled || "false".equals(query.getParameter("pushdown"))) {
+            return;
+        }
+        String[] remoteOps = remoteQuery.getOps();
+        String[] ops = query.getOps();
+        if (((remoteOps != null) && (remoteOps.length > 0)) || (ops == null) || (ops.length == 0)) {
+            return;
+        }
+        String pushed = remoteOpsFor(ops[0]);
+        if (pushed != null) {
+            log.debug("pushing down {} for query {} with ops {}", pushed, query.uuid(), ops[0]);
+            remoteQuery.setOps(pushed);
+        }
+    }
+
+    /** Returns the worker ops that partially compute the start of {@code masterOps}, or null if there are none. */
+    @Nullable static String remoteOpsFor(@Nullable String masterOps) {
+        if ((masterOps == null) || masterOps.isEmpty()) {
+            return null;
+        }
+        String[] opList = LessStrings.splitArray(masterOps, ";");
+        KVPair first = KVPair.parsePair(opList[0]);
+        String name = first.getKey().toLowerCase();
+        switch (name) {
+            case "gather":
+            case "top":
+            case "merge":
+                String partialArgs = MergeConfig.partialArgs(first.getValue());
+                return (partialArgs == null) ? null : (name + "=" + partialArgs);
+            case "sort":
+            case "dsort":
+                if (opList.length < 2) {
+                    return null;
+                }
+                KVPair second = KVPair.parsePair(opList[1]);
+                if (!"limit".equalsIgnoreCase(second.getKey())) {
+                    return null;
+                }
+                Integer rows = limitRows(second.getValue());
+                return (rows == null) ? null : (opList[0] + ";limit=" + rows);
+            default:
+                return null;
+        }
+    }
+
+    /** Returns offset + count for limit arguments of the form "count" or "offset:count". */
+    @Nullable private static Integer limitRows(@Nullable String args) {
+        if (args == null) {
+            return null;
+        }
+        String[] v = LessStrings.splitArray(args, ":");
+        Integer count;
+        Integer offset;
+        if (v.length == 1) {
+            offset = 0;
+            count = Ints.tryParse(v[0]);
+        } else if (v.length == 2) {
+            offset = Ints.tryParse(v[0]);
+            count = Ints.tryParse(v[1]);
+        } else {
+            return null;
+        }
+        if ((offset == null) || (count == null) || (offset < 0) || (count <= 0)
+            || ((long) offset + count) > Integer.MAX_VALUE) {
+            return null;
+        }
+        return offset + count;
+    }
+}
@@ -28,6 +28,14 @@ public class AggregateConfig {
     // Milliseconds to wait while polling various task sources
     public static final int FRAME_READER_POLL = Parameter.intValue("meshSourceAggregator.frameReader.poll", 0);
 
+    // Number of partitions that decode task results and run a re-mergeable first gather in parallel. 0 disables.
+    static final int mergePartitions = Parameter.intValue("meshSourceAggregator.mergePartitions", 0);
+    // Minimum number of tasks before a query uses partitioned merging without asking for it
+    static final int mergeMinTasks = Parameter.intValue("meshSourceAggregator.mergeMinTasks", 128);
+    // Threads shared by the partitioned merges of all queries
+    static final int mergeThreads = Math.max(1, Parameter.intValue("meshSourceAggregator.mergeThreads",
+                                                                   Runtime.getRuntime().availableProcessors()));
+
     static final boolean enableStragglerCheck = Parameter.boolValue("meshSourceAggregator.enableStragglerCheck", false);
 
     // Enables straggler check logic.
@@ -13,7 +13,9 @@
  */
 package com.addthis.hydra.query.aggregate;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -51,6 +53,8 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
     final Map<String, String> queryOptions;
     final MeshQueryMaster meshQueryMaster;
     final Query query;
+    // ops run on the master after the rows of every task are combined, may be null
+    final String[] masterOps;
 
     // set when added to a pipeline
     EventExecutor executor;
@@ -69,6 +73,10 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
     // set periodically by query task
     int completed;
 
+    // true while merge partitions read the task sources off the event loop
+    boolean mergeRoundActive;
+    private final List<Runnable> afterMergeRound = new ArrayList<>();
+
     static {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -79,10 +87,16 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
 
     public MeshSourceAggregator(QueryTaskSource[] taskSources, ChannelMaster meshy,
             MeshQueryMaster meshQueryMaster, Query query) throws JsonProcessingException {
+        this(taskSources, meshy, meshQueryMaster, query, null);
+    }
+
+    public MeshSourceAggregator(QueryTaskSource[] taskSources, ChannelMaster meshy,
+            MeshQueryMaster meshQueryMaster, Query query, String[] masterOps) throws JsonProcessingException {
         this.taskSources = taskSources;
         this.meshy = meshy;
         this.meshQueryMaster = meshQueryMaster;
         this.query = query;
+        this.masterOps = masterOps;
         totalTasks = taskSources.length;
         this.startTime = JitterClock.globalTime();
 
@@ -106,7 +120,7 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
             maybeScheduleStragglerChecks();
         } else if (msg instanceof DetailedStatusTask) {
             DetailedStatusTask task = (DetailedStatusTask) msg;
-            task.run(this);
+            whenSourcesIdle(() -> task.run(this));
         } else {
             super.write(ctx, msg, promise);
         }
@@ -127,6 +141,28 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
         }
     }
 
+    /**
+     * Runs {@code task} now, or once the current merge round has ended if merge partitions are reading the
+     * task sources. Only called on the event loop.
+     */
+    void whenSourcesIdle(Runnable task) {
+        if (mergeRoundActive) {
+            afterMergeRound.add(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /** Called on the event loop when the merge partitions are done with the task sources. */
+    void endMergeRound() {
+        mergeRoundActive = false;
+        List<Runnable> deferred = new ArrayList<>(afterMergeRound);
+        afterMergeRound.clear();
+        for (Runnable task : deferred) {
+            task.run();
+        }
+    }
+
     void stopSources(String message) {
         for (QueryTaskSource taskSource : taskSources) {
             taskSource.cancelAllActiveOptions(message);
@@ -171,7 +207,10 @@ public class MeshSourceAggregator extends ChannelDuplexHandler implements Channe
 
     @Override
     public void operationComplete(ChannelFuture future) throws Exception {
+        whenSourcesIdle(() -> queryComplete(future));
+    }
 
+    private void queryComplete(ChannelFuture future) {
         // make sure this auto-recurring task doesn't go on forever
         if (stragglerTaskFuture != null) {
             stragglerTaskFuture.cancel(true);
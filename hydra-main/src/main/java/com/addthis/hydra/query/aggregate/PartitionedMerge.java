@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.aggregate;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import com.addthis.basis.kv.KVPair;
+import com.addthis.basis.util.LessStrings;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.hydra.data.query.QueryOpProcessor;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
+
+import com.google.common.base.Strings;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes task results and runs the first master op in parallel partitions.
+ * <p/>
+ * This is only used when the first master op is a gather whose merge columns give the same result when
+ * they are applied again to already merged rows (see {@link MergeConfig#partialArgs(String)}).
+ * Every partition reads bundles from its share of the task sources into its own gather. When all tasks
+ * are complete each partition flushes its partially merged rows into the master op chain, where the
+ * original gather combines them.
+ * <p/>
+ * A round runs entirely on the merge pool and the {@link QueryTask} continues on the event loop once the
+ * last partition has finished its share, so the event loop is never blocked. While a round is running the
+ * aggregator defers anything on the event loop that touches the task sources (straggler checks, status
+ * requests and completion, see {@link MeshSourceAggregator#whenSourcesIdle(Runnable)}), so the task sources
+ * are still only used by one thread at a time.
+ */
+class PartitionedMerge {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedMerge.class);
+
+    /** Shared by every query. Partitions of concurrent queries wait for a thread rather than adding one. */
+    private static final ExecutorService mergePool = createMergePool(AggregateConfig.mergeThreads);
+
+    private final MeshSourceAggregator sourceAggregator;
+    private final QueryOpProcessor[] partitions;
+
+    private PartitionedMerge(MeshSourceAggregator sourceAggregator, String partialArgs, int partitionCount) {
+        this.sourceAggregator = sourceAggregator;
+        this.partitions = new QueryOpProcessor[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new QueryOpProcessor.Builder(new PartitionOutput(sourceAggregator),
+                                                         "gather=" + partialArgs).build();
+        }
+        // never close the partitions in the middle of a round
+        sourceAggregator.queryPromise.addListener(future -> sourceAggregator.whenSourcesIdle(this::close));
+    }
+
+    private static ExecutorService createMergePool(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("queryMerge-%d").setDaemon(true).build());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Returns a partitioned merge for the query of {@code sourceAggregator}, or null if the query should
+     * read its task sources serially.
+     */
+    @Nullable static PartitionedMerge create(MeshSourceAggregator sourceAggregator) {
+        Integer requested = Ints.tryParse(Strings.nullToEmpty(sourceAggregator.query.getParameter("mergePartitions")));
+        int partitionCount;
+        if (requested != null) {
+            partitionCount = requested;
+        } else if (sourceAggregator.totalTasks >= AggregateConfig.mergeMinTasks) {
+            partitionCount = AggregateConfig.mergePartitions;
+        } else {
+            return null;
+        }
+        partitionCount = Math.min(partitionCount, sourceAggregator.totalTasks);
+        // injected source fields are set through a shared AutoField that is not safe to use concurrently
+        if ((partitionCount <= 1) || (sourceAggregator.query.getParameter("injectSource") != null)) {
+            return null;
+        }
+        String partialArgs = partialGatherArgs(sourceAggregator.masterOps);
+        if (partialArgs == null) {
+            return null;
+        }
+        log.debug("merging query {} in {} partitions with gather={}",
+                  sourceAggregator.query.uuid(), partitionCount, partialArgs);
+        return new PartitionedMerge(sourceAggregator, partialArgs, partitionCount);
+    }
+
+    /**
+     * Returns the gather arguments for the partitions if the first master op is a re-mergeable gather,
+     * otherwise null.
+     */
+    @Nullable static String partialGatherArgs(@Nullable String[] masterOps) {
+        if ((masterOps == null) || (masterOps.length == 0) || Strings.isNullOrEmpty(masterOps[0])) {
+            return null;
+        }
+        KVPair kv = KVPair.parsePair(LessStrings.split(masterOps[0], ";")[0]);
+        if (!"gather".equalsIgnoreCase(kv.getKey())) {
+            return null;
+        }
+        return MergeConfig.partialArgs(kv.getValue());
+    }
+
+    /**
+     * Starts one round of reads from {@code taskSources}, split across the partitions on the merge pool, and
+     * returns without waiting for it. Must be called on the event loop. Once every partition is done,
+     * {@code roundComplete} is called on the event loop with the number of bundles read and the first
+     * failure, if any.
+     */
+    void readBundles(QueryTask queryTask, List<QueryTaskSource> taskSources, int maxReads,
+            BiConsumer<Integer, Throwable> roundComplete) {
+        int partitionCount = Math.min(partitions.length, taskSources.size());
+        if (partitionCount == 0) {
+            roundComplete.accept(0, null);
+            return;
+        }
+        List<List<QueryTaskSource>> shares = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            shares.add(new ArrayList<>((taskSources.size() / partitionCount) + 1));
+        }
+        for (int i = 0; i < taskSources.size(); i++) {
+            shares.get(i % partitionCount).add(taskSources.get(i));
+        }
+        AtomicInteger remaining = new AtomicInteger(partitionCount);
+        AtomicInteger bundlesProcessed = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        sourceAggregator.mergeRoundActive = true;
+        for (int i = 0; i < partitionCount; i++) {
+            List<QueryTaskSource> share = shares.get(i);
+            QueryOpProcessor partition = partitions[i];
+            mergePool.execute(() -> {
+                try {
+                    bundlesProcessed.addAndGet(queryTask.readBundles(share, maxReads, partition));
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+                // the last partition hands the round back to the event loop
+                if (remaining.decrementAndGet() == 0) {
+                    sourceAggregator.executor.execute(() -> {
+                        try {
+                            roundComplete.accept(bundlesProcessed.get(), failure.get());
+                        } finally {
+                            sourceAggregator.endMergeRound();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /** Flushes the partially merged rows of every partition into the master op chain. */
+    void complete() {
+        for (QueryOpProcessor partition : partitions) {
+            if (sourceAggregator.queryPromise.isDone()) {
+                return;
+            }
+            partition.sendComplete();
+        }
+    }
+
+    private void close() {
+        for (QueryOpProcessor partition : partitions) {
+            partition.close();
+        }
+    }
+
+    /** Passes the rows of one partition to the master op chain. Completion is signalled by the aggregator. */
+    private static final class PartitionOutput implements DataChannelOutput {
+
+        private final MeshSourceAggregator sourceAggregator;
+        private final ListBundleFormat format = new ListBundleFormat();
+
+        PartitionOutput(MeshSourceAggregator sourceAggregator) {
+            this.sourceAggregator = sourceAggregator;
+        }
+
+        @Override
+        public void send(Bundle row) {
+            sourceAggregator.consumer.send(row);
+        }
+
+        @Override
+        public void send(List<Bundle> bundles) {
+            sourceAggregator.consumer.send(bundles);
+        }
+
+        @Override
+        public void sendComplete() {
+        }
+
+        @Override
+        public void sourceError(Throwable er) {
+            sourceAggregator.queryPromise.tryFailure(er);
+        }
+
+        @Override
+        public Bundle createBundle() {
+            return new ListBundle(format);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+import com.addthis.bundle.channel.DataChannelOutput;
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.util.AutoField;
 import com.addthis.bundle.value.ValueFactory;
@@ -45,11 +46,13 @@ public class QueryTask implements Runnable {
     private int pollFailures = 0;
     @Nullable final AutoField sourceField;
     private final Supplier<List<QueryTaskSource>> queryTaskSourceSupplier;
+    @Nullable private final PartitionedMerge partitionedMerge;
 
     public QueryTask(MeshSourceAggregator sourceAggregator) {
         this.sourceAggregator = sourceAggregator;
         this.sourceField = getSourceField(sourceAggregator.query);
         this.queryTaskSourceSupplier = createQueryTaskSourceSupplier(sourceAggregator);
+        this.partitionedMerge = PartitionedMerge.create(sourceAggregator);
     }
 
     @Override
@@ -63,24 +66,37 @@ public class QueryTask implements Runnable {
                 sourceAggregator.needScheduling = true;
                 return;
             }
-            // NOTE: both provider and readBundles update sourceAggregator.completed
-            List<QueryTaskSource> taskSources = queryTaskSourceSupplier.get();
-            int bundlesProcessed = readBundles(taskSources, AggregateConfig.FRAME_READER_READS);
-            if (bundlesProcessed > 0) {
-                sourceAggregator.queryPromise.tryProgress(0, bundlesProcessed);
+            // the end of the running merge round schedules the next one
+            if (sourceAggregator.mergeRoundActive) {
+                return;
             }
-            if (sourceAggregator.completed == sourceAggregator.totalTasks) {
-                if (!sourceAggregator.queryPromise.trySuccess()) {
-                    log.warn("Tried to complete queryPromise {} , but failed", sourceAggregator.queryPromise);
-                }
+            // NOTE: both the provider and this method update sourceAggregator.completed
+            List<QueryTaskSource> taskSources = queryTaskSourceSupplier.get();
+            if (partitionedMerge != null) {
+                partitionedMerge.readBundles(this, taskSources, AggregateConfig.FRAME_READER_READS,
+                                             (bundlesProcessed, failure) -> mergeRoundComplete(
+                                                     taskSources, bundlesProcessed, failure));
             } else {
-                if (bundlesProcessed > 0) {
-                    pollFailures = 0;
-                    sourceAggregator.executor.execute(this);
-                } else {
-                    pollFailures += 1;
-                    rescheduleSelfWithBackoff();
-                }
+                int bundlesProcessed = readBundles(taskSources, AggregateConfig.FRAME_READER_READS,
+                                                   sourceAggregator.consumer);
+                roundComplete(taskSources, bundlesProcessed);
+            }
+        } catch (Throwable e) {
+            if (!sourceAggregator.queryPromise.tryFailure(e)) {
+                log.warn("Tried to fail queryPromise {} , but failed", sourceAggregator.queryPromise, e);
+            }
+        }
+    }
+
+    /** Called on the event loop when every merge partition has finished its share of a round. */
+    private void mergeRoundComplete(List<QueryTaskSource> taskSources, int bundlesProcessed,
+            @Nullable Throwable failure) {
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            if (!sourceAggregator.queryPromise.isDone()) {
+                roundComplete(taskSources, bundlesProcessed);
             }
         } catch (Throwable e) {
             if (!sourceAggregator.queryPromise.tryFailure(e)) {
@@ -89,23 +105,49 @@ public class QueryTask implements Runnable {
         }
     }
 
-    private int readBundles(List<QueryTaskSource> taskSources, int maxReads) throws Exception {
+    /** Records the progress of a round and either completes the query or schedules the next round. */
+    private void roundComplete(List<QueryTaskSource> taskSources, int bundlesProcessed) {
+        sourceAggregator.completed += countComplete(taskSources);
+        if (bundlesProcessed > 0) {
+            sourceAggregator.queryPromise.tryProgress(0, bundlesProcessed);
+        }
+        if (sourceAggregator.completed == sourceAggregator.totalTasks) {
+            if (partitionedMerge != null) {
+                partitionedMerge.complete();
+            }
+            if (!sourceAggregator.queryPromise.trySuccess()) {
+                log.warn("Tried to complete queryPromise {} , but failed", sourceAggregator.queryPromise);
+            }
+        } else {
+            if (bundlesProcessed > 0) {
+                pollFailures = 0;
+                sourceAggregator.executor.execute(this);
+            } else {
+                pollFailures += 1;
+                rescheduleSelfWithBackoff();
+            }
+        }
+    }
+
+    /**
+     * Reads bundles from {@code taskSources} into {@code output} until none of them has a bundle ready or
+     * {@code maxReads} bundles were read. May be called from a merge partition thread, in which case no
+     * other thread uses these task sources until it returns.
+     */
+    int readBundles(List<QueryTaskSource> taskSources, int maxReads, DataChannelOutput output) throws Exception {
         int bundlesProcessed = 0;
-        int complete = 0;
         boolean processedBundle = true;
         while (processedBundle && (bundlesProcessed < maxReads)) {
-            complete = 0;
             processedBundle = false;
             for (QueryTaskSource taskSource : taskSources) {
                 if (taskSource.complete()) {
-                    complete++;
                     continue;
                 }
                 try {
                     Bundle nextBundle = taskSource.next();
                     if (nextBundle != null) {
                         maybeInjectSourceField(nextBundle, taskSource);
-                        sourceAggregator.consumer.send(nextBundle);
+                        output.send(nextBundle);
                         processedBundle = true;
                         bundlesProcessed++;
                     } else if (!isActivated(taskSource) && !sourceAggregator.queryPromise.isDone()) {
@@ -126,10 +168,19 @@ public class QueryTask implements Runnable {
                 }
             }
         }
-        sourceAggregator.completed += complete;
         return bundlesProcessed;
     }
 
+    private static int countComplete(List<QueryTaskSource> taskSources) {
+        int complete = 0;
+        for (QueryTaskSource taskSource : taskSources) {
+            if (taskSource.complete()) {
+                complete++;
+            }
+        }
+        return complete;
+    }
+
     private static boolean isActivated(QueryTaskSource taskSource) {
         return taskSource.oneHasResponded() || !taskSource.hasNoActiveSources();
     }
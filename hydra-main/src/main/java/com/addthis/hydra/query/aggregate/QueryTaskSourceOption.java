@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.concurrent.Semaphore;
 
 import com.addthis.hydra.data.query.QueryException;
+import com.addthis.hydra.query.loadbalance.WorkerLeases;
 import com.addthis.meshy.ChannelMaster;
 import com.addthis.meshy.service.file.FileReference;
 import com.addthis.meshy.service.stream.StreamSource;
@@ -35,6 +36,8 @@ public class QueryTaskSourceOption {
     public final Semaphore optionLeases;
 
     @Nullable StreamSource streamSource;
+    /** when the stream was opened, until its first message arrives */
+    private long activatedAt;
 
     public QueryTaskSourceOption(FileReference queryReference, Semaphore optionLeases) {
         this.queryReference = queryReference;
@@ -54,6 +57,7 @@ public class QueryTaskSourceOption {
         try {
             streamSource = new StreamSource(meshy, queryReference.getHostUUID(),
                                             queryReference.getHostUUID(), queryReference.name, queryOptions, 0);
+            activatedAt = System.currentTimeMillis();
         } catch (Throwable e) {
             log.warn("Error getting query handle for fileReference: {}/{}",
                      queryReference.getHostUUID(), queryReference.name, e);
@@ -68,7 +72,14 @@ public class QueryTaskSourceOption {
 
     public boolean isReady() {
         if (streamSource != null) {
-            return streamSource.getMessageQueue().peek() != null;
+            boolean ready = streamSource.getMessageQueue().peek() != null;
+            if (ready && (activatedAt > 0)) {
+                if (optionLeases instanceof WorkerLeases) {
+                    ((WorkerLeases) optionLeases).observeLatency(System.currentTimeMillis() - activatedAt);
+                }
+                activatedAt = 0;
+            }
+            return ready;
         }
         return false;
     }
@@ -82,6 +93,7 @@ public class QueryTaskSourceOption {
                 log.debug("lease dropped for {} with reason {}", queryReference.getHostUUID(), message);
                 streamSource.requestClose();
                 streamSource = null;
+                activatedAt = 0;
             }
         } catch (Exception e) {
             log.warn("Exception canceling sourceInputStream for {}", queryReference, e);
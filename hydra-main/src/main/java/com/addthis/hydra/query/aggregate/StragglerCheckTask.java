@@ -33,7 +33,8 @@ class StragglerCheckTask implements Runnable {
 
     @Override
     public void run() {
-        if (sourceAggregator.queryPromise.isDone()) {
+        // wait for the next check rather than reading task sources that merge partitions are using
+        if (sourceAggregator.queryPromise.isDone() || sourceAggregator.mergeRoundActive) {
             return;
         }
         try {
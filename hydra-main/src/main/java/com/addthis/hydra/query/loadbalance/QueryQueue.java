@@ -14,14 +14,20 @@
 
 package com.addthis.hydra.query.loadbalance;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 import com.addthis.basis.kv.KVPairs;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.hydra.query.MeshQueryMaster;
+import com.addthis.hydra.query.tracker.QueryCostHistory;
+
+import com.google.common.base.Strings;
 
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
@@ -30,32 +36,85 @@ import com.yammer.metrics.core.Timer;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpRequest;
 
+/**
+ * Queries waiting for a frame reader, served with start-time fair queuing.
+ * <p/>
+ * Every query belongs to a flow, the pair of its sender and job. Each flow has a virtual finish time
+ * that advances by the estimated cost of every query it queues. A new query starts at the later of the
+ * flow's finish time and the start time of the most recently dequeued query, and queries are taken in
+ * order of their start times. A flow that queues many expensive queries is therefore served after
+ * flows with cheaper or fewer queries, instead of holding every frame reader until its backlog clears.
+ * Queries of one flow are still taken in the order they were queued.
+ */
 public class QueryQueue {
 
     static final int DEFAULT_QUEUE_MAX = Parameter.intValue("query.queue.max", 1000);
+    static final boolean FAIR_QUEUE = Parameter.boolValue("query.queue.fair", true);
     static final Timer queueTimer = Metrics.newTimer(QueryQueue.class, "queueTimer", TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
     static final Counter queueCount = Metrics.newCounter(QueryQueue.class, "queueCount");
 
     public final BlockingQueue<QueryRequest> blockingQueue;
 
+    private final int maxQueueSize;
+    private final ToLongFunction<KVPairs> costEstimator;
+    /** virtual finish time of every flow with queued or recently taken queries */
+    private final Map<String, Long> flowFinish = new HashMap<>();
+    private long virtualTime;
+    private long sequence;
+
     public QueryQueue() {
         this(DEFAULT_QUEUE_MAX);
     }
 
     public QueryQueue(int maxQueueSize) {
-        this.blockingQueue = new LinkedBlockingQueue<>(maxQueueSize);
+        this(maxQueueSize, kv -> 1);
+    }
+
+    public QueryQueue(ToLongFunction<KVPairs> costEstimator) {
+        this(DEFAULT_QUEUE_MAX, costEstimator);
+    }
+
+    public QueryQueue(int maxQueueSize, ToLongFunction<KVPairs> costEstimator) {
+        this.maxQueueSize = maxQueueSize;
+        this.costEstimator = costEstimator;
+        this.blockingQueue = new PriorityBlockingQueue<>(Math.min(maxQueueSize, 64) + 1,
+                                                         QueryRequest.SCHEDULE_ORDER);
+    }
+
+    static String flowKey(KVPairs kv) {
+        return kv.getValue("sender", "") + '\u0000' + Strings.nullToEmpty(QueryCostHistory.jobKey(kv.getValue("job")));
     }
 
     public void queueQuery(MeshQueryMaster querySource, KVPairs kv, HttpRequest request,
             ChannelHandlerContext ctx) throws Exception {
         QueryRequest queryRequest = new QueryRequest(querySource, kv, request, ctx);
-        // throws exception when queue is full - callers should handle appropriately
-        blockingQueue.add(queryRequest);
+        synchronized (this) {
+            // throws exception when queue is full - callers should handle appropriately
+            if (blockingQueue.size() >= maxQueueSize) {
+                throw new IllegalStateException("Queue full");
+            }
+            if (FAIR_QUEUE) {
+                String flow = flowKey(kv);
+                long cost = Math.max(1, costEstimator.applyAsLong(kv));
+                long start = Math.max(virtualTime, flowFinish.getOrDefault(flow, 0L));
+                flowFinish.put(flow, start + cost);
+                queryRequest.startTag = start;
+            }
+            queryRequest.sequence = sequence++;
+            blockingQueue.add(queryRequest);
+        }
         queueCount.inc();
     }
 
     public QueryRequest takeQuery() throws InterruptedException {
         QueryRequest request = blockingQueue.take();
+        synchronized (this) {
+            if (request.startTag > virtualTime) {
+                virtualTime = request.startTag;
+                // flows that finished before the current virtual time start over from it anyway
+                flowFinish.values().removeIf(finish -> finish <= virtualTime);
+            }
+        }
         queueTimer.update(System.currentTimeMillis() - request.queueStartTime, TimeUnit.MILLISECONDS);
         queueCount.dec();
         return request;
@@ -14,6 +14,8 @@
 
 package com.addthis.hydra.query.loadbalance;
 
+import java.util.Comparator;
+
 import com.addthis.basis.kv.KVPairs;
 
 import com.addthis.hydra.query.MeshQueryMaster;
@@ -23,12 +25,21 @@ import io.netty.handler.codec.http.HttpRequest;
 
 public class QueryRequest {
 
+    /** earliest virtual start time first, then the order the requests were queued */
+    static final Comparator<QueryRequest> SCHEDULE_ORDER =
+            Comparator.<QueryRequest>comparingLong(request -> request.startTag)
+                      .thenComparingLong(request -> request.sequence);
+
     final MeshQueryMaster querySource;
     final KVPairs kv;
     final HttpRequest request;
     final ChannelHandlerContext ctx;
     final long queueStartTime = System.currentTimeMillis();
 
+    /** virtual start time assigned by the {@link QueryQueue} */
+    long startTag;
+    long sequence;
+
     public QueryRequest(MeshQueryMaster querySource, KVPairs kv, HttpRequest request,
             ChannelHandlerContext ctx) {
         this.querySource = querySource;
@@ -36,5 +47,4 @@ public class QueryRequest {
         this.request = request;
         this.ctx = ctx;
     }
-
 }
@@ -18,14 +18,14 @@ import java.util.concurrent.Semaphore;
 
 public class WorkerData {
 
-    public final Semaphore queryLeases;
+    public final WorkerLeases queryLeases;
     public final String hostName;
 
     public WorkerData(String hostName, int leaseCount) {
-        this(hostName, new Semaphore(leaseCount));
+        this(hostName, new WorkerLeases(leaseCount));
     }
 
-    public WorkerData(String hostName, Semaphore queryLeases) {
+    public WorkerData(String hostName, WorkerLeases queryLeases) {
         this.queryLeases = queryLeases;
         this.hostName = hostName;
     }
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.loadbalance;
+
+import java.util.concurrent.Semaphore;
+
+import com.addthis.basis.util.Parameter;
+
+/**
+ * Query task leases for one worker whose count adapts to how quickly the worker starts answering.
+ * <p/>
+ * Every task that starts responding reports how long it waited for its first bundle. While that stays
+ * under the target latency the limit grows by about one lease for every limit's worth of tasks, up to
+ * the configured maximum. When a task waits longer the limit is cut by a quarter, at most once per
+ * target interval so that the tasks of a single slow period do not all count against the worker.
+ * <p/>
+ * The time to first response includes the run time of queries that only answer once they are done,
+ * such as those with a pushed down gather or remote ops, so adapting is off unless
+ * {@code hydra.query.tasks.adaptive} is set for clusters whose queries stream their results.
+ */
+public class WorkerLeases extends Semaphore {
+
+    static final boolean ADAPTIVE = Parameter.boolValue("hydra.query.tasks.adaptive", false);
+    // time to first response above which a worker is considered overloaded
+    static final long TARGET_LATENCY = Parameter.longValue("hydra.query.tasks.latency.target", 2000);
+    static final int MIN_LEASES = 1;
+    static final double DECREASE_FACTOR = 0.75;
+
+    private final int maxLeases;
+    private final boolean adaptive;
+
+    private double limit;
+    private int appliedLimit;
+    private long lastDecrease;
+
+    public WorkerLeases(int maxLeases) {
+        this(maxLeases, ADAPTIVE);
+    }
+
+    WorkerLeases(int maxLeases, boolean adaptive) {
+        super(maxLeases);
+        this.maxLeases = maxLeases;
+        this.adaptive = adaptive;
+        this.limit = maxLeases;
+        this.appliedLimit = maxLeases;
+    }
+
+    /** Records how many milliseconds a task on this worker took to send its first response. */
+    public synchronized void observeLatency(long latencyMillis) {
+        if (!adaptive || (maxLeases <= MIN_LEASES)) {
+            return;
+        }
+        if (latencyMillis > TARGET_LATENCY) {
+            long now = System.currentTimeMillis();
+            if ((now - lastDecrease) < TARGET_LATENCY) {
+                return;
+            }
+            lastDecrease = now;
+            limit = Math.max(MIN_LEASES, limit * DECREASE_FACTOR);
+        } else {
+            limit = Math.min(maxLeases, limit + (1.0 / limit));
+        }
+        int nextLimit = (int) limit;
+        if (nextLimit > appliedLimit) {
+            release(nextLimit - appliedLimit);
+        } else if (nextLimit < appliedLimit) {
+            // leases that are in use are not revoked, they are just not handed out again
+            reducePermits(appliedLimit - nextLimit);
+        }
+        appliedLimit = nextLimit;
+    }
+
+    /** Returns the current number of leases, in use or not. */
+    public synchronized int limit() {
+        return appliedLimit;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.tracker;
+
+import javax.annotation.Nullable;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Recent run times of queries per job, used to estimate what the next query against a job will cost
+ * before it runs. Each job keeps an exponentially weighted average of its completed query run times.
+ */
+public class QueryCostHistory {
+
+    static final int MAX_JOBS = Parameter.intValue("query.cost.history.jobs", 1000);
+    // cost in milliseconds assumed for jobs without completed queries
+    static final long DEFAULT_COST = Parameter.longValue("query.cost.default", 1000);
+    // weight of the newest run time in the average
+    static final double SAMPLE_WEIGHT = 0.3;
+
+    private final Cache<String, Double> costs = CacheBuilder.newBuilder().maximumSize(MAX_JOBS).build();
+
+    /** Records the run time of a completed query against {@code job}. */
+    public void record(@Nullable String job, long runTime) {
+        String key = jobKey(job);
+        if ((key == null) || (runTime < 0)) {
+            return;
+        }
+        costs.asMap().merge(key, (double) runTime, (old, sample) -> old + (SAMPLE_WEIGHT * (sample - old)));
+    }
+
+    /** Returns the expected run time in milliseconds of a query against {@code job}. */
+    public long estimate(@Nullable String job) {
+        String key = jobKey(job);
+        Double cost = (key == null) ? null : costs.getIfPresent(key);
+        return (cost == null) ? DEFAULT_COST : Math.max(1, cost.longValue());
+    }
+
+    /** The job id or alias without any directory, so that queries of any directory share a history. */
+    @Nullable public static String jobKey(@Nullable String job) {
+        if ((job == null) || job.isEmpty()) {
+            return null;
+        }
+        int slash = job.indexOf('/');
+        return (slash > 0) ? job.substring(0, slash) : job;
+    }
+}
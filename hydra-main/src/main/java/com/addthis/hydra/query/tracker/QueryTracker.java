@@ -57,6 +57,7 @@ public class QueryTracker implements Closeable {
     final ConcurrentMap<String, QueryEntry> running = new ConcurrentHashMap<>();
     final Cache<String, QueryEntryInfo> recentlyCompleted;
     final TaskDataOutput eventLog;
+    final QueryCostHistory costHistory = new QueryCostHistory();
 
     /* metrics */
     final Counter queryErrors = Metrics.newCounter(QueryTracker.class, "queryErrors");
@@ -100,6 +101,11 @@ public class QueryTracker implements Closeable {
         eventLog.sendComplete();
     }
 
+    /** Run times of recently completed queries, for estimating the cost of queued queries. */
+    public QueryCostHistory getCostHistory() {
+        return costHistory;
+    }
+
     public int getRunningCount() {
         return running.size();
     }
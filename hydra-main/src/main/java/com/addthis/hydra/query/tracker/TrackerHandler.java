@@ -225,6 +225,10 @@ public class TrackerHandler extends ChannelOutboundHandlerAdapter implements Cha
             }
             queryTracker.recentlyCompleted.put(query.uuid(), entryInfo);
             queryTracker.queryMeter.update(entryInfo.runTime, TimeUnit.MILLISECONDS);
+            queryTracker.costHistory.record(entryInfo.job, entryInfo.runTime);
+            if (entryInfo.alias != null) {
+                queryTracker.costHistory.record(entryInfo.alias, entryInfo.runTime);
+            }
             queryTracker.eventLog.send(event);
         } catch (Exception e) {
             log.error("Error while doing record keeping for a query.", e);
@@ -24,7 +24,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
@@ -35,10 +34,14 @@ import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
-import io.netty.util.CharsetUtil;
 
 /**
  * parent of all streaming response classes
+ * <p/>
+ * Rows are encoded into a {@link ByteBuf} from the channel allocator, which is sent as one http chunk
+ * once it holds the batch size in bytes. Subclasses write the bytes of each row in
+ * {@link #appendBundle(Bundle, ByteBuf)}. Encoders that build strings extend
+ * {@link AbstractStringHttpBundleEncoder} instead.
  */
 abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandlerAdapter {
 
@@ -49,25 +52,31 @@ abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandler
 
     protected final HttpResponse responseStart = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
 
-    private final StringBuilder sendBuffer;
+    private final int initialBufferSize;
     private final int batchBufferSize;
 
+    private ByteBuf sendBuffer;
     private boolean writeStarted = false;
     private boolean responseWritten = false;
 
 
     AbstractBufferingHttpBundleEncoder(int initialBufferSize, int batchBufferSize) {
+        this.initialBufferSize = initialBufferSize;
         this.batchBufferSize = batchBufferSize;
         HttpHeaders.setTransferEncodingChunked(responseStart);
-        sendBuffer = new StringBuilder(initialBufferSize);
     }
 
     AbstractBufferingHttpBundleEncoder() {
         this(DEFAULT_INITIAL_BUFFER_SIZE, DEFAULT_BATCH_BUFFER_SIZE);
     }
 
-    private static ByteBuf encodeString(ByteBufAllocator alloc, CharSequence msg) {
-        return ByteBufUtil.encodeString(alloc, CharBuffer.wrap(msg), CharsetUtil.UTF_8);
+    /** Writes the UTF-8 encoding of the characters of {@code value} from start to end into {@code out}. */
+    static void writeUtf8(ByteBuf out, String value, int start, int end) {
+        if ((start == 0) && (end == value.length())) {
+            ByteBufUtil.writeUtf8(out, value);
+        } else if (end > start) {
+            ByteBufUtil.writeUtf8(out, CharBuffer.wrap(value, start, end));
+        }
     }
 
     @Override
@@ -84,18 +93,35 @@ abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandler
 
     @Override
     public void flush(ChannelHandlerContext ctx) {
-        if (sendBuffer.length() > 0) {
-            flushStringBuilder(ctx);
+        if ((sendBuffer != null) && sendBuffer.isReadable()) {
+            flushBuffer(ctx);
         } else {
             ctx.flush();
         }
     }
 
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (sendBuffer != null) {
+            sendBuffer.release();
+            sendBuffer = null;
+        }
+        super.handlerRemoved(ctx);
+    }
+
+    private ByteBuf buffer(ChannelHandlerContext ctx) {
+        if (sendBuffer == null) {
+            sendBuffer = ctx.alloc().buffer(initialBufferSize);
+        }
+        return sendBuffer;
+    }
+
     private boolean maybeWriteStart(ChannelHandlerContext ctx, Bundle row) {
         if (!writeStarted) {
-            appendResponseStartToString(sendBuffer);
+            ByteBuf out = buffer(ctx);
+            appendResponseStart(out);
             if (row != null) {
-                appendInitialBundleToString(row, sendBuffer);
+                appendInitialBundle(row, out);
             }
             writeStarted = true;
             return true;
@@ -103,12 +129,13 @@ abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandler
         return false;
     }
 
-    public abstract void appendBundleToString(Bundle row, StringBuilder sendBuffer);
+    /** Writes a bundle. */
+    protected abstract void appendBundle(Bundle row, ByteBuf out);
 
     /**
      * Called before any bundles are written.
      */
-    protected void appendResponseStartToString(StringBuilder sendBuffer) {
+    protected void appendResponseStart(ByteBuf out) {
         // override in subclasses if desired
     }
 
@@ -116,42 +143,48 @@ abstract class AbstractBufferingHttpBundleEncoder extends ChannelOutboundHandler
      * The bundle firstRow is passed in and should be written in this method.
      * It is provided due to the frequent case of the first row requiring special
      * logic. If (first/ not first) is the only context needed to encode a bundle,
-     * then subsequent bundles can be encoded concurrently.
+     * then subsequent bundles can be encoded concurrently. The default calls
+     * {@link #appendBundle(Bundle, ByteBuf)}.
      */
-    protected void appendInitialBundleToString(Bundle firstRow, StringBuilder sendBuffer) {
-        appendBundleToString(firstRow, sendBuffer);
+    protected void appendInitialBundle(Bundle firstRow, ByteBuf out) {
+        appendBundle(firstRow, out);
     }
 
     /**
      * Called after all bundles are written.
      */
-    protected void appendResponseEndToString(StringBuilder sendBuffer) {
+    protected void appendResponseEnd(ByteBuf out) {
         // override in subclasses if desired
     }
 
     public void send(ChannelHandlerContext ctx, Bundle row) {
         if (!maybeWriteStart(ctx, row)) {
-            appendBundleToString(row, sendBuffer);
+            appendBundle(row, buffer(ctx));
         }
-        if (sendBuffer.length() >= batchBufferSize) {
-            flushStringBuilder(ctx);
+        if (sendBuffer.readableBytes() >= batchBufferSize) {
+            flushBuffer(ctx);
         }
     }
 
-    protected void flushStringBuilder(ChannelHandlerContext ctx) {
+    /** Sends the buffered bytes as an http chunk, writing the response headers first if needed. */
+    protected void flushBuffer(ChannelHandlerContext ctx) {
         if (!responseWritten) {
             ctx.write(responseStart);
+            responseWritten = true;
         }
-        if (sendBuffer.length() > 0) {
-            ByteBuf msg = encodeString(ctx.alloc(), sendBuffer);
-            sendBuffer.setLength(0);
+        if ((sendBuffer != null) && sendBuffer.isReadable()) {
+            // the buffer is handed off with the chunk and released once it is written
+            ByteBuf msg = sendBuffer;
+            sendBuffer = null;
             ctx.writeAndFlush(new DefaultHttpContent(msg), ctx.voidPromise());
+        } else {
+            ctx.flush();
         }
     }
 
     public void sendComplete(ChannelHandlerContext ctx) {
         maybeWriteStart(ctx, null);
-        appendResponseEndToString(sendBuffer);
-        flushStringBuilder(ctx);
+        appendResponseEnd(buffer(ctx));
+        flushBuffer(ctx);
     }
-}
\ No newline at end of file
+}
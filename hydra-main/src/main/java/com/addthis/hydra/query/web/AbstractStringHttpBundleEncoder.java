@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.web;
+
+import com.addthis.bundle.core.Bundle;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+/**
+ * parent of streaming response classes that build each row as a string
+ * <p/>
+ * The strings are encoded as UTF-8 into the send buffer of {@link AbstractBufferingHttpBundleEncoder}.
+ */
+abstract class AbstractStringHttpBundleEncoder extends AbstractBufferingHttpBundleEncoder {
+
+    private final StringBuilder stringBuffer;
+
+    AbstractStringHttpBundleEncoder(int initialBufferSize, int batchBufferSize) {
+        super(initialBufferSize, batchBufferSize);
+        stringBuffer = new StringBuilder(initialBufferSize);
+    }
+
+    AbstractStringHttpBundleEncoder() {
+        super();
+        stringBuffer = new StringBuilder();
+    }
+
+    public abstract void appendBundleToString(Bundle row, StringBuilder sendBuffer);
+
+    /**
+     * Called before any bundles are written.
+     */
+    protected void appendResponseStartToString(StringBuilder sendBuffer) {
+        // override in subclasses if desired
+    }
+
+    /**
+     * Called after all bundles are written.
+     */
+    protected void appendResponseEndToString(StringBuilder sendBuffer) {
+        // override in subclasses if desired
+    }
+
+    @Override
+    protected final void appendBundle(Bundle row, ByteBuf out) {
+        appendBundleToString(row, stringBuffer);
+        writeStringBuffer(out);
+    }
+
+    @Override
+    protected final void appendResponseStart(ByteBuf out) {
+        appendResponseStartToString(stringBuffer);
+        writeStringBuffer(out);
+    }
+
+    @Override
+    protected final void appendResponseEnd(ByteBuf out) {
+        appendResponseEndToString(stringBuffer);
+        writeStringBuffer(out);
+    }
+
+    private void writeStringBuffer(ByteBuf out) {
+        if (stringBuffer.length() > 0) {
+            ByteBufUtil.writeUtf8(out, stringBuffer);
+            stringBuffer.setLength(0);
+        }
+    }
+}
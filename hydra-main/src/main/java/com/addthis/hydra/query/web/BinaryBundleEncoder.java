@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.web;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.value.ValueObject;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
+
+/**
+ * Writes rows in a compact binary format for clients that read large results programmatically.
+ * <p/>
+ * Each row is a big endian int with the number of columns followed by the columns. Each column starts
+ * with a type byte:
+ * <ul>
+ * <li>{@code 0} missing value, no payload</li>
+ * <li>{@code 1} integer, 8 byte long</li>
+ * <li>{@code 2} floating point, 8 byte double</li>
+ * <li>{@code 3} string, int byte length followed by the UTF-8 bytes</li>
+ * <li>{@code 4} bytes, int length followed by the bytes</li>
+ * </ul>
+ * Arrays and maps are written as the string of their value.
+ */
+public class BinaryBundleEncoder extends AbstractBufferingHttpBundleEncoder {
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_LONG = 1;
+    static final byte TYPE_DOUBLE = 2;
+    static final byte TYPE_STRING = 3;
+    static final byte TYPE_BYTES = 4;
+
+    BinaryBundleEncoder(String filename) {
+        super();
+        setContentTypeHeader(responseStart, "application/octet-stream");
+        responseStart.headers().set("Access-Control-Allow-Origin", "*");
+        responseStart.headers().set("Content-Disposition", "attachment; filename=\"" + filename + "\"");
+    }
+
+    public static BinaryBundleEncoder create(String filename) {
+        if (!filename.toLowerCase().endsWith(".bin")) {
+            filename = filename.concat(".bin");
+        }
+        return new BinaryBundleEncoder(filename);
+    }
+
+    static void buildRow(Bundle row, ByteBuf out) {
+        out.writeInt(row.getFormat().getFieldCount());
+        for (BundleField field : row.getFormat()) {
+            buildValue(out, row.getValue(field));
+        }
+    }
+
+    static void buildValue(ByteBuf out, ValueObject value) {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+            return;
+        }
+        ValueObject.TYPE type = value.getObjectType();
+        if (type == ValueObject.TYPE.CUSTOM) {
+            value = value.asCustom().asSimple();
+            type = value.getObjectType();
+        }
+        switch (type) {
+            case INT:
+                out.writeByte(TYPE_LONG);
+                out.writeLong(value.asLong().getLong());
+                break;
+            case FLOAT:
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(value.asDouble().getDouble());
+                break;
+            case BYTES:
+                byte[] bytes = value.asBytes().asNative();
+                out.writeByte(TYPE_BYTES);
+                out.writeInt(bytes.length);
+                out.writeBytes(bytes);
+                break;
+            default:
+                out.writeByte(TYPE_STRING);
+                int lengthIndex = out.writerIndex();
+                out.writeInt(0);
+                int length = ByteBufUtil.writeUtf8(out, value.toString());
+                out.setInt(lengthIndex, length);
+                break;
+        }
+    }
+
+    @Override
+    protected void appendBundle(Bundle row, ByteBuf out) {
+        buildRow(row, out);
+    }
+}
@@ -19,15 +19,21 @@ import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.QueryException;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.CharsetUtil;
+
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
 public class DelimitedBundleEncoder extends AbstractBufferingHttpBundleEncoder {
 
     String delimiter;
+    private final byte[] delimiterBytes;
 
     DelimitedBundleEncoder(String filename, String delimiter) {
         super();
         this.delimiter = delimiter;
+        this.delimiterBytes = delimiter.getBytes(CharsetUtil.UTF_8);
         setContentTypeHeader(responseStart, "application/csv; charset=utf-8");
         responseStart.headers().set("Access-Control-Allow-Origin", "*");
         responseStart.headers().set("Content-Disposition", "attachment; filename=\"" + filename + "\"");
@@ -91,8 +97,53 @@ public class DelimitedBundleEncoder extends AbstractBufferingHttpBundleEncoder {
         stringBuilder.append("\n");
     }
 
+    /** Writes the same row as {@link #buildRow(Bundle, String, StringBuilder)} as UTF-8 bytes. */
+    static void buildRow(Bundle row, byte[] delimiter, ByteBuf out) {
+        int count = 0;
+        for (BundleField field : row.getFormat()) {
+            ValueObject o = row.getValue(field);
+            if (count++ > 0) {
+                out.writeBytes(delimiter);
+            }
+            if (o != null) {
+                ValueObject.TYPE type = o.getObjectType();
+                if (type == ValueObject.TYPE.CUSTOM) {
+                    o = o.asCustom().asSimple();
+                    type = o.getObjectType();
+                }
+                switch (type) {
+                    case INT:
+                    case FLOAT:
+                        ByteBufUtil.writeAscii(out, o.toString());
+                        break;
+                    case STRING:
+                        writeQuoted(out, o.toString());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        out.writeByte('\n');
+    }
+
+    private static void writeQuoted(ByteBuf out, String value) {
+        out.writeByte('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c == '"') || (c == '\n') || (c == '\r')) {
+                writeUtf8(out, value, start, i);
+                out.writeByte((c == '"') ? '\'' : ' ');
+                start = i + 1;
+            }
+        }
+        writeUtf8(out, value, start, value.length());
+        out.writeByte('"');
+    }
+
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder stringBuilder) {
-        buildRow(row, delimiter, stringBuilder);
+    protected void appendBundle(Bundle row, ByteBuf out) {
+        buildRow(row, delimiterBytes, out);
     }
 }
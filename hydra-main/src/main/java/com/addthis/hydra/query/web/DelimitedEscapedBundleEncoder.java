@@ -23,17 +23,23 @@ import com.addthis.hydra.data.query.QueryException;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.CharsetUtil;
+
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
 public class DelimitedEscapedBundleEncoder extends AbstractBufferingHttpBundleEncoder {
 
     private final String delimiter;
+    private final byte[] delimiterBytes;
 
     private final static Pattern ESCAPE_CHARACTERS = Pattern.compile("([\\\\\\\"])");
 
     DelimitedEscapedBundleEncoder(String filename, String delimiter) {
         super();
         this.delimiter = delimiter;
+        this.delimiterBytes = delimiter.getBytes(CharsetUtil.UTF_8);
         setContentTypeHeader(responseStart, "application/csv; charset=utf-8");
         responseStart.headers().set("Access-Control-Allow-Origin", "*");
         responseStart.headers().set("Content-Disposition", "attachment; filename=\"" + filename + "\"");
@@ -109,8 +115,64 @@ public class DelimitedEscapedBundleEncoder extends AbstractBufferingHttpBundleEn
         }
     }
 
+    /** Writes the same row as {@link #buildRow(Bundle, String, StringBuilder)} as UTF-8 bytes. */
+    static void buildRow(Bundle row, byte[] delimiter, ByteBuf out) {
+        int count = 0;
+        for (BundleField field : row.getFormat()) {
+            ValueObject o = row.getValue(field);
+            if (count++ > 0) {
+                out.writeBytes(delimiter);
+            }
+            if (o != null) {
+                buildValue(out, o);
+            }
+        }
+        out.writeByte('\n');
+    }
+
+    @VisibleForTesting
+    static void buildValue(ByteBuf out, ValueObject value) {
+        ValueObject.TYPE type = value.getObjectType();
+        if (type == ValueObject.TYPE.CUSTOM) {
+            value = value.asCustom().asSimple();
+            type = value.getObjectType();
+        }
+        switch (type) {
+            case INT:
+            case FLOAT:
+                ByteBufUtil.writeAscii(out, value.toString());
+                break;
+            case STRING:
+                out.writeByte('"');
+                writeEscaped(out, value.toString());
+                out.writeByte('"');
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Same as {@link #quoteString(String)} without the intermediate strings. */
+    private static void writeEscaped(ByteBuf out, String input) {
+        int start = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if ((c == '\\') || (c == '"')) {
+                writeUtf8(out, input, start, i);
+                out.writeByte('\\');
+                out.writeByte(c);
+                start = i + 1;
+            } else if ((c == '\n') || (c == '\r')) {
+                writeUtf8(out, input, start, i);
+                out.writeByte(' ');
+                start = i + 1;
+            }
+        }
+        writeUtf8(out, input, start, input.length());
+    }
+
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder stringBuilder) {
-        buildRow(row, delimiter, stringBuilder);
+    protected void appendBundle(Bundle row, ByteBuf out) {
+        buildRow(row, delimiterBytes, out);
     }
 }
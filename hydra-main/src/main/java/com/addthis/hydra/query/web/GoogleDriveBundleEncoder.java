@@ -63,7 +63,7 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
-public class GoogleDriveBundleEncoder extends AbstractBufferingHttpBundleEncoder {
+public class GoogleDriveBundleEncoder extends AbstractStringHttpBundleEncoder {
 
     private static final Logger log = LoggerFactory.getLogger(GoogleDriveBundleEncoder.class);
 
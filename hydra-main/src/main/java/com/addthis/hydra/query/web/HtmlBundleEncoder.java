@@ -20,7 +20,7 @@ import com.addthis.bundle.value.ValueObject;
 
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
-public class HtmlBundleEncoder extends AbstractBufferingHttpBundleEncoder {
+public class HtmlBundleEncoder extends AbstractStringHttpBundleEncoder {
 
     public HtmlBundleEncoder() {
         super();
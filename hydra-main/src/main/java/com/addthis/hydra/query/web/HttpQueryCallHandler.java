@@ -139,6 +139,9 @@ public final class HttpQueryCallHandler {
                 ctx.pipeline().addLast(executor, "format",
                         GoogleDriveBundleEncoder.create(filename, gdriveAccessToken));
                 break;
+            case "binary":
+                ctx.pipeline().addLast(executor, "format", BinaryBundleEncoder.create(filename));
+                break;
             case "csv2":
             case "psv2":
             case "tsv2":
@@ -14,6 +14,8 @@
 
 package com.addthis.hydra.query.web;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 
 import com.addthis.bundle.core.Bundle;
@@ -21,37 +23,49 @@ import com.addthis.bundle.core.BundleField;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.codec.jackson.Jackson;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.netty.buffer.ByteBuf;
 
 import static com.addthis.hydra.query.web.HttpUtils.setContentTypeHeader;
 
 public class JsonBundleEncoder extends AbstractBufferingHttpBundleEncoder {
 
+    private final BufferOutputStream output = new BufferOutputStream();
+    private final JsonGenerator generator;
+
     public JsonBundleEncoder() {
         super();
         setContentTypeHeader(responseStart, "application/json; charset=utf-8");
         responseStart.headers().set("Access-Control-Allow-Origin", "*");
+        try {
+            generator = Jackson.defaultMapper().getFactory().createGenerator(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // values are written one at a time into the structure written below
+        generator.setRootValueSeparator(null);
     }
 
     @Override
-    public void appendResponseStartToString(StringBuilder sendBuffer) {
-        sendBuffer.append('[');
+    protected void appendResponseStart(ByteBuf out) {
+        out.writeByte('[');
     }
 
     @Override
-    public void appendBundleToString(Bundle row, StringBuilder sendBuffer) {
-        sendBuffer.append(',');
-        appendInitialBundleToString(row, sendBuffer);
+    protected void appendBundle(Bundle row, ByteBuf out) {
+        out.writeByte(',');
+        appendInitialBundle(row, out);
     }
 
     @Override
-    protected void appendInitialBundleToString(Bundle firstRow, StringBuilder sendBuffer) {
-        sendBuffer.append('[');
+    protected void appendInitialBundle(Bundle firstRow, ByteBuf out) {
+        out.writeByte('[');
         int count = 0;
         for (BundleField field : firstRow.getFormat()) {
             ValueObject o = firstRow.getValue(field);
             if (count++ > 0) {
-                sendBuffer.append(',');
+                out.writeByte(',');
             }
             if (o == null) {
                 continue;
@@ -59,19 +73,37 @@ public class JsonBundleEncoder extends AbstractBufferingHttpBundleEncoder {
             if (o.getObjectType() == ValueObject.TYPE.CUSTOM) {
                 o = o.asCustom().asSimple();
             }
+            output.target = out;
             try {
-                // TODO: no worse than the preivous version, but should still be able to avoid the string alloc.
-                String encodedCopy = Jackson.defaultMapper().writeValueAsString(o.asNative());
-                sendBuffer.append(encodedCopy);
-            } catch (JsonProcessingException e) {
+                generator.writeObject(o.asNative());
+                generator.flush();
+            } catch (IOException e) {
                 throw new UncheckedIOException(e);
+            } finally {
+                output.target = null;
             }
         }
-        sendBuffer.append(']');
+        out.writeByte(']');
     }
 
     @Override
-    protected void appendResponseEndToString(StringBuilder sendBuffer) {
-        sendBuffer.append("]");
+    protected void appendResponseEnd(ByteBuf out) {
+        out.writeByte(']');
+    }
+
+    /** Passes the bytes of the json generator to the buffer of the row being written. */
+    private static final class BufferOutputStream extends OutputStream {
+
+        ByteBuf target;
+
+        @Override
+        public void write(int b) {
+            target.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target.writeBytes(b, off, len);
+        }
     }
 }
@@ -21,6 +21,7 @@ import com.addthis.codec.config.Configs;
 import com.addthis.hydra.query.MeshQueryMaster;
 import com.addthis.hydra.query.loadbalance.NextQueryTask;
 import com.addthis.hydra.query.loadbalance.QueryQueue;
+import com.addthis.hydra.query.tracker.QueryCostHistory;
 import com.addthis.hydra.query.tracker.QueryTracker;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -76,12 +77,13 @@ public class QueryServer implements AutoCloseable {
                         @JsonProperty(value = "queryThreads", required = true) int queryThreads,
                         @JsonProperty(value = "queryThreadFactory", required = true) ThreadFactory queryThreadFactory
     ) throws Exception {
-        queryQueue = new QueryQueue();
+        queryTracker = new QueryTracker();
+        QueryCostHistory costHistory = queryTracker.getCostHistory();
+        queryQueue = new QueryQueue(kv -> costHistory.estimate(kv.getValue("job")));
         bossGroup = new NioEventLoopGroup(1);
         workerGroup = new NioEventLoopGroup();
         executorGroup = new DefaultEventExecutorGroup(queryThreads, queryThreadFactory);
 
-        queryTracker = new QueryTracker();
         meshQueryMaster = new MeshQueryMaster(queryTracker);
         HttpQueryHandler httpQueryHandler = new HttpQueryHandler(queryTracker, meshQueryMaster, queryQueue);
         ChannelHandler queryServerInitializer = new QueryServerInitializer(httpQueryHandler);
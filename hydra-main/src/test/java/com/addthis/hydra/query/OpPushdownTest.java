@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query;
+
+import com.addthis.hydra.data.query.Query;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OpPushdownTest {
+
+    @Test
+    public void remoteOps() {
+        assertEquals("gather=ks", OpPushdown.remoteOpsFor("gather=ks"));
+        assertEquals("gather=kls", OpPushdown.remoteOpsFor("gather=kis;sort=1:n:d"));
+        assertEquals("top=kM", OpPushdown.remoteOpsFor("top=kM"));
+        assertEquals("merge=kj", OpPushdown.remoteOpsFor("merge=kj"));
+        assertEquals("sort=1:n:d;limit=10", OpPushdown.remoteOpsFor("sort=1:n:d;limit=10"));
+        assertEquals("sort=1:n:d;limit=15", OpPushdown.remoteOpsFor("sort=1:n:d;limit=5:10;title=a,b"));
+        assertNull(OpPushdown.remoteOpsFor("gather=ka"));
+        assertNull(OpPushdown.remoteOpsFor("gather=ksu"));
+        assertNull(OpPushdown.remoteOpsFor("sort=1:n:d"));
+        assertNull(OpPushdown.remoteOpsFor("sort=1:n:d;limit=a"));
+        assertNull(OpPushdown.remoteOpsFor("limit=10"));
+        assertNull(OpPushdown.remoteOpsFor(""));
+    }
+
+    @Test
+    public void apply() {
+        Query query = new Query("job", new String[]{"+:+hits"}, new String[]{"gather=ks"});
+        Query remoteQuery = query.createPipelinedQuery();
+        OpPushdown.apply(query, remoteQuery);
+        assertArrayEquals(new String[]{"gather=ks"}, query.getOps());
+        assertArrayEquals(new String[]{"gather=ks"}, remoteQuery.getOps());
+
+        // explicit rops are left alone
+        query = new Query("job", new String[]{"+:+hits"}, new String[]{"gather=ks", "sort=0"});
+        remoteQuery = query.createPipelinedQuery();
+        OpPushdown.apply(query, remoteQuery);
+        assertArrayEquals(new String[]{"sort=0"}, remoteQuery.getOps());
+
+        query = new Query("job", new String[]{"+:+hits"}, new String[]{"gather=ks"});
+        query.setParameter("pushdown", false);
+        remoteQuery = query.createPipelinedQuery();
+        OpPushdown.apply(query, remoteQuery);
+        assertArrayEquals(new String[0], remoteQuery.getOps());
+    }
+}
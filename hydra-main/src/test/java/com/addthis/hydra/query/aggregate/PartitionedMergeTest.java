@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.aggregate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.util.ValueUtil;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.query.QueryOpProcessor;
+
+import org.junit.Test;
+
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PartitionedMergeTest {
+
+    private static final int TASKS = 8;
+    private static final int ROWS = 500;
+    private static final int KEYS = 50;
+
+    @Test
+    public void partialGatherArgs() {
+        assertEquals("ks", PartitionedMerge.partialGatherArgs(new String[]{"gather=ks"}));
+        assertEquals("klsM", PartitionedMerge.partialGatherArgs(new String[]{"gather=kisM;sort=0"}));
+        assertEquals("kk,s", PartitionedMerge.partialGatherArgs(new String[]{"GATHER=kk,s"}));
+        assertNull(PartitionedMerge.partialGatherArgs(null));
+        assertNull(PartitionedMerge.partialGatherArgs(new String[0]));
+        assertNull(PartitionedMerge.partialGatherArgs(new String[]{""}));
+        assertNull(PartitionedMerge.partialGatherArgs(new String[]{"gather=ka"}));
+        assertNull(PartitionedMerge.partialGatherArgs(new String[]{"gather=kt10"}));
+        assertNull(PartitionedMerge.partialGatherArgs(new String[]{"sort=0;gather=ks"}));
+    }
+
+    @Test
+    public void partitionedMatchesSerial() throws Exception {
+        String[] masterOps = {"gather=ksM"};
+        List<String> serial = new ArrayList<>();
+        MeshSourceAggregator serialAggregator = aggregator(masterOps);
+        QueryOpProcessor serialMaster = new QueryOpProcessor.Builder(new RowCollector(serial), masterOps).build();
+        new QueryTask(serialAggregator).readBundles(Arrays.asList(serialAggregator.taskSources),
+                                                    Integer.MAX_VALUE, serialMaster);
+        serialMaster.sendComplete();
+
+        List<String> partitioned = new ArrayList<>();
+        MeshSourceAggregator partitionedAggregator = aggregator(masterOps);
+        partitionedAggregator.query.setParameter("mergePartitions", 4);
+        QueryOpProcessor partitionedMaster =
+                new QueryOpProcessor.Builder(new RowCollector(partitioned), masterOps).build();
+        partitionedAggregator.consumer = partitionedMaster;
+        PartitionedMerge merge = PartitionedMerge.create(partitionedAggregator);
+        assertNotNull(merge);
+        CompletableFuture<Integer> read = new CompletableFuture<>();
+        merge.readBundles(new QueryTask(partitionedAggregator), Arrays.asList(partitionedAggregator.taskSources),
+                          Integer.MAX_VALUE, (bundles, failure) -> {
+                              if (failure != null) {
+                                  read.completeExceptionally(failure);
+                              } else {
+                                  read.complete(bundles);
+                              }
+                          });
+        assertEquals(TASKS * ROWS, (int) read.get(1, TimeUnit.MINUTES));
+        merge.complete();
+        partitionedMaster.sendComplete();
+
+        assertEquals(KEYS, serial.size());
+        Collections.sort(serial);
+        Collections.sort(partitioned);
+        assertEquals(serial, partitioned);
+    }
+
+    private static MeshSourceAggregator aggregator(String[] masterOps) throws Exception {
+        ListBundleFormat format = new ListBundleFormat();
+        BundleField key = format.getField("key");
+        BundleField value = format.getField("value");
+        BundleField peak = format.getField("peak");
+        QueryTaskSource[] taskSources = new QueryTaskSource[TASKS];
+        for (int task = 0; task < TASKS; task++) {
+            List<Bundle> rows = new ArrayList<>(ROWS);
+            for (int i = 0; i < ROWS; i++) {
+                Bundle row = new ListBundle(format);
+                row.setValue(key, ValueFactory.create("k" + (((task * ROWS) + i) % KEYS)));
+                row.setValue(value, ValueFactory.create(i));
+                row.setValue(peak, ValueFactory.create((i * 31) % 97));
+                rows.add(row);
+            }
+            taskSources[task] = new ListTaskSource(rows);
+        }
+        Query query = new Query("job", new String[]{"+:+hits"}, new String[0]);
+        MeshSourceAggregator aggregator = new MeshSourceAggregator(taskSources, null, null, query, masterOps);
+        aggregator.queryPromise = new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE);
+        aggregator.executor = ImmediateEventExecutor.INSTANCE;
+        return aggregator;
+    }
+
+    /** A task that has already responded with its rows. */
+    private static final class ListTaskSource extends QueryTaskSource {
+
+        private final Iterator<Bundle> rows;
+
+        ListTaskSource(List<Bundle> rows) {
+            super(new QueryTaskSourceOption[0]);
+            this.rows = rows.iterator();
+        }
+
+        @Override
+        public boolean complete() {
+            return !rows.hasNext();
+        }
+
+        @Override
+        public Bundle next() {
+            return rows.hasNext() ? rows.next() : null;
+        }
+    }
+
+    private static final class RowCollector implements DataChannelOutput {
+
+        private final List<String> rows;
+        private final ListBundleFormat format = new ListBundleFormat();
+
+        RowCollector(List<String> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public synchronized void send(Bundle row) {
+            StringBuilder builder = new StringBuilder();
+            for (BundleField field : row.getFormat()) {
+                builder.append(ValueUtil.asNativeString(row.getValue(field))).append(',');
+            }
+            rows.add(builder.toString());
+        }
+
+        @Override
+        public void send(List<Bundle> bundles) {
+            bundles.forEach(this::send);
+        }
+
+        @Override
+        public void sendComplete() {
+        }
+
+        @Override
+        public void sourceError(Throwable er) {
+            throw new AssertionError(er);
+        }
+
+        @Override
+        public Bundle createBundle() {
+            return new ListBundle(format);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.loadbalance;
+
+import com.addthis.basis.kv.KVPairs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryQueueTest {
+
+    private static KVPairs query(String sender, String job) {
+        KVPairs kv = new KVPairs();
+        kv.add("sender", sender);
+        kv.add("job", job);
+        return kv;
+    }
+
+    @Test
+    public void heavyFlowDoesNotStarveOthers() throws Exception {
+        // queries against "heavy" are estimated to cost ten times as much as the others
+        QueryQueue queue = new QueryQueue(100, kv -> "heavy".equals(kv.getValue("job")) ? 10 : 1);
+        for (int i = 0; i < 5; i++) {
+            queue.queueQuery(null, query("dashboard", "heavy"), null, null);
+        }
+        queue.queueQuery(null, query("user", "light/dir"), null, null);
+        queue.queueQuery(null, query("user", "light"), null, null);
+
+        assertEquals("heavy", queue.takeQuery().kv.getValue("job"));
+        assertEquals("light/dir", queue.takeQuery().kv.getValue("job"));
+        assertEquals("light", queue.takeQuery().kv.getValue("job"));
+        for (int i = 0; i < 4; i++) {
+            assertEquals("heavy", queue.takeQuery().kv.getValue("job"));
+        }
+    }
+
+    @Test
+    public void flowIsFirstInFirstOut() throws Exception {
+        QueryQueue queue = new QueryQueue(100, kv -> 1);
+        for (int i = 0; i < 5; i++) {
+            queue.queueQuery(null, query("user", "job" + i), null, null);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("job" + i, queue.takeQuery().kv.getValue("job"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsWhenFull() throws Exception {
+        QueryQueue queue = new QueryQueue(1, kv -> 1);
+        queue.queueQuery(null, query("user", "job"), null, null);
+        queue.queueQuery(null, query("user", "job"), null, null);
+    }
+}
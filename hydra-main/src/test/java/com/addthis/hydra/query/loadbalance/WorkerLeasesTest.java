@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.loadbalance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkerLeasesTest {
+
+    @Test
+    public void slowResponsesShedLeasesAndFastOnesRestoreThem() {
+        WorkerLeases leases = new WorkerLeases(8, true);
+        leases.observeLatency(WorkerLeases.TARGET_LATENCY + 1);
+        assertEquals(6, leases.limit());
+        assertEquals(6, leases.availablePermits());
+        // a second slow response within the same interval is part of the same overload
+        leases.observeLatency(WorkerLeases.TARGET_LATENCY + 1);
+        assertEquals(6, leases.limit());
+
+        for (int i = 0; i < 100; i++) {
+            leases.observeLatency(0);
+        }
+        assertEquals(8, leases.limit());
+        assertEquals(8, leases.availablePermits());
+    }
+
+    @Test
+    public void leasesInUseAreNotRevoked() {
+        WorkerLeases leases = new WorkerLeases(4, true);
+        assertTrue(leases.tryAcquire(4));
+        leases.observeLatency(WorkerLeases.TARGET_LATENCY + 1);
+        assertEquals(3, leases.limit());
+        leases.release(4);
+        assertEquals(3, leases.availablePermits());
+    }
+
+    @Test
+    public void fixedLeasesIgnoreLatency() {
+        WorkerLeases leases = new WorkerLeases(4, false);
+        leases.observeLatency(WorkerLeases.TARGET_LATENCY + 1);
+        assertEquals(4, leases.limit());
+        assertEquals(4, leases.availablePermits());
+    }
+}
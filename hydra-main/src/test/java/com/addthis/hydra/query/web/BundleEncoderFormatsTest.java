@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.query.web;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BundleEncoderFormatsTest {
+
+    private static Bundle[] rows() {
+        ListBundleFormat format = new ListBundleFormat();
+        Bundle[] rows = new Bundle[3];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ListBundle(format);
+            rows[i].setValue(format.getField("name"), ValueFactory.create("row \"" + i + "\""));
+            rows[i].setValue(format.getField("count"), ValueFactory.create(i));
+        }
+        return rows;
+    }
+
+    /** Writes the rows through the encoder and returns the bytes of the response body. */
+    private static byte[] encode(AbstractBufferingHttpBundleEncoder encoder, Bundle[] rows) {
+        EmbeddedChannel channel = new EmbeddedChannel(encoder);
+        for (Bundle row : rows) {
+            channel.writeOutbound(row);
+        }
+        channel.writeOutbound(DataChannelOutputToNettyBridge.SEND_COMPLETE);
+        ByteBuf body = Unpooled.buffer();
+        boolean sawResponse = false;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            if (msg instanceof HttpResponse) {
+                sawResponse = true;
+            }
+            if (msg instanceof HttpContent) {
+                body.writeBytes(((HttpContent) msg).content());
+            }
+            ReferenceCountUtil.release(msg);
+        }
+        channel.finish();
+        assertTrue(sawResponse);
+        byte[] bytes = new byte[body.readableBytes()];
+        body.readBytes(bytes);
+        body.release();
+        return bytes;
+    }
+
+    @Test
+    public void delimited() {
+        Bundle[] rows = rows();
+        for (String format : new String[]{"csv", "tsv", "psv"}) {
+            StringBuilder expected = new StringBuilder();
+            String delimiter = format.equals("csv") ? "," : format.equals("tsv") ? "\t" : "|";
+            for (Bundle row : rows) {
+                DelimitedBundleEncoder.buildRow(row, delimiter, expected);
+            }
+            byte[] actual = encode(DelimitedBundleEncoder.create("out", format), rows);
+            assertEquals(format, expected.toString(), new String(actual, CharsetUtil.UTF_8));
+        }
+    }
+
+    @Test
+    public void delimitedEscaped() {
+        Bundle[] rows = rows();
+        for (String format : new String[]{"csv2", "tsv2", "psv2"}) {
+            StringBuilder expected = new StringBuilder();
+            String delimiter = format.startsWith("csv") ? "," : format.startsWith("tsv") ? "\t" : "|";
+            for (Bundle row : rows) {
+                DelimitedEscapedBundleEncoder.buildRow(row, delimiter, expected);
+            }
+            byte[] actual = encode(DelimitedEscapedBundleEncoder.create("out", format), rows);
+            assertEquals(format, expected.toString(), new String(actual, CharsetUtil.UTF_8));
+        }
+    }
+
+    @Test
+    public void binary() {
+        ListBundleFormat format = new ListBundleFormat();
+        Bundle[] rows = new Bundle[3];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ListBundle(format);
+            rows[i].setValue(format.getField("name"), ValueFactory.create("row \u00e9" + i));
+            rows[i].setValue(format.getField("count"), ValueFactory.create(i));
+            rows[i].setValue(format.getField("ratio"), ValueFactory.create(i / 2.0));
+            rows[i].setValue(format.getField("missing"), null);
+        }
+        ByteBuf actual = Unpooled.wrappedBuffer(encode(BinaryBundleEncoder.create("out"), rows));
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(4, actual.readInt());
+            assertEquals(BinaryBundleEncoder.TYPE_STRING, actual.readByte());
+            byte[] name = ("row \u00e9" + i).getBytes(CharsetUtil.UTF_8);
+            assertEquals(name.length, actual.readInt());
+            byte[] nameBytes = new byte[name.length];
+            actual.readBytes(nameBytes);
+            assertArrayEquals(name, nameBytes);
+            assertEquals(BinaryBundleEncoder.TYPE_LONG, actual.readByte());
+            assertEquals(i, actual.readLong());
+            assertEquals(BinaryBundleEncoder.TYPE_DOUBLE, actual.readByte());
+            assertEquals(i / 2.0, actual.readDouble(), 0.0);
+            assertEquals(BinaryBundleEncoder.TYPE_NULL, actual.readByte());
+        }
+        assertFalse(actual.isReadable());
+    }
+
+    @Test
+    public void html() {
+        String actual = new String(encode(new HtmlBundleEncoder(), rows()), CharsetUtil.UTF_8);
+        assertTrue(actual, actual.startsWith("<table border=1 cellpadding=1 cellspacing=0>\n<tr><td>row \"0\"</td>"));
+        assertTrue(actual, actual.endsWith("<td>2</td></tr>\n</table>"));
+    }
+
+    @Test
+    public void json() {
+        String actual = new String(encode(new JsonBundleEncoder(), rows()), CharsetUtil.UTF_8);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(actual, actual.contains("row \\\"" + i + "\\\""));
+        }
+    }
+}
@@ -24,6 +24,10 @@ import com.addthis.hydra.data.util.Tokenizer;
 
 import org.junit.Test;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
 import static org.junit.Assert.assertEquals;
 
 public class DelimitedEscapedBundleEncoderTest {
@@ -88,4 +92,17 @@ public class DelimitedEscapedBundleEncoderTest {
         input.add(ValueFactory.create("baz"));
         csvEncodedJSONRoundTrip(input);
     }
+
+    @Test
+    public void bytesMatchStrings() {
+        String[] inputs = {"plain", "abc\"def", "abc\\def", "line\nbreak\r", "caf\u00e9 \ud83d\ude00 \"x\"", ""};
+        for (String input : inputs) {
+            StringBuilder builder = new StringBuilder();
+            DelimitedEscapedBundleEncoder.buildValue(builder, ValueFactory.create(input));
+            ByteBuf buf = Unpooled.buffer();
+            DelimitedEscapedBundleEncoder.buildValue(buf, ValueFactory.create(input));
+            assertEquals(builder.toString(), buf.toString(CharsetUtil.UTF_8));
+            buf.release();
+        }
+    }
 }
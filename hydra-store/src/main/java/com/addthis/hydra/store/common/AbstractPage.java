@@ -25,9 +25,7 @@ import java.io.OutputStream;
 
 import java.util.ArrayList;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.zip.GZIPInputStream;
 
-import com.addthis.basis.io.GZOut;
 import com.addthis.basis.util.MemoryCounter;
 import com.addthis.basis.util.Parameter;
 import com.addthis.basis.util.Varint;
@@ -40,16 +38,8 @@ import com.addthis.hydra.store.skiplist.SkipListCache;
 
 import com.google.common.base.Throwables;
 
-import com.jcraft.jzlib.Deflater;
-import com.jcraft.jzlib.DeflaterOutputStream;
-import com.jcraft.jzlib.InflaterInputStream;
-import com.ning.compress.lzf.LZFInputStream;
-import com.ning.compress.lzf.LZFOutputStream;
 import com.yammer.metrics.core.Histogram;
 
-import org.xerial.snappy.SnappyInputStream;
-import org.xerial.snappy.SnappyOutputStream;
-
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
@@ -58,6 +48,9 @@ import io.netty.buffer.Unpooled;
 public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K, V> {
 
     public static final int gzlevel = Parameter.intValue("eps.gz.level", 1);
+    /**
+     * Compression of encoded pages. One of the constants in {@link PageCompression}.
+     */
     public static final int gztype = Parameter.intValue("eps.gz.type", 1);
     public static final int gzbuf = Parameter.intValue("eps.gz.buffer", 1024);
     public static final int estimateMissingFactor = Parameter.intValue("eps.mem.estimate.missing.factor", 8);
@@ -252,26 +245,8 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         parent.numPagesEncoded.getAndIncrement();
         PageEncodeType upgradeType = PageEncodeType.defaultType();
         try {
-            OutputStream os = out;
             out.write(gztype | FLAGS_HAS_ESTIMATES | (upgradeType.ordinal() << TYPE_BIT_OFFSET));
-            switch (gztype) {
-                case 0:
-                    break;
-                case 1:
-                    os = new DeflaterOutputStream(out, new Deflater(gzlevel));
-                    break;
-                case 2:
-                    os = new GZOut(out, gzbuf, gzlevel);
-                    break;
-                case 3:
-                    os = new LZFOutputStream(out);
-                    break;
-                case 4:
-                    os = new SnappyOutputStream(out);
-                    break;
-                default:
-                    throw new RuntimeException("invalid gztype: " + gztype);
-            }
+            OutputStream os = PageCompression.compress(gztype, out, gzlevel, gzbuf, parent.dictionary);
 
             DataOutputStream dos = new DataOutputStream(os);
             byte[] firstKeyEncoded = keyCoder.keyEncode(firstKey);
@@ -288,9 +263,9 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
             }
             for (int i = 0; i < size; i++) {
                 byte[] keyEncoded = keyCoder.keyEncode(keys.get(i), firstKey, upgradeType);
-                byte[] rawVal = rawValues.get(i);
+                byte[] rawVal = (upgradeType == encodeType) ? rawValue(i) : null;
 
-                if (rawVal == null || upgradeType != encodeType) {
+                if (rawVal == null) {
                     fetchValue(i);
                     rawVal = keyCoder.valueEncode(values.get(i), upgradeType);
                 }
@@ -306,14 +281,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
 
             Varint.writeUnsignedVarInt((estimateTotal > 0 ? estimateTotal : 1), dos);
             Varint.writeUnsignedVarInt((estimates > 0 ? estimates : 1), dos);
-            switch (gztype) {
-                case 1:
-                    ((DeflaterOutputStream) os).finish();
-                    break;
-                case 2:
-                    ((GZOut) os).finish();
-                    break;
-            }
+            PageCompression.finish(os);
             os.flush(); // flush should be called by dos.close(), but better safe than sorry
             dos.close();
 
@@ -341,20 +309,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
             int gztype = flags & 0x0f;
             int pageType = flags >>> TYPE_BIT_OFFSET;
             boolean hasEstimates = (flags & FLAGS_HAS_ESTIMATES) != 0;
-            switch (gztype) {
-                case 1:
-                    in = new InflaterInputStream(in);
-                    break;
-                case 2:
-                    in = new GZIPInputStream(in);
-                    break;
-                case 3:
-                    in = new LZFInputStream(in);
-                    break;
-                case 4:
-                    in = new SnappyInputStream(in);
-                    break;
-            }
+            in = PageCompression.decompress(gztype, in, parent.dictionary);
             DataInputStream dis = null;
             switch (pageType) {
                 case 0:
@@ -368,6 +323,10 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
                     encodeType = PageEncodeType.LONGIDS;
                     dis = new DataInputStream(in);
                     break;
+                case 3:
+                    encodeType = PageEncodeType.LONGNAMES;
+                    dis = new DataInputStream(in);
+                    break;
             }
             decodeKeysAndValues(encodeType, in, dis, hasEstimates);
             in.close();
@@ -398,21 +357,9 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         nextFirstKey = keyCoder.keyDecode(nextFirstKeyBytes);
         assert (this.firstKey.equals(firstKey));
 
-        int bytes = 0;
-
         size = entries;
-        keys = new ArrayList<>(size);
-        values = new ArrayList<>(size);
-        rawValues = new ArrayList<>(size);
 
-        for (int i = 0; i < entries; i++) {
-            byte[] kb = encodeType.readBytes(in, dis);
-            byte[] vb = encodeType.readBytes(in, dis);
-            bytes += kb.length + vb.length;
-            keys.add(keyCoder.keyDecode(kb, firstKey, encodeType));
-            values.add(null);
-            rawValues.add(vb);
-        }
+        int bytes = decodeEntries(encodeType, in, dis, firstKey, entries);
 
         if (hasEstimates) {
             readEstimateTotal = encodeType.readInt(in, dis);
@@ -426,6 +373,50 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         updateMemoryEstimate();
     }
 
+    /**
+     * Reads the encoded (key, value) pairs of a page and populates
+     * {@link #keys}, {@link #values} and {@link #rawValues}. Values
+     * are left in their raw encoding until {@link #fetchValue(int)}
+     * is invoked.
+     *
+     * @return total number of encoded key and value bytes read
+     */
+    protected int decodeEntries(PageEncodeType encodeType, InputStream in, DataInputStream dis,
+                                K firstKey, int entries) throws IOException {
+        int bytes = 0;
+
+        keys = new ArrayList<>(entries);
+        values = new ArrayList<>(entries);
+        rawValues = new ArrayList<>(entries);
+
+        for (int i = 0; i < entries; i++) {
+            byte[] kb = encodeType.readBytes(in, dis);
+            byte[] vb = encodeType.readBytes(in, dis);
+            bytes += kb.length + vb.length;
+            keys.add(keyCoder.keyDecode(kb, firstKey, encodeType));
+            values.add(null);
+            rawValues.add(vb);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the raw encoding of the value at the given position,
+     * or null if the value has been modified since the page was decoded.
+     */
+    protected byte[] rawValue(int position) {
+        return rawValues.get(position);
+    }
+
+    /**
+     * Default implementation does nothing. Subclasses that hold
+     * entries outside of {@link #rawValues} must copy them onto the
+     * heap, as the caller is about to insert or remove positions.
+     */
+    @Override
+    public void materialize() {
+    }
+
     private int estimatedMem() {
         /**
          * We want to account for the three pointers that point
@@ -518,9 +509,8 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
      */
     public void fetchValue(int position) {
         V value = values.get(position);
-        byte[] rawValue = rawValues.get(position);
         if (value == null) {
-            values.set(position, keyCoder.valueDecode(rawValue, encodeType));
+            values.set(position, keyCoder.valueDecode(rawValue(position), encodeType));
         }
     }
 
@@ -19,6 +19,7 @@ import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.KeyCoder;
 import com.addthis.hydra.store.kv.PageEncodeType;
+import com.addthis.hydra.store.kv.PageKeys;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.skiplist.LockMode;
 import com.google.common.annotations.VisibleForTesting;
@@ -67,6 +68,10 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
     public final AtomicLong memoryEstimate = new AtomicLong();
     public final KeyCoder<K, V> keyCoder;
+    /**
+     * Dictionary for {@link PageCompression#ZSTD} pages. May be null.
+     */
+    public final ZstdDictionary dictionary;
     public final String scope;
     public final AtomicInteger cacheSize = new AtomicInteger();
     public final AtomicInteger numPagesInMemory = new AtomicInteger();
@@ -74,12 +79,19 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     public final AtomicLong numPagesEncoded = new AtomicLong();
     public final AtomicLong numPagesDecoded = new AtomicLong();
     public final AtomicLong numPagesSplit = new AtomicLong();
+    public final AtomicLong offHeapMemory = new AtomicLong();
 
     private final ConcurrentSkipListMap<K, Page<K, V>> cache;
     private final BlockingQueue<Page<K, V>> evictionQueue;
 
     protected final ByteStore externalStore;
 
+    /**
+     * Batches the pages written by eviction. Null unless {@code eps.cache.writebehind}
+     * is enabled and the external store is writable.
+     */
+    private final PageWriteBehind writeBehind;
+
     public final AtomicBoolean shutdownGuard;
     public final AtomicBoolean shutdownEvictionThreads;
 
@@ -197,10 +209,17 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     public AbstractPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore,
                              PageFactory<K, V> pageFactory, int maxPageSize, int maxPages,
                              boolean useLocks) {
+        this(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, useLocks, null);
+    }
+
+    public AbstractPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore,
+                             PageFactory<K, V> pageFactory, int maxPageSize, int maxPages,
+                             boolean useLocks, ZstdDictionary dictionary) {
         if (externalStore == null) {
             throw new NullPointerException("externalStore must be non-null");
         }
         this.keyCoder = keyCoder;
+        this.dictionary = dictionary;
         scope = this.getClass().getSimpleName() + Integer.toString(scopeGenerator.getAndIncrement());
         this.mem_page = (int) MemoryCounter.estimateSize(pageFactory.measureMemoryEmptyPage(PageEncodeType.defaultType()));
         this.pageFactory = pageFactory;
@@ -216,6 +235,11 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         // if we are using locks then we will have eviction threads that need to be shutdown
         this.shutdownEvictionThreads = new AtomicBoolean(useLocks);
         this.useLocks = useLocks;
+        if (PageWriteBehind.enabled && !externalStore.isReadOnly()) {
+            this.writeBehind = new PageWriteBehind(externalStore, scope);
+        } else {
+            this.writeBehind = null;
+        }
         loadFromExternalStore();
 
     }
@@ -272,6 +296,9 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
      * @param cleanLog if true then wait for the BerkeleyDB clean thread to finish.
      **/
     protected void closeExternalStore(boolean cleanLog) {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
         externalStore.close(cleanLog);
     }
 
@@ -360,7 +387,11 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             byte[] encodeKey = keyCoder.keyEncode(current.getFirstKey());
             byte[] encodePage = current.encode(byteStream);
 
-            externalStore.put(encodeKey, encodePage);
+            if (writeBehind != null) {
+                writeBehind.put(encodeKey, encodePage);
+            } else {
+                externalStore.put(encodeKey, encodePage);
+            }
 
             current.setState(ExternalMode.DISK_MEMORY_IDENTICAL);
         }
@@ -375,6 +406,30 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         numPagesInMemory.getAndDecrement();
     }
 
+    /**
+     * Returns the most recent encoding of a page including
+     * pages that have not been committed to the external store.
+     */
+    protected byte[] readExternalPage(byte[] encodeKey) {
+        if (writeBehind != null) {
+            byte[] page = writeBehind.get(encodeKey);
+            if (page != null) {
+                return page;
+            }
+        }
+        return externalStore.get(encodeKey);
+    }
+
+    /**
+     * Commits any pages that have been evicted but not yet
+     * written to the external store.
+     */
+    protected void flushWriteBehind() {
+        if (writeBehind != null) {
+            writeBehind.commit();
+        }
+    }
+
     protected void updateMemoryEstimate(int delta) {
         long est = memoryEstimate.addAndGet(delta);
         assert (est >= 0);
@@ -404,7 +459,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             if (current.keys() == null) {
 
                 byte[] encodeKey = keyCoder.keyEncode(current.getFirstKey());
-                byte[] page = externalStore.get(encodeKey);
+                byte[] page = readExternalPage(encodeKey);
 
                 pullPageHelper(current, page);
             }
@@ -606,6 +661,8 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             pullPageFromDisk(target, LockMode.WRITEMODE);
         }
 
+        target.materialize();
+
         int newSize = target.size() / 2;
         int sibSize = target.size() - newSize;
 
@@ -726,6 +783,11 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
     @SuppressWarnings("unchecked")
     @Override
+    @Override
+    public List<K> pageKeys(K from, K to, int maxKeys) {
+        return PageKeys.sample(externalStore, keyCoder, this::compareKeys, from, to, maxKeys);
+    }
+
     public int compareKeys(K key1, K key2) {
         if (comparator == null) {
             return ((Comparable<? super K>) key1).compareTo(key2);
@@ -1010,7 +1072,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
                     return cachePage;
                 }
 
-                byte[] floorPageEncoded = externalStore.get(externalKeyEncoded);
+                byte[] floorPageEncoded = readExternalPage(externalKeyEncoded);
 
                 if (floorPageEncoded == null) {
                     current = writeUnlockAndNull(current);
@@ -1146,7 +1208,11 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
                             !prevKey.equals(keyCoder.keyDecode(verifyPrevKeyEncoded))) {
                         continue;
                     }
-                    externalStore.delete(encodedTargetKey);
+                    if (writeBehind != null) {
+                        writeBehind.delete(encodedTargetKey);
+                    } else {
+                        externalStore.delete(encodedTargetKey);
+                    }
                     Page<K, V> prev = getCache().remove(targetKey);
                     assert (prev != null);
                     currentPage.setState(ExternalMode.DELETED);
@@ -1179,6 +1245,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         } else { // An existing (key, value) pair is not found.
             int position = ~offset;
 
+            page.materialize();
             page.keys().add(position, key);
             page.values().add(position, value);
             page.rawValues().add(position, null);
@@ -1614,6 +1681,10 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         Page<K, V> nextPage = pageFactory.generateEmptyPage(this, nextKey, page.getEncodeType());
         byte[] encodedNextPage = externalStore.get(keyCoder.keyEncode(nextKey));
         nextPage.decode(encodedNextPage);
+        // neither page is owned by the cache, so bring the values back on heap
+        // where they are not counted by the offHeapMemory gauge
+        nextPage.materialize();
+        page.materialize();
         for (int i = 0, pos = 0; i < page.size(); i++, pos++) {
             K testKey = page.keys().get(i);
             // if testKey >= nextKey then we need to move the testKey off the current page
@@ -1677,6 +1748,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     }
 
     public int testIntegrity(boolean repair) {
+        flushWriteBehind();
         int counter = 0;
         int failedPages = 0;
         byte[] encodedKey = externalStore.firstKey();
@@ -1688,6 +1760,8 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             byte[] encodedNextKey = externalStore.higherKey(encodedKey);
             if (encodedNextKey != null) {
                 page.decode(encodedPage);
+                // the scanned page is never evicted so it must not hold off-heap memory
+                page.materialize();
                 K nextKey = keyCoder.keyDecode(encodedNextKey);
                 int numKeys = page.keys().size();
                 if (page.getNextFirstKey() == null) {
@@ -1807,6 +1881,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         } finally {
             byteStream.buffer().release();
         }
+        flushWriteBehind();
 
         assert (pushAllPagesToDiskAssertion());
     }
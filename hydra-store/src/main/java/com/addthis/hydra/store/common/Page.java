@@ -38,6 +38,12 @@ public interface Page<K, V extends BytesCodable> {
 
     void fetchValue(int position);
 
+    /**
+     * Must be invoked before entries are inserted into or removed from
+     * {@link #keys()}, {@link #values()} and {@link #rawValues()}.
+     */
+    void materialize();
+
     boolean splitCondition();
 
     boolean inTransientState();
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.zip.GZIPInputStream;
+
+import com.addthis.basis.io.GZOut;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.jcraft.jzlib.Deflater;
+import com.jcraft.jzlib.DeflaterOutputStream;
+import com.jcraft.jzlib.InflaterInputStream;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+/**
+ * Compression of encoded pages. The compression type is stored in the
+ * low four bits of the first byte of every page (the {@code gztype}).
+ */
+public final class PageCompression {
+
+    public static final int NONE = 0;
+    public static final int DEFLATE = 1;
+    public static final int GZIP = 2;
+    public static final int LZF = 3;
+    public static final int SNAPPY = 4;
+    public static final int LZ4 = 5;
+    /**
+     * Zstandard frames that were written with a {@link ZstdDictionary}
+     * can only be read with the same dictionary.
+     */
+    public static final int ZSTD = 6;
+
+    private PageCompression() {
+    }
+
+    public static OutputStream compress(int gztype, OutputStream out, int level, int buffer,
+                                        @Nullable ZstdDictionary dictionary) throws IOException {
+        switch (gztype) {
+            case NONE:
+                return out;
+            case DEFLATE:
+                return new DeflaterOutputStream(out, new Deflater(level));
+            case GZIP:
+                return new GZOut(out, buffer, level);
+            case LZF:
+                return new LZFOutputStream(out);
+            case SNAPPY:
+                return new SnappyOutputStream(out);
+            case LZ4:
+                return new LZ4BlockOutputStream(out);
+            case ZSTD:
+                if (dictionary != null) {
+                    return dictionary.compress(out);
+                } else {
+                    return new ZstdOutputStream(out, level);
+                }
+            default:
+                throw new RuntimeException("invalid gztype: " + gztype);
+        }
+    }
+
+    /**
+     * Writes any trailer that is not written by {@link OutputStream#flush()}.
+     */
+    public static void finish(OutputStream os) throws IOException {
+        if (os instanceof DeflaterOutputStream) {
+            ((DeflaterOutputStream) os).finish();
+        } else if (os instanceof GZOut) {
+            ((GZOut) os).finish();
+        }
+    }
+
+    public static InputStream decompress(int gztype, InputStream in,
+                                         @Nullable ZstdDictionary dictionary) throws IOException {
+        switch (gztype) {
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            case GZIP:
+                return new GZIPInputStream(in);
+            case LZF:
+                return new LZFInputStream(in);
+            case SNAPPY:
+                return new SnappyInputStream(in);
+            case LZ4:
+                return new LZ4BlockInputStream(in);
+            case ZSTD:
+                if (dictionary != null) {
+                    return dictionary.decompress(in);
+                } else {
+                    return new ZstdInputStream(in);
+                }
+            default:
+                return in;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.store.kv.ByteStore;
+import com.addthis.hydra.store.util.NamedThreadFactory;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers the encoded pages written by eviction and commits them to the external
+ * store in sorted batches with {@link ByteStore#putAll(Map)} from a background thread.
+ * Evicting threads only block on the external store once the encoded size of the
+ * pending pages exceeds {@code eps.cache.writebehind.maxBytes}.
+ * <p/>
+ * A pending page shadows the copy in the external store so pages must be read with
+ * {@link #get(byte[])} before falling back to the external store. Every page key is
+ * written to the external store synchronously when the page is created so the set of
+ * keys in the external store is always complete and key navigation bypasses this buffer.
+ */
+final class PageWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(PageWriteBehind.class);
+
+    static final boolean enabled = Parameter.boolValue("eps.cache.writebehind", false);
+    static final long defaultMaxBytes = Parameter.longValue("eps.cache.writebehind.maxBytes", 64 * 1024 * 1024);
+    static final int defaultBatchSize = Parameter.intValue("eps.cache.writebehind.batch", 256);
+    static final int defaultIntervalMillis = Parameter.intValue("eps.cache.writebehind.interval", 100);
+
+    private final ByteStore store;
+    private final long maxBytes;
+    private final int batchSize;
+    private final long intervalNanos;
+
+    private final ConcurrentSkipListMap<byte[], byte[]> pending =
+            new ConcurrentSkipListMap<>(UnsignedBytes.lexicographicalComparator());
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicInteger pendingPages = new AtomicInteger();
+
+    /**
+     * Held while committing a batch. Deletions hold the lock so that
+     * a batch in flight can not resurrect a deleted page.
+     */
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong pagesWritten = new AtomicLong();
+    final AtomicLong stalls = new AtomicLong();
+
+    PageWriteBehind(ByteStore store, String scope) {
+        this(store, scope, defaultMaxBytes, defaultBatchSize, defaultIntervalMillis);
+    }
+
+    PageWriteBehind(ByteStore store, String scope, long maxBytes, int batchSize, int intervalMillis) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+        this.batchSize = batchSize;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.writer = new NamedThreadFactory(scope + "-writebehind-", true).newThread(this::run);
+        this.writer.start();
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(this, intervalNanos);
+            if (running && (pendingPages.get() > 0)) {
+                try {
+                    commit();
+                } catch (Exception ex) {
+                    log.error("Error committing pages to external store. Pages will be retried.", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules the page to be written. Replaces any pending write of the same key.
+     */
+    void put(byte[] key, byte[] page) {
+        byte[] prev = pending.put(key, page);
+        long bytes;
+        if (prev == null) {
+            bytes = pendingBytes.addAndGet(key.length + page.length);
+            if (pendingPages.incrementAndGet() == batchSize) {
+                LockSupport.unpark(writer);
+            }
+        } else {
+            bytes = pendingBytes.addAndGet(page.length - prev.length);
+        }
+        if (bytes > maxBytes) {
+            stalls.incrementAndGet();
+            commit();
+        }
+    }
+
+    /**
+     * Returns the pending page for the key or null if the
+     * external store contains the most recent copy.
+     */
+    byte[] get(byte[] key) {
+        return pending.get(key);
+    }
+
+    /**
+     * Discards any pending write of the key and deletes it from the external store.
+     */
+    byte[] delete(byte[] key) {
+        commitLock.lock();
+        try {
+            byte[] prev = pending.remove(key);
+            if (prev != null) {
+                removed(key, prev);
+            }
+            return store.delete(key);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void removed(byte[] key, byte[] page) {
+        pendingBytes.addAndGet(-(key.length + page.length));
+        pendingPages.decrementAndGet();
+    }
+
+    /**
+     * Writes all pages that are pending when the commit begins. Pages that are
+     * replaced while their batch is being written remain pending.
+     */
+    void commit() {
+        commitLock.lock();
+        try {
+            Iterator<Map.Entry<byte[], byte[]>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                TreeMap<byte[], byte[]> batch = new TreeMap<>(pending.comparator());
+                while (iterator.hasNext() && (batch.size() < batchSize)) {
+                    Map.Entry<byte[], byte[]> entry = iterator.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                store.putAll(batch);
+                for (Map.Entry<byte[], byte[]> entry : batch.entrySet()) {
+                    if (pending.remove(entry.getKey(), entry.getValue())) {
+                        removed(entry.getKey(), entry.getValue());
+                    }
+                }
+                batches.incrementAndGet();
+                pagesWritten.addAndGet(batch.size());
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Stops the background writer and commits the remaining pages.
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        commit();
+        log.info("write-behind: batches={} pages={} stalls={}", batches, pagesWritten, stalls);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.addthis.basis.util.LessFiles;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.store.kv.ByteStore;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.io.ByteStreams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Zstandard dictionary shared by the pages of a single tree. Tree pages are small
+ * and highly repetitive so a dictionary trained on a sample of them improves the
+ * compression ratio of {@link PageCompression#ZSTD} pages considerably.
+ * <p/>
+ * The dictionary is stored in {@link #DICTIONARY_FILENAME} next to the {@code db.type}
+ * file. Once written it must never be replaced because pages that were compressed with
+ * it cannot be decompressed with any other dictionary.
+ */
+public final class ZstdDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(ZstdDictionary.class);
+
+    public static final String DICTIONARY_FILENAME = "db.zdict";
+
+    /**
+     * If true then a dictionary is trained from the existing pages of a tree that
+     * uses {@link PageCompression#ZSTD} and does not have a dictionary yet.
+     */
+    public static final boolean train = Parameter.boolValue("eps.zstd.dictionary", false);
+
+    /**
+     * Maximum size in bytes of a trained dictionary.
+     */
+    public static final int dictionarySize = Parameter.intValue("eps.zstd.dictionary.size", 64 * 1024);
+
+    /**
+     * Number of pages sampled for training. Dictionaries are not trained
+     * for trees with fewer pages than this.
+     */
+    public static final int samplePages = Parameter.intValue("eps.zstd.dictionary.samples", 1000);
+
+    private final byte[] dictionary;
+    private final int level;
+    private final ZstdDictCompress compressDictionary;
+    private final ZstdDictDecompress decompressDictionary;
+
+    public ZstdDictionary(byte[] dictionary, int level) {
+        this.dictionary = dictionary;
+        this.level = level;
+        this.compressDictionary = new ZstdDictCompress(dictionary, level);
+        this.decompressDictionary = new ZstdDictDecompress(dictionary);
+    }
+
+    /**
+     * Returns the dictionary stored in the directory or null if there is none.
+     */
+    @Nullable
+    public static ZstdDictionary read(File dir, int level) throws IOException {
+        File file = new File(dir, DICTIONARY_FILENAME);
+        if (file.exists()) {
+            return new ZstdDictionary(LessFiles.read(file), level);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the dictionary stored in the directory. If there is none and training is
+     * enabled then one is trained from the pages in the store and written to the directory.
+     * Returns null if no dictionary is available.
+     */
+    @Nullable
+    public static ZstdDictionary readOrTrain(File dir, ByteStore store, int level) throws IOException {
+        ZstdDictionary existing = read(dir, level);
+        if ((existing != null) || !train || store.isReadOnly()) {
+            return existing;
+        }
+        List<byte[]> samples = samplePages(store);
+        if (samples.size() < samplePages) {
+            return null;
+        }
+        ZstdDictionary trained = train(samples, dictionarySize, level);
+        if (trained != null) {
+            LessFiles.write(new File(dir, DICTIONARY_FILENAME), trained.dictionary, false);
+            log.info("trained {} byte page dictionary for {} from {} pages", trained.size(), dir, samples.size());
+        } else {
+            log.warn("unable to train page dictionary for {}", dir);
+        }
+        return trained;
+    }
+
+    /**
+     * Trains a dictionary of at most {@code size} bytes. Returns null
+     * if the samples are insufficient to train a dictionary.
+     */
+    @Nullable
+    public static ZstdDictionary train(List<byte[]> samples, int size, int level) {
+        long sampleBytes = 0;
+        for (byte[] sample : samples) {
+            sampleBytes += sample.length;
+        }
+        try {
+            ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE, sampleBytes), size);
+            for (byte[] sample : samples) {
+                trainer.addSample(sample);
+            }
+            return new ZstdDictionary(trainer.trainSamples(), level);
+        } catch (RuntimeException ex) {
+            log.debug("dictionary training failed", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Reservoir sample of the uncompressed page encodings among the
+     * first {@code 10 * samplePages} pages of the store.
+     */
+    private static List<byte[]> samplePages(ByteStore store) throws IOException {
+        List<byte[]> samples = new ArrayList<>(samplePages);
+        int seen = 0;
+        for (byte[] key = store.firstKey(); (key != null) && (seen < (10 * samplePages)); key = store.higherKey(key)) {
+            int slot = (seen < samplePages) ? seen : ThreadLocalRandom.current().nextInt(seen + 1);
+            seen++;
+            if (slot < samplePages) {
+                byte[] page = store.get(key);
+                if ((page == null) || (page.length == 0)) {
+                    continue;
+                }
+                InputStream in = new ByteArrayInputStream(page, 1, page.length - 1);
+                in = PageCompression.decompress(page[0] & 0x0f, in, null);
+                byte[] sample = ByteStreams.toByteArray(in);
+                if (slot < samples.size()) {
+                    samples.set(slot, sample);
+                } else {
+                    samples.add(sample);
+                }
+            }
+        }
+        return samples;
+    }
+
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new ZstdOutputStream(out, level).setDict(compressDictionary);
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        return new ZstdInputStream(in).setDict(decompressDictionary);
+    }
+
+    public int size() {
+        return dictionary.length;
+    }
+}
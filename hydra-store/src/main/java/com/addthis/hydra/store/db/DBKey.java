@@ -34,6 +34,13 @@ public final class DBKey implements IPageDB.Key, Comparable<DBKey> {
 
     private static final Raw EMPTY = Raw.get(new byte[0]);
 
+    /**
+     * Tags that follow the id delta of a {@link #deltaEncodeNumeric(IPageDB.Key)}
+     * encoding when the key is not empty.
+     */
+    private static final byte RAW_NAME = 0;
+    private static final byte NUMERIC_NAME = 1;
+
     private final long id;
     private final Raw key;
 
@@ -54,6 +61,14 @@ public final class DBKey implements IPageDB.Key, Comparable<DBKey> {
         this.key = key;
     }
 
+    /**
+     * Create a DBKey whose key is the decimal representation of {@code name}.
+     * The key is identical to {@code new DBKey(id, Long.toString(name))}.
+     */
+    public static DBKey numeric(long id, long name) {
+        return new DBKey(id, Raw.get(decimalBytes(name)));
+    }
+
     /**
      * Create a DBKey from its serialization byte array representation.
      * If the most significant bit of the first byte is set then
@@ -93,6 +108,79 @@ public final class DBKey implements IPageDB.Key, Comparable<DBKey> {
         return new DBKey(id, key);
     }
 
+    public static DBKey deltaDecodeNumeric(byte[] encoding, @Nonnull IPageDB.Key baseKey) {
+        ByteBuf buffer = Unpooled.wrappedBuffer(encoding);
+        long id = Varint.readSignedVarLong(buffer) + baseKey.id();
+        if (!buffer.isReadable()) {
+            return new DBKey(id, (Raw) null);
+        } else if (buffer.readByte() == NUMERIC_NAME) {
+            return numeric(id, Varint.readSignedVarLong(buffer) + numericName(baseKey.rawKey()));
+        } else {
+            byte[] data = new byte[buffer.readableBytes()];
+            buffer.readBytes(data);
+            return new DBKey(id, Raw.get(data));
+        }
+    }
+
+    /**
+     * Compares this key against the serialization produced by {@link #toBytes()}
+     * that occupies {@code length} bytes of {@code raw} starting at {@code offset}.
+     */
+    public int compareToBytes(byte[] raw, int offset, int length) {
+        long otherId;
+        int numBytes;
+        if ((raw[offset] >> 7) == 0) {
+            numBytes = 4;
+        } else {
+            numBytes = 8;
+        }
+        otherId = 0;
+        for (int i = 0; i < numBytes; i++) {
+            otherId = (otherId << 8) | (raw[offset + i] & 0xffL);
+        }
+        otherId &= ~(Long.MIN_VALUE);
+        if (otherId != id) {
+            return id > otherId ? 1 : -1;
+        }
+        return key.compareTo(raw, offset + numBytes, length - numBytes);
+    }
+
+    /**
+     * Compares this key against the serialization produced by {@link #deltaEncode(IPageDB.Key)}
+     * that occupies {@code length} bytes of {@code encoding} starting at {@code offset}.
+     */
+    public int compareToDeltaEncoding(byte[] encoding, int offset, int length, @Nonnull IPageDB.Key baseKey) {
+        ByteBuf buffer = Unpooled.wrappedBuffer(encoding, offset, length);
+        long otherId = Varint.readSignedVarLong(buffer) + baseKey.id();
+        if (otherId != id) {
+            return id > otherId ? 1 : -1;
+        }
+        int keyOffset = buffer.readerIndex();
+        return key.compareTo(encoding, offset + keyOffset, length - keyOffset);
+    }
+
+    /**
+     * Compares this key against the serialization produced by {@link #deltaEncodeNumeric(IPageDB.Key)}
+     * that occupies {@code length} bytes of {@code encoding} starting at {@code offset}.
+     */
+    public int compareToNumericDeltaEncoding(byte[] encoding, int offset, int length,
+                                             @Nonnull IPageDB.Key baseKey) {
+        ByteBuf buffer = Unpooled.wrappedBuffer(encoding, offset, length);
+        long otherId = Varint.readSignedVarLong(buffer) + baseKey.id();
+        if (otherId != id) {
+            return id > otherId ? 1 : -1;
+        }
+        int keyOffset = buffer.readerIndex();
+        if (keyOffset == length) {
+            return key.compareTo(encoding, offset + length, 0);
+        } else if (buffer.readByte() == NUMERIC_NAME) {
+            byte[] other = decimalBytes(Varint.readSignedVarLong(buffer) + numericName(baseKey.rawKey()));
+            return key.compareTo(other, 0, other.length);
+        } else {
+            return key.compareTo(encoding, offset + keyOffset + 1, length - keyOffset - 1);
+        }
+    }
+
     @Override public long id() {
         return id;
     }
@@ -168,4 +256,105 @@ public final class DBKey implements IPageDB.Key, Comparable<DBKey> {
         return Arrays.copyOf(buffer.array(), buffer.readableBytes());
     }
 
+    /**
+     * Delta encoding that stores a key that is the canonical decimal representation
+     * of a long as the difference from the numeric key of {@code baseKey}. Child
+     * names of numeric paths (dates, ids, hashes) are typically clustered within a page
+     * so the difference is usually one or two bytes instead of up to twenty.
+     * Other keys are stored verbatim.
+     */
+    public byte[] deltaEncodeNumeric(@Nonnull IPageDB.Key baseKey) {
+        ByteBuf buffer = Unpooled.buffer();
+        Varint.writeSignedVarLong(id - baseKey.id(), buffer);
+        byte[] bytes = key.toBytes();
+        if (bytes.length > 0) {
+            if (isCanonicalLong(bytes)) {
+                buffer.writeByte(NUMERIC_NAME);
+                Varint.writeSignedVarLong(parseLong(bytes) - numericName(baseKey.rawKey()), buffer);
+            } else {
+                buffer.writeByte(RAW_NAME);
+                buffer.writeBytes(bytes);
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.readableBytes());
+    }
+
+    /**
+     * Returns the value of a key that is a canonical decimal long or zero otherwise.
+     */
+    private static long numericName(Raw key) {
+        if (key == null) {
+            return 0;
+        }
+        byte[] bytes = key.toBytes();
+        return isCanonicalLong(bytes) ? parseLong(bytes) : 0;
+    }
+
+    /**
+     * Returns the ASCII bytes of {@code Long.toString(value)}.
+     */
+    public static byte[] decimalBytes(long value) {
+        // accumulate negative values to handle Long.MIN_VALUE
+        long remaining = (value < 0) ? value : -value;
+        int size = (value < 0) ? 2 : 1;
+        for (long i = remaining; i <= -10; i /= 10) {
+            size++;
+        }
+        byte[] result = new byte[size];
+        int pos = size;
+        do {
+            result[--pos] = (byte) ('0' - (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            result[0] = '-';
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the bytes are exactly {@code Long.toString(x)} for some long x.
+     * Leading zeros, a leading plus sign, and negative zero are not canonical.
+     */
+    public static boolean isCanonicalLong(byte[] bytes) {
+        int length = bytes.length;
+        if ((length == 0) || (length > 20)) {
+            return false;
+        }
+        boolean negative = (bytes[0] == '-');
+        int start = negative ? 1 : 0;
+        if (start == length) {
+            return false;
+        } else if (bytes[start] == '0') {
+            return (length == 1);
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (int i = start; i < length; i++) {
+            int digit = bytes[i] - '0';
+            if ((digit < 0) || (digit > 9) || (result < multiplyMin)) {
+                return false;
+            }
+            result *= 10;
+            if (result < (limit + digit)) {
+                return false;
+            }
+            result -= digit;
+        }
+        return true;
+    }
+
+    /**
+     * Parses bytes that satisfy {@link #isCanonicalLong(byte[])}.
+     */
+    public static long parseLong(byte[] bytes) {
+        boolean negative = (bytes[0] == '-');
+        long result = 0;
+        for (int i = negative ? 1 : 0; i < bytes.length; i++) {
+            result = (result * 10) - (bytes[i] - '0');
+        }
+        return negative ? result : -result;
+    }
+
 }
@@ -19,6 +19,7 @@ import javax.annotation.Nullable;
 import com.addthis.codec.Codec;
 import com.addthis.codec.binary.CodecBin2;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.kv.EncodedKeyComparator;
 import com.addthis.hydra.store.kv.PageEncodeType;
 import com.addthis.hydra.store.kv.KeyCoder;
 import com.addthis.hydra.store.util.Raw;
@@ -28,7 +29,7 @@ import com.google.common.base.Throwables;
 
 /**
  */
-class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
+class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V>, EncodedKeyComparator<DBKey> {
 
     protected final Codec codec;
     protected static final CodecBin2 codecBin2 = CodecBin2.INSTANCE;
@@ -85,6 +86,8 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
                 return key.toBytes();
             case LONGIDS:
                 return key.deltaEncode(baseKey);
+            case LONGNAMES:
+                return key.deltaEncodeNumeric(baseKey);
             default:
                 throw new RuntimeException("Unknown encoding type: " + encodeType);
         }
@@ -101,6 +104,7 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
                     return codec.encode(value);
                 case SPARSE:
                 case LONGIDS:
+                case LONGNAMES:
                     if (value == null) {
                         return zero;
                     } else {
@@ -140,12 +144,33 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
                     return DBKey.fromBytes(key);
                 case LONGIDS:
                     return DBKey.deltaDecode(key, baseKey);
+                case LONGNAMES:
+                    return DBKey.deltaDecodeNumeric(key, baseKey);
                 default:
                     throw new RuntimeException("Unknown encoding type: " + encodeType);
             }
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int compareEncoded(@Nonnull DBKey key, byte[] encoded, int offset, int length,
+                              @Nonnull DBKey baseKey, @Nonnull PageEncodeType encodeType) {
+        switch (encodeType) {
+            case LEGACY:
+            case SPARSE:
+                return key.compareToBytes(encoded, offset, length);
+            case LONGIDS:
+                return key.compareToDeltaEncoding(encoded, offset, length, baseKey);
+            case LONGNAMES:
+                return key.compareToNumericDeltaEncoding(encoded, offset, length, baseKey);
+            default:
+                throw new RuntimeException("Unknown encoding type: " + encodeType);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -158,6 +183,7 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
                     return codec.decode(clazz.newInstance(), value);
                 case SPARSE:
                 case LONGIDS:
+                case LONGNAMES:
                     if (value.length > 0) {
                         V v = clazz.newInstance();
                         v.bytesDecode(value, encodeType.ordinal());
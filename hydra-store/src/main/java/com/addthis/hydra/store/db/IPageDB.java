@@ -15,6 +15,8 @@ package com.addthis.hydra.store.db;
 
 import javax.annotation.Nonnull;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map.Entry;
 
 import com.addthis.basis.util.ClosableIterator;
@@ -57,6 +59,14 @@ public interface IPageDB<K extends Key, V extends BytesCodable> extends AutoClos
 
     public PagedKeyValueStore<DBKey, V> getEps();
 
+    /**
+     * Returns the first keys of at most {@code maxKeys} evenly spaced pages that begin after {@code from}
+     * and before {@code to}, without reading the pages. Empty if the source does not support it.
+     */
+    public default List<K> pageKeys(K from, K to, int maxKeys) {
+        return Collections.emptyList();
+    }
+
     /**
      * Close the source.
      *
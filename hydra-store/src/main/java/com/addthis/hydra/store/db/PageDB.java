@@ -18,6 +18,7 @@ import java.io.IOException;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -29,9 +30,13 @@ import com.addthis.basis.util.LessFiles;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.AbstractPage;
+import com.addthis.hydra.store.common.PageCompression;
 import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.common.ZstdDictionary;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
+import com.addthis.hydra.store.kv.LogStructuredByteStore;
 import com.addthis.hydra.store.kv.MapDbByteStore;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 
@@ -50,6 +55,7 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
 
     static final String PAGED_MAP_DB = "paged.mapdb";
     static final String PAGED_BERK_DB = "paged.bdb";
+    static final String PAGED_LSM = "paged.lsm";
 
     public static final String DB_TYPE_FILENAME = "db.type";
 
@@ -112,22 +118,31 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
             case PAGED_MAP_DB:
                 store = new MapDbByteStore(dir, dbname);
                 break;
+            case PAGED_LSM:
+                store = new LogStructuredByteStore(dir, dbname);
+                break;
             case PAGED_BERK_DB:
                 // fall through -- the previous dbType was always something like 'pagedb' so this is expected
             default:
                 store = new ConcurrentByteStoreBDB(dir, dbname);
                 break;
         }
+        ZstdDictionary dictionary;
+        if (AbstractPage.gztype == PageCompression.ZSTD) {
+            dictionary = ZstdDictionary.readOrTrain(dir, store, AbstractPage.gzlevel);
+        } else {
+            dictionary = ZstdDictionary.read(dir, AbstractPage.gzlevel);
+        }
 
         switch (factory.getType()) {
             case NON_CONCURRENT:
                 this.eps =  new NonConcurrentPageCache.Builder<>(keyCoder, store, maxPageSize)
-                        .maxPages(maxPages).pageFactory(factory).build();
+                        .maxPages(maxPages).pageFactory(factory).dictionary(dictionary).build();
                 break;
             case CONCURRENT:
             default:
                 this.eps =  new SkipListCache.Builder<>(keyCoder, store, maxPageSize)
-                        .maxPages(maxPages).pageFactory(factory).build();
+                        .maxPages(maxPages).pageFactory(factory).dictionary(dictionary).build();
                 break;
         }
 
@@ -199,6 +214,11 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
         return eps;
     }
 
+    @Override
+    public List<DBKey> pageKeys(DBKey from, DBKey to, int maxKeys) {
+        return eps.pageKeys(from, to, maxKeys);
+    }
+
     /**
      * Close the source.
      *
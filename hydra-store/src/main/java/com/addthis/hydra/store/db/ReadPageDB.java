@@ -17,17 +17,22 @@ import java.io.File;
 import java.io.IOException;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
 
+import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.codec.Codec;
 import com.addthis.codec.binary.CodecBin2;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.AbstractPage;
+import com.addthis.hydra.store.common.ZstdDictionary;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ByteStoreBDB;
+import com.addthis.hydra.store.kv.LogStructuredByteStore;
 import com.addthis.hydra.store.kv.MapDbByteStore;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.kv.ReadExternalPagedStore;
@@ -68,6 +73,9 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
             case PageDB.PAGED_MAP_DB:
                 store = new MapDbByteStore(dir, defaultDbName, true);
                 break;
+            case PageDB.PAGED_LSM:
+                store = new LogStructuredByteStore(dir, defaultDbName, true);
+                break;
             case PageDB.PAGED_BERK_DB:
                 // fall through -- the previous dbType was always something like 'pagedb' so this
                 // is expected
@@ -75,8 +83,9 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
                 store = new ByteStoreBDB(dir, defaultDbName, true);
                 break;
         }
+        ZstdDictionary dictionary = ZstdDictionary.read(dir, AbstractPage.gzlevel);
         this.eps = new ReadExternalPagedStore<>(new ReadDBKeyCoder<>(codec, clazz), store, maxSize,
-                                                maxWeight, metrics);
+                                                maxWeight, metrics, dir.getPath(), dictionary);
     }
 
     public String toString() {
@@ -142,7 +151,7 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
 
         private DR(DBKey start, DBKey to) {
             if (log.isDebugEnabled()) log.debug("DR(" + start + "-" + to + ")");
-            this.iter = eps.range(start);
+            this.iter = eps.range(start, to);
             this.to = to;
         }
 
@@ -161,6 +170,9 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
 
         @Override
         public void close() {
+            if (iter instanceof ClosableIterator) {
+                ((ClosableIterator<?>) iter).close();
+            }
         }
 
         @Override
@@ -225,4 +237,9 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
     @Override
     public PagedKeyValueStore<DBKey, V> getEps() { throw new UnsupportedOperationException(); }
 
+    @Override
+    public List<DBKey> pageKeys(DBKey from, DBKey to, int maxKeys) {
+        return eps.pageKeys(from, to, maxKeys);
+    }
+
 }
@@ -34,6 +34,12 @@ public interface ByteStore {
 
     public void put(byte[] key, byte[] val);
 
+    /**
+     * Write a batch of entries. Callers should supply the entries in
+     * ascending key order so that stores can write them sequentially.
+     */
+    public void putAll(Map<byte[], byte[]> entries);
+
     public byte[] get(byte[] key);
 
     /**
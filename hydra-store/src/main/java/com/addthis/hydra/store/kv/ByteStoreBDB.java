@@ -145,6 +145,24 @@ public class ByteStoreBDB implements ByteStore {
         puts.incrementAndGet();
     }
 
+    @Override
+    public void putAll(Map<byte[], byte[]> entries) {
+        Cursor cursor = bdb.openCursor(null, CursorConfig.DEFAULT);
+        try {
+            for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+                byte[] key = entry.getKey();
+                byte[] val = entry.getValue();
+                if (cursor.put(new DatabaseEntry(key), new DatabaseEntry(val)) != opSuccess) {
+                    throw new RuntimeException("put fail");
+                }
+                bytesOut.addAndGet(key.length + val.length);
+                puts.incrementAndGet();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public byte[] get(byte[] key) {
         final DatabaseEntry dv = new DatabaseEntry();
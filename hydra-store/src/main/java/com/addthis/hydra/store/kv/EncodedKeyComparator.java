@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Optionally implemented by a {@link KeyCoder} that can order a key
+ * against the page encoding of another key without decoding it.
+ */
+public interface EncodedKeyComparator<K> {
+
+    /**
+     * Compares a key against an encoded key that was generated by
+     * {@link KeyCoder#keyEncode(Object, Object, PageEncodeType)}.
+     *
+     * @param key        decoded key
+     * @param encoded    array holding the encoded key
+     * @param offset     position of the encoded key in the array
+     * @param length     length of the encoded key
+     * @param baseKey    base key that was used to encode the key
+     * @param encodeType type of page encoding applied to the encoded key
+     * @return negative, zero, or positive if the key is less than, equal to,
+     * or greater than the encoded key
+     */
+    int compareEncoded(@Nonnull K key, byte[] encoded, int offset, int length,
+                       @Nonnull K baseKey, @Nonnull PageEncodeType encodeType);
+}
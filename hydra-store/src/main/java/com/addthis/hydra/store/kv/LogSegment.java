@@ -0,0 +1,478 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.addthis.basis.util.Varint;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.UnsignedBytes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Immutable sorted file of a {@link LogStructuredByteStore}.
+ * <p/>
+ * The file is a sequence of entries in ascending key order followed by a sparse index
+ * and a fixed size trailer. An entry is {@code [varint key length][key][flag]} followed
+ * by {@code [varint value length][value]} unless the flag marks a deletion. A new index
+ * entry (the key and file offset of an entry) is started whenever {@code blockSize} bytes
+ * have been written since the previous index entry, so a lookup reads a single block.
+ * The index is followed by the last key of the segment and the trailer holds the offset
+ * of the index and a magic number.
+ * <p/>
+ * Segments are reference counted. The file is closed when the last reference is
+ * released and deleted as well if the segment has been replaced by a compaction.
+ * <p/>
+ * Decoded blocks can be kept in a {@link #newBlockCache(long) block cache} shared by the
+ * segments of a store, so that repeated lookups in the same block skip the read and parse.
+ */
+final class LogSegment {
+
+    private static final Logger log = LoggerFactory.getLogger(LogSegment.class);
+
+    static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+
+    /**
+     * Value of deleted keys in memtables and in the entries returned by segments.
+     * Compared by identity only.
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    private static final long MAGIC = 0x6879647261534547L;
+    private static final int TRAILER_SIZE = 16;
+    private static final byte PUT = 0;
+    private static final byte DELETE = 1;
+
+    final File file;
+    final long sequence;
+
+    private final FileChannel channel;
+    private final byte[][] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final byte[] lastKey;
+    private final AtomicInteger references = new AtomicInteger(1);
+    @Nullable private final Cache<BlockKey, List<Map.Entry<byte[], byte[]>>> blockCache;
+    private volatile boolean obsolete;
+
+    private LogSegment(File file, long sequence,
+                       @Nullable Cache<BlockKey, List<Map.Entry<byte[], byte[]>>> blockCache) throws IOException {
+        this.file = file;
+        this.sequence = sequence;
+        this.blockCache = blockCache;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < TRAILER_SIZE) {
+                throw new IOException("truncated segment " + file);
+            }
+            ByteBuf trailer = Unpooled.wrappedBuffer(read(size - TRAILER_SIZE, TRAILER_SIZE));
+            dataEnd = trailer.readLong();
+            if ((trailer.readLong() != MAGIC) || (dataEnd < 0) || (dataEnd > (size - TRAILER_SIZE))) {
+                throw new IOException("corrupt segment " + file);
+            }
+            ByteBuf index = Unpooled.wrappedBuffer(read(dataEnd, (int) (size - TRAILER_SIZE - dataEnd)));
+            int count = Varint.readUnsignedVarInt(index);
+            indexKeys = new byte[count][];
+            indexOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                indexKeys[i] = new byte[Varint.readUnsignedVarInt(index)];
+                index.readBytes(indexKeys[i]);
+                indexOffsets[i] = index.readLong();
+            }
+            lastKey = new byte[Varint.readUnsignedVarInt(index)];
+            index.readBytes(lastKey);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    static LogSegment open(File file, long sequence,
+                           @Nullable Cache<BlockKey, List<Map.Entry<byte[], byte[]>>> blockCache)
+            throws IOException {
+        return new LogSegment(file, sequence, blockCache);
+    }
+
+    /**
+     * Returns a cache of decoded blocks for the segments of one store, weighed by the
+     * bytes of their keys and values, or null if {@code maxBytes} is not positive.
+     */
+    @Nullable
+    static Cache<BlockKey, List<Map.Entry<byte[], byte[]>>> newBlockCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        return CacheBuilder.newBuilder()
+                           .maximumWeight(maxBytes)
+                           .weigher((BlockKey key, List<Map.Entry<byte[], byte[]>> entries) -> {
+                               int bytes = 0;
+                               for (Map.Entry<byte[], byte[]> entry : entries) {
+                                   bytes += entry.getKey().length + entry.getValue().length;
+                               }
+                               return bytes;
+                           })
+                           .build();
+    }
+
+    /**
+     * Writes the entries in ascending key order to a new segment. Entries whose value is
+     * {@link #TOMBSTONE} are written as deletions unless {@code dropTombstones} is true.
+     *
+     * @return the new segment or null if there was nothing to write
+     */
+    @Nullable
+    static LogSegment write(File file, long sequence, Iterator<Map.Entry<byte[], byte[]>> entries,
+                            int blockSize, boolean dropTombstones,
+                            @Nullable Cache<BlockKey, List<Map.Entry<byte[], byte[]>>> blockCache)
+            throws IOException {
+        List<byte[]> keys = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        byte[] lastKey = null;
+        long offset = 0;
+        long blockStart = 0;
+        FileOutputStream fileOut = new FileOutputStream(file);
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+        try (DataOutputStream out = new DataOutputStream(counter)) {
+            while (entries.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = entries.next();
+                byte[] key = entry.getKey();
+                byte[] value = entry.getValue();
+                if (dropTombstones && (value == TOMBSTONE)) {
+                    continue;
+                }
+                if (keys.isEmpty() || ((offset - blockStart) >= blockSize)) {
+                    keys.add(key);
+                    offsets.add(offset);
+                    blockStart = offset;
+                }
+                Varint.writeUnsignedVarInt(key.length, out);
+                out.write(key);
+                if (value == TOMBSTONE) {
+                    out.writeByte(DELETE);
+                } else {
+                    out.writeByte(PUT);
+                    Varint.writeUnsignedVarInt(value.length, out);
+                    out.write(value);
+                }
+                offset = counter.getCount();
+                lastKey = key;
+            }
+            if (lastKey != null) {
+                long dataEnd = counter.getCount();
+                Varint.writeUnsignedVarInt(keys.size(), out);
+                for (int i = 0; i < keys.size(); i++) {
+                    Varint.writeUnsignedVarInt(keys.get(i).length, out);
+                    out.write(keys.get(i));
+                    out.writeLong(offsets.get(i));
+                }
+                Varint.writeUnsignedVarInt(lastKey.length, out);
+                out.write(lastKey);
+                out.writeLong(dataEnd);
+                out.writeLong(MAGIC);
+                // the segment must be durable before it is referenced by the manifest
+                out.flush();
+                fileOut.getFD().sync();
+            }
+        }
+        if (lastKey == null) {
+            if (!file.delete()) {
+                log.warn("unable to delete empty segment {}", file);
+            }
+            return null;
+        }
+        return open(file, sequence, blockCache);
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of segment " + file);
+            }
+        }
+        return bytes;
+    }
+
+    private List<Map.Entry<byte[], byte[]>> readBlock(int block) {
+        if (blockCache == null) {
+            return decodeBlock(block);
+        }
+        BlockKey key = new BlockKey(sequence, block);
+        List<Map.Entry<byte[], byte[]>> entries = blockCache.getIfPresent(key);
+        if (entries == null) {
+            entries = decodeBlock(block);
+            blockCache.put(key, entries);
+        }
+        return entries;
+    }
+
+    private List<Map.Entry<byte[], byte[]>> decodeBlock(int block) {
+        long start = indexOffsets[block];
+        long end = ((block + 1) < indexOffsets.length) ? indexOffsets[block + 1] : dataEnd;
+        ByteBuf buf;
+        try {
+            buf = Unpooled.wrappedBuffer(read(start, (int) (end - start)));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>();
+        while (buf.isReadable()) {
+            byte[] key = new byte[Varint.readUnsignedVarInt(buf)];
+            buf.readBytes(key);
+            byte[] value = TOMBSTONE;
+            if (buf.readByte() == PUT) {
+                value = new byte[Varint.readUnsignedVarInt(buf)];
+                buf.readBytes(value);
+            }
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Returns the index of the last block whose first key is less than (or equal to
+     * if inclusive) the key or -1 if there is no such block.
+     */
+    private int blockFor(byte[] key, boolean inclusive) {
+        int low = 0;
+        int high = indexKeys.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = COMPARATOR.compare(indexKeys[mid], key);
+            if ((cmp < 0) || (inclusive && (cmp == 0))) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of the key, {@link #TOMBSTONE} if the key was
+     * deleted or null if the segment does not contain the key.
+     */
+    @Nullable
+    byte[] get(byte[] key) {
+        int block = blockFor(key, true);
+        if ((block < 0) || (COMPARATOR.compare(key, lastKey) > 0)) {
+            return null;
+        }
+        for (Map.Entry<byte[], byte[]> entry : readBlock(block)) {
+            int cmp = COMPARATOR.compare(entry.getKey(), key);
+            if (cmp == 0) {
+                return entry.getValue();
+            } else if (cmp > 0) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Greatest entry with a key less than (or equal to if inclusive) the key.
+     */
+    @Nullable
+    Map.Entry<byte[], byte[]> floorEntry(byte[] key, boolean inclusive) {
+        int block = blockFor(key, inclusive);
+        if (block < 0) {
+            return null;
+        }
+        Map.Entry<byte[], byte[]> result = null;
+        for (Map.Entry<byte[], byte[]> entry : readBlock(block)) {
+            int cmp = COMPARATOR.compare(entry.getKey(), key);
+            if ((cmp < 0) || (inclusive && (cmp == 0))) {
+                result = entry;
+            } else {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Least entry with a key greater than (or equal to if inclusive) the key.
+     */
+    @Nullable
+    Map.Entry<byte[], byte[]> ceilingEntry(byte[] key, boolean inclusive) {
+        int cmpLast = COMPARATOR.compare(key, lastKey);
+        if ((cmpLast > 0) || (!inclusive && (cmpLast == 0))) {
+            return null;
+        }
+        int block = Math.max(0, blockFor(key, true));
+        for (; block < indexKeys.length; block++) {
+            for (Map.Entry<byte[], byte[]> entry : readBlock(block)) {
+                int cmp = COMPARATOR.compare(entry.getKey(), key);
+                if ((cmp > 0) || (inclusive && (cmp == 0))) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    Map.Entry<byte[], byte[]> lastEntry() {
+        return floorEntry(lastKey, true);
+    }
+
+    /**
+     * Iterates over the entries with a key greater than or equal
+     * to start (all entries if start is null) in ascending order.
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator(@Nullable byte[] start) {
+        int first = (start == null) ? 0 : Math.max(0, blockFor(start, true));
+        return new Iterator<Map.Entry<byte[], byte[]>>() {
+            private int block = first;
+            private Iterator<Map.Entry<byte[], byte[]>> current = null;
+            private Map.Entry<byte[], byte[]> next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if ((current != null) && current.hasNext()) {
+                        Map.Entry<byte[], byte[]> entry = current.next();
+                        if ((start == null) || (COMPARATOR.compare(entry.getKey(), start) >= 0)) {
+                            next = entry;
+                        }
+                    } else if (block < indexKeys.length) {
+                        current = readBlock(block++).iterator();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<byte[], byte[]> result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Marks the segment for deletion once it is closed.
+     */
+    void obsolete() {
+        obsolete = true;
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            log.warn("error closing segment {}", file, ex);
+        }
+        if (blockCache != null) {
+            for (int block = 0; block < indexKeys.length; block++) {
+                blockCache.invalidate(new BlockKey(sequence, block));
+            }
+        }
+        if (obsolete && file.exists() && !file.delete()) {
+            log.warn("unable to delete obsolete segment {}", file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+
+    /**
+     * Key of a decoded block in the block cache of a store. Sequence
+     * numbers are unique within a store.
+     */
+    static final class BlockKey {
+
+        private final long sequence;
+        private final int block;
+
+        BlockKey(long sequence, int block) {
+            this.sequence = sequence;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return (sequence == other.sequence) && (block == other.block);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * Long.hashCode(sequence)) + block;
+        }
+    }
+}
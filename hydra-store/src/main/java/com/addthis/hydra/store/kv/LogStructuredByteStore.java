@@ -0,0 +1,879 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.addthis.basis.util.LessFiles;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.store.util.NamedThreadFactory;
+
+import com.google.common.cache.Cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorted log-structured byte store. Writes go to an in-memory table that is flushed
+ * to an immutable {@link LogSegment} once it grows beyond {@code pagedb.lsm.memtable}
+ * bytes. Segments are merged by a background compaction once there are more than
+ * {@code pagedb.lsm.maxSegments} of them. Files are never rewritten in place, so there
+ * is no cleaner and closing the store only has to flush the memtable.
+ * <p/>
+ * The live segments are listed in a manifest that is replaced atomically after every
+ * flush or compaction; files that are not in the manifest are leftovers of an interrupted
+ * flush or compaction and are deleted on startup. Like the deferred write BerkeleyDB
+ * store, writes are only durable once the memtable has been flushed or the store closed.
+ * <p/>
+ * Writers stall when the memtable is full while the previous one is still being flushed,
+ * so memory stays bounded by about two memtables. Decoded segment blocks are kept in a
+ * cache of {@code pagedb.lsm.blockCache} bytes per store.
+ */
+public class LogStructuredByteStore implements ByteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LogStructuredByteStore.class);
+
+    private static final long defaultMemtableBytes = Parameter.longValue("pagedb.lsm.memtable", 32 * 1024 * 1024);
+    private static final int blockSize = Parameter.intValue("pagedb.lsm.blockSize", 4096);
+    private static final int maxSegments = Parameter.intValue("pagedb.lsm.maxSegments", 8);
+    private static final long blockCacheBytes = Parameter.longValue("pagedb.lsm.blockCache", 4 * 1024 * 1024);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final File dir;
+    private final String dbname;
+    private final boolean readonly;
+    private final long memtableBytes;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong gets = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+
+    /**
+     * Writers hold the read lock while inserting into the memtable. State
+     * transitions hold the write lock so that a memtable is never modified
+     * after it has been handed to the flush.
+     */
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    /**
+     * Segments that may still be open. Segments held by an unfinished
+     * {@link #keyIterator(byte[])} are closed when the store is closed.
+     */
+    private final Set<LogSegment> openSegments = ConcurrentHashMap.newKeySet();
+
+    @Nullable
+    private final Cache<LogSegment.BlockKey, List<Map.Entry<byte[], byte[]>>> blockCache =
+            LogSegment.newBlockCache(blockCacheBytes);
+
+    /**
+     * Notified whenever a background flush ends. Writers that found the memtable
+     * full while a flush was pending wait on it.
+     */
+    private final Object flushDone = new Object();
+
+    @Nullable
+    private final ExecutorService background;
+
+    private volatile State state;
+
+    /**
+     * Set before the last reference to the state is released on close.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The failure of a background flush. The memtable that failed to flush is never
+     * rotated out again so writers are refused instead of growing the memtable.
+     */
+    @Nullable
+    private volatile Throwable flushFailure;
+
+    public LogStructuredByteStore(File dir, String dbname, boolean readonly) {
+        this(dir, dbname, readonly, defaultMemtableBytes);
+    }
+
+    LogStructuredByteStore(File dir, String dbname, boolean readonly, long memtableBytes) {
+        this.dir = LessFiles.initDirectory(dir);
+        this.dbname = dbname;
+        this.readonly = readonly;
+        this.memtableBytes = memtableBytes;
+        try {
+            List<LogSegment> segments = openSegments();
+            state = new State(new Memtable(), null, segments);
+            for (LogSegment segment : segments) {
+                segment.release();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        background = readonly ? null : Executors.newSingleThreadExecutor(
+                new NamedThreadFactory("lsm-" + dir.getName() + "-", true));
+        log.info("log structured ByteStore started up for {} with {} segments", dir, state.segments.size());
+    }
+
+    public LogStructuredByteStore(File dir, String dbname) {
+        this(dir, dbname, false);
+    }
+
+    /**
+     * Opens the segments in the manifest (newest first) and
+     * deletes any segment that is not in the manifest.
+     */
+    private List<LogSegment> openSegments() throws IOException {
+        List<LogSegment> segments = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        File manifest = new File(dir, dbname + MANIFEST_SUFFIX);
+        if (manifest.exists()) {
+            for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    names.add(line);
+                }
+            }
+        }
+        long maxSequence = 0;
+        try {
+            for (String name : names) {
+                long sequence = sequenceOf(name);
+                maxSequence = Math.max(maxSequence, sequence);
+                segments.add(track(LogSegment.open(new File(dir, name), sequence, blockCache)));
+            }
+        } catch (IOException | RuntimeException ex) {
+            for (LogSegment segment : segments) {
+                segment.release();
+            }
+            throw ex;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(dbname + "-") && name.endsWith(SEGMENT_SUFFIX) && !names.contains(name)) {
+                    maxSequence = Math.max(maxSequence, sequenceOf(name));
+                    if (!readonly && !file.delete()) {
+                        log.warn("unable to delete orphaned segment {}", file);
+                    }
+                }
+            }
+        }
+        nextSequence.set(maxSequence + 1);
+        return segments;
+    }
+
+    private long sequenceOf(String name) {
+        return Long.parseLong(name.substring(dbname.length() + 1, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private LogSegment track(LogSegment segment) {
+        openSegments.add(segment);
+        return segment;
+    }
+
+    private File newSegmentFile(long sequence) {
+        return new File(dir, dbname + "-" + sequence + SEGMENT_SUFFIX);
+    }
+
+    private void writeManifest(List<LogSegment> segments) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (LogSegment segment : segments) {
+            builder.append(segment.file.getName()).append('\n');
+        }
+        File manifest = new File(dir, dbname + MANIFEST_SUFFIX);
+        File temp = new File(dir, dbname + MANIFEST_SUFFIX + ".tmp");
+        Files.write(temp.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the current state with an additional reference that must be released.
+     * A state without references has either just been replaced or the store is closed.
+     */
+    private State acquire() {
+        while (true) {
+            State current = state;
+            int references = current.references.get();
+            if (references > 0) {
+                if (current.references.compareAndSet(references, references + 1)) {
+                    return current;
+                }
+            } else if (closed) {
+                throw new IllegalStateException("closed store " + dir);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the write lock.
+     */
+    private void install(State next) {
+        State previous = state;
+        state = next;
+        previous.release();
+    }
+
+    private void checkWritable() {
+        if (readonly) {
+            throw new IllegalStateException("read only store " + dir);
+        }
+        Throwable failure = flushFailure;
+        if (failure != null) {
+            throw new IllegalStateException("failed to flush memtable of " + dir, failure);
+        }
+    }
+
+    @Override
+    public boolean hasKey(byte[] key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readonly;
+    }
+
+    @Override
+    public byte[] firstKey() {
+        Map.Entry<byte[], byte[]> entry = navigate(Direction.CEILING, new byte[0]);
+        return (entry != null) ? entry.getKey() : null;
+    }
+
+    @Override
+    public byte[] lastKey() {
+        Map.Entry<byte[], byte[]> entry = navigate(Direction.LAST, null);
+        return (entry != null) ? entry.getKey() : null;
+    }
+
+    @Override
+    public byte[] delete(byte[] key) {
+        checkWritable();
+        if (get(key) == null) {
+            return null;
+        }
+        write(key, LogSegment.TOMBSTONE);
+        return lowerKey(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] val) {
+        checkWritable();
+        write(key, val);
+        puts.incrementAndGet();
+    }
+
+    /**
+     * The batch is inserted into a single memtable.
+     */
+    @Override
+    public void putAll(Map<byte[], byte[]> entries) {
+        checkWritable();
+        Memtable memtable;
+        stateLock.readLock().lock();
+        try {
+            memtable = state.memtable;
+            for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+                memtable.put(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        puts.addAndGet(entries.size());
+        if (memtable.bytes.get() >= memtableBytes) {
+            rotate(false);
+        }
+    }
+
+    private void write(byte[] key, byte[] val) {
+        Memtable memtable;
+        stateLock.readLock().lock();
+        try {
+            memtable = state.memtable;
+            memtable.put(key, val);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (memtable.bytes.get() >= memtableBytes) {
+            rotate(false);
+        }
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        gets.incrementAndGet();
+        State current = acquire();
+        try {
+            byte[] value = current.memtable.map.get(key);
+            if ((value == null) && (current.immutable != null)) {
+                value = current.immutable.map.get(key);
+            }
+            for (int i = 0; (value == null) && (i < current.segments.size()); i++) {
+                value = current.segments.get(i).get(key);
+            }
+            return (value == LogSegment.TOMBSTONE) ? null : value;
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    public byte[] higherKey(byte[] key) {
+        Map.Entry<byte[], byte[]> entry = navigate(Direction.HIGHER, key);
+        return (entry != null) ? entry.getKey() : null;
+    }
+
+    @Override
+    public byte[] lowerKey(byte[] key) {
+        Map.Entry<byte[], byte[]> entry = navigate(Direction.LOWER, key);
+        return (entry != null) ? entry.getKey() : null;
+    }
+
+    @Override
+    public byte[] floorKey(byte[] key) {
+        Map.Entry<byte[], byte[]> entry = navigate(Direction.FLOOR, key);
+        return (entry != null) ? entry.getKey() : null;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> floorEntry(byte[] key) {
+        return navigate(Direction.FLOOR, key);
+    }
+
+    @Override
+    public byte[] firstEntry() {
+        Map.Entry<byte[], byte[]> entry = navigate(Direction.CEILING, new byte[0]);
+        return (entry != null) ? entry.getValue() : null;
+    }
+
+    private enum Direction {
+        FLOOR, LOWER, CEILING, HIGHER, LAST;
+
+        boolean ascending() {
+            return (this == CEILING) || (this == HIGHER);
+        }
+
+        /**
+         * Direction used to step past a deleted key.
+         */
+        Direction skip() {
+            return ascending() ? HIGHER : LOWER;
+        }
+    }
+
+    /**
+     * Asks every source for its candidate in the given direction and keeps the closest one.
+     * Sources are visited newest first and only a strictly closer candidate replaces the
+     * current one, so ties resolve to the newest version. If the closest key was deleted
+     * then the search continues past it.
+     */
+    @Nullable
+    private Map.Entry<byte[], byte[]> navigate(Direction direction, @Nullable byte[] key) {
+        State current = acquire();
+        try {
+            while (true) {
+                Map.Entry<byte[], byte[]> best = null;
+                for (Source source : current.sources) {
+                    Map.Entry<byte[], byte[]> candidate = source.find(direction, key);
+                    if (candidate == null) {
+                        continue;
+                    }
+                    if (best == null) {
+                        best = candidate;
+                    } else {
+                        int cmp = LogSegment.COMPARATOR.compare(candidate.getKey(), best.getKey());
+                        if (direction.ascending() ? (cmp < 0) : (cmp > 0)) {
+                            best = candidate;
+                        }
+                    }
+                }
+                if ((best == null) || (best.getValue() != LogSegment.TOMBSTONE)) {
+                    return best;
+                }
+                key = best.getKey();
+                direction = direction.skip();
+            }
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * Returns the keys greater than or equal to start in ascending order.
+     */
+    @Override
+    public Iterator<byte[]> keyIterator(byte[] start) {
+        State current = acquire();
+        Iterator<Map.Entry<byte[], byte[]>> entries;
+        try {
+            entries = merge(current.sources, start, true);
+        } catch (RuntimeException ex) {
+            current.release();
+            throw ex;
+        }
+        return new Iterator<byte[]>() {
+            private boolean released = false;
+
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = entries.hasNext();
+                if (!hasNext && !released) {
+                    released = true;
+                    current.release();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return entries.next().getKey();
+            }
+        };
+    }
+
+    /**
+     * Merges the sources (newest first) into a single ascending iterator that
+     * returns the newest version of every key.
+     */
+    private static Iterator<Map.Entry<byte[], byte[]>> merge(List<? extends Source> sources,
+                                                            @Nullable byte[] start, boolean skipTombstones) {
+        PriorityQueue<Head> heads = new PriorityQueue<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Iterator<Map.Entry<byte[], byte[]>> iterator = sources.get(i).iterator(start);
+            if (iterator.hasNext()) {
+                heads.add(new Head(i, iterator));
+            }
+        }
+        return new Iterator<Map.Entry<byte[], byte[]>>() {
+            private Map.Entry<byte[], byte[]> next;
+
+            @Override
+            public boolean hasNext() {
+                while ((next == null) && !heads.isEmpty()) {
+                    Head head = heads.poll();
+                    Map.Entry<byte[], byte[]> entry = head.entry;
+                    head.advance(heads);
+                    // discard older versions of the same key
+                    while (!heads.isEmpty() &&
+                           (LogSegment.COMPARATOR.compare(heads.peek().entry.getKey(), entry.getKey()) == 0)) {
+                        heads.poll().advance(heads);
+                    }
+                    if (!skipTombstones || (entry.getValue() != LogSegment.TOMBSTONE)) {
+                        next = entry;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<byte[], byte[]> result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Swaps in an empty memtable and flushes the previous one. A forced rotation is skipped
+     * while a previous memtable is still being flushed. Otherwise the caller waits for that
+     * flush to end, so that writers cannot grow the memtable without bound during a slow flush.
+     */
+    private void rotate(boolean force) {
+        while (true) {
+            boolean flushPending;
+            stateLock.writeLock().lock();
+            try {
+                State current = state;
+                if ((current.memtable.map.isEmpty()) ||
+                    (!force && (current.memtable.bytes.get() < memtableBytes))) {
+                    return;
+                }
+                flushPending = current.immutable != null;
+                if (!flushPending) {
+                    install(new State(new Memtable(), current.memtable, current.segments));
+                }
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            if (!flushPending) {
+                break;
+            }
+            // a failed flush is never retried by the background, the next write is refused instead
+            if (force || closed || (flushFailure != null) || !awaitFlush()) {
+                return;
+            }
+        }
+        if (force) {
+            flush();
+        } else {
+            background.execute(() -> {
+                try {
+                    flush();
+                } catch (RuntimeException ex) {
+                    flushFailure = ex;
+                    return;
+                } finally {
+                    synchronized (flushDone) {
+                        flushDone.notifyAll();
+                    }
+                }
+                if (state.segments.size() > maxSegments) {
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until no memtable is being flushed, the flush failed or the store is closed.
+     * Returns false if the thread was interrupted.
+     */
+    private boolean awaitFlush() {
+        synchronized (flushDone) {
+            while ((state.immutable != null) && (flushFailure == null) && !closed) {
+                try {
+                    // the timeout covers a close that happens while waiting
+                    flushDone.wait(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the immutable memtable to a new segment.
+     */
+    private void flush() {
+        State snapshot = acquire();
+        try {
+            Memtable immutable = snapshot.immutable;
+            if (immutable == null) {
+                return;
+            }
+            long sequence = nextSequence.getAndIncrement();
+            // without older segments deleted keys do not need to be recorded
+            LogSegment segment = LogSegment.write(newSegmentFile(sequence), sequence,
+                                                  immutable.map.entrySet().iterator(), blockSize,
+                                                  snapshot.segments.isEmpty(), blockCache);
+            if (segment != null) {
+                track(segment);
+            }
+            stateLock.writeLock().lock();
+            try {
+                State current = state;
+                List<LogSegment> segments = new ArrayList<>(current.segments.size() + 1);
+                if (segment != null) {
+                    segments.add(segment);
+                }
+                segments.addAll(current.segments);
+                writeManifest(segments);
+                install(new State(current.memtable, null, segments));
+            } finally {
+                stateLock.writeLock().unlock();
+                if (segment != null) {
+                    segment.release();
+                }
+            }
+        } catch (IOException ex) {
+            log.error("failed to flush memtable of {}", dir, ex);
+            throw new UncheckedIOException(ex);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Merges all segments of the current state into a single segment. Segments that
+     * are flushed while the merge is running are newer and are kept in front of it.
+     */
+    private void compact() {
+        State snapshot = acquire();
+        try {
+            List<LogSegment> run = snapshot.segments;
+            if (run.size() <= 1) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            long sequence = nextSequence.getAndIncrement();
+            // the run contains the oldest segment so deleted keys can be dropped
+            LogSegment merged = LogSegment.write(newSegmentFile(sequence), sequence,
+                                                 merge(run, null, false), blockSize, true, blockCache);
+            if (merged != null) {
+                track(merged);
+            }
+            stateLock.writeLock().lock();
+            try {
+                State current = state;
+                List<LogSegment> segments = new ArrayList<>(current.segments);
+                segments.removeAll(run);
+                if (merged != null) {
+                    segments.add(merged);
+                }
+                writeManifest(segments);
+                install(new State(current.memtable, current.immutable, segments));
+            } finally {
+                stateLock.writeLock().unlock();
+                if (merged != null) {
+                    merged.release();
+                }
+            }
+            for (LogSegment segment : run) {
+                segment.obsolete();
+            }
+            openSegments.removeIf(segment -> !segment.isOpen());
+            log.info("compacted {} segments of {} in {}ms", run.size(), dir, System.currentTimeMillis() - start);
+        } catch (IOException ex) {
+            log.error("failed to compact {}", dir, ex);
+            throw new UncheckedIOException(ex);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * Close the database.
+     *
+     * @param cleanLog if true then merge all segments into one before closing.
+     */
+    @Override
+    public void close(boolean cleanLog) {
+        log.info("closing {} gets={} puts={}", dir, gets, puts);
+        try {
+            if (background != null) {
+                background.shutdown();
+                try {
+                    background.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                // retries a failed background flush
+                flush();
+                rotate(true);
+                if (cleanLog || (state.segments.size() > maxSegments)) {
+                    compact();
+                }
+            }
+        } finally {
+            stateLock.writeLock().lock();
+            try {
+                closed = true;
+                state.release();
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            for (LogSegment segment : openSegments) {
+                segment.close();
+            }
+            openSegments.clear();
+        }
+    }
+
+    /**
+     * This should be should be considered a fairly expensive operation.
+     **/
+    @Override
+    public long count() {
+        long count = 0;
+        Iterator<byte[]> keys = keyIterator(null);
+        while (keys.hasNext()) {
+            keys.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "LSM[" + gets + "," + puts + "," + state.segments + "]";
+    }
+
+    /**
+     * A sorted collection of entries in which deleted keys map to {@link LogSegment#TOMBSTONE}.
+     */
+    private interface Source {
+
+        @Nullable
+        Map.Entry<byte[], byte[]> find(Direction direction, @Nullable byte[] key);
+
+        Iterator<Map.Entry<byte[], byte[]>> iterator(@Nullable byte[] start);
+    }
+
+    private static final class Memtable implements Source {
+
+        final ConcurrentSkipListMap<byte[], byte[]> map = new ConcurrentSkipListMap<>(LogSegment.COMPARATOR);
+        final AtomicLong bytes = new AtomicLong();
+
+        void put(byte[] key, byte[] value) {
+            map.put(key, value);
+            bytes.addAndGet(key.length + value.length);
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> find(Direction direction, byte[] key) {
+            switch (direction) {
+                case FLOOR:
+                    return map.floorEntry(key);
+                case LOWER:
+                    return map.lowerEntry(key);
+                case CEILING:
+                    return map.ceilingEntry(key);
+                case HIGHER:
+                    return map.higherEntry(key);
+                case LAST:
+                    return map.lastEntry();
+                default:
+                    throw new IllegalStateException("unknown direction " + direction);
+            }
+        }
+
+        @Override
+        public Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] start) {
+            return ((start == null) ? map : map.tailMap(start, true)).entrySet().iterator();
+        }
+    }
+
+    private static final class SegmentSource implements Source {
+
+        final LogSegment segment;
+
+        SegmentSource(LogSegment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> find(Direction direction, byte[] key) {
+            switch (direction) {
+                case FLOOR:
+                    return segment.floorEntry(key, true);
+                case LOWER:
+                    return segment.floorEntry(key, false);
+                case CEILING:
+                    return segment.ceilingEntry(key, true);
+                case HIGHER:
+                    return segment.ceilingEntry(key, false);
+                case LAST:
+                    return segment.lastEntry();
+                default:
+                    throw new IllegalStateException("unknown direction " + direction);
+            }
+        }
+
+        @Override
+        public Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] start) {
+            return segment.iterator(start);
+        }
+    }
+
+    /**
+     * Immutable view of the store. The segments of a state stay
+     * open until the last reference to the state is released.
+     */
+    private static final class State {
+
+        final Memtable memtable;
+        @Nullable final Memtable immutable;
+        final List<LogSegment> segments;
+        final List<Source> sources;
+        final AtomicInteger references = new AtomicInteger(1);
+
+        State(Memtable memtable, @Nullable Memtable immutable, List<LogSegment> segments) {
+            this.memtable = memtable;
+            this.immutable = immutable;
+            this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+            List<Source> sources = new ArrayList<>(segments.size() + 2);
+            sources.add(memtable);
+            if (immutable != null) {
+                sources.add(immutable);
+            }
+            for (LogSegment segment : segments) {
+                segment.retain();
+                sources.add(new SegmentSource(segment));
+            }
+            this.sources = sources;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                for (LogSegment segment : segments) {
+                    segment.release();
+                }
+            }
+        }
+    }
+
+    private static final class Head implements Comparable<Head> {
+
+        final int priority;
+        final Iterator<Map.Entry<byte[], byte[]>> iterator;
+        Map.Entry<byte[], byte[]> entry;
+
+        Head(int priority, Iterator<Map.Entry<byte[], byte[]>> iterator) {
+            this.priority = priority;
+            this.iterator = iterator;
+            this.entry = iterator.next();
+        }
+
+        void advance(PriorityQueue<Head> heads) {
+            if (iterator.hasNext()) {
+                entry = iterator.next();
+                heads.add(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int cmp = LogSegment.COMPARATOR.compare(entry.getKey(), other.entry.getKey());
+            return (cmp != 0) ? cmp : Integer.compare(priority, other.priority);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import com.addthis.basis.util.LessBytes;
+import com.addthis.basis.util.Parameter;
 import com.addthis.basis.util.Varint;
 
 import com.google.common.primitives.Ints;
@@ -30,7 +31,19 @@ import io.netty.buffer.ByteBuf;
 public enum PageEncodeType {
     LEGACY,
     SPARSE,
-    LONGIDS;
+    LONGIDS,
+    /**
+     * Identical to {@link #LONGIDS} except that keys whose names are
+     * canonical decimal longs store the name as a delta against the
+     * name of the first key of the page.
+     */
+    LONGNAMES;
+
+    /**
+     * If true then pages are written with {@link #LONGNAMES} encoding. Disabled by
+     * default as earlier versions of hydra are unable to read these pages.
+     */
+    private static final boolean longNames = Parameter.boolValue("eps.encode.longnames", false);
 
     /**
      * Reads the next integer from the input stream.
@@ -47,6 +60,7 @@ public enum PageEncodeType {
                 return (int) LessBytes.readLength(in);
             case SPARSE:
             case LONGIDS:
+            case LONGNAMES:
                 assert dis != null;
                 return Varint.readUnsignedVarInt(dis);
             default:
@@ -67,6 +81,7 @@ public enum PageEncodeType {
                 return LessBytes.readBytes(in);
             case SPARSE:
             case LONGIDS:
+            case LONGNAMES:
                 assert dis != null;
                 return LessBytes.readBytes(in, Varint.readUnsignedVarInt(dis));
             default:
@@ -86,7 +101,8 @@ public enum PageEncodeType {
             case LEGACY:
                 return LessBytes.readBytes(in);
             case SPARSE:
-            case LONGIDS: {
+            case LONGIDS:
+            case LONGNAMES: {
                 assert dis != null;
                 int nextFirstKeyLength = Varint.readUnsignedVarInt(dis);
                 if (nextFirstKeyLength > 0) {
@@ -131,7 +147,7 @@ public enum PageEncodeType {
     }
 
     public static PageEncodeType defaultType() {
-        return LONGIDS;
+        return longNames ? LONGNAMES : LONGIDS;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Samples the first keys of the pages of a paged store without reading the pages themselves.
+ */
+public final class PageKeys {
+
+    private PageKeys() {
+    }
+
+    /**
+     * Returns at most {@code maxKeys} evenly spaced keys out of the first keys of the pages that begin after
+     * {@code from} and before {@code to}, in order. Each page key in the range is looked up once, and no more
+     * than twice {@code maxKeys} keys are held at a time.
+     */
+    public static <K> List<K> sample(ByteStore pages, KeyCoder<K, ?> keyCoder, Comparator<? super K> order,
+            K from, K to, int maxKeys) {
+        List<K> keys = new ArrayList<>();
+        if (maxKeys <= 0) {
+            return keys;
+        }
+        int stride = 1;
+        int position = 0;
+        byte[] encodedKey = pages.higherKey(keyCoder.keyEncode(from));
+        while (encodedKey != null) {
+            K key = keyCoder.keyDecode(encodedKey);
+            if (order.compare(key, to) >= 0) {
+                break;
+            }
+            if ((position++ % stride) == 0) {
+                keys.add(key);
+                if (keys.size() >= (2 * maxKeys)) {
+                    // keep every other key, the ones at multiples of the doubled stride
+                    List<K> thinned = new ArrayList<>(maxKeys);
+                    for (int i = 0; i < keys.size(); i += 2) {
+                        thinned.add(keys.get(i));
+                    }
+                    keys = thinned;
+                    stride *= 2;
+                }
+            }
+            encodedKey = pages.higherKey(encodedKey);
+        }
+        if (keys.size() <= maxKeys) {
+            return keys;
+        }
+        List<K> sample = new ArrayList<>(maxKeys);
+        for (int i = 0; i < maxKeys; i++) {
+            sample.add(keys.get((int) (((long) i * keys.size()) / maxKeys)));
+        }
+        return sample;
+    }
+}
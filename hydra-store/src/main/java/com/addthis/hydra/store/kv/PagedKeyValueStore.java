@@ -13,6 +13,9 @@
  */
 package com.addthis.hydra.store.kv;
 
+import java.util.Collections;
+import java.util.List;
+
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.db.CloseOperation;
 
@@ -46,4 +49,12 @@ public interface PagedKeyValueStore<K, V extends BytesCodable> extends KeyValueS
      * @return status code. A status code of 0 indicates success.
      **/
     public int close(boolean cleanLog, CloseOperation operation);
+
+    /**
+     * Returns the first keys of at most {@code maxKeys} evenly spaced pages that begin after {@code from}
+     * and before {@code to}. Only page boundaries are read. Empty if the store does not support it.
+     */
+    public default List<K> pageKeys(K from, K to, int maxKeys) {
+        return Collections.emptyList();
+    }
 }
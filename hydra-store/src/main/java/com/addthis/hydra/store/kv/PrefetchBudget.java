@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the estimated bytes of the pages being read ahead. The estimate of a read-ahead is
+ * counted from when it is submitted until its future is done, which includes being cancelled
+ * before it has started to run.
+ */
+final class PrefetchBudget {
+
+    private final long maxBytes;
+    private final AtomicLong inFlight = new AtomicLong();
+
+    PrefetchBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    long inFlight() {
+        return inFlight.get();
+    }
+
+    /** Runs the task on the executor if its estimate fits in the budget. Returns null if it does not. */
+    @Nullable <T> Future<T> trySubmit(Executor executor, long estimate, Callable<T> task) {
+        if (inFlight.addAndGet(estimate) > maxBytes) {
+            inFlight.addAndGet(-estimate);
+            return null;
+        }
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                inFlight.addAndGet(-estimate);
+            }
+        };
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException ex) {
+            future.cancel(false);
+            throw ex;
+        }
+        return future;
+    }
+}
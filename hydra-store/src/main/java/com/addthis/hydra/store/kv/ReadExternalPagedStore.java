@@ -13,38 +13,51 @@
  */
 package com.addthis.hydra.store.kv;
 
+import javax.annotation.Nullable;
+
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.InputStream;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.Parameter;
+import com.addthis.basis.util.Varint;
 
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.PageCompression;
+import com.addthis.hydra.store.common.ZstdDictionary;
 import com.addthis.hydra.store.db.IReadWeighable;
 import com.addthis.hydra.store.db.ReadDBKeyCoder;
 import com.addthis.hydra.store.kv.metrics.ExternalPagedStoreMetrics;
+import com.addthis.hydra.store.util.NamedThreadFactory;
+import com.addthis.hydra.store.util.SharedCache;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.Weigher;
-
-import com.jcraft.jzlib.InflaterInputStream;
-import com.ning.compress.lzf.LZFInputStream;
+import com.google.common.io.ByteStreams;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xerial.snappy.SnappyInputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 /**
  * read only caching page store intended to play nice with the query system
@@ -69,25 +82,76 @@ import org.xerial.snappy.SnappyInputStream;
 public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeighable & BytesCodable> {
 
     private static final boolean collectMetricsParameter = Parameter.boolValue("eps.debug.collect", false);
+    private static final boolean lazyDecodeParameter = Parameter.boolValue("eps.decode.lazy", false);
     private static final Logger log = LoggerFactory.getLogger(ReadExternalPagedStore.class);
 
     private final boolean checkKeyRange = Parameter.boolValue("eps.keys.debug", false);
 
+    /**
+     * Maximum number of pages that a page iterator reads ahead. Zero (the default) disables read-ahead.
+     */
+    private static final int prefetchPages = Parameter.intValue("eps.prefetch.pages", 0);
+
+    /**
+     * Number of consecutive pages an iterator must visit before it starts reading ahead.
+     */
+    private static final int prefetchTrigger = Parameter.intValue("eps.prefetch.trigger", 2);
+
+    /**
+     * Upper bound on the estimated bytes of all pages being read ahead by the process.
+     */
+    private static final PrefetchBudget prefetchBudget =
+            new PrefetchBudget(Parameter.longValue("eps.prefetch.maxBytes", 32 * 1024 * 1024));
+
+    private static final int prefetchThreads = Parameter.intValue("eps.prefetch.threads", 4);
+
+    /**
+     * Holds the read-ahead pool so that its threads are only created once an iterator reads ahead.
+     */
+    private static final class PrefetchPool {
+
+        static final ExecutorService pool =
+                Executors.newFixedThreadPool(prefetchThreads, new NamedThreadFactory("page-prefetch-", true));
+    }
+
     private final ExternalPagedStoreMetrics metrics;
 
     private final boolean collectMetrics;
 
+    /**
+     * If non-null then pages are decoded into {@link LazyTreePage} instances
+     * that binary search the encoded keys.
+     */
+    private final EncodedKeyComparator<K> encodedKeyComparator;
+
     protected static final int TYPE_BIT_OFFSET = 5;
 
     /**
      * guava loading cache for storing pages. Get method takes the exact page key, so finding the
-     * page key must be done first.
+     * page key must be done first. Null when pages are stored in {@link #sharedPages}.
      */
-    private final LoadingCache<K, TreePage> loadingPageCache;
+    @Nullable
+    private final LoadingCache<K, DecodedPage> loadingPageCache;
+
+    /**
+     * Portion of the process-wide {@link SharedCache} used for storing pages
+     * or null if the shared cache is disabled.
+     */
+    @Nullable
+    private final SharedCache.Partition<K, DecodedPage> sharedPages;
 
     //backing byte store
     private final ByteStore pages;
 
+    @Nullable
+    private final ZstdDictionary dictionary;
+
+    /**
+     * Size of the most recently read-ahead page. Used to estimate
+     * the bytes of a page before it has been read.
+     */
+    private volatile int prefetchPageEstimate = 16 * 1024;
+
     final KeyCoder<K, V> keyCoder;
 
     public ReadExternalPagedStore(KeyCoder<K, V> keyCoder, final ByteStore pages,
@@ -97,51 +161,80 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
 
     public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages,
                                   int maxSize, int maxWeight, boolean collect) {
+        this(keyCoder, pages, maxSize, maxWeight, collect, null, null);
+    }
+
+    /**
+     * @param tenant if non-null and the process-wide {@link SharedCache} is enabled then pages
+     *               are cached in a partition of the shared cache owned by this tenant and
+     *               maxSize / maxWeight are ignored.
+     * @param dictionary required to decode pages that were compressed with a dictionary
+     */
+    @SuppressWarnings("unchecked")
+    public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages,
+                                  int maxSize, int maxWeight, boolean collect, @Nullable String tenant,
+                                  @Nullable ZstdDictionary dictionary) {
         this.keyCoder = keyCoder;
         this.pages = pages;
-        log.info("[init] maxSize=" + maxSize + " maxWeight=" + maxWeight);
+        this.dictionary = dictionary;
 
         collectMetrics = collectMetricsParameter || collect;
 
+        if (lazyDecodeParameter && (keyCoder instanceof EncodedKeyComparator)) {
+            encodedKeyComparator = (EncodedKeyComparator<K>) keyCoder;
+        } else {
+            encodedKeyComparator = null;
+        }
+
         metrics = collectMetrics ? new ExternalPagedStoreMetrics() : null;
 
+        SharedCache sharedCache = SharedCache.processCache();
+        if ((tenant != null) && (sharedCache != null)) {
+            log.info("[init] tenant={} shared cache", tenant);
+            sharedPages = sharedCache.partition(tenant, page -> page.originalByteSize);
+            loadingPageCache = null;
+            return;
+        }
+        log.info("[init] maxSize=" + maxSize + " maxWeight=" + maxWeight);
+        sharedPages = null;
+
+        CacheLoader<K, DecodedPage> loader = new CacheLoader<K, DecodedPage>() {
+            public DecodedPage load(K key) throws Exception {
+                return loadPage(key);
+            }
+        };
         // Prefer evicting on weight instead of page count
         if (maxWeight != 0) {
             loadingPageCache = CacheBuilder.newBuilder()
-                    .weigher(new Weigher<K, TreePage>() {
+                    .weigher(new Weigher<K, DecodedPage>() {
                         @Override
-                        public int weigh(K key, TreePage value) {
+                        public int weigh(K key, DecodedPage value) {
                             return value.originalByteSize;
                         }
                     })
                     .maximumWeight(maxWeight)
-                    .build(
-                            new CacheLoader<K, TreePage>() {
-                                public TreePage load(K key) throws Exception {
-                                    byte[] page = pages.get(keyCoder.keyEncode(key));
-                                    if (page != null) {
-                                        return pageDecode(page);
-                                    } else {
-                                        throw new ExecutionException("Source did not have page",
-                                                                     new NullPointerException());
-                                    }
-                                }
-                            });
+                    .build(loader);
         } else {
             loadingPageCache = CacheBuilder.newBuilder()
                     .maximumSize(maxSize)
-                    .build(
-                            new CacheLoader<K, TreePage>() {
-                                public TreePage load(K key) throws Exception {
-                                    byte[] page = pages.get(keyCoder.keyEncode(key));
-                                    if (page != null) {
-                                        return pageDecode(page);
-                                    } else {
-                                        throw new ExecutionException("Source did not have page",
-                                                                     new NullPointerException());
-                                    }
-                                }
-                            });
+                    .build(loader);
+        }
+    }
+
+    private DecodedPage loadPage(K key) throws Exception {
+        byte[] page = pages.get(keyCoder.keyEncode(key));
+        if (page != null) {
+            return pageDecode(page);
+        } else {
+            throw new ExecutionException("Source did not have page", new NullPointerException());
+        }
+    }
+
+    private DecodedPage getPage(K key) throws ExecutionException {
+        if (sharedPages != null) {
+            return sharedPages.get(key, () -> loadPage(key));
+        } else {
+            return loadingPageCache.get(key);
         }
     }
 
@@ -162,7 +255,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         K pageKey = keyCoder.keyDecode(getPageKeyForKey(key));
         if (pageKey != null) {
             try {
-                return loadingPageCache.get(pageKey);
+                return getPage(pageKey);
             } catch (ExecutionException e) {
             }
         }
@@ -182,30 +275,20 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
     }
 
     public void close() {
+        if (sharedPages != null) {
+            sharedPages.close();
+        }
         pages.close();
     }
 
     //decode pages. Called on the bytes returned by store.get()
-    private TreePage pageDecode(byte[] page) {
+    private DecodedPage pageDecode(byte[] page) {
         try {
             InputStream in = new ByteArrayInputStream(page);
             int flags = in.read() & 0xff;
             int gztype = flags & 0x0f;
             int pageType = flags >>> TYPE_BIT_OFFSET;
-            switch (gztype) {
-                case 1:
-                    in = new InflaterInputStream(in);
-                    break;
-                case 2:
-                    in = new GZIPInputStream(in);
-                    break;
-                case 3:
-                    in = new LZFInputStream(in);
-                    break;
-                case 4:
-                    in = new SnappyInputStream(in);
-                    break;
-            }
+            in = PageCompression.decompress(gztype, in, dictionary);
             PageEncodeType pageEncodeType;
             DataInputStream dis = null;
             switch (pageType) {
@@ -220,10 +303,14 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                     pageEncodeType = PageEncodeType.LONGIDS;
                     dis = new DataInputStream(in);
                     break;
+                case 3:
+                    pageEncodeType = PageEncodeType.LONGNAMES;
+                    dis = new DataInputStream(in);
+                    break;
                 default:
                     throw new IllegalStateException("unknown page type " + pageType);
             }
-            TreePage decode;
+            DecodedPage decode;
             int entries = pageEncodeType.readInt(in, dis);
             if (collectMetrics) {
                 metrics.updatePageSize(entries);
@@ -232,19 +319,28 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
             K firstKey = keyCoder.keyDecode(firstKeyBytes);
             byte[] nextFirstKeyBytes = pageEncodeType.nextFirstKey(in, dis);
             K nextFirstKey = keyCoder.keyDecode(nextFirstKeyBytes);
-            decode = new TreePage(firstKey).setNextFirstKey(nextFirstKey);
-            decode.originalByteSize = 4 + firstKeyBytes.length;
+            int headerSize = 4 + firstKeyBytes.length;
             if (nextFirstKeyBytes != null) {
-                decode.originalByteSize += nextFirstKeyBytes.length;
+                headerSize += nextFirstKeyBytes.length;
             }
 
-            for (int i = 0; i < entries; i++) {
-                byte[] kb = pageEncodeType.readBytes(in, dis);
-                decode.originalByteSize += kb.length;
-                byte[] vb = pageEncodeType.readBytes(in, dis);
-                decode.originalByteSize += vb.length;
-                K key = keyCoder.keyDecode(kb, firstKey, pageEncodeType);
-                decode.map.put(key, new PageValue(vb, pageEncodeType));
+            if ((encodedKeyComparator != null) && (pageEncodeType != PageEncodeType.LEGACY)) {
+                byte[] body = ByteStreams.toByteArray(in);
+                decode = new LazyTreePage(firstKey, nextFirstKey, pageEncodeType, body, entries);
+                decode.originalByteSize = headerSize + body.length;
+            } else {
+                TreePage treePage = new TreePage(firstKey).setNextFirstKey(nextFirstKey);
+                treePage.originalByteSize = headerSize;
+
+                for (int i = 0; i < entries; i++) {
+                    byte[] kb = pageEncodeType.readBytes(in, dis);
+                    treePage.originalByteSize += kb.length;
+                    byte[] vb = pageEncodeType.readBytes(in, dis);
+                    treePage.originalByteSize += vb.length;
+                    K key = keyCoder.keyDecode(kb, firstKey, pageEncodeType);
+                    treePage.map.put(key, new PageValue(vb, pageEncodeType));
+                }
+                decode = treePage;
             }
 
             //ignoring memory data
@@ -297,10 +393,49 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         }
     }
 
+    /**
+     * Common base of the pages stored in {@link #loadingPageCache} or {@link #sharedPages}.
+     */
+    private abstract class DecodedPage implements KeyValuePage<K, V> {
+
+        //Size of the uncompressed page encoding. Used to weigh the page in the cache.
+        int originalByteSize;
+
+        @Override
+        public V getPutValue(K key, V val) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public V getRemoveValue(K key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void putValue(K key, V val) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeValue(K key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeValues(K start, K end) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int compareKeys(K k1, K k2) {
+            return ReadExternalPagedStore.this.compareKeys(k1, k2);
+        }
+    }
+
     /**
      * Implementation of a page. Is constructed by pageDecode. See var comments
      */
-    private final class TreePage implements KeyValuePage<K, V>, Comparator<K> {
+    private final class TreePage extends DecodedPage implements Comparator<K> {
 
         //An ordered mapping of K (individual/non-paged keys) to PageValues (decode-deferring wrappers for V)
         private final TreeMap<K, PageValue> map;
@@ -312,8 +447,6 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         //If this is always correct -> we can use our own key iterator without relying on one from backing store
         private K nextFirstKey;
 
-        private int originalByteSize;
-
         TreePage(K firstKey) {
             this.firstKey = firstKey;
             this.map = new TreeMap<>(this);
@@ -369,52 +502,201 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         }
 
         @Override
-        public V getPutValue(K key, V val) {
-            throw new UnsupportedOperationException();
+        public Iterator<Map.Entry<K, V>> range(K start) {
+            SortedMap<K, PageValue> tailMap = start != null ? map.tailMap(start) : map;
+            if (log.isDebugEnabled()) {
+                log.debug("range start=" + start + " tailMap=" + tailMap + " map=" + map);
+            }
+            return new TreePageIterator(tailMap);
         }
 
         @Override
-        public V getRemoveValue(K key) {
-            throw new UnsupportedOperationException();
+        public K getNextFirstKey() {
+            return nextFirstKey;
         }
 
         @Override
-        public void putValue(K key, V val) {
-            throw new UnsupportedOperationException();
+        public int compare(K o1, K o2) {
+            return compareKeys(o1, o2);
+        }
+    }
+
+    /**
+     * Page that retains its uncompressed encoding along with an offset table
+     * over the encoded entries. Lookups binary search the encoded keys and
+     * only the keys and values that are visited are decoded.
+     */
+    private final class LazyTreePage extends DecodedPage {
+
+        private final K firstKey;
+
+        private final K nextFirstKey;
+
+        private final PageEncodeType encodeType;
+
+        private final byte[] body;
+
+        //Entry i has its encoded key at position 2 * i and its encoded value at position 2 * i + 1
+        private final int[] offsets;
+
+        private final int[] lengths;
+
+        private final AtomicReferenceArray<K> keys;
+
+        private final AtomicReferenceArray<V> values;
+
+        LazyTreePage(K firstKey, K nextFirstKey, PageEncodeType encodeType, byte[] body, int entries) {
+            this.firstKey = firstKey;
+            this.nextFirstKey = nextFirstKey;
+            this.encodeType = encodeType;
+            this.body = body;
+            this.offsets = new int[2 * entries];
+            this.lengths = new int[2 * entries];
+            this.keys = new AtomicReferenceArray<>(entries);
+            this.values = new AtomicReferenceArray<>(entries);
+            ByteBuf buffer = Unpooled.wrappedBuffer(body);
+            for (int i = 0; i < offsets.length; i++) {
+                lengths[i] = Varint.readUnsignedVarInt(buffer);
+                offsets[i] = buffer.readerIndex();
+                buffer.skipBytes(lengths[i]);
+            }
         }
 
         @Override
-        public void removeValue(K key) {
-            throw new UnsupportedOperationException();
+        public String toString() {
+            return "ltp[" + keys.length() + "," + firstKey + "," + nextFirstKey + "]";
+        }
+
+        /**
+         * Binary search over the encoded keys. Has the same
+         * return value as {@link Arrays#binarySearch(Object[], Object)}.
+         */
+        private int search(K key) {
+            int low = 0;
+            int high = keys.length() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = encodedKeyComparator.compareEncoded(key, body, offsets[2 * mid],
+                                                              lengths[2 * mid], firstKey, encodeType);
+                if (cmp > 0) {
+                    low = mid + 1;
+                } else if (cmp < 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private K key(int position) {
+            K key = keys.get(position);
+            if (key == null) {
+                int offset = offsets[2 * position];
+                byte[] encoded = Arrays.copyOfRange(body, offset, offset + lengths[2 * position]);
+                key = keyCoder.keyDecode(encoded, firstKey, encodeType);
+                keys.lazySet(position, key);
+            }
+            return key;
+        }
+
+        private V value(int position) {
+            V value = values.get(position);
+            if (value == null) {
+                int offset = offsets[2 * position + 1];
+                byte[] encoded = Arrays.copyOfRange(body, offset, offset + lengths[2 * position + 1]);
+                value = keyCoder.valueDecode(encoded, encodeType);
+                if (!values.compareAndSet(position, null, value)) {
+                    value = values.get(position);
+                }
+            }
+            return value;
         }
 
         @Override
-        public void removeValues(K start, K end) {
-            throw new UnsupportedOperationException();
+        public boolean containsKey(K key) {
+            return search(key) >= 0;
         }
 
         @Override
-        public Iterator<Map.Entry<K, V>> range(K start) {
-            SortedMap<K, PageValue> tailMap = start != null ? map.tailMap(start) : map;
-            if (log.isDebugEnabled()) {
-                log.debug("range start=" + start + " tailMap=" + tailMap + " map=" + map);
+        public K getFirstKey() {
+            return firstKey;
+        }
+
+        @Override
+        public K getLastKey() {
+            if (keys.length() == 0) {
+                return null;
+            } else {
+                return key(keys.length() - 1);
             }
-            return new TreePageIterator(tailMap);
         }
 
         @Override
-        public K getNextFirstKey() {
-            return nextFirstKey;
+        public V getValue(K key) {
+            int position = search(key);
+            if (position >= 0) {
+                return value(position);
+            } else {
+                return null;
+            }
         }
 
         @Override
-        public int compareKeys(K k1, K k2) {
-            return ReadExternalPagedStore.this.compareKeys(k1, k2);
+        public Iterator<Map.Entry<K, V>> range(K start) {
+            int position = (start != null) ? search(start) : 0;
+            if (position < 0) {
+                position = -(position + 1);
+            }
+            return new LazyTreePageIterator(position);
         }
 
         @Override
-        public int compare(K o1, K o2) {
-            return compareKeys(o1, o2);
+        public K getNextFirstKey() {
+            return nextFirstKey;
+        }
+
+        private final class LazyTreePageIterator implements Iterator<Map.Entry<K, V>> {
+
+            private int position;
+
+            LazyTreePageIterator(int position) {
+                this.position = position;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return position < keys.length();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int current = position++;
+                return new Map.Entry<K, V>() {
+                    @Override
+                    public K getKey() {
+                        return key(current);
+                    }
+
+                    @Override
+                    public V getValue() {
+                        return value(current);
+                    }
+
+                    @Override
+                    public V setValue(V value) {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
         }
     }
 
@@ -489,24 +771,34 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
      * returned by the store's iterator. I do not believe that to be the case.
      */
     public Iterator<KeyValuePage<K, V>> getPageIterator(final K start) {
-        return new PageIterator(start);
+        return new PageIterator(start, null);
     }
 
     /**
      * iterates over K-(pages of V) entry objects.
      * essentially this iterates over k-page pairs.
      * <p/>
-     * Handles decoding and interacting with the page cache.
+     * Handles decoding and interacting with the page cache. Once the iterator has
+     * visited {@code eps.prefetch.trigger} consecutive pages it reads ahead the following
+     * pages on the prefetch pool. The read-ahead window doubles on every page up to
+     * {@code eps.prefetch.pages} and never extends to pages that begin at or after {@code end}.
      * <p/>
-     * TODO: optionally(?) prebuffer the next page or delegate that to a sub-iterator
      * TODO: keep pointer to page and next key instead of two pages
      */
     private final class PageIterator implements Iterator<KeyValuePage<K, V>> {
 
+        @Nullable
+        private final K end;
         private KeyValuePage<K, V> nextPage;
         private KeyValuePage<K, V> page;
 
-        public PageIterator(K start) {
+        private final ArrayDeque<Prefetch> prefetched = new ArrayDeque<>();
+        private int sequential;
+        private int window;
+        private boolean exhausted;
+
+        public PageIterator(K start, @Nullable K end) {
+            this.end = end;
             if (start == null) {
                 start = getFirstKey();
             }
@@ -528,11 +820,87 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
             if (nextPage == null && page != null) {
                 K nextPageKey = page.getNextFirstKey();
                 if (nextPageKey != null) {
-                    nextPage = getOrLoadPageForKey(nextPageKey);
+                    nextPage = takePrefetched(nextPageKey);
+                    if (nextPage == null) {
+                        nextPage = getOrLoadPageForKey(nextPageKey);
+                    }
+                    if (nextPage != null) {
+                        readAhead(nextPageKey);
+                    }
                 }
             }
         }
 
+        /**
+         * Returns the page for the key if it has been read ahead. The read-ahead
+         * window is discarded if it does not begin with the key.
+         */
+        @Nullable
+        private KeyValuePage<K, V> takePrefetched(K key) {
+            Prefetch head = prefetched.poll();
+            if (head == null) {
+                return null;
+            }
+            if (!head.key.equals(key)) {
+                head.future.cancel(false);
+                cancelPrefetched();
+                sequential = 0;
+                window = 0;
+                exhausted = false;
+                return null;
+            }
+            try {
+                return head.future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (Exception ex) {
+                log.debug("read-ahead of page {} failed", key, ex);
+                return null;
+            }
+        }
+
+        /**
+         * Cancels the pages that are still being read ahead. Cancelled reads
+         * release their share of the read-ahead budget.
+         */
+        void cancelPrefetched() {
+            for (Prefetch prefetch : prefetched) {
+                prefetch.future.cancel(false);
+            }
+            prefetched.clear();
+        }
+
+        private void readAhead(K current) {
+            if ((prefetchPages <= 0) || exhausted || (++sequential < prefetchTrigger)) {
+                return;
+            }
+            window = Math.min(prefetchPages, Math.max(1, window * 2));
+            byte[] lastKey = prefetched.isEmpty() ? keyCoder.keyEncode(current) : prefetched.peekLast().encodedKey;
+            while (prefetched.size() < window) {
+                byte[] encodedKey = pages.higherKey(lastKey);
+                if (encodedKey == null) {
+                    exhausted = true;
+                    return;
+                }
+                K key = keyCoder.keyDecode(encodedKey);
+                if ((end != null) && (compareKeys(key, end) >= 0)) {
+                    exhausted = true;
+                    return;
+                }
+                Future<KeyValuePage<K, V>> future = prefetchBudget.trySubmit(PrefetchPool.pool, prefetchPageEstimate, () -> {
+                    DecodedPage loaded = getPage(key);
+                    prefetchPageEstimate = loaded.originalByteSize;
+                    return loaded;
+                });
+                if (future == null) {
+                    return;
+                }
+                prefetched.add(new Prefetch(key, encodedKey, future));
+                lastKey = encodedKey;
+            }
+        }
+
         @Override
         public KeyValuePage<K, V> next() {
             if (hasNext()) {
@@ -550,9 +918,30 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         }
     }
 
+    private final class Prefetch {
+
+        final K key;
+        final byte[] encodedKey;
+        final Future<KeyValuePage<K, V>> future;
+
+        Prefetch(K key, byte[] encodedKey, Future<KeyValuePage<K, V>> future) {
+            this.key = key;
+            this.encodedKey = encodedKey;
+            this.future = future;
+        }
+    }
+
     public Iterator<Map.Entry<K, V>> range(K start) {
+        return range(start, null);
+    }
+
+    /**
+     * @param end if non-null then pages that begin at or after this key are not read ahead.
+     *            Iteration itself is not bounded by this key.
+     */
+    public Iterator<Map.Entry<K, V>> range(K start, @Nullable K end) {
         //create PageIterator (to get a stream of pages), then create a bounded iterator
-        return new BoundedIterator(getPageIterator(start), start);
+        return new BoundedIterator(new PageIterator(start, end), start);
     }
 
 
@@ -572,7 +961,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
 
         private K firstKey;
         //backing PageIterator (provides pages)
-        private Iterator<KeyValuePage<K, V>> pageIterator;
+        private PageIterator pageIterator;
         //backing ValueIterator (iterates over a page)
         private Iterator<Map.Entry<K, V>> valueIterator;
         //TreePage
@@ -581,7 +970,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         private Map.Entry<K, V> lastEntry;
         private Map.Entry<K, V> nextEntry;
 
-        BoundedIterator(Iterator<KeyValuePage<K, V>> iterator, K firstKey) {
+        BoundedIterator(PageIterator iterator, K firstKey) {
             this.pageIterator = iterator;
             this.firstKey = firstKey;
         }
@@ -610,8 +999,14 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
             }
         }
 
+        /**
+         * Stops the pages that are being read ahead for an iterator that is not exhausted.
+         */
         @Override
         public void close() {
+            if (pageIterator != null) {
+                pageIterator.cancelPrefetched();
+            }
         }
 
         @Override
@@ -640,6 +1035,14 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         return k1.compareTo(k2);
     }
 
+    /**
+     * Returns the first keys of at most {@code maxKeys} evenly spaced pages that begin after {@code from}
+     * and before {@code to}. Only page boundaries are read.
+     */
+    public List<K> pageKeys(K from, K to, int maxKeys) {
+        return PageKeys.sample(pages, keyCoder, this::compareKeys, from, to, maxKeys);
+    }
+
     public ExternalPagedStoreMetrics getMetrics() {
         return metrics;
     }
@@ -651,7 +1054,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
             byte[] encodedKey = pages.firstKey();
             K key = keyCoder.keyDecode(encodedKey);
             do {
-                KeyValuePage<K, V> newPage = loadingPageCache.get(key);
+                KeyValuePage<K, V> newPage = getPage(key);
                 byte[] encodedNextKey = pages.higherKey(encodedKey);
                 if (encodedNextKey != null) {
                     K nextKey = keyCoder.keyDecode(encodedNextKey);
@@ -18,6 +18,7 @@ import com.addthis.hydra.store.common.AbstractPageCache;
 import com.addthis.hydra.store.common.ExternalMode;
 import com.addthis.hydra.store.common.Page;
 import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.common.ZstdDictionary;
 import com.addthis.hydra.store.db.CloseOperation;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.KeyCoder;
@@ -60,6 +61,7 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
         // Optional parameters - initialized to default values;
         protected int maxPages = defaultMaxPages;
         protected PageFactory<K, V> pageFactory = NonConcurrentPage.NonConcurrentPageFactory.singleton;
+        protected ZstdDictionary dictionary = null;
 
         public Builder(KeyCoder<K, V> keyCoder, ByteStore store, int maxPageSize) {
             this.externalStore = store;
@@ -79,16 +81,26 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
             return this;
         }
 
+        public Builder<K, V> dictionary(ZstdDictionary value) {
+            dictionary = value;
+            return this;
+        }
+
         public NonConcurrentPageCache<K, V> build() {
             return new NonConcurrentPageCache<>(keyCoder, externalStore, maxPageSize,
-                    maxPages, pageFactory);
+                    maxPages, pageFactory, dictionary);
         }
 
     }
 
     public NonConcurrentPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
                                   int maxPages, PageFactory<K, V> pageFactory) {
-        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, false);
+        this(keyCoder, externalStore, maxPageSize, maxPages, pageFactory, null);
+    }
+
+    public NonConcurrentPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                                  int maxPages, PageFactory<K, V> pageFactory, ZstdDictionary dictionary) {
+        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, false, dictionary);
 
         log.info("[init] ro=" + isReadOnly() + " maxPageSize=" + maxPageSize +
                 " maxPages=" + maxPages + " gztype=" + NonConcurrentPage.gztype + " gzlevel=" +
@@ -160,6 +172,7 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
             if (startOffset < endOffset) {
                 int memEstimate = page.getMemoryEstimate();
                 int length = (endOffset - startOffset);
+                page.materialize();
                 for (int i = 0; i < length; i++) {
                     page.keys().remove(startOffset);
                     page.values().remove(startOffset);
@@ -213,6 +226,7 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
 
             page.fetchValue(offset);
 
+            page.materialize();
             page.keys().remove(offset);
             page.rawValues().remove(offset);
             V prev = page.values().remove(offset);
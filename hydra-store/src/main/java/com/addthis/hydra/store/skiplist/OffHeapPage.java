@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.skiplist;
+
+import javax.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+
+import java.nio.ByteBuffer;
+
+import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.AbstractPageCache;
+import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.kv.PageEncodeType;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Variant of {@link ConcurrentPage} that keeps the encoded values of a
+ * clean page in a single direct buffer instead of one byte array per entry.
+ * An offset table maps each position onto its value in the buffer and
+ * values are copied onto the heap only when {@link #fetchValue(int)} needs
+ * to decode them or the page is re-encoded.
+ * <p>
+ * Replacing the value of an existing key only detaches that entry. Inserting
+ * or removing keys shifts positions, so the cache calls {@link #materialize()}
+ * beforehand and the remaining values are copied onto the heap. The buffer
+ * is dropped when the page is evicted. Direct memory held by the pages of
+ * a cache is reported by the {@code offHeapMemory} gauge.
+ *
+ * @param <K> the key used to get/put values onto pages maintained by the cache
+ * @param <V> the value which must extend {@link BytesCodable}
+ */
+public class OffHeapPage<K, V extends BytesCodable> extends ConcurrentPage<K, V> {
+
+    /**
+     * Placeholder stored in {@link #rawValues()} for a value that resides
+     * in {@link #buffer}. Compared by identity only.
+     */
+    private static final byte[] OFF_HEAP = new byte[0];
+
+    @Nullable
+    private ByteBuf buffer;
+
+    /**
+     * Value at position i occupies [offsets[i], offsets[i + 1]) of the buffer.
+     */
+    @Nullable
+    private int[] offsets;
+
+    public OffHeapPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, encodeType);
+    }
+
+    public OffHeapPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, int size, ArrayList<K> keys,
+                       ArrayList<V> values, ArrayList<byte[]> rawValues, PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+    }
+
+    @Override
+    protected int decodeEntries(PageEncodeType encodeType, InputStream in, DataInputStream dis,
+                                K firstKey, int entries) throws IOException {
+        releaseBuffer();
+
+        ArrayList<K> keys = new ArrayList<>(entries);
+        ArrayList<V> values = new ArrayList<>(entries);
+        ArrayList<byte[]> rawValues = new ArrayList<>(entries);
+        int[] positions = new int[entries + 1];
+        ByteBuf staging = Unpooled.buffer();
+        int bytes = 0;
+
+        try {
+            for (int i = 0; i < entries; i++) {
+                byte[] kb = encodeType.readBytes(in, dis);
+                byte[] vb = encodeType.readBytes(in, dis);
+                bytes += kb.length + vb.length;
+                keys.add(keyCoder.keyDecode(kb, firstKey, encodeType));
+                values.add(null);
+                rawValues.add(OFF_HEAP);
+                positions[i] = staging.writerIndex();
+                staging.writeBytes(vb);
+            }
+            positions[entries] = staging.writerIndex();
+
+            int length = staging.readableBytes();
+            if (length > 0) {
+                // allocated through the JDK so that the memory is reclaimed by the garbage
+                // collector for pages that are decoded outside of the cache and never evicted
+                buffer = Unpooled.wrappedBuffer(ByteBuffer.allocateDirect(length)).clear();
+                buffer.writeBytes(staging);
+                parent.offHeapMemory.addAndGet(length);
+            } else {
+                buffer = Unpooled.EMPTY_BUFFER;
+            }
+            offsets = positions;
+        } finally {
+            staging.release();
+        }
+
+        setKeys(keys);
+        setValues(values);
+        super.setRawValues(rawValues);
+        return bytes;
+    }
+
+    @Override
+    protected byte[] rawValue(int position) {
+        byte[] rawValue = super.rawValue(position);
+        if (rawValue == OFF_HEAP) {
+            assert (buffer != null);
+            int start = offsets[position];
+            rawValue = new byte[offsets[position + 1] - start];
+            buffer.getBytes(start, rawValue);
+        }
+        return rawValue;
+    }
+
+    @Override
+    public void materialize() {
+        if (buffer == null) {
+            return;
+        }
+        ArrayList<byte[]> rawValues = rawValues();
+        if (rawValues != null) {
+            for (int i = 0; i < rawValues.size(); i++) {
+                if (rawValues.get(i) == OFF_HEAP) {
+                    rawValues.set(i, rawValue(i));
+                }
+            }
+        }
+        releaseBuffer();
+    }
+
+    /**
+     * The offset table is only meaningful for the list of raw
+     * values that it was built with. Replacing that list (as
+     * happens when the page is evicted) releases the buffer.
+     */
+    @Override
+    public void setRawValues(ArrayList<byte[]> rawValues) {
+        if (rawValues != rawValues()) {
+            releaseBuffer();
+        }
+        super.setRawValues(rawValues);
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            parent.offHeapMemory.addAndGet(-buffer.capacity());
+            buffer.release();
+            buffer = null;
+            offsets = null;
+        }
+    }
+
+    public static class OffHeapPageFactory<K, V extends BytesCodable> extends PageFactory<K, V> {
+
+        public static final OffHeapPageFactory singleton = new OffHeapPageFactory<>();
+
+        @Override
+        public TYPE getType() {
+            return TYPE.CONCURRENT;
+        }
+
+        private OffHeapPageFactory() {
+        }
+
+        @Override
+        protected OffHeapPage<K, V> newPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey,
+                                            PageEncodeType encodeType) {
+            return new OffHeapPage<>(cache, firstKey, nextFirstKey, encodeType);
+        }
+
+        @Override
+        protected OffHeapPage<K, V> newPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, int size,
+                                            ArrayList<K> keys, ArrayList<V> values, ArrayList<byte[]> rawValues,
+                                            PageEncodeType encodeType) {
+            return new OffHeapPage<>(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.addthis.hydra.store.common.AbstractPageCache;
 import com.addthis.hydra.store.common.ExternalMode;
 import com.addthis.hydra.store.common.Page;
 import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.common.ZstdDictionary;
 import com.addthis.hydra.store.db.CloseOperation;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.KeyCoder;
@@ -122,6 +123,7 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
         protected int maxPages = defaultMaxPages;
         @SuppressWarnings("unchecked")
         protected PageFactory<K, V> pageFactory = ConcurrentPage.ConcurrentPageFactory.singleton;
+        protected ZstdDictionary dictionary = null;
 
         public Builder(KeyCoder<K, V> keyCoder, ByteStore store, int maxPageSize) {
             this.externalStore = store;
@@ -146,9 +148,14 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
             return this;
         }
 
+        public Builder<K, V> dictionary(ZstdDictionary value) {
+            dictionary = value;
+            return this;
+        }
+
         public SkipListCache<K, V> build() {
             return new SkipListCache<>(keyCoder, externalStore, maxPageSize,
-                    maxPages, numEvictionThreads, pageFactory);
+                    maxPages, numEvictionThreads, pageFactory, dictionary);
         }
 
     }
@@ -156,7 +163,13 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
 
     public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
                          int maxPages, int numEvictionThreads, PageFactory<K, V> pageFactory) {
-        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, true);
+        this(keyCoder, externalStore, maxPageSize, maxPages, numEvictionThreads, pageFactory, null);
+    }
+
+    public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                         int maxPages, int numEvictionThreads, PageFactory<K, V> pageFactory,
+                         ZstdDictionary dictionary) {
+        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, true, dictionary);
 
         this.evictionTaskQueue = new LinkedBlockingQueue<>();
         this.purgeSet = new ConcurrentSkipListSet<>();
@@ -350,6 +363,7 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
                 if (startOffset < endOffset) {
                     int memEstimate = page.getMemoryEstimate();
                     int length = (endOffset - startOffset);
+                    page.materialize();
                     for (int i = 0; i < length; i++) {
                         page.keys().remove(startOffset);
                         page.values().remove(startOffset);
@@ -412,6 +426,7 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
 
                 page.fetchValue(offset);
 
+                page.materialize();
                 page.keys().remove(offset);
                 page.rawValues().remove(offset);
                 V prev = page.values().remove(offset);
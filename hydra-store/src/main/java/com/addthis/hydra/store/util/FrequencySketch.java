@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.util;
+
+/**
+ * Count-min sketch of 4-bit counters that estimates the recent access
+ * frequency of a key for TinyLFU admission. Every counter is halved once
+ * the number of increments reaches ten times the table size so that the
+ * estimates decay over time.
+ * <p/>
+ * Updates are not synchronized. A lost increment only perturbs an estimate
+ * so concurrent callers are tolerated.
+ * <p/>
+ * Shared by the admission policies of {@link SharedCache} and the striped node cache.
+ */
+public final class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                                         0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param capacity number of keys to track, rounded up to a multiple of sixteen counters
+     */
+    public FrequencySketch(int capacity) {
+        int length = Math.max(8, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        this.table = new long[length];
+        this.mask = length - 1;
+        this.sampleSize = 10 * length;
+    }
+
+    public void increment(int hashCode) {
+        int hash = spread(hashCode);
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            long counter = 0xfL << offset;
+            long value = table[index];
+            if ((value & counter) != counter) {
+                table[index] = value + (1L << offset);
+                added = true;
+            }
+        }
+        if (added && (++additions >= sampleSize)) {
+            reset();
+        }
+    }
+
+    /** Returns the estimated number of recent increments of the hash, at most fifteen. */
+    public int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int count = (int) ((table[indexOf(hash, i)] >>> counterOffset(hash, i)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = sampleSize / 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += (h >>> 32);
+        return ((int) h) & mask;
+    }
+
+    /** Each row selects one of the sixteen counters of a table entry. */
+    private static int counterOffset(int hash, int row) {
+        return ((hash >>> (row << 3)) & 0xf) << 2;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.store.util;
 
+import java.util.Arrays;
+
 import com.addthis.basis.util.LessBytes;
 
 import com.addthis.codec.annotations.FieldConfig;
@@ -164,6 +166,23 @@ public final class Raw implements Comparable<Raw>, BytesCodable {
         return UnsignedBytes.lexicographicalComparator().compare(raw, o.raw);
     }
 
+    /**
+     * Compares this value against {@code length} bytes of {@code other}
+     * starting at {@code offset} without wrapping them in a Raw.
+     */
+    public int compareTo(byte[] other, int offset, int length) {
+        if (longcompare) {
+            return compare(getLongs(), bytesToLong(Arrays.copyOfRange(other, offset, offset + length)));
+        }
+        for (int i = 0, l = Math.min(raw.length, length); i < l; i++) {
+            int cmp = UnsignedBytes.compare(raw[i], other[offset + i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return raw.length - length;
+    }
+
     private long[] getLongs() {
         if (compare == null) {
             compare = bytesToLong(raw);
@@ -0,0 +1,430 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+import com.addthis.basis.util.Parameter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A weight bounded cache that is shared by every read-only tree in the process.
+ * <p/>
+ * Each cache user (a page store or a node cache) obtains a {@link Partition} that is
+ * owned by a tenant, typically the directory of a job. Entries are keyed by (partition, key)
+ * so partitions never observe each other's values, but all of them compete for a single
+ * weight budget. Two policies sit on top of the weight bound:
+ * <ul>
+ * <li>admission: once the cache is nearly full a loaded value is only retained if a small
+ * frequency sketch has seen its key before. One-off scans therefore do not flush the
+ * working set of other tenants.</li>
+ * <li>fair share: a tenant may hold at most {@code fairShare} percent of an even split
+ * of the budget between the active tenants. A tenant over its share evicts its own
+ * oldest entries.</li>
+ * </ul>
+ * Hits, misses, evictions and resident weight are reported per tenant.
+ * <p/>
+ * Disabled unless {@code hydra.cache.shared.weight} is set.
+ */
+public final class SharedCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedCache.class);
+
+    /**
+     * Total weight of the process-wide cache. Zero disables the shared cache and every
+     * read-only tree falls back on its own caches.
+     */
+    private static final long sharedWeight = Parameter.longValue("hydra.cache.shared.weight", 0);
+
+    /**
+     * Largest portion of an even split of the budget that a single tenant may hold,
+     * as a percentage. Values above 100 let busy tenants borrow from idle ones.
+     */
+    private static final int fairSharePercent = Parameter.intValue("hydra.cache.shared.fairShare", 200);
+
+    /**
+     * Number of keys tracked by the admission frequency sketch.
+     */
+    private static final int sketchSize = Parameter.intValue("hydra.cache.shared.sketchSize", 1 << 20);
+
+    /**
+     * Percentage of the total weight above which keys that have not been seen before
+     * are not admitted. The underlying cache evicts each of its segments separately
+     * and so keeps the total somewhat below the limit.
+     */
+    private static final int admissionPercent = Parameter.intValue("hydra.cache.shared.admission", 90);
+
+    @Nullable
+    private static final SharedCache processCache =
+            (sharedWeight > 0) ? new SharedCache(sharedWeight, fairSharePercent, sketchSize, true) : null;
+
+    /**
+     * Returns the process-wide cache or null if it has not been enabled.
+     */
+    @Nullable
+    public static SharedCache processCache() {
+        return processCache;
+    }
+
+    private final long maxWeight;
+    private final long admissionWeight;
+    private final int fairShare;
+    private final boolean reportMetrics;
+    private final Cache<Key<?>, Resident> cache;
+    private final FrequencySketch sketch;
+    private final AtomicLong weight = new AtomicLong();
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    public SharedCache(long maxWeight, int fairShare, int sketchSize, boolean reportMetrics) {
+        this(maxWeight, fairShare, sketchSize, admissionPercent, reportMetrics);
+    }
+
+    SharedCache(long maxWeight, int fairShare, int sketchSize, int admissionPercent, boolean reportMetrics) {
+        this.maxWeight = maxWeight;
+        this.admissionWeight = (maxWeight * admissionPercent) / 100;
+        this.fairShare = fairShare;
+        this.reportMetrics = reportMetrics;
+        this.sketch = new FrequencySketch(sketchSize);
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumWeight(maxWeight)
+                                 .weigher((Key<?> key, Resident value) -> value.weight)
+                                 .removalListener(this::onRemoval)
+                                 .build();
+        if (reportMetrics) {
+            Metrics.newGauge(SharedCache.class, "weight", new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return weight.get();
+                }
+            });
+            Metrics.newGauge(SharedCache.class, "entries", new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return cache.size();
+                }
+            });
+            Metrics.newGauge(SharedCache.class, "tenants", new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return tenants.size();
+                }
+            });
+        }
+        log.info("[init] maxWeight={} fairShare={} sketchSize={} admissionWeight={}",
+                 maxWeight, fairShare, sketchSize, admissionWeight);
+    }
+
+    /**
+     * Creates a new partition of the cache. The partition must be closed
+     * to release its entries and its share of the budget.
+     *
+     * @param tenant  owner of the partition used for fair share and metrics
+     * @param weigher weight of a loaded value
+     */
+    public <K, V> Partition<K, V> partition(String tenant, ToIntFunction<? super V> weigher) {
+        Tenant owner = tenants.compute(tenant, (name, current) -> {
+            if (current == null) {
+                current = new Tenant(name);
+            }
+            current.references++;
+            return current;
+        });
+        return new Partition<>(owner, weigher);
+    }
+
+    public long weight() {
+        return weight.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Weight that a single tenant may hold before it evicts its own entries.
+     */
+    long tenantShare() {
+        long share = (maxWeight / Math.max(1, tenants.size())) * fairShare / 100;
+        return Math.min(maxWeight, share);
+    }
+
+    private void release(Tenant tenant) {
+        tenants.computeIfPresent(tenant.name, (name, current) -> {
+            if (--current.references == 0) {
+                current.unregister();
+                return null;
+            }
+            return current;
+        });
+    }
+
+    private void onRemoval(RemovalNotification<Key<?>, Resident> notification) {
+        Resident resident = notification.getValue();
+        Partition<?, ?> partition = notification.getKey().partition;
+        weight.addAndGet(-resident.weight);
+        partition.tenant.weight.addAndGet(-resident.weight);
+        partition.entries.decrementAndGet();
+        if (notification.wasEvicted()) {
+            partition.tenant.evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Portion of the shared cache that belongs to a single cache user.
+     */
+    public final class Partition<K, V> implements Closeable {
+
+        private final Tenant tenant;
+        private final ToIntFunction<? super V> weigher;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        /**
+         * Keys in the order they were loaded. May contain keys that have since been
+         * evicted, which are discarded when the queue grows too far beyond {@link #entries}.
+         */
+        private final Queue<Key<K>> loaded = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger entries = new AtomicInteger();
+        private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+        private Partition(Tenant tenant, ToIntFunction<? super V> weigher) {
+            this.tenant = tenant;
+            this.weigher = weigher;
+        }
+
+        /**
+         * Returns the cached value for the key or invokes the loader. The loaded value is
+         * retained if it passes admission. Exceptions thrown by the loader are wrapped
+         * as they would be by {@link Cache#get(Object, Callable)}.
+         */
+        @SuppressWarnings("unchecked")
+        public V get(K key, Callable<? extends V> loader) throws ExecutionException {
+            if (closed.get()) {
+                return call(loader);
+            }
+            Key<K> cacheKey = new Key<>(this, key);
+            sketch.increment(cacheKey.hashCode());
+            Resident resident = cache.getIfPresent(cacheKey);
+            if (resident != null) {
+                tenant.hits.incrementAndGet();
+                return (V) resident.value;
+            }
+            V preloaded = null;
+            if (sketch.frequency(cacheKey.hashCode()) <= 1) {
+                // the weight of a value is only known once it is loaded
+                preloaded = call(loader);
+                if ((weight.get() + weigher.applyAsInt(preloaded)) > admissionWeight) {
+                    tenant.misses.incrementAndGet();
+                    tenant.rejections.incrementAndGet();
+                    return preloaded;
+                }
+            }
+            V admitted = preloaded;
+            AtomicBoolean missed = new AtomicBoolean(false);
+            resident = cache.get(cacheKey, () -> {
+                missed.set(true);
+                V value = (admitted != null) ? admitted : loader.call();
+                int valueWeight = weigher.applyAsInt(value);
+                weight.addAndGet(valueWeight);
+                tenant.weight.addAndGet(valueWeight);
+                entries.incrementAndGet();
+                loaded.add(cacheKey);
+                queued.incrementAndGet();
+                return new Resident(value, valueWeight);
+            });
+            if (missed.get()) {
+                tenant.misses.incrementAndGet();
+                enforceShare();
+            } else {
+                tenant.hits.incrementAndGet();
+            }
+            return (V) resident.value;
+        }
+
+        /**
+         * Returns a weakly consistent snapshot of the keys resident in this partition.
+         */
+        public List<K> keys() {
+            List<K> keys = new ArrayList<>(entries.get());
+            for (Key<K> key : loaded) {
+                if (cache.asMap().containsKey(key)) {
+                    keys.add(key.key);
+                }
+            }
+            return keys;
+        }
+
+        public long weight() {
+            return tenant.weight.get();
+        }
+
+        private V call(Callable<? extends V> loader) throws ExecutionException {
+            try {
+                return loader.call();
+            } catch (Exception ex) {
+                throw new ExecutionException(ex);
+            }
+        }
+
+        private void enforceShare() {
+            long share = tenantShare();
+            while (tenant.weight.get() > share) {
+                Key<K> oldest = loaded.poll();
+                if (oldest == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                cache.invalidate(oldest);
+            }
+            if ((queued.get() > ((2 * entries.get()) + 64)) && compacting.compareAndSet(false, true)) {
+                try {
+                    Iterator<Key<K>> iterator = loaded.iterator();
+                    while (iterator.hasNext()) {
+                        if (!cache.asMap().containsKey(iterator.next())) {
+                            iterator.remove();
+                            queued.decrementAndGet();
+                        }
+                    }
+                } finally {
+                    compacting.set(false);
+                }
+            }
+        }
+
+        /**
+         * Invalidates every entry of the partition and releases its tenant.
+         */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            Key<K> key;
+            while ((key = loaded.poll()) != null) {
+                cache.invalidate(key);
+            }
+            release(tenant);
+        }
+    }
+
+    /**
+     * Accounting for all of the partitions that belong to the same owner.
+     * The reference count is guarded by {@link #tenants}.
+     */
+    private final class Tenant {
+
+        final String name;
+        final AtomicLong weight = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong rejections = new AtomicLong();
+        final List<MetricName> metricNames = new ArrayList<>();
+        int references;
+
+        Tenant(String name) {
+            this.name = name;
+            if (reportMetrics) {
+                register("weight", weight);
+                register("hits", hits);
+                register("misses", misses);
+                register("evictions", evictions);
+                register("rejections", rejections);
+            }
+        }
+
+        private void register(String metric, AtomicLong counter) {
+            MetricName metricName = new MetricName(SharedCache.class, metric, name.replaceAll("[,=:*?\"\\s]", "_"));
+            metricNames.add(metricName);
+            Metrics.newGauge(metricName, new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return counter.get();
+                }
+            });
+        }
+
+        void unregister() {
+            for (MetricName metricName : metricNames) {
+                Metrics.defaultRegistry().removeMetric(metricName);
+            }
+        }
+    }
+
+    private static final class Key<K> {
+
+        final Partition<K, ?> partition;
+        final K key;
+        final int hash;
+
+        Key(Partition<K, ?> partition, K key) {
+            this.partition = partition;
+            this.key = key;
+            this.hash = (31 * System.identityHashCode(partition)) + key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key<?> other = (Key<?>) obj;
+                return (partition == other.partition) && key.equals(other.key);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Resident {
+
+        @Nonnull final Object value;
+        final int weight;
+
+        Resident(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
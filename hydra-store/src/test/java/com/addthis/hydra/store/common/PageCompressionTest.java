@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PageCompressionTest {
+
+    private static byte[] page(int seed) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            builder.append("node-").append(seed + i).append("|hits=").append(i * 7).append("|nodes=0;");
+        }
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] roundTrip(int gztype, byte[] input, ZstdDictionary dictionary,
+                                    ByteArrayOutputStream compressed) throws IOException {
+        OutputStream os = PageCompression.compress(gztype, compressed, 1, 1024, dictionary);
+        os.write(input);
+        PageCompression.finish(os);
+        os.flush();
+        os.close();
+        InputStream in = PageCompression.decompress(gztype, new ByteArrayInputStream(compressed.toByteArray()),
+                                                    dictionary);
+        return ByteStreams.toByteArray(in);
+    }
+
+    @Test
+    public void allTypes() throws IOException {
+        byte[] input = page(0);
+        for (int gztype = PageCompression.NONE; gztype <= PageCompression.ZSTD; gztype++) {
+            assertArrayEquals("gztype " + gztype, input, roundTrip(gztype, input, null, new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    public void dictionary() throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            samples.add(page(i * 50));
+        }
+        ZstdDictionary dictionary = ZstdDictionary.train(samples, 16 * 1024, 1);
+        assertNotNull(dictionary);
+        byte[] input = page(1000000);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ByteArrayOutputStream trained = new ByteArrayOutputStream();
+        assertArrayEquals(input, roundTrip(PageCompression.ZSTD, input, null, plain));
+        assertArrayEquals(input, roundTrip(PageCompression.ZSTD, input, dictionary, trained));
+        assertTrue(trained.size() < plain.size());
+        // frames written without a dictionary remain readable once a dictionary exists
+        InputStream in = PageCompression.decompress(PageCompression.ZSTD,
+                                                    new ByteArrayInputStream(plain.toByteArray()), dictionary);
+        assertArrayEquals(input, ByteStreams.toByteArray(in));
+    }
+}
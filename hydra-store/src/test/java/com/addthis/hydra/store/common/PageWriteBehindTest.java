@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.store.kv.ByteStore;
+import com.addthis.hydra.store.kv.MapDbByteStore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PageWriteBehindTest {
+
+    private static byte[] bytes(int input) {
+        return String.format("%05d", input).getBytes();
+    }
+
+    @Test
+    public void pendingPagesShadowStore() throws IOException {
+        File dir = LessFiles.createTempDir();
+        ByteStore store = new MapDbByteStore(dir, "test");
+        // a long interval keeps the background writer out of the way
+        PageWriteBehind writeBehind = new PageWriteBehind(store, "test", Long.MAX_VALUE, 4, 60000);
+        try {
+            store.put(bytes(1), bytes(0));
+            writeBehind.put(bytes(1), bytes(1));
+            writeBehind.put(bytes(2), bytes(2));
+            assertArrayEquals(bytes(0), store.get(bytes(1)));
+            assertArrayEquals(bytes(1), writeBehind.get(bytes(1)));
+            assertEquals(20, writeBehind.pendingBytes());
+
+            writeBehind.delete(bytes(2));
+            assertNull(writeBehind.get(bytes(2)));
+            writeBehind.commit();
+            assertEquals(0, writeBehind.pendingBytes());
+            assertNull(writeBehind.get(bytes(1)));
+            assertArrayEquals(bytes(1), store.get(bytes(1)));
+            assertNull(store.get(bytes(2)));
+        } finally {
+            writeBehind.close();
+            store.close();
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void backlogBound() throws IOException {
+        File dir = LessFiles.createTempDir();
+        ByteStore store = new MapDbByteStore(dir, "test");
+        PageWriteBehind writeBehind = new PageWriteBehind(store, "test", 100, 4, 60000);
+        try {
+            for (int i = 0; i < 100; i++) {
+                writeBehind.put(bytes(i), bytes(i));
+                assertTrue(writeBehind.pendingBytes() <= 100);
+            }
+            assertTrue(writeBehind.stalls.get() > 0);
+            writeBehind.close();
+            for (int i = 0; i < 100; i++) {
+                assertArrayEquals(bytes(i), store.get(bytes(i)));
+            }
+        } finally {
+            store.close();
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
@@ -13,9 +13,14 @@
  */
 package com.addthis.hydra.store.db;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class DBKeyTest {
 
@@ -46,4 +51,70 @@ public class DBKeyTest {
         DBKey output = DBKey.fromBytes(serialization);
         assertEquals(input, output);
     }
+
+    @Test
+    public void encodedComparison() {
+        DBKey[] keys = {new DBKey(0, ""), new DBKey(0, "a"), new DBKey(1, ""), new DBKey(1, "foo"),
+                        new DBKey(1, "foobar"), new DBKey(1, "fop"), new DBKey(Integer.MAX_VALUE, "bar"),
+                        new DBKey(Integer.MAX_VALUE + 1l, ""), new DBKey(Integer.MAX_VALUE + 1l, "z")};
+        DBKey base = new DBKey(1, "");
+        for (DBKey left : keys) {
+            for (DBKey right : keys) {
+                int expected = Integer.signum(left.compareTo(right));
+                byte[] bytes = pad(right.toBytes());
+                byte[] delta = pad(right.deltaEncode(base));
+                assertEquals(expected, Integer.signum(left.compareToBytes(bytes, 3, bytes.length - 6)));
+                assertEquals(expected, Integer.signum(
+                        left.compareToDeltaEncoding(delta, 3, delta.length - 6, base)));
+            }
+        }
+    }
+
+    @Test
+    public void numericNames() {
+        long[] values = {0, 1, -1, 9, 10, 20141231, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            byte[] bytes = DBKey.decimalBytes(value);
+            assertArrayEquals(Long.toString(value).getBytes(), bytes);
+            assertTrue(DBKey.isCanonicalLong(bytes));
+            assertEquals(value, DBKey.parseLong(bytes));
+        }
+        String[] invalid = {"", "-", "-0", "01", "+1", "1a", "9223372036854775808", "-9223372036854775809"};
+        for (String value : invalid) {
+            assertFalse(value, DBKey.isCanonicalLong(value.getBytes()));
+        }
+    }
+
+    @Test
+    public void numericDeltaEncoding() {
+        DBKey[] keys = {new DBKey(0, ""), new DBKey(1, ""), DBKey.numeric(1, -5), DBKey.numeric(1, 0),
+                        new DBKey(1, "007"), DBKey.numeric(1, 10), DBKey.numeric(1, 20141231),
+                        DBKey.numeric(1, 9), new DBKey(1, "foo"), DBKey.numeric(Integer.MAX_VALUE, Long.MIN_VALUE),
+                        DBKey.numeric(Integer.MAX_VALUE + 1l, Long.MAX_VALUE)};
+        DBKey[] bases = {new DBKey(1, ""), DBKey.numeric(1, 20141201), new DBKey(1, "foo")};
+        for (DBKey base : bases) {
+            for (DBKey left : keys) {
+                byte[] encoded = left.deltaEncodeNumeric(base);
+                assertEquals(left, DBKey.deltaDecodeNumeric(encoded, base));
+                for (DBKey right : keys) {
+                    int expected = Integer.signum(left.compareTo(right));
+                    byte[] delta = pad(right.deltaEncodeNumeric(base));
+                    assertEquals(expected, Integer.signum(
+                            left.compareToNumericDeltaEncoding(delta, 3, delta.length - 6, base)));
+                }
+            }
+        }
+        assertTrue(DBKey.numeric(1, 20141231).deltaEncodeNumeric(bases[1]).length <
+                   DBKey.numeric(1, 20141231).deltaEncode(bases[1]).length);
+    }
+
+    /**
+     * Surround an encoding with bytes that must be ignored by the comparison.
+     */
+    private static byte[] pad(byte[] encoding) {
+        byte[] result = new byte[encoding.length + 6];
+        Arrays.fill(result, (byte) 0xff);
+        System.arraycopy(encoding, 0, result, 3, encoding.length);
+        return result;
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.db;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.store.DBIntValue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadPageDBTest {
+
+    public static class WeighedIntValue extends DBIntValue implements IReadWeighable {
+
+        private int weight;
+
+        public WeighedIntValue(Integer val) {
+            super(val);
+        }
+
+        public WeighedIntValue() {
+        }
+
+        @Override
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        @Override
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    private static DBKey key(int i) {
+        return new DBKey(0, String.format("%06d", i));
+    }
+
+    /**
+     * Scans many small pages so that the page iterator reads ahead.
+     */
+    @Test
+    public void rangeAcrossPages() throws IOException {
+        File dir = LessFiles.createTempDir();
+        try {
+            PageDB<WeighedIntValue> writer = new PageDB<>(dir, WeighedIntValue.class, 8, 50);
+            for (int i = 0; i < 5000; i++) {
+                writer.put(key(i), new WeighedIntValue(i));
+            }
+            writer.close();
+            ReadPageDB<WeighedIntValue> reader = new ReadPageDB<>(dir, WeighedIntValue.class, 10, 0);
+            Iterator<Map.Entry<DBKey, WeighedIntValue>> range = reader.range(key(100), key(4000)).iterator();
+            int expected = 100;
+            while (range.hasNext()) {
+                Map.Entry<DBKey, WeighedIntValue> entry = range.next();
+                assertEquals(key(expected), entry.getKey());
+                assertEquals(expected, entry.getValue().getVal().intValue());
+                expected++;
+            }
+            assertEquals(4000, expected);
+            reader.close();
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
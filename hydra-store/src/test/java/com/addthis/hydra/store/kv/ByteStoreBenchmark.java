@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.hydra.store.kv;
+
+import java.io.File;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.google.common.primitives.Longs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the page store access patterns of the BerkeleyDB and log structured
+ * byte stores. Keys mimic encoded page keys (an 8 byte id followed by a short
+ * suffix) and values are page sized. Run with {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ByteStoreBenchmark {
+
+    @Param({"bdb", "lsm"})
+    public String store;
+
+    @Param({"100000"})
+    public int pages;
+
+    private File dir;
+    private ByteStore byteStore;
+    private byte[][] values;
+
+    private static byte[] key(long id) {
+        byte[] key = new byte[12];
+        System.arraycopy(Longs.toByteArray(id), 0, key, 0, 8);
+        key[8] = 'p';
+        key[9] = 'a';
+        key[10] = 'g';
+        key[11] = 'e';
+        return key;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = LessFiles.createTempDir();
+        values = new byte[16][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new byte[1024 + ThreadLocalRandom.current().nextInt(3 * 1024)];
+            ThreadLocalRandom.current().nextBytes(values[i]);
+        }
+        ByteStore loader = open();
+        for (long i = 0; i < pages; i++) {
+            // leave gaps between the keys so that floor lookups can miss
+            loader.put(key(i * 2), values[(int) (i % values.length)]);
+        }
+        loader.close();
+        byteStore = open();
+    }
+
+    private ByteStore open() {
+        switch (store) {
+            case "bdb":
+                return new ConcurrentByteStoreBDB(dir, "bench");
+            case "lsm":
+                return new LogStructuredByteStore(dir, "bench");
+            default:
+                throw new IllegalArgumentException("unknown store " + store);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        byteStore.close();
+        LessFiles.deleteDir(dir);
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return byteStore.get(key(ThreadLocalRandom.current().nextLong(pages) * 2));
+    }
+
+    @Benchmark
+    public Map.Entry<byte[], byte[]> floorEntry() {
+        return byteStore.floorEntry(key((ThreadLocalRandom.current().nextLong(pages) * 2) + 1));
+    }
+
+    @Benchmark
+    public byte[] higherKey() {
+        return byteStore.higherKey(key(ThreadLocalRandom.current().nextLong(pages) * 2));
+    }
+
+    @Benchmark
+    public void put() {
+        int next = ThreadLocalRandom.current().nextInt(pages);
+        byteStore.put(key(next * 2L), values[next % values.length]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(ByteStoreBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
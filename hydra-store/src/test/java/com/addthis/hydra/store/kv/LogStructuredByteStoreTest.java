@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.hydra.store.kv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.util.Iterator;
+
+import com.addthis.basis.util.LessFiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class LogStructuredByteStoreTest extends AbstractByteStoreTest {
+
+    private static byte[] createBytes(int input) {
+        return String.format("%05d", input).getBytes();
+    }
+
+    @Override
+    public ByteStore createByteStore(File dir, String name) {
+        return new LogStructuredByteStore(dir, name);
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        File tempDir = LessFiles.createTempDir();
+        try {
+            // every close flushes a segment, odd keys are deleted by the second segment
+            ByteStore store = new LogStructuredByteStore(tempDir, "test");
+            for (int i = 0; i < 1000; i++) {
+                store.put(createBytes(i), createBytes(1000 - i));
+            }
+            store.close();
+            store = new LogStructuredByteStore(tempDir, "test");
+            for (int i = 1; i < 1000; i += 2) {
+                store.delete(createBytes(i));
+            }
+            store.close();
+            store = new LogStructuredByteStore(tempDir, "test", true);
+            assertEquals(500, store.count());
+            assertArrayEquals(createBytes(0), store.firstKey());
+            assertArrayEquals(createBytes(998), store.lastKey());
+            assertArrayEquals(createBytes(1000), store.firstEntry());
+            assertNull(store.get(createBytes(501)));
+            assertArrayEquals(createBytes(500), store.floorKey(createBytes(501)));
+            assertArrayEquals(createBytes(502), store.higherKey(createBytes(500)));
+            assertArrayEquals(createBytes(498), store.lowerKey(createBytes(500)));
+            assertArrayEquals(createBytes(500), store.floorEntry(createBytes(501)).getValue());
+            Iterator<byte[]> keys = store.keyIterator(createBytes(995));
+            assertArrayEquals(createBytes(996), keys.next());
+            assertArrayEquals(createBytes(998), keys.next());
+            assertFalse(keys.hasNext());
+            store.close();
+        } finally {
+            LessFiles.deleteDir(tempDir);
+        }
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        File tempDir = LessFiles.createTempDir();
+        try {
+            for (int round = 0; round < 5; round++) {
+                ByteStore store = new LogStructuredByteStore(tempDir, "test");
+                for (int i = round; i < 100; i += 5) {
+                    store.put(createBytes(i), createBytes(round));
+                }
+                store.delete(createBytes(round * 5));
+                store.close(round == 4);
+            }
+            File[] segments = tempDir.listFiles((dir, name) -> name.endsWith(".seg"));
+            assertEquals(1, segments.length);
+            ByteStore store = new LogStructuredByteStore(tempDir, "test", true);
+            assertEquals(95, store.count());
+            assertNull(store.get(createBytes(10)));
+            assertArrayEquals(createBytes(1), store.get(createBytes(11)));
+            assertArrayEquals(createBytes(4), store.get(createBytes(99)));
+            store.close();
+        } finally {
+            LessFiles.deleteDir(tempDir);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void writersWaitForPendingFlush() throws Exception {
+        File tempDir = LessFiles.createTempDir();
+        try {
+            // every entry is 10 bytes so writers keep finding a full memtable while the previous one flushes
+            ByteStore store = new LogStructuredByteStore(tempDir, "test", false, 100);
+            Thread[] writers = new Thread[2];
+            for (int w = 0; w < writers.length; w++) {
+                int first = w;
+                writers[w] = new Thread(() -> {
+                    for (int i = first; i < 2000; i += writers.length) {
+                        store.put(createBytes(i), createBytes(2000 - i));
+                    }
+                });
+                writers[w].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(2000, store.count());
+            // repeated lookups in the same blocks are served by the block cache
+            for (int i = 0; i < 2000; i++) {
+                assertArrayEquals(createBytes(2000 - i), store.get(createBytes(i)));
+                assertArrayEquals(createBytes(2000 - i), store.get(createBytes(i)));
+            }
+            store.close();
+        } finally {
+            LessFiles.deleteDir(tempDir);
+        }
+    }
+
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void readAfterClose() throws IOException {
+        File tempDir = LessFiles.createTempDir();
+        try {
+            ByteStore store = new LogStructuredByteStore(tempDir, "test");
+            store.put(createBytes(0), createBytes(1));
+            store.close();
+            store.get(createBytes(0));
+        } finally {
+            LessFiles.deleteDir(tempDir);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failedFlushRefusesWrites() throws Exception {
+        File tempDir = LessFiles.createTempDir();
+        // every entry is 10 bytes so the memtable rotates after ten puts
+        ByteStore store = new LogStructuredByteStore(tempDir, "test", false, 100);
+        store.put(createBytes(0), createBytes(0));
+        // segments can no longer be created once the directory is gone
+        LessFiles.deleteDir(tempDir);
+        int i = 1;
+        try {
+            while (true) {
+                store.put(createBytes(i), createBytes(i));
+                i++;
+                Thread.sleep(1);
+            }
+        } catch (IllegalStateException expected) {
+            assertEquals(UncheckedIOException.class, expected.getCause().getClass());
+        }
+        // entries of the memtable that failed to flush are still readable
+        assertArrayEquals(createBytes(0), store.get(createBytes(0)));
+        assertArrayEquals(createBytes(i - 1), store.get(createBytes(i - 1)));
+        try {
+            store.close();
+            fail("close should retry the failed flush");
+        } catch (UncheckedIOException expected) {
+        }
+        try {
+            store.get(createBytes(0));
+            fail("store should be closed");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrefetchBudgetTest {
+
+    /** A completed task releases its estimate just after its result becomes visible to get(). */
+    private static long awaitDrained(PrefetchBudget budget) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((budget.inFlight() != 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(1);
+        }
+        return budget.inFlight();
+    }
+
+    @Test
+    public void cancelledBeforeRunningIsReleased() throws Exception {
+        PrefetchBudget budget = new PrefetchBudget(1000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            // keeps the only thread busy so the next submissions stay queued
+            Future<Integer> running = budget.trySubmit(executor, 100, () -> {
+                blocked.await();
+                return 0;
+            });
+            assertNotNull(running);
+            List<Future<Integer>> queued = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                int value = i;
+                queued.add(budget.trySubmit(executor, 100, () -> value));
+            }
+            assertEquals(600, budget.inFlight());
+            for (Future<Integer> future : queued) {
+                assertTrue(future.cancel(false));
+            }
+            assertEquals(100, budget.inFlight());
+            blocked.countDown();
+            running.get(10, TimeUnit.SECONDS);
+            assertEquals(0, awaitDrained(budget));
+        } finally {
+            blocked.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void overBudgetIsNotSubmitted() throws Exception {
+        PrefetchBudget budget = new PrefetchBudget(150);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            Future<Integer> first = budget.trySubmit(executor, 100, () -> {
+                blocked.await();
+                return 1;
+            });
+            assertNotNull(first);
+            assertNull(budget.trySubmit(executor, 100, () -> 2));
+            assertEquals(100, budget.inFlight());
+            blocked.countDown();
+            assertEquals(1, (int) first.get(10, TimeUnit.SECONDS));
+            assertEquals(0, awaitDrained(budget));
+        } finally {
+            blocked.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.skiplist;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.store.DBIntValue;
+import com.addthis.hydra.store.kv.ByteStore;
+import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestOffHeapPage {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPutGetRemove() throws IOException {
+        File directory = Files.createTempDirectory("offheap").toFile();
+        try {
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 25)
+                            .maxPages(10).pageFactory(OffHeapPage.OffHeapPageFactory.singleton).build();
+
+            for (int i = 0; i < 10000; i++) {
+                assertNull(cache.put(i, new DBIntValue(10000 - i)));
+            }
+            // pages are evicted and reloaded as off-heap pages
+            for (int i = 0; i < 10000; i++) {
+                assertEquals(new Integer(10000 - i), cache.get(i).getVal());
+            }
+            for (int i = 0; i < 10000; i += 2) {
+                assertEquals(new Integer(10000 - i), cache.put(i, new DBIntValue(i)).getVal());
+            }
+            for (int i = 0; i < 10000; i += 3) {
+                cache.remove(i);
+            }
+            for (int i = 0; i < 10000; i++) {
+                if (i % 3 == 0) {
+                    assertNull(cache.get(i));
+                } else if (i % 2 == 0) {
+                    assertEquals(new Integer(i), cache.get(i).getVal());
+                } else {
+                    assertEquals(new Integer(10000 - i), cache.get(i).getVal());
+                }
+            }
+
+            cache.waitForShutdown();
+
+            assertEquals(0, cache.getMemoryEstimate());
+            assertEquals(0, cache.offHeapMemory.get());
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIntegrityReleasesPages() throws IOException {
+        File directory = Files.createTempDirectory("offheap").toFile();
+        try {
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 25)
+                            .maxPages(10).pageFactory(OffHeapPage.OffHeapPageFactory.singleton).build();
+
+            for (int i = 0; i < 10000; i++) {
+                assertNull(cache.put(i, new DBIntValue(i)));
+            }
+            // every page in the external store is decoded outside of the cache
+            assertEquals(0, cache.testIntegrity(false));
+
+            cache.waitForShutdown();
+
+            assertEquals(0, cache.offHeapMemory.get());
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedCacheTest {
+
+    @Test
+    public void hitsAndClose() throws Exception {
+        SharedCache cache = new SharedCache(1000, 100, 1024, false);
+        SharedCache.Partition<Integer, String> first = cache.partition("first", String::length);
+        SharedCache.Partition<Integer, String> second = cache.partition("second", String::length);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            int key = i;
+            assertEquals("a" + i, first.get(i, () -> {
+                loads.incrementAndGet();
+                return "a" + key;
+            }));
+            assertEquals("b" + i, second.get(i, () -> "b" + key));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("a" + i, first.get(i, () -> "missing"));
+        }
+        assertEquals(10, loads.get());
+        assertEquals(10, first.keys().size());
+        assertEquals(20, first.weight());
+        first.close();
+        assertEquals(20, cache.weight());
+        assertEquals(10, cache.size());
+        second.close();
+        assertEquals(0, cache.weight());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void fairShare() throws Exception {
+        SharedCache cache = new SharedCache(1000, 100, 1024, false);
+        SharedCache.Partition<Integer, String> pages = cache.partition("job", value -> 1);
+        SharedCache.Partition<Integer, String> nodes = cache.partition("job", value -> 1);
+        SharedCache.Partition<Integer, String> other = cache.partition("other", value -> 1);
+        assertEquals(500, cache.tenantShare());
+        for (int i = 0; i < 1000; i++) {
+            pages.get(i, () -> "page");
+            nodes.get(i, () -> "node");
+        }
+        other.get(0, () -> "other");
+        assertTrue(pages.weight() <= 500);
+        assertEquals(pages.weight(), nodes.weight());
+        assertEquals(1, other.weight());
+        other.close();
+        assertEquals(1000, cache.tenantShare());
+        pages.close();
+        nodes.close();
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void oneHitKeysAreRejectedWhenFull() throws Exception {
+        // small enough for the underlying cache to use a single segment, admission stops at 17
+        SharedCache cache = new SharedCache(19, 100, 1024, 90, false);
+        SharedCache.Partition<Integer, String> partition = cache.partition("job", value -> 1);
+        for (int i = 0; i < 20; i++) {
+            partition.get(i, () -> "page");
+        }
+        assertEquals(17, cache.size());
+        assertEquals(17, cache.weight());
+        AtomicInteger loads = new AtomicInteger();
+        assertEquals("scan", partition.get(100, () -> {
+            loads.incrementAndGet();
+            return "scan";
+        }));
+        assertEquals(1, loads.get());
+        assertEquals(17, cache.size());
+        // the second request is no longer a one-hit key
+        assertEquals("scan", partition.get(100, () -> {
+            loads.incrementAndGet();
+            return "scan";
+        }));
+        assertEquals(2, loads.get());
+        assertEquals(18, cache.size());
+        assertEquals("scan", partition.get(100, () -> "missing"));
+        partition.close();
+    }
+}
@@ -15,12 +15,19 @@ package com.addthis.hydra.task.map;
 
 import javax.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import java.text.DecimalFormat;
 
@@ -28,12 +35,12 @@ import com.addthis.basis.util.LessStrings;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.core.Bundle;
-import com.addthis.bundle.core.list.ListBundle;
 import com.addthis.bundle.util.AutoField;
 import com.addthis.bundle.util.ValueUtil;
 import com.addthis.hydra.common.hash.PluggableHashFunction;
 import com.addthis.hydra.task.source.TaskDataSource;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 
 import com.yammer.metrics.Metrics;
@@ -42,16 +49,36 @@ import com.yammer.metrics.core.Meter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Reads bundles from the source and hands them to the mapper threads, sharding them by the
+ * source's shard field (or bundle hash) so that bundles of the same shard go to the same thread.
+ * <p/>
+ * Bundles are handed over in batches of up to {@code task.queue.batch} per mapper queue. A
+ * partial batch is handed over once it has waited {@code task.queue.batch.delay} milliseconds,
+ * or when the source ends. The delay is checked as bundles are read and by a timer, so a source
+ * that blocks in {@link TaskDataSource#next()} does not hold back bundles that were already read.
+ * The timer is shared by every feeder in the process and never waits on a full mapper queue.
+ * <p/>
+ * If the source allows concurrent reads (see {@link TaskDataSource#isConcurrent()}) then
+ * {@code task.feeder.threads} threads read it. Each of them batches separately, so bundles
+ * with the same shard key can then reach their mapper out of source order.
+ */
 public final class MapFeeder implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(MapFeeder.class);
 
-    private static final Bundle TERM_BUNDLE = new ListBundle();
+    private static final Bundle[] TERM_BATCH = new Bundle[0];
     private static final DecimalFormat timeFormat = new DecimalFormat("#,###.00");
     private static final DecimalFormat countFormat = new DecimalFormat("#,###");
     private static final int QUEUE_DEPTH = Parameter.intValue("task.queue.depth", 100);
+    private static final int BATCH_SIZE = Math.max(1, Parameter.intValue("task.queue.batch", 16));
+    private static final long BATCH_DELAY = Parameter.longValue("task.queue.batch.delay", 100);
+    private static final int FEEDER_THREADS = Math.max(1, Parameter.intValue("task.feeder.threads", 1));
     private static final int stealThreshold = Parameter.intValue("task.queue.worksteal.threshold", 50);
     private static final boolean shouldSteal = Parameter.boolValue("task.worksteal", false);
 
+    // hands over partial batches that are due while their reader is blocked on the source
+    private static final ScheduledThreadPoolExecutor batchFlusher = createBatchFlusher();
+
     // state control
     private final AtomicBoolean errored = new AtomicBoolean(false);
     private boolean hasClosedStreams = false; // not shared with MapperTasks
@@ -64,16 +91,26 @@ public final class MapFeeder implements Runnable {
     private final int feeders;
     private final AutoField shardField;
     private final Thread[] threads;
-    private final BlockingQueue<Bundle>[] queues;
+    private final BlockingQueue<Bundle[]>[] queues;
+    /** the work steal threshold in batches */
+    private final int stealBatches;
+
+    // source readers besides the thread running this feeder
+    private final Thread[] readers;
+    private final Queue<Batcher> batchers = new ConcurrentLinkedQueue<>();
 
     // metrics
     private final long start = System.currentTimeMillis();
-    private long totalBundles = 0;
+    private final LongAdder totalBundles = new LongAdder();
 
     @Nullable private final Meter stealAttemptMeter;
     @Nullable private final Meter stealSuccessMeter;
 
     public MapFeeder(StreamMapper task, TaskDataSource source, int feeders) {
+        this(task, source, feeders, FEEDER_THREADS);
+    }
+
+    MapFeeder(StreamMapper task, TaskDataSource source, int feeders, int feederThreads) {
         if (shouldSteal) {
             stealAttemptMeter = Metrics.newMeter(getClass(), "stealAttemptRate", "steals", TimeUnit.SECONDS);
             stealSuccessMeter = Metrics.newMeter(getClass(), "stealSuccessRate", "steals", TimeUnit.SECONDS);
@@ -89,28 +126,60 @@ public final class MapFeeder implements Runnable {
         shardField = source.getShardField();
         threads = new Thread[feeders];
         queues = new LinkedBlockingQueue[feeders];
+        stealBatches = Math.max(1, stealThreshold / BATCH_SIZE);
 
         for (int i = 0; i < threads.length; i++) {
-            queues[i] = new LinkedBlockingQueue<>(QUEUE_DEPTH);
+            // the queue depth is in bundles, so about as many bundles are buffered as without batching
+            queues[i] = new LinkedBlockingQueue<>(Math.max(1, QUEUE_DEPTH / BATCH_SIZE));
             threads[i] = new Thread(new MapperTask(this, i), "MapProcessor #" + i);
         }
+
+        int readerCount = source.isConcurrent() ? (Math.max(1, feederThreads) - 1) : 0;
+        readers = new Thread[readerCount];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(this::readSource, "MapFeeder #" + (i + 1));
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createBatchFlusher() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                1, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("MapFeederBatchFlusher-%d").build());
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
     }
 
     @Override public void run() {
-        log.info("starting {} thread(s) for src={}", feeders, source);
+        log.info("starting {} thread(s) and {} extra reader(s) for src={}", feeders, readers.length, source);
         for (Thread thread : threads) {
             thread.start();
         }
 
+        ScheduledFuture<?> flushTask = null;
         try {
             if (source.isEnabled()) {
-                while (fillBuffer()) {
+                if (BATCH_SIZE > 1) {
+                    long period = Math.max(1, BATCH_DELAY);
+                    flushTask = batchFlusher.scheduleWithFixedDelay(this::flushDueBatches, period, period,
+                                                                    TimeUnit.MILLISECONDS);
+                }
+                for (Thread reader : readers) {
+                    reader.start();
+                }
+                Batcher batcher = new Batcher();
+                while (batcher.fillBuffer()) {
                     if (Thread.interrupted()) {
                         closeSourceIfNeeded();
                     }
                 }
+                batcher.flush();
             }
             closeSourceIfNeeded();
+            joinReaders();
+            // every batcher is flushed, so a timed flush that is still running has nothing left to hand over
+            // and no batch can follow the terminating batches
+            if (flushTask != null) {
+                flushTask.cancel(false);
+            }
             joinProcessors();
             log.info("all ({}) task threads exited; sending taskComplete", feeders);
             logBundleThroughput();
@@ -126,8 +195,9 @@ public final class MapFeeder implements Runnable {
 
     private void logBundleThroughput() {
         long elapse = (System.currentTimeMillis() - start) / 1000;
-        log.info("{} bundles processed in {} seconds (avg rate={}/s)", totalBundles, elapse,
-                 (elapse == 0) ? 0 : (totalBundles / elapse));
+        long total = totalBundles.sum();
+        log.info("{} bundles processed in {} seconds (avg rate={}/s)", total, elapse,
+                 (elapse == 0) ? 0 : (total / elapse));
     }
 
     /**
@@ -141,40 +211,45 @@ public final class MapFeeder implements Runnable {
         }
     }
 
-    private boolean fillBuffer() {
-        // iterate over inputs and execute default target
+    /** Body of the extra reader threads. Closing the source is left to the feeder thread. */
+    private void readSource() {
         try {
-            Bundle p = source.next();
-            if (p == null) {
-                log.info("exiting on null bundle from {}", source);
-                return false;
+            Batcher batcher = new Batcher();
+            while (batcher.fillBuffer()) {
+                // keep reading until the source is exhausted
             }
-            totalBundles++;
-            int hash = p.hashCode();
-            if (shardField != null) {
-                String val = ValueUtil.asNativeString(shardField.getValue(p));
-                if (!LessStrings.isEmpty(val)) {
-                    hash = PluggableHashFunction.hash(val);
-                }
+            batcher.flush();
+        } catch (Throwable t) {
+            handleUncaughtThrowable(t);
+        }
+    }
+
+    /** Body of the batch flusher. */
+    private void flushDueBatches() {
+        try {
+            for (Batcher batcher : batchers) {
+                batcher.flushIfDue();
             }
-            int mod = Math.abs(hash % queues.length);
-            pushQueue(mod, p);
-            return true;
-        } catch (NoSuchElementException ignored) {
-            log.info("exiting on premature stream termination");
+        } catch (Throwable t) {
+            handleUncaughtThrowable(t);
         }
-        return false;
     }
 
-    private void pushQueue(int queueNum, Bundle item) {
-        BlockingQueue<Bundle> queue = queues[queueNum];
-        Uninterruptibles.putUninterruptibly(queue, item);
+    private void pushQueue(int queueNum, Bundle[] batch) {
+        BlockingQueue<Bundle[]> queue = queues[queueNum];
+        Uninterruptibles.putUninterruptibly(queue, batch);
+    }
+
+    private void joinReaders() {
+        for (Thread reader : readers) {
+            Uninterruptibles.joinUninterruptibly(reader);
+        }
     }
 
     private void joinProcessors() {
-        log.debug("pushing terminating bundles to {} processors", queues.length);
+        log.debug("pushing terminating batches to {} processors", queues.length);
         for (int i = 0; i < queues.length; i++) {
-            pushQueue(i, TERM_BUNDLE);
+            pushQueue(i, TERM_BATCH);
         }
         for (Thread thread : threads) {
             Uninterruptibles.joinUninterruptibly(thread);
@@ -190,6 +265,127 @@ public final class MapFeeder implements Runnable {
         }
     }
 
+    /**
+     * Reads bundles from the source into one pending batch per mapper queue. Used by one reader
+     * thread and the batch flusher, the source is read without holding the lock of the batcher.
+     * The reader blocks on a full mapper queue while it holds the lock, the batch flusher never does.
+     */
+    private final class Batcher {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Bundle[][] batches = new Bundle[queues.length][];
+        private final int[] sizes = new int[queues.length];
+        private int pending = 0;
+        private long pendingSince;
+
+        Batcher() {
+            batchers.add(this);
+        }
+
+        boolean fillBuffer() {
+            // iterate over inputs and execute default target
+            try {
+                Bundle p = source.next();
+                if (p == null) {
+                    log.info("exiting on null bundle from {}", source);
+                    return false;
+                }
+                totalBundles.increment();
+                int hash = p.hashCode();
+                if (shardField != null) {
+                    String val = ValueUtil.asNativeString(shardField.getValue(p));
+                    if (!LessStrings.isEmpty(val)) {
+                        hash = PluggableHashFunction.hash(val);
+                    }
+                }
+                int mod = Math.abs(hash % queues.length);
+                add(mod, p);
+                return true;
+            } catch (NoSuchElementException ignored) {
+                log.info("exiting on premature stream termination");
+            }
+            return false;
+        }
+
+        private void add(int queueNum, Bundle item) {
+            lock.lock();
+            try {
+                if (pending == 0) {
+                    pendingSince = System.currentTimeMillis();
+                }
+                Bundle[] batch = batches[queueNum];
+                if (batch == null) {
+                    batch = new Bundle[BATCH_SIZE];
+                    batches[queueNum] = batch;
+                }
+                batch[sizes[queueNum]++] = item;
+                pending++;
+                if (sizes[queueNum] == BATCH_SIZE) {
+                    pushQueue(queueNum, batch(queueNum));
+                    handedOver(queueNum);
+                }
+                if (isDue()) {
+                    flush();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Bundle[] batch(int queueNum) {
+            int size = sizes[queueNum];
+            Bundle[] batch = batches[queueNum];
+            return (size == batch.length) ? batch : Arrays.copyOf(batch, size);
+        }
+
+        private void handedOver(int queueNum) {
+            pending -= sizes[queueNum];
+            batches[queueNum] = null;
+            sizes[queueNum] = 0;
+            // pendingSince is left as is: the remaining bundles are no older than it, so the delay stays a bound
+        }
+
+        private boolean isDue() {
+            return (pending > 0) && ((System.currentTimeMillis() - pendingSince) >= BATCH_DELAY);
+        }
+
+        /**
+         * Called by the batch flusher. Hands over the partial batches if the oldest pending bundle has
+         * waited for the batch delay. Batches that do not fit in their mapper queue stay pending and are
+         * tried again, and a batcher whose reader holds the lock is skipped.
+         */
+        void flushIfDue() {
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                if (isDue()) {
+                    for (int i = 0; i < batches.length; i++) {
+                        if ((sizes[i] > 0) && queues[i].offer(batch(i))) {
+                            handedOver(i);
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Hands over every partial batch. */
+        void flush() {
+            lock.lock();
+            try {
+                for (int i = 0; i < batches.length; i++) {
+                    if (sizes[i] > 0) {
+                        pushQueue(i, batch(i));
+                        handedOver(i);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
     private static class MapperTask implements Runnable {
         private final int processorID;
         private final MapFeeder mapFeeder;
@@ -203,20 +399,22 @@ public final class MapFeeder implements Runnable {
         public void run() {
             while (true) {
                 try {
-                    Bundle next = popQueue();
+                    Bundle[] next = popQueue();
                     if (next == null) {
                         return;
                     }
-                    mapFeeder.task.process(next);
+                    for (Bundle bundle : next) {
+                        mapFeeder.task.process(bundle);
+                    }
                 } catch (Throwable t) {
                     mapFeeder.handleUncaughtThrowable(t);
                 }
             }
         }
 
-        @Nullable private Bundle popQueue() throws InterruptedException {
-            BlockingQueue<Bundle> queue = mapFeeder.queues[processorID];
-            Bundle item = null;
+        @Nullable private Bundle[] popQueue() throws InterruptedException {
+            BlockingQueue<Bundle[]> queue = mapFeeder.queues[processorID];
+            Bundle[] item = null;
             if (shouldSteal) {
                 // first check our own queue
                 item = queue.poll();
@@ -228,19 +426,19 @@ public final class MapFeeder implements Runnable {
             if (item == null) {
                 item = queue.take();
             }
-            if (item == TERM_BUNDLE) {
+            if (item == TERM_BATCH) {
                 return null;
             } else {
                 return item;
             }
         }
 
-        @Nullable private Bundle steal(BlockingQueue<Bundle> primaryQueue) throws InterruptedException {
+        @Nullable private Bundle[] steal(BlockingQueue<Bundle[]> primaryQueue) throws InterruptedException {
             mapFeeder.stealAttemptMeter.mark();
-            for (BlockingQueue<Bundle> queue : mapFeeder.queues) {
-                if ((queue != primaryQueue) && (queue.size() >= stealThreshold)) {
-                    Bundle item = queue.poll();
-                    if (item == TERM_BUNDLE) {
+            for (BlockingQueue<Bundle[]> queue : mapFeeder.queues) {
+                if ((queue != primaryQueue) && (queue.size() >= mapFeeder.stealBatches)) {
+                    Bundle[] item = queue.poll();
+                    if (item == TERM_BATCH) {
                         queue.put(item);
                     } else if (item != null) {
                         mapFeeder.stealSuccessMeter.mark();
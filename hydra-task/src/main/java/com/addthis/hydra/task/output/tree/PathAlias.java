@@ -121,6 +121,16 @@ public class PathAlias extends PathKeyValue {
         }
     }
 
+    @Override
+    public boolean isShardable() {
+        return false;
+    }
+
+    @Override
+    public DataTreeNode getOrCreateNode(final TreeMapState state, final long name) {
+        return getOrCreateNode(state, Long.toString(name));
+    }
+
     @Override
     public DataTreeNode getOrCreateNode(final TreeMapState state, final String name) {
         if (hard) {
@@ -276,4 +276,27 @@ public abstract class PathElement implements Codable, TreeDataParent {
     public boolean disabled() {
         return disabled;
     }
+
+    /**
+     * Return true if this element can be processed into a thread private
+     * {@link TreeShard} and merged into the tree later. Override in
+     * elements that only create or update child nodes.
+     */
+    public boolean isShardable() {
+        return false;
+    }
+
+    /**
+     * @return true if every data attachment of this element is mergeable
+     */
+    protected final boolean hasMergeableData() {
+        if (data != null) {
+            for (TreeDataParameters conf : data.values()) {
+                if (!conf.newInstance().isMergeable()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 }
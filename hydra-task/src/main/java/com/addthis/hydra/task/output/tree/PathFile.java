@@ -140,6 +140,11 @@ public final class PathFile extends PathKeyValue {
         }
     }
 
+    @Override
+    public boolean isShardable() {
+        return false;
+    }
+
     @Override
     public List<DataTreeNode> processNodeUpdates(TreeMapState state, ValueObject ps) {
         ValueObject pv = getPathValue(state);
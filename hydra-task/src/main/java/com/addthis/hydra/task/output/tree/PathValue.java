@@ -178,6 +178,12 @@ public class PathValue extends PathElement {
         }
     }
 
+    @Override
+    public boolean isShardable() {
+        return op || (create && !sync && !once && !delete && (each == null) && (maxNodes == 0) &&
+                      !assignHits() && hasMergeableData());
+    }
+
     /**
      * Either get an existing node or optionally create a new node
      * if one does not exist. The {@link #create} field determines
@@ -197,6 +203,19 @@ public class PathValue extends PathElement {
         }
     }
 
+    /**
+     * Numeric variant of {@link #getOrCreateNode(TreeMapState, String)} for
+     * names that are longs. Subclasses that override the string variant
+     * must override this method as well.
+     */
+    public DataTreeNode getOrCreateNode(TreeMapState state, long name) {
+        if (create && ((maxNodes == 0) || (state.getNodeCount() < maxNodes))) {
+            return state.getOrCreateNode(name, state);
+        } else {
+            return state.getLeasedNode(name);
+        }
+    }
+
     /**
      * override this in subclasses. the rules for this path element are to be
      * applied to the child (next node) of the parent (current node).
@@ -263,12 +282,17 @@ public class PathValue extends PathElement {
             return 0;
         }
         DataTreeNode parent = state.current();
-        String sv = ValueUtil.asNativeString(name);
-        if (delete) {
-            parent.deleteNode(sv);
-        }
+        DataTreeNode child;
         /** get db for parent node once we're past it (since it has children) */
-        DataTreeNode child = getOrCreateNode(state, sv);
+        if (!delete && (name != null) && (name.getObjectType() == ValueObject.TYPE.INT)) {
+            child = getOrCreateNode(state, name.asLong().getLong());
+        } else {
+            String sv = ValueUtil.asNativeString(name);
+            if (delete) {
+                parent.deleteNode(sv);
+            }
+            child = getOrCreateNode(state, sv);
+        }
         boolean isnew = state.getAndClearLastWasNew();
         /** can be null if parent is deleted by another thread or if create == false */
         if (child == null) {
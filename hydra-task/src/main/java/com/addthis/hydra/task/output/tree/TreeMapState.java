@@ -128,6 +128,14 @@ public final class TreeMapState implements DataTreeNodeUpdater, DataTreeNodeInit
         return tn;
     }
 
+    public DataTreeNode getLeasedNode(long key) {
+        return current().getLeasedNode(key);
+    }
+
+    public DataTreeNode getOrCreateNode(long key, DataTreeNodeInitializer init) {
+        return current().getOrCreateNode(key, init);
+    }
+
     public DataTreeNode pop() {
         if (debugthread) {
             checkThread();
@@ -24,7 +24,9 @@ import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -159,6 +161,19 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      */
     @FieldConfig private boolean concurrentTree = true;
 
+    /**
+     * If greater than zero then each processing thread builds the
+     * {@link #root root} path into a private in-memory subtree and merges
+     * the subtree into the tree after this many bundles. This avoids
+     * contention on the upper nodes of the tree when several threads
+     * update the same nodes. Updates are visible to live queries only
+     * after they have been merged. Requires a concurrent tree and a root
+     * path whose elements create or update nodes and whose data attachments
+     * are mergeable, otherwise the option is ignored.
+     *
+     * Default is 0.
+     */
+    @FieldConfig private int shardWindow = 0;
 
     /**
      * Optional sample rate for applying
@@ -225,6 +240,9 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
 
     private DataTree tree;
     private Bench    bench;
+
+    private final Queue<TreeShard> shards = new ConcurrentLinkedQueue<>();
+    private ThreadLocal<TreeShard>  localShard;
     private long     startTime;
 
     private MeshyServer     liveQueryServer;
@@ -310,10 +328,22 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
 
             Path treePath = Paths.get(config.dir, directory);
             if (concurrentTree) {
-                tree = new ConcurrentTree(LessFiles.initDirectory(treePath.toFile()));
+                tree = new ConcurrentTree(LessFiles.initDirectory(treePath.toFile()), advanced.nodeCache);
             } else {
                 tree = new NonConcurrentTree(LessFiles.initDirectory(treePath.toFile()));
             }
+            if (shardWindow > 0) {
+                if (concurrentTree && isShardable(root)) {
+                    localShard = ThreadLocal.withInitial(() -> {
+                        TreeShard shard = new TreeShard(shardWindow);
+                        shards.add(shard);
+                        return shard;
+                    });
+                } else {
+                    log.warn("[init] ignoring shardWindow={} because the tree or root path is not shardable",
+                             shardWindow);
+                }
+            }
             bench = new Bench(EnumSet.allOf(BENCH.class), 1000);
             TreeConfig.writeConfigToDataDirectory(treePath, advanced);
 
@@ -410,6 +440,18 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
         checkBench();
     }
 
+    private static boolean isShardable(PathElement[] path) {
+        if (path == null) {
+            return false;
+        }
+        for (PathElement element : path) {
+            if (!element.isShardable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private long getBundleTime(Bundle bundle) {
         long bundleTime = JitterClock.globalTime();
         if (timeField != null) {
@@ -429,9 +471,13 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      */
     private void processPath(Bundle bundle, PathElement[] path) {
         try {
-            TreeMapState ps = new TreeMapState(this, tree, path, bundle);
+            TreeShard shard = ((localShard != null) && (path == root)) ? localShard.get() : null;
+            TreeMapState ps = new TreeMapState(this, (shard != null) ? shard.root() : tree, path, bundle);
             ps.process();
             processNodes.addAndGet(ps.touched());
+            if ((shard != null) && shard.next()) {
+                shard.mergeInto(tree);
+            }
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex)  {
@@ -517,6 +563,9 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
     @Override
     public void sendComplete() {
         try {
+            for (TreeShard shard : shards) {
+                shard.mergeInto(tree);
+            }
             boolean doPost = false;
             if (post != null) {
                 doPost = sampleOperation(post, postRate, "post.sample", "post");
@@ -0,0 +1,275 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.addthis.basis.util.ClosableIterator;
+
+import com.addthis.hydra.data.tree.DataTree;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.DataTreeNodeActor;
+import com.addthis.hydra.data.tree.DataTreeNodeInitializer;
+import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+import com.addthis.hydra.data.tree.TreeDataParameters;
+import com.addthis.hydra.data.tree.TreeDataParent;
+import com.addthis.hydra.data.tree.TreeNodeData;
+import com.addthis.hydra.data.tree.TreeNodeDataDeferredOperation;
+
+/**
+ * In-memory subtree that is private to one mapper thread. Bundles are
+ * processed into the shard without touching the locks and lease counters of
+ * the persistent tree. After {@code window} bundles the shard is merged into
+ * the tree in a single pass with {@link DataTreeNode#mergeNode} and cleared.
+ * <p/>
+ * Only paths whose elements are {@link PathElement#isShardable() shardable}
+ * may be processed into a shard. This class is not thread-safe.
+ */
+final class TreeShard {
+
+    private final int window;
+
+    private ShardNode root = new ShardNode(null, null);
+    private int bundles;
+
+    TreeShard(int window) {
+        this.window = window;
+    }
+
+    DataTreeNode root() {
+        return root;
+    }
+
+    /**
+     * @return true if the window is full and the shard should be merged
+     */
+    boolean next() {
+        return ++bundles >= window;
+    }
+
+    /**
+     * Merge the contents of the shard into {@code tree} and start a new window.
+     *
+     * @return number of nodes merged
+     */
+    int mergeInto(DataTree tree) {
+        int merged = 0;
+        if (bundles > 0) {
+            merged = mergeChildren(root, tree);
+            root = new ShardNode(null, null);
+            bundles = 0;
+        }
+        return merged;
+    }
+
+    private static int mergeChildren(ShardNode source, DataTreeNode target) {
+        if (source.children == null) {
+            return 0;
+        }
+        int merged = 0;
+        for (ShardNode child : source.children.values()) {
+            // the initializer that created the shard node also sees the creation of the tree node
+            DataTreeNode node = target.getOrCreateNode(child.name, child.init);
+            try {
+                node.mergeNode(child);
+                merged += 1 + mergeChildren(child, node);
+            } finally {
+                node.release();
+            }
+        }
+        return merged;
+    }
+
+    private static final class ShardNode implements DataTreeNode {
+
+        private final String name;
+        private final DataTreeNodeInitializer init;
+
+        private long hits;
+        private TreeMap<String, ShardNode> children;
+        private HashMap<String, TreeNodeData> data;
+
+        ShardNode(String name, DataTreeNodeInitializer init) {
+            this.name = name;
+            this.init = init;
+        }
+
+        @Override public String getName() {
+            return name;
+        }
+
+        @Override public DataTree getTreeRoot() {
+            return null;
+        }
+
+        @Override public int getNodeCount() {
+            return (children != null) ? children.size() : 0;
+        }
+
+        @Override public long getCounter() {
+            return hits;
+        }
+
+        @Override public DataTreeNodeActor getData(String key) {
+            return (data != null) ? data.get(key) : null;
+        }
+
+        @Override public DataTreeNode getNode(String name) {
+            return (children != null) ? children.get(name) : null;
+        }
+
+        @Override public Map<String, TreeNodeData> getDataMap() {
+            return data;
+        }
+
+        @Override public ClosableIterator<DataTreeNode> getIterator() {
+            return new Iter(children);
+        }
+
+        @Override public ClosableIterator<DataTreeNode> getIterator(String prefix) {
+            if ((prefix != null) && !prefix.isEmpty()) {
+                StringBuilder sb = new StringBuilder(prefix.substring(0, prefix.length() - 1));
+                sb.append((char) (prefix.charAt(prefix.length() - 1) + 1));
+                return getIterator(prefix, sb.toString());
+            } else {
+                return new Iter(null);
+            }
+        }
+
+        @Override public ClosableIterator<DataTreeNode> getIterator(String from, String to) {
+            if (children == null) {
+                return new Iter(null);
+            }
+            Map<String, ShardNode> range;
+            if (from == null) {
+                range = (to == null) ? children : children.headMap(to, false);
+            } else {
+                range = (to == null) ? children.tailMap(from, true) : children.subMap(from, true, to, false);
+            }
+            return new Iter(range);
+        }
+
+        @Override public Iterator<DataTreeNode> iterator() {
+            return getIterator();
+        }
+
+        @Override public void incrementCounter() {
+            hits++;
+        }
+
+        @Override public long incrementCounter(long val) {
+            hits += val;
+            return hits;
+        }
+
+        @Override public void setCounter(long val) {
+            hits = val;
+        }
+
+        @Override @SuppressWarnings("unchecked")
+        public void updateChildData(DataTreeNodeUpdater state, TreeDataParent path) {
+            if (path.assignHits()) {
+                hits = state.getAssignmentValue();
+            } else if (path.countHits()) {
+                hits += state.getCountValue();
+            }
+            HashMap<String, TreeDataParameters> dataconf = path.dataConfig();
+            if (dataconf != null) {
+                if (data == null) {
+                    data = new HashMap<>(dataconf.size());
+                }
+                for (Map.Entry<String, TreeDataParameters> el : dataconf.entrySet()) {
+                    TreeNodeData tnd = data.get(el.getKey());
+                    if (tnd == null) {
+                        tnd = el.getValue().newInstance(this);
+                        data.put(el.getKey(), tnd);
+                    }
+                    tnd.updateChildData(state, this, el.getValue());
+                }
+            }
+        }
+
+        /**
+         * Lets the attachments of this node see a processed child, like the tree nodes do. Shardable
+         * paths only carry mergeable attachments, which currently leave their parent node alone.
+         */
+        @Override public void updateParentData(DataTreeNodeUpdater state, DataTreeNode child, boolean isnew) {
+            if ((child == null) || (data == null)) {
+                return;
+            }
+            List<TreeNodeDataDeferredOperation> deferredOps = new ArrayList<>(1);
+            for (TreeNodeData<?> tnd : data.values()) {
+                if (isnew) {
+                    tnd.updateParentNewChild(state, this, child, deferredOps);
+                }
+                tnd.updateParentData(state, this, child, deferredOps);
+            }
+            for (TreeNodeDataDeferredOperation currentOp : deferredOps) {
+                currentOp.run();
+            }
+        }
+
+        @Override public DataTreeNode getOrCreateNode(String name, DataTreeNodeInitializer init) {
+            if (children == null) {
+                children = new TreeMap<>();
+            }
+            ShardNode child = children.get(name);
+            if (child == null) {
+                child = new ShardNode(name, init);
+                children.put(name, child);
+                if (init != null) {
+                    init.onNewNode(child);
+                }
+            }
+            return child;
+        }
+
+        @Override public DataTreeNode getLeasedNode(String name) {
+            return getNode(name);
+        }
+
+        @Override public void release() {
+        }
+
+        private static final class Iter implements ClosableIterator<DataTreeNode> {
+
+            private final Iterator<ShardNode> iterator;
+
+            Iter(Map<String, ShardNode> nodes) {
+                iterator = (nodes != null) ? nodes.values().iterator() : Collections.emptyIterator();
+            }
+
+            @Override public void close() {
+            }
+
+            @Override public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override public DataTreeNode next() {
+                return iterator.next();
+            }
+
+            @Override public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
@@ -230,6 +230,7 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
     private final Counter openNew = Metrics.newCounter(getClass(), "openNew");
     private final Counter openIndex = Metrics.newCounter(getClass(), "openIndex");
     private final Counter openSkip = Metrics.newCounter(getClass(), "openSkip");
+    private final Counter openSeek = Metrics.newCounter(getClass(), "openSeek");
     private final Counter skipping = Metrics.newCounter(getClass(), "skipping");
     private final Counter reading = Metrics.newCounter(getClass(), "reading");
     private final Counter opening = Metrics.newCounter(getClass(), "opening");
@@ -250,7 +251,7 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
     protected final AtomicBoolean shuttingDown = new AtomicBoolean(false);
     protected final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
     private final CountDownLatch initialized = new CountDownLatch(1);
-    private boolean localInitialized = false;
+    private volatile boolean localInitialized = false;
 
     private BlockingQueue<Bundle> queue;
     private PageDB<SimpleMark> markDB;
@@ -357,6 +358,11 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
         aggregateWorkerFuture.thenRunAsync(this::close);
     }
 
+    /** Bundles are read from the files by the worker threads into a shared queue, which any thread may poll. */
+    @Override public boolean isConcurrent() {
+        return true;
+    }
+
     @Nullable @Override public Bundle next() throws DataChannelError {
         if ((skipSourceExit > 0) && (consecutiveFileSkip.get() >= skipSourceExit)) {
             throw new DataChannelError("skipped too many sources: " + skipSourceExit + ".  please check your job config.");
@@ -421,6 +427,7 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
                      .add("opening", opening.count())
                      .add("unseen", openNew.count())
                      .add("continued", openIndex.count())
+                     .add("seeked", openSeek.count())
                      .add("skipping", skipping.count())
                      .add("skipped", openSkip.count())
                      .add("bundles-skipped", globalBundleSkip.count())
@@ -602,6 +609,7 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
                     }
                 }
                 wrap.mark.setIndex(wrap.mark.getIndex() + 1);
+                wrap.mark.setPosition(wrap.bundleizer.position());
                 if (jmxMetrics) {
                     queueSizeHisto.update(queue.size());
                 }
@@ -676,6 +684,13 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
                 if (read == 0) {
                     return;
                 }
+                // resume from the saved byte offset instead of parsing every bundle up to the mark
+                long position = mark.getPosition();
+                if ((position >= 0) && bundleizer.seek(position)) {
+                    openSeek.inc();
+                    log.debug("mark.seek {} / {}", mark, stream);
+                    return;
+                }
                 int bundlesSkipped = 0;
                 skipping.inc();
                 while (read > 0) {
@@ -38,6 +38,7 @@ public class Mark extends SimpleMark {
                 .add("error", getError())
                 .add("index", getIndex())
                 .add("end", isEnd())
+                .add("position", getPosition())
                 .toString();
     }
 
@@ -60,6 +61,7 @@ public class Mark extends SimpleMark {
             Varint.writeUnsignedVarLong(getIndex(), buffer);
             buffer.writeByte(isEnd() ? 1 : 0);
             Varint.writeUnsignedVarInt(error, buffer);
+            writePosition(getPosition(), buffer);
             retBytes = new byte[buffer.readableBytes()];
             buffer.readBytes(retBytes);
         } finally {
@@ -79,6 +81,7 @@ public class Mark extends SimpleMark {
             setIndex(Varint.readUnsignedVarLong(buffer));
             setEnd(buffer.readByte() == 1);
             setError(Varint.readUnsignedVarInt(buffer));
+            setPosition(readPosition(buffer));
         } finally {
             buffer.release();
         }
@@ -36,6 +36,9 @@ public class SimpleMark implements Codable, BytesCodable {
     private long index;
     @FieldConfig(codable = true)
     private boolean end;
+    /** byte offset in the decompressed stream after the bundle at index, or -1 if unknown */
+    @FieldConfig(codable = true)
+    private long position = -1;
 
     public SimpleMark set(String val, long index) {
         this.setValue(val);
@@ -57,6 +60,7 @@ public class SimpleMark implements Codable, BytesCodable {
                 .add("val", getValue())
                 .add("index", getIndex())
                 .add("end", isEnd())
+                .add("position", getPosition())
                 .toString();
     }
 
@@ -84,6 +88,14 @@ public class SimpleMark implements Codable, BytesCodable {
         this.end = end;
     }
 
+    public long getPosition() {
+        return position;
+    }
+
+    public void setPosition(long position) {
+        this.position = position;
+    }
+
     // no-op functions
     public int getError() {
         return -1;
@@ -92,6 +104,15 @@ public class SimpleMark implements Codable, BytesCodable {
     public void setError(int error) {
     }
 
+    /** Positions are stored last and off by one, so that marks written without one decode as unknown. */
+    static void writePosition(long position, ByteBuf buffer) {
+        Varint.writeUnsignedVarLong(Math.max(position, -1) + 1, buffer);
+    }
+
+    static long readPosition(ByteBuf buffer) {
+        return buffer.isReadable() ? (Varint.readUnsignedVarLong(buffer) - 1) : -1;
+    }
+
     @Override
     public byte[] bytesEncode(long version) {
         byte[] retBytes = null;
@@ -102,6 +123,7 @@ public class SimpleMark implements Codable, BytesCodable {
             buffer.writeBytes(valBytes);
             Varint.writeUnsignedVarLong(index, buffer);
             buffer.writeByte(end ? 1 : 0);
+            writePosition(position, buffer);
             retBytes = new byte[buffer.readableBytes()];
             buffer.readBytes(retBytes);
         } finally {
@@ -120,6 +142,7 @@ public class SimpleMark implements Codable, BytesCodable {
             val = new String(valBytes);
             index = Varint.readUnsignedVarLong(buffer);
             end = buffer.readByte() == 1;
+            position = readPosition(buffer);
         } finally {
             buffer.release();
         }
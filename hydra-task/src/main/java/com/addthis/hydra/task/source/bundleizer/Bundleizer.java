@@ -23,4 +23,21 @@ import com.addthis.bundle.core.Bundle;
 public interface Bundleizer {
 
     public Bundle next() throws IOException;
+
+    /**
+     * Returns the offset in bytes from the start of the input of the data after the last bundle
+     * returned by {@link #next()}, or -1 if this bundleizer does not track it.
+     */
+    public default long position() {
+        return -1;
+    }
+
+    /**
+     * Skips forward to a {@link #position()} previously returned for the same input, so that the next
+     * bundle is the one that followed it. Returns false without reading anything if this bundleizer
+     * cannot seek there.
+     */
+    public default boolean seek(long position) throws IOException {
+        return false;
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.charset.Charset;
+
+import java.util.Arrays;
+
+/**
+ * Reads lines from a stream like {@link java.io.BufferedReader#readLine()}, splitting on the bytes of
+ * "\n", "\r" or "\r\n" before decoding, so that it can report the byte offset of the next line.
+ * The charset must encode those line terminators as single bytes that appear nowhere else, as UTF-8
+ * and the ASCII based charsets do.
+ */
+final class ByteLineReader {
+
+    private final InputStream input;
+    private final Charset charset;
+
+    private byte[] buffer;
+    /** unread bytes are buffer[start, end) */
+    private int start;
+    private int end;
+    /** bytes of input consumed by the lines returned so far */
+    private long position;
+    /** the last line read is buffer[lineStart, lineStart + lineLength) */
+    private int lineStart;
+    private int lineLength;
+
+    ByteLineReader(InputStream input, Charset charset, int bufferSize) {
+        this.input = input;
+        this.charset = charset;
+        this.buffer = new byte[bufferSize];
+    }
+
+    long position() {
+        return position;
+    }
+
+    /** Skips the next count bytes of input. Returns the number of bytes skipped, which is less at end of input. */
+    long skip(long count) throws IOException {
+        long remaining = count;
+        int buffered = (int) Math.min(end - start, remaining);
+        start += buffered;
+        remaining -= buffered;
+        while (remaining > 0) {
+            long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    break;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        long skipped = count - remaining;
+        position += skipped;
+        return skipped;
+    }
+
+    @Nullable String readLine() throws IOException {
+        if (!nextLine()) {
+            return null;
+        }
+        return new String(buffer, lineStart, lineLength, charset);
+    }
+
+    /**
+     * Reads the next line without decoding it. Returns false at the end of input. Otherwise the
+     * line is {@link #lineLength()} bytes of {@link #lineBuffer()} from {@link #lineStart()},
+     * which stay valid until the next call.
+     */
+    boolean nextLine() throws IOException {
+        int scan = start;
+        while (true) {
+            for (; scan < end; scan++) {
+                byte b = buffer[scan];
+                if ((b == '\n') || (b == '\r')) {
+                    int length = scan - start;
+                    int next = scan + 1;
+                    if ((b == '\r') && (next == end)) {
+                        // look past the "\r" without letting the fill drop the line
+                        boolean more = fill();
+                        next = start + length + 1;
+                        if (!more) {
+                            return setLine(length, next);
+                        }
+                    }
+                    if ((b == '\r') && (buffer[next] == '\n')) {
+                        next++;
+                    }
+                    return setLine(length, next);
+                }
+            }
+            int scanned = scan - start;
+            if (!fill()) {
+                return (start != end) && setLine(end - start, end);
+            }
+            scan = start + scanned;
+        }
+    }
+
+    private boolean setLine(int length, int next) {
+        lineStart = start;
+        lineLength = length;
+        consume(next);
+        return true;
+    }
+
+    byte[] lineBuffer() {
+        return buffer;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    int lineLength() {
+        return lineLength;
+    }
+
+    private void consume(int next) {
+        position += next - start;
+        start = next;
+    }
+
+    /** Reads more input after the unread bytes. Returns false at the end of input. */
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = input.read(buffer, end, buffer.length - end);
+        if (read < 0) {
+            return false;
+        }
+        end += read;
+        return true;
+    }
+}
@@ -15,7 +15,12 @@ package com.addthis.hydra.task.source.bundleizer;
 
 import java.util.List;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
 import com.addthis.bundle.value.ValueFactory;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.filter.value.ValueFilter;
@@ -27,7 +32,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * chops strings into columns (no keys)
- *
+ * <p/>
+ * When there is no line filter and the tokenizer only uses single byte separators and escapes
+ * (no grouping or packing), lines are split into columns before they are decoded and columns
+ * past the last named one are never decoded.
  */
 public class ColumnBundleizer extends NewlineBundleizer {
 
@@ -37,6 +45,12 @@ public class ColumnBundleizer extends NewlineBundleizer {
 
     private final ValueFilter tokenFilter;
 
+    /** separator bytes indexed by value, or null if lines must be tokenized as strings */
+    private final boolean[] separators;
+    private final byte escape;
+
+    private volatile ColumnFields fields;
+
     @JsonCreator
     public ColumnBundleizer(@JsonProperty(value = "columns", required = true) String[] columns,
                             @JsonProperty(value = "tokens", required = true) Tokenizer tokens,
@@ -44,6 +58,26 @@ public class ColumnBundleizer extends NewlineBundleizer {
         this.columns = columns;
         this.tokens = tokens;
         this.tokenFilter =tokenFilter;
+        this.separators = byteSeparators(tokens);
+        this.escape = (separators != null) ? (byte) tokens.getEscape().charAt(0) : 0;
+    }
+
+    /** Returns the separators of a tokenizer that can split bytes, or null if it needs strings. */
+    private static boolean[] byteSeparators(Tokenizer tokens) {
+        String escape = tokens.getEscape();
+        if ((tokens.getClass() != Tokenizer.class) || (tokens.getGrouping() != null) || tokens.isPacked()
+            || (tokens.getSeparator() == null) || (escape == null) || (escape.length() == 0)
+            || (escape.charAt(0) >= 0x80)) {
+            return null;
+        }
+        boolean[] separators = new boolean[0x80];
+        for (char ch : tokens.getSeparator().toCharArray()) {
+            if (ch >= 0x80) {
+                return null;
+            }
+            separators[ch] = true;
+        }
+        return separators;
     }
 
     @Override
@@ -65,5 +99,96 @@ public class ColumnBundleizer extends NewlineBundleizer {
         }
         return next;
     }
-}
 
+    @Override
+    public Bundle bundleize(Bundle next, byte[] bytes, int offset, int length, Charset charset) {
+        if ((separators == null) || !(StandardCharsets.UTF_8.equals(charset)
+                                      || StandardCharsets.US_ASCII.equals(charset)
+                                      || StandardCharsets.ISO_8859_1.equals(charset))) {
+            return super.bundleize(next, bytes, offset, length, charset);
+        }
+        int end = offset + length;
+        if (isBlank(bytes, offset, end)) {
+            return null;
+        }
+        BundleField[] columnFields = fieldsFor(next.getFormat());
+        int col = 0;
+        int tokenStart = offset;
+        boolean escaped = false;
+        // bytes of multi-byte characters are all negative, so they never match a separator or escape
+        for (int i = offset; (i <= end) && (col < columnFields.length); i++) {
+            if (i < end) {
+                byte b = bytes[i];
+                if (b == escape) {
+                    escaped = true;
+                    if ((i + 1) < end) {
+                        i++;
+                    }
+                    continue;
+                }
+                if ((b < 0) || !separators[b]) {
+                    continue;
+                }
+            }
+            String token = new String(bytes, tokenStart, i - tokenStart, charset);
+            ValueObject val = ValueFactory.create(escaped ? unescape(token) : token);
+            if (tokenFilter != null) {
+                val = tokenFilter.filter(val, next);
+            }
+            next.setValue(columnFields[col++], val);
+            tokenStart = i + 1;
+            escaped = false;
+        }
+        return next;
+    }
+
+    /** Same test as {@code String.trim().isEmpty()} on the decoded line. */
+    private static boolean isBlank(byte[] bytes, int offset, int end) {
+        for (int i = offset; i < end; i++) {
+            if ((bytes[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String unescape(String token) {
+        char esc = (char) escape;
+        StringBuilder sb = new StringBuilder(token.length());
+        boolean isEscaped = false;
+        for (int i = 0; i < token.length(); i++) {
+            char ch = token.charAt(i);
+            if (!isEscaped && (ch == esc)) {
+                isEscaped = true;
+            } else {
+                sb.append(ch);
+                isEscaped = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private BundleField[] fieldsFor(BundleFormat format) {
+        ColumnFields current = fields;
+        if ((current == null) || (current.format != format)) {
+            BundleField[] columnFields = new BundleField[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columnFields[i] = format.getField(columns[i]);
+            }
+            current = new ColumnFields(format, columnFields);
+            fields = current;
+        }
+        return current.fields;
+    }
+
+    private static final class ColumnFields {
+
+        final BundleFormat format;
+        final BundleField[] fields;
+
+        ColumnFields(BundleFormat format, BundleField[] fields) {
+            this.format = format;
+            this.fields = fields;
+        }
+    }
+}
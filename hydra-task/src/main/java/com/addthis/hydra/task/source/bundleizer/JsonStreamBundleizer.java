@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.util.Set;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueMap;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.codec.annotations.FieldConfig;
+import com.addthis.codec.jackson.Jackson;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Bundleizes lines that each hold one json object, reading the tokens of the object straight into
+ * the bundle instead of decoding it into an object tree first.
+ * <p/>
+ * Strings, integers and decimals become string, long and double values, true and false become
+ * strings, nested objects become maps and arrays become arrays. Null values are left unset and
+ * null array elements are dropped.
+ * If {@code fields} is set then only those top level keys are read and the values of all other
+ * keys are skipped over without being decoded.
+ */
+public class JsonStreamBundleizer extends NewlineBundleizer {
+
+    private static final JsonFactory jsonFactory = Jackson.defaultMapper().getFactory();
+
+    /** If set then only these top level keys are copied into bundles. Default is all keys. */
+    @FieldConfig(codable = true)
+    private Set<String> fields;
+
+    @Override
+    public Bundle bundleize(Bundle next, String line) {
+        try (JsonParser parser = jsonFactory.createParser(line)) {
+            return bundleize(next, parser);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public Bundle bundleize(Bundle next, byte[] bytes, int offset, int length, Charset charset) {
+        if (!StandardCharsets.UTF_8.equals(charset)) {
+            return super.bundleize(next, bytes, offset, length, charset);
+        }
+        try (JsonParser parser = jsonFactory.createParser(bytes, offset, length)) {
+            return bundleize(next, parser);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Bundle bundleize(Bundle next, JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("expected a json object", parser.getCurrentLocation());
+        }
+        BundleFormat format = next.getFormat();
+        JsonToken nameToken;
+        while ((nameToken = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            // field names are canonicalized by the parser, so this does not allocate for repeated keys
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ((fields != null) && !fields.contains(name)) {
+                parser.skipChildren();
+                continue;
+            }
+            ValueObject value = readValue(parser, token);
+            if (value != null) {
+                next.setValue(format.getField(name), value);
+            }
+        }
+        if (nameToken != JsonToken.END_OBJECT) {
+            throw new JsonParseException("unexpected end of json object", parser.getCurrentLocation());
+        }
+        return next;
+    }
+
+    private static ValueObject readValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token == null) {
+            throw new JsonParseException("unexpected end of json object", parser.getCurrentLocation());
+        }
+        switch (token) {
+            case VALUE_STRING:
+                return ValueFactory.create(parser.getText());
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    return ValueFactory.create(parser.getText());
+                }
+                return ValueFactory.create(parser.getLongValue());
+            case VALUE_NUMBER_FLOAT:
+                return ValueFactory.create(parser.getDoubleValue());
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return ValueFactory.create(parser.getText());
+            case START_OBJECT:
+                ValueMap map = ValueFactory.createMap();
+                JsonToken keyToken;
+                while ((keyToken = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                    String key = parser.getCurrentName();
+                    ValueObject value = readValue(parser, parser.nextToken());
+                    if (value != null) {
+                        map.put(key, value);
+                    }
+                }
+                if (keyToken != JsonToken.END_OBJECT) {
+                    throw new JsonParseException("unexpected end of json object", parser.getCurrentLocation());
+                }
+                return map;
+            case START_ARRAY:
+                ValueArray array = ValueFactory.createArray(4);
+                JsonToken element;
+                while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    ValueObject value = readValue(parser, element);
+                    if (value != null) {
+                        array.add(value);
+                    }
+                }
+                return array;
+            case VALUE_NULL:
+            default:
+                return null;
+        }
+    }
+}
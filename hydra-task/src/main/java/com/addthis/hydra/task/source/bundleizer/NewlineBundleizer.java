@@ -13,10 +13,12 @@
  */
 package com.addthis.hydra.task.source.bundleizer;
 
-import java.io.BufferedReader;
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+
+import java.nio.charset.Charset;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleFactory;
@@ -34,33 +36,90 @@ public abstract class NewlineBundleizer extends BundleizerFactory {
     @FieldConfig(codable = true)
     private ValueFilter lineFilter;
 
+    /**
+     * If greater than zero then lines are bundleized in chunks on a shared pool of threads,
+     * with up to this many chunks in flight, while the reading thread goes on decompressing
+     * and splitting the input. Bundles are still returned in input order. The line filter and
+     * {@link #bundleize(Bundle, String)} must then be safe to call from several threads.
+     * Default is 0.
+     */
+    @FieldConfig(codable = true)
+    private int parseAhead = 0;
+
+    /** Number of lines in each chunk when parseAhead is enabled. Default is 1000. */
+    @FieldConfig(codable = true)
+    private int parseChunkLines = 1000;
+
     @Override
     public Bundleizer createBundleizer(final InputStream inputArg, final BundleFactory factoryArg) {
+        if (parseAhead > 0) {
+            return new ParallelLineBundleizer(this, new ByteLineReader(inputArg, Charset.defaultCharset(), 65535),
+                                              factoryArg, parseAhead, parseChunkLines);
+        }
         return new Bundleizer() {
-            private final BufferedReader reader = new BufferedReader(new InputStreamReader(inputArg), 65535);
+            private final Charset charset = Charset.defaultCharset();
+            private final ByteLineReader reader = new ByteLineReader(inputArg, charset, 65535);
             private final BundleFactory factory = factoryArg;
 
             @Override
             public Bundle next() throws IOException {
                 while (true) {
-                    String line = reader.readLine();
-                    if (line == null) {
-                        return null;
-                    }
-                    if (lineFilter != null) {
-                        line = ValueUtil.asNativeString(lineFilter.filter(ValueFactory.create(line)));
+                    Bundle next;
+                    if (lineFilter == null) {
+                        if (!reader.nextLine()) {
+                            return null;
+                        }
+                        next = bundleize(factory.createBundle(), reader.lineBuffer(), reader.lineStart(),
+                                         reader.lineLength(), charset);
+                    } else {
+                        String line = reader.readLine();
                         if (line == null) {
-                            continue;
+                            return null;
                         }
+                        next = bundleizeLine(factory, line);
                     }
-                    Bundle next = bundleize(factory.createBundle(), line);
                     if (next != null) {
                         return next;
                     }
                 }
             }
+
+            @Override
+            public long position() {
+                return reader.position();
+            }
+
+            @Override
+            public boolean seek(long position) throws IOException {
+                long current = reader.position();
+                if (position < current) {
+                    return false;
+                }
+                reader.skip(position - current);
+                return true;
+            }
         };
     }
 
+    /** Applies the line filter and bundleizes the line. Returns null if either drops it. */
+    @Nullable Bundle bundleizeLine(BundleFactory factory, String line) {
+        if (lineFilter != null) {
+            line = ValueUtil.asNativeString(lineFilter.filter(ValueFactory.create(line)));
+            if (line == null) {
+                return null;
+            }
+        }
+        return bundleize(factory.createBundle(), line);
+    }
+
     public abstract Bundle bundleize(Bundle next, String line);
+
+    /**
+     * Bundleizes a line that has not been decoded yet, which is used when there is no line filter.
+     * Subclasses can override this to split the bytes before decoding them. The default decodes the
+     * line and calls {@link #bundleize(Bundle, String)}.
+     */
+    public Bundle bundleize(Bundle next, byte[] bytes, int offset, int length, Charset charset) {
+        return bundleize(next, new String(bytes, offset, length, charset));
+    }
 }
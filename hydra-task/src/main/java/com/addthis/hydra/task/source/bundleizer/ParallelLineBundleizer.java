@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bundleizes the lines of a {@link NewlineBundleizer} input in chunks on a shared pool. The calling
+ * thread reads (and so decompresses) the input and splits it into chunks of lines, keeping up to
+ * {@code parseAhead} chunks queued or being bundleized on the pool, and returns their bundles in
+ * input order.
+ */
+final class ParallelLineBundleizer implements Bundleizer {
+
+    private static final int PARSE_THREADS = Parameter.intValue("hydra.bundleizer.parse.threads",
+                                                                Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService parsePool = Executors.newFixedThreadPool(
+            PARSE_THREADS, new ThreadFactoryBuilder().setNameFormat("lineBundleizer-%d").setDaemon(true).build());
+
+    private final NewlineBundleizer format;
+    private final ByteLineReader reader;
+    private final BundleFactory factory;
+    private final int parseAhead;
+    private final int chunkLines;
+    private final ArrayDeque<Future<Chunk>> pending;
+
+    private Chunk current;
+    private int index;
+    private long position;
+    private boolean eof;
+
+    ParallelLineBundleizer(NewlineBundleizer format, ByteLineReader reader, BundleFactory factory,
+                           int parseAhead, int chunkLines) {
+        this.format = format;
+        this.reader = reader;
+        this.factory = factory;
+        this.parseAhead = parseAhead;
+        this.chunkLines = Math.max(chunkLines, 1);
+        this.pending = new ArrayDeque<>(parseAhead);
+    }
+
+    @Override
+    public Bundle next() throws IOException {
+        while (true) {
+            if ((current != null) && (index < current.bundles.length)) {
+                Bundle next = current.bundles[index];
+                position = current.positions[index];
+                index++;
+                if (next != null) {
+                    return next;
+                }
+                continue;
+            }
+            fillPending();
+            if (pending.isEmpty()) {
+                return null;
+            }
+            current = await(pending.poll());
+            index = 0;
+        }
+    }
+
+    /** Reads lines into new chunks until parseAhead chunks are pending or the input ends. */
+    private void fillPending() throws IOException {
+        while (!eof && (pending.size() < parseAhead)) {
+            List<String> lines = new ArrayList<>(chunkLines);
+            long[] positions = new long[chunkLines];
+            String line;
+            while ((lines.size() < chunkLines) && ((line = reader.readLine()) != null)) {
+                positions[lines.size()] = reader.position();
+                lines.add(line);
+            }
+            if (lines.size() < chunkLines) {
+                eof = true;
+                if (lines.isEmpty()) {
+                    return;
+                }
+            }
+            pending.add(parsePool.submit(() -> parse(lines, positions)));
+        }
+    }
+
+    private Chunk parse(List<String> lines, long[] positions) {
+        Bundle[] bundles = new Bundle[lines.size()];
+        for (int i = 0; i < bundles.length; i++) {
+            bundles[i] = format.bundleizeLine(factory, lines.get(i));
+        }
+        return new Chunk(bundles, positions);
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for bundleized lines");
+        } catch (ExecutionException ex) {
+            Throwables.propagateIfPossible(ex.getCause(), IOException.class);
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public boolean seek(long target) throws IOException {
+        long at = reader.position();
+        if ((current != null) || !pending.isEmpty() || (target < at)) {
+            return false;
+        }
+        reader.skip(target - at);
+        position = reader.position();
+        return true;
+    }
+
+    private static final class Chunk {
+
+        final Bundle[] bundles;
+        final long[] positions;
+
+        Chunk(Bundle[] bundles, long[] positions) {
+            this.bundles = bundles;
+            this.positions = positions;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.task.source.TaskDataSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class MapFeederTest {
+
+    private static final String INDEX = "index";
+
+    /** Indexes of the processed bundles per mapper thread. */
+    private final Map<String, List<Integer>> processed = new ConcurrentHashMap<>();
+    private final AtomicInteger processedCount = new AtomicInteger();
+
+    private StreamMapper mapper() {
+        StreamMapper mapper = mock(StreamMapper.class);
+        doAnswer(invocation -> {
+            Bundle bundle = invocation.getArgument(0);
+            int index = (int) bundle.getValue(bundle.getFormat().getField(INDEX)).asLong().getLong();
+            processed.computeIfAbsent(Thread.currentThread().getName(), name -> new ArrayList<>()).add(index);
+            processedCount.incrementAndGet();
+            return null;
+        }).when(mapper).process(any(Bundle.class));
+        return mapper;
+    }
+
+    private static Bundle bundle(int index) {
+        ListBundle bundle = new ListBundle();
+        bundle.setValue(bundle.getFormat().getField(INDEX), ValueFactory.create(index));
+        return bundle;
+    }
+
+    private void assertAllProcessed(int count) {
+        boolean[] seen = new boolean[count];
+        for (List<Integer> indexes : processed.values()) {
+            for (int index : indexes) {
+                assertTrue("processed twice: " + index, !seen[index]);
+                seen[index] = true;
+            }
+        }
+        assertEquals(count, processedCount.get());
+    }
+
+    @Test
+    public void batchesKeepShardOrderAndFlushAtEnd() {
+        // not a multiple of the batch size so that the end of the source flushes partial batches
+        int count = 1001;
+        StreamMapper mapper = mapper();
+        new MapFeeder(mapper, new CountingSource(count, false, null), 3, 1).run();
+        assertAllProcessed(count);
+        for (List<Integer> indexes : processed.values()) {
+            for (int i = 1; i < indexes.size(); i++) {
+                assertTrue(indexes.get(i - 1) < indexes.get(i));
+            }
+        }
+        verify(mapper).taskComplete();
+    }
+
+    @Test(timeout = 30000)
+    public void partialBatchesAreFlushedWhileTheSourceBlocks() {
+        assertFlushedWhileTheSourceBlocks();
+    }
+
+    private void assertFlushedWhileTheSourceBlocks() {
+        CountDownLatch delivered = new CountDownLatch(3);
+        AtomicBoolean deliveredWhileBlocked = new AtomicBoolean();
+        StreamMapper mapper = mapper();
+        doAnswer(invocation -> {
+            processedCount.incrementAndGet();
+            delivered.countDown();
+            return null;
+        }).when(mapper).process(any(Bundle.class));
+        // the source blocks after three bundles until they have reached the mappers
+        TaskDataSource source = new CountingSource(6, false, index -> {
+            if (index == 3) {
+                deliveredWhileBlocked.set(delivered.await(10, TimeUnit.SECONDS));
+            }
+        });
+        new MapFeeder(mapper, source, 2, 1).run();
+        assertTrue(deliveredWhileBlocked.get());
+        assertEquals(6, processedCount.get());
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentSourceIsReadByEveryReader() {
+        int count = 10000;
+        int readers = 4;
+        CountDownLatch allReading = new CountDownLatch(readers);
+        Map<String, Boolean> readingThreads = new ConcurrentHashMap<>();
+        // the first read of every thread waits until each reader has started reading
+        TaskDataSource source = new CountingSource(count, true, index -> {
+            if (readingThreads.putIfAbsent(Thread.currentThread().getName(), true) == null) {
+                allReading.countDown();
+                allReading.await(10, TimeUnit.SECONDS);
+            }
+        });
+        StreamMapper mapper = mapper();
+        new MapFeeder(mapper, source, 3, readers).run();
+        assertEquals(readers, readingThreads.size());
+        assertAllProcessed(count);
+        verify(mapper).taskComplete();
+    }
+
+    @Test(timeout = 30000)
+    public void timedFlushDoesNotWaitOnAFullQueue() throws Exception {
+        // the mapper of the first feeder holds its first batch, so its queue fills up and it keeps a partial batch
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger blockedProcessed = new AtomicInteger();
+        StreamMapper blockedMapper = mock(StreamMapper.class);
+        doAnswer(invocation -> {
+            release.await(20, TimeUnit.SECONDS);
+            blockedProcessed.incrementAndGet();
+            return null;
+        }).when(blockedMapper).process(any(Bundle.class));
+        int blockedCount = 115;
+        TaskDataSource blockedSource = new CountingSource(blockedCount, false, index -> {
+            if (index == blockedCount) {
+                release.await(20, TimeUnit.SECONDS);
+            }
+        });
+        Thread blocked = new Thread(new MapFeeder(blockedMapper, blockedSource, 1, 1));
+        blocked.start();
+        try {
+            // the shared timer must still hand over the partial batches of another feeder
+            assertFlushedWhileTheSourceBlocks();
+        } finally {
+            release.countDown();
+        }
+        blocked.join();
+        assertEquals(blockedCount, blockedProcessed.get());
+        verify(blockedMapper).taskComplete();
+    }
+
+    private interface ReadHook {
+
+        void beforeRead(int index) throws Exception;
+    }
+
+    /** Failures must not be thrown by a hook: the feeder halts the jvm on errors. */
+    private static class CountingSource extends TaskDataSource {
+
+        private final int count;
+        private final boolean concurrent;
+        private final ReadHook hook;
+        private final AtomicInteger next = new AtomicInteger();
+
+        CountingSource(int count, boolean concurrent, ReadHook hook) {
+            this.count = count;
+            this.concurrent = concurrent;
+            this.hook = hook;
+        }
+
+        @Override public void init() {
+        }
+
+        @Override public boolean isConcurrent() {
+            return concurrent;
+        }
+
+        @Override public Bundle next() {
+            int index = next.getAndIncrement();
+            if (hook != null) {
+                try {
+                    hook.beforeRead(index);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            return (index < count) ? bundle(index) : null;
+        }
+
+        @Override public Bundle peek() {
+            int index = next.get();
+            return (index < count) ? bundle(index) : null;
+        }
+
+        @Override public void close() {
+        }
+    }
+}
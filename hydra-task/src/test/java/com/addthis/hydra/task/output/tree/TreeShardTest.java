@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output.tree;
+
+import java.io.File;
+
+import com.addthis.basis.util.ClosableIterator;
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TreeShardTest {
+
+    private static PathElement[] path(TreeMapper mapper) throws Exception {
+        PathElement[] path = {
+                Configs.decodeObject(PathElement.class, "field = a, data.total.sum.key = v"),
+                Configs.decodeObject(PathElement.class, "field = b, data.total.sum.key = v")
+        };
+        for (PathElement element : path) {
+            element.resolve(mapper);
+            assertTrue(element.isShardable());
+        }
+        return path;
+    }
+
+    private static Bundle bundle(TreeMapper mapper, int i) {
+        Bundle bundle = mapper.createBundle();
+        bundle.setValue(mapper.bindField("a"), ValueFactory.create("a" + (i % 7)));
+        bundle.setValue(mapper.bindField("b"), ValueFactory.create("b" + (i % 13)));
+        bundle.setValue(mapper.bindField("v"), ValueFactory.create(i));
+        return bundle;
+    }
+
+    private static void describe(DataTreeNode node, StringBuilder sb, String indent) {
+        ClosableIterator<DataTreeNode> iterator = node.getIterator();
+        try {
+            while (iterator.hasNext()) {
+                DataTreeNode child = iterator.next();
+                sb.append(indent).append(child.getName()).append(' ').append(child.getCounter());
+                if (child.getData("total") != null) {
+                    sb.append(" sum=").append(child.getData("total").onValueQuery("sum"));
+                    sb.append(" num=").append(child.getData("total").onValueQuery("num"));
+                }
+                sb.append('\n');
+                describe(child, sb, indent + "  ");
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    @Test
+    public void shardedTreeMatchesUnshardedTree() throws Exception {
+        TreeMapper mapper = Configs.decodeObject(TreeMapper.class, "{}");
+        PathElement[] path = path(mapper);
+        File dir = LessFiles.createTempDir();
+        ConcurrentTree unsharded = null;
+        ConcurrentTree sharded = null;
+        try {
+            unsharded = new ConcurrentTree(new File(dir, "unsharded"));
+            sharded = new ConcurrentTree(new File(dir, "sharded"));
+            TreeShard shard = new TreeShard(64);
+            for (int i = 0; i < 1000; i++) {
+                Bundle bundle = bundle(mapper, i);
+                new TreeMapState(mapper, unsharded, path, bundle).process();
+                new TreeMapState(mapper, shard.root(), path, bundle).process();
+                if (shard.next()) {
+                    shard.mergeInto(sharded);
+                }
+            }
+            shard.mergeInto(sharded);
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            describe(unsharded, expected, "");
+            describe(sharded, actual, "");
+            assertTrue(expected.length() > 0);
+            assertEquals(expected.toString(), actual.toString());
+        } finally {
+            if (unsharded != null) {
+                unsharded.close();
+            }
+            if (sharded != null) {
+                sharded.close();
+            }
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void rangeIterators() throws Exception {
+        TreeMapper mapper = Configs.decodeObject(TreeMapper.class, "{}");
+        PathElement[] path = path(mapper);
+        TreeShard shard = new TreeShard(1000);
+        for (int i = 0; i < 100; i++) {
+            new TreeMapState(mapper, shard.root(), path, bundle(mapper, i)).process();
+        }
+        assertEquals("a1 a2 a3", names(shard.root().getIterator("a1", "a4")));
+        assertEquals("a0 a1 a2 a3 a4 a5 a6", names(shard.root().getIterator("a")));
+        assertEquals("a5 a6", names(shard.root().getIterator("a5", null)));
+        assertEquals("", names(shard.root().getIterator("b")));
+    }
+
+    private static String names(ClosableIterator<DataTreeNode> iterator) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            while (iterator.hasNext()) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(iterator.next().getName());
+            }
+        } finally {
+            iterator.close();
+        }
+        return sb.toString();
+    }
+}
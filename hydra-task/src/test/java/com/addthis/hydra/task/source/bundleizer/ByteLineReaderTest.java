@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.util.AutoField;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static com.addthis.codec.config.Configs.decodeObject;
+
+public class ByteLineReaderTest {
+
+    private static final String TEXT = "first\r\nsecond\rthird\n\nfünfte €\r\r\nlast";
+
+    @Test public void readsLikeBufferedReader() throws Exception {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        // tiny buffers so that lines and "\r\n" pairs are split across reads
+        for (int bufferSize = 1; bufferSize < 8; bufferSize++) {
+            ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(bytes),
+                                                       StandardCharsets.UTF_8, bufferSize);
+            BufferedReader expected = new BufferedReader(new StringReader(TEXT));
+            String line;
+            while ((line = expected.readLine()) != null) {
+                Assert.assertEquals(line, reader.readLine());
+            }
+            Assert.assertNull(reader.readLine());
+            Assert.assertEquals(bytes.length, reader.position());
+        }
+    }
+
+    @Test public void seekResumesAfterPosition() throws Exception {
+        RegexBundleizer factory = decodeObject(RegexBundleizer.class, "fields = [line], regex = \"(.*)\"");
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        AutoField line = AutoField.newAutoField("line");
+
+        Bundleizer first = factory.createBundleizer(new ByteArrayInputStream(bytes), new ListBundle());
+        first.next();
+        first.next();
+        long position = first.position();
+        String expected = line.getString(first.next()).get();
+
+        Bundleizer resumed = factory.createBundleizer(new ByteArrayInputStream(bytes), new ListBundle());
+        Assert.assertTrue(resumed.seek(position));
+        Bundle next = resumed.next();
+        Assert.assertEquals("third", expected);
+        Assert.assertEquals(expected, line.getString(next).get());
+        Assert.assertFalse(resumed.seek(0));
+    }
+
+    @Test public void parseAheadKeepsOrder() throws Exception {
+        RegexBundleizer serial = decodeObject(RegexBundleizer.class, "fields = [line], regex = \"(.*)\"");
+        RegexBundleizer parallel = decodeObject(RegexBundleizer.class,
+                "fields = [line], regex = \"(.*)\", parseAhead = 3, parseChunkLines = 2");
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        AutoField line = AutoField.newAutoField("line");
+
+        Bundleizer expected = serial.createBundleizer(new ByteArrayInputStream(bytes), new ListBundle());
+        Bundleizer actual = parallel.createBundleizer(new ByteArrayInputStream(bytes), new ListBundle());
+        Bundle next;
+        while ((next = expected.next()) != null) {
+            Assert.assertEquals(line.getString(next), line.getString(actual.next()));
+            Assert.assertEquals(expected.position(), actual.position());
+        }
+        Assert.assertNull(actual.next());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.util.AutoField;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static com.addthis.codec.config.Configs.decodeObject;
+
+public class ColumnBundleizerTest {
+
+    private static final String[] LINES = {
+            "a\tb\tc", "a\t\tc\td\te", "a\t", "\t", "  ", "", "x\\\ty\tz", "tail\\", "ü\tæ\\€\t€", "a,b\tc"
+    };
+
+    @Test public void bytesMatchStrings() throws Exception {
+        ColumnBundleizer bundleizer = decodeObject(ColumnBundleizer.class,
+                                                   "columns = [a, b, c], tokens.separator = \"\\t\"");
+        AutoField[] fields = {AutoField.newAutoField("a"), AutoField.newAutoField("b"), AutoField.newAutoField("c")};
+        for (String line : LINES) {
+            byte[] bytes = ("#" + line + "#").getBytes(StandardCharsets.UTF_8);
+            Bundle expected = bundleizer.bundleize(new ListBundle(), line);
+            Bundle actual = bundleizer.bundleize(new ListBundle(), bytes, 1, bytes.length - 2, StandardCharsets.UTF_8);
+            if (expected == null) {
+                Assert.assertNull(line, actual);
+                continue;
+            }
+            Assert.assertNotNull(line, actual);
+            for (AutoField field : fields) {
+                Assert.assertEquals(line, field.getString(expected), field.getString(actual));
+            }
+        }
+    }
+}
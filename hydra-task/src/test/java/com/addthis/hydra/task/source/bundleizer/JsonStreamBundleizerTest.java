@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source.bundleizer;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.util.AutoField;
+import com.addthis.bundle.value.ValueArray;
+import com.addthis.bundle.value.ValueMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static com.addthis.codec.config.Configs.decodeObject;
+
+public class JsonStreamBundleizerTest {
+
+    private static final String JSON =
+            "{\"time\": 100, \"uid\":\"freddy\", \"rate\": 1.5, \"ok\": true, \"none\": null, "
+            + "\"geo\": {\"country\": \"us\", \"zip\": 10001}, \"tags\": [\"a\", \"b\"]}";
+
+    @Test public void jsonToBundle() throws Exception {
+        JsonStreamBundleizer bundleizer = decodeObject(JsonStreamBundleizer.class, "{}");
+        Bundle bundle = bundleizer.bundleize(new ListBundle(), JSON);
+        Assert.assertEquals(100, AutoField.newAutoField("time").getInt(bundle).getAsInt());
+        Assert.assertEquals("freddy", AutoField.newAutoField("uid").getString(bundle).get());
+        Assert.assertEquals(1.5, AutoField.newAutoField("rate").getValue(bundle).asDouble().getDouble(), 0);
+        Assert.assertEquals("true", AutoField.newAutoField("ok").getString(bundle).get());
+        Assert.assertNull(AutoField.newAutoField("none").getValue(bundle));
+        ValueMap geo = AutoField.newAutoField("geo").getValue(bundle).asMap();
+        Assert.assertEquals("us", geo.get("country").asString().asNative());
+        Assert.assertEquals(10001, geo.get("zip").asLong().getLong());
+        ValueArray tags = AutoField.newAutoField("tags").getValue(bundle).asArray();
+        Assert.assertEquals(2, tags.size());
+        Assert.assertEquals("b", tags.get(1).asString().asNative());
+    }
+
+    @Test public void projection() throws Exception {
+        JsonStreamBundleizer bundleizer = decodeObject(JsonStreamBundleizer.class, "fields = [uid, tags]");
+        byte[] bytes = JSON.getBytes(StandardCharsets.UTF_8);
+        Bundle bundle = bundleizer.bundleize(new ListBundle(), bytes, 0, bytes.length, StandardCharsets.UTF_8);
+        Assert.assertEquals("freddy", AutoField.newAutoField("uid").getString(bundle).get());
+        Assert.assertEquals(2, AutoField.newAutoField("tags").getValue(bundle).asArray().size());
+        Assert.assertNull(AutoField.newAutoField("time").getValue(bundle));
+        Assert.assertNull(AutoField.newAutoField("geo").getValue(bundle));
+    }
+
+    @Test public void nullArrayElements() throws Exception {
+        JsonStreamBundleizer bundleizer = decodeObject(JsonStreamBundleizer.class, "{}");
+        Bundle bundle = bundleizer.bundleize(new ListBundle(), "{\"tags\": [\"a\", null, \"b\", null]}");
+        ValueArray tags = AutoField.newAutoField("tags").getValue(bundle).asArray();
+        Assert.assertEquals(2, tags.size());
+        Assert.assertEquals("a", tags.get(0).asString().asNative());
+        Assert.assertEquals("b", tags.get(1).asString().asNative());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void truncatedNestedObject() throws Exception {
+        JsonStreamBundleizer bundleizer = decodeObject(JsonStreamBundleizer.class, "{}");
+        bundleizer.bundleize(new ListBundle(), "{\"geo\": {\"a\": 1, \"b\": {\"c\": 2");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void truncatedObject() throws Exception {
+        JsonStreamBundleizer bundleizer = decodeObject(JsonStreamBundleizer.class, "{}");
+        bundleizer.bundleize(new ListBundle(), "{\"time\": 100, \"geo\": {\"a\": 1");
+    }
+}